@@ -0,0 +1,162 @@
+package exec;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+import loader.LogSetup;
+import loader.Wi12FileProcessor;
+import loader.Wi12LoaderLogSetup;
+import utilities.MachineInfo;
+import vm.Engine;
+import vm.HexWordSegment;
+import vm.IOGroup;
+import vm.Lockstep;
+import vm.MachineConfig;
+import vm.TranslatedProgram;
+import vm.VirtualMachine;
+
+/**
+ * Executable program that checks an engine against the interpreter by running
+ * them in lockstep (see vm.Lockstep). "CompareEngines [-address-bits=N]
+ * [-max-instructions=N] [-every=N] engine executable-input process-input"
+ * loads executable-input into two virtual machines that read process-input:
+ * the reference, executed one instruction at a time by the Executioner, and
+ * the candidate, run by engine. engine is SWITCH, DISPATCH or TIERED, or the
+ * name of a class TranslateToJava wrote for executable-input, which must be
+ * on the class path. The machines are compared every N instructions (every
+ * instruction unless given) and when their run ends, process output
+ * included. Whether they agreed, or the states of both machines at the first
+ * difference, is written to System.out; their process output is not kept.
+ * Errors are logged to System.err.
+ * 
+ * @author Dragon Slayer
+ */
+public class CompareEngines {
+
+	private static final String USAGE = "Usage: CompareEngines "
+			+ "[-address-bits=N] [-max-instructions=N] [-every=N] engine "
+			+ "executable-input process-input";
+	private static final String ADDRESS_BITS = "-address-bits=";
+	private static final String MAX_INSTRUCTIONS = "-max-instructions=";
+	private static final String EVERY = "-every=";
+
+	public static void main(String[] args) {
+		LogSetup logSet = new Wi12LoaderLogSetup(null);
+		Logger log = logSet.initializeToErr("CompareEngines");
+		// without tracing the engines run their fast paths
+		log.setLevel(Level.INFO);
+		IOGroup referenceIO = null;
+		IOGroup candidateIO = null;
+		try {
+			MachineConfig config = MachineConfig.DEFAULT;
+			long limit = MachineInfo.MAX_EXECUTABLE_INSTRUCTIONS;
+			long every = 1;
+			int i = 0;
+			for (; i < args.length && args[i].startsWith("-"); i++) {
+				boolean valid = false;
+				try {
+					if (args[i].startsWith(ADDRESS_BITS)) {
+						config = MachineConfig.forAddressBits(Integer
+								.parseInt(args[i].substring(ADDRESS_BITS
+										.length())));
+						valid = true;
+					} else if (args[i].startsWith(MAX_INSTRUCTIONS)) {
+						String value = args[i].substring(MAX_INSTRUCTIONS
+								.length());
+						limit = value.equals("unlimited") ? VirtualMachine.UNLIMITED
+								: Long.parseLong(value);
+						valid = limit >= 0;
+					} else if (args[i].startsWith(EVERY)) {
+						every = Long.parseLong(args[i].substring(EVERY.length()));
+						valid = every > 0;
+					}
+				} catch (IllegalArgumentException e) {
+					// not a valid value for the option
+				}
+				if (!valid) {
+					log.severe("024: Invalid option " + args[i] + ".");
+					log.severe(USAGE);
+					return;
+				}
+			}
+			if (args.length - i != 3) {
+				log.severe("001: Invalid number of arguments; Expected 3 received "
+						+ (args.length - i) + " ");
+				log.severe(USAGE);
+				return;
+			}
+			Engine engine = null;
+			TranslatedProgram program = null;
+			try {
+				engine = Engine.valueOf(args[i]);
+			} catch (IllegalArgumentException e) {
+				program = translatedProgram(args[i]);
+				if (program == null || config != MachineConfig.DEFAULT) {
+					log.severe("029: " + args[i] + " is not an engine or a "
+							+ "translated program for the machine.");
+					log.severe(USAGE);
+					return;
+				}
+			}
+			File processInput = new File(args[i + 2]);
+			HexWordSegment seg = new Wi12FileProcessor(log, config)
+					.processExecutableFile(new File(args[i + 1]));
+			Lockstep.Output referenceOutput = new Lockstep.Output();
+			Lockstep.Output candidateOutput = new Lockstep.Output();
+			referenceIO = new IOGroup(new BufferedReader(new FileReader(
+					processInput)), new BufferedOutputStream(referenceOutput));
+			candidateIO = new IOGroup(new BufferedReader(new FileReader(
+					processInput)), new BufferedOutputStream(candidateOutput));
+			VirtualMachine reference = new VirtualMachine(seg, referenceIO, log);
+			VirtualMachine candidate = program == null ? new VirtualMachine(
+					seg, candidateIO, log, engine) : new VirtualMachine(
+					program.getSegment(), candidateIO, log, program);
+			reference.setInstructionLimit(limit);
+			candidate.setInstructionLimit(limit);
+			Lockstep lockstep = new Lockstep(reference, candidate, every,
+					referenceOutput, candidateOutput);
+			if (lockstep.run()) {
+				System.out.println("Engines agree for "
+						+ reference.getInstructionsExecuted()
+						+ " instructions.");
+			} else {
+				System.out.print(lockstep.report());
+			}
+		} catch (DataFormatException e) {
+			// Error has already been logged
+		} catch (IOException e) {
+			log.severe("007: IO Exception");
+		} finally {
+			if (referenceIO != null) {
+				referenceIO.cleanUp();
+			}
+			if (candidateIO != null) {
+				candidateIO.cleanUp();
+			}
+			logSet.closeLog();
+		}
+	}
+
+	/**
+	 * Description: returns a new instance of the TranslatedProgram class
+	 * named name, or null if there is none.
+	 */
+	private static TranslatedProgram translatedProgram(String name) {
+		try {
+			Class<?> c = Class.forName(name);
+			if (TranslatedProgram.class.isAssignableFrom(c)) {
+				return (TranslatedProgram) c.getDeclaredConstructor()
+						.newInstance();
+			}
+		} catch (ReflectiveOperationException e) {
+			// not a class that can be made
+		}
+		return null;
+	}
+}
@@ -3,6 +3,7 @@ package exec;
 import java.io.IOException;
 import java.util.zip.DataFormatException;
 
+import vm.TranslatedProgram;
 import vm.VirtualMachine;
 import loader.VMLoader;
 import loader.Wi12VMLoader;
@@ -10,25 +11,52 @@ import loader.Wi12VMLoader;
 /**
  * Executable program that makes calls to create the loader and check the
  * input/output files. It makes a call to parse the memory and make a virtual
- * machine with the data from the loader. It only contains a main. If there is
- * an IllegalArgumentException, IOException, or a DataFormat Exception they are
- * caught and a message is logged. Finally, the logs are closed.
+ * machine with the data from the loader, or to resume one from a checkpoint.
+ * It contains a main, and runTranslated to run the classes written by
+ * TranslateToJava. If there is an IllegalArgumentException, IOException, or a
+ * DataFormat Exception they are caught and a message is logged. Finally, the
+ * logs are closed.
  * 
  * @author Dragon Slayer
  */
 public class LoadAndExecute {
 
 	public static void main(String[] args) {
+		execute(args, null);
+	}
+
+	/**
+	 * Description: runs program, a class written by TranslateToJava, the same
+	 * way main runs an executable-input file. args are the process-input,
+	 * process-output and, optionally, process-trace files. Without a
+	 * process-trace file nothing is traced and the translated code is run.
+	 * 
+	 * @requires program exists
+	 * @alters the process-output and process-trace files
+	 * @ensures errors are logged
+	 * @param program
+	 *            - the translated program
+	 * @param args
+	 *            - command line arguments
+	 */
+	public static void runTranslated(TranslatedProgram program, String[] args) {
+		execute(args, program);
+	}
 
+	private static void execute(String[] args, TranslatedProgram program) {
 		VMLoader loader = null;
 		VirtualMachine vm = null;
 		try {
-			loader = new Wi12VMLoader(args);
+			loader = program == null ? new Wi12VMLoader(args)
+					: new Wi12VMLoader(args, program);
 			// throws IllegalArgumentException for wrong number of files
 			loader.checkFiles();// throws IllegalArgumentException if input or
 								// output files aren't valid
-			vm = loader.parseMemMakeVM();// throws DataFormatException if exec
-											// file is invalid
+			vm = loader.resumeMakeVM();// null unless a checkpoint is resumed
+			if (vm == null) {
+				vm = loader.parseMemMakeVM();// throws DataFormatException if
+												// exec file is invalid
+			}
 			// throws IOException if there's a problem opening files (shouldn't
 			// be possible)
 			vm.run();
@@ -0,0 +1,82 @@
+package exec;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+import loader.LogSetup;
+import loader.Wi12LoaderLogSetup;
+
+/**
+ * Executable program that turns a binary process-trace, written by
+ * LoadAndExecute -binary-trace (see vm.BinaryTrace) or -delta-trace (see
+ * vm.DeltaTrace), into text. "RenderTrace binary-trace process-trace" writes
+ * to process-trace exactly the text LoadAndExecute would have written to it
+ * without -binary-trace or -delta-trace. For a delta trace, "RenderTrace
+ * -at=N binary-trace process-trace" only writes the contents of the registers
+ * and memory before instruction N and the trace of instruction N, replaying
+ * the trace from the keyframe before N. Errors are logged to System.err.
+ * 
+ * @author Dragon Slayer
+ */
+public class RenderTrace {
+
+	private static final String USAGE = "Usage: RenderTrace [-at=N] "
+			+ "binary-trace process-trace";
+	private static final String AT = "-at=";
+
+	public static void main(String[] args) {
+		LogSetup logSet = new Wi12LoaderLogSetup(null);
+		Logger log = logSet.initializeToErr("RenderTrace");
+		String trace = null;
+		try {
+			long at = 0;
+			int i = 0;
+			if (args.length > 0 && args[0].startsWith(AT)) {
+				try {
+					at = Long.parseLong(args[0].substring(AT.length()));
+				} catch (NumberFormatException e) {
+					// not a number
+				}
+				if (at < 1) {
+					log.severe("024: Invalid option " + args[0] + ".");
+					log.severe(USAGE);
+					return;
+				}
+				i++;
+			}
+			if (args.length - i != 2) {
+				log.severe("001: Invalid number of arguments; Expected 2 received "
+						+ (args.length - i) + " ");
+				log.severe(USAGE);
+				return;
+			}
+			trace = args[i];
+			File file = new File(trace);
+			Writer out = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(args[i + 1])));
+			try {
+				if (at == 0) {
+					Wi12LoaderLogSetup.renderReportLog(file, out);
+				} else if (!Wi12LoaderLogSetup.renderReportLog(file, at, out)) {
+					log.severe("032: Instruction " + at + " not in trace "
+							+ trace + ".");
+				}
+			} finally {
+				out.close();
+			}
+		} catch (DataFormatException e) {
+			log.severe("031: Invalid binary trace " + trace + "; "
+					+ e.getMessage() + ".");
+		} catch (IOException e) {
+			log.severe("007: IO Exception");
+		} finally {
+			logSet.closeLog();
+		}
+	}
+}
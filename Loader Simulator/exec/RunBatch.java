@@ -0,0 +1,427 @@
+package exec;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+import loader.LogSetup;
+import loader.Wi12FileProcessor;
+import loader.Wi12LoaderLogSetup;
+import utilities.MachineInfo;
+import vm.Engine;
+import vm.HexWordSegment;
+import vm.IOGroup;
+import vm.InputQueue;
+import vm.MachineConfig;
+import vm.VMScheduler;
+import vm.VMThreadRunner;
+import vm.VirtualMachine;
+
+/**
+ * Executable program that runs a batch of programs in one JVM on a
+ * VMScheduler. "RunBatch [-address-bits=N] [-max-instructions=N]
+ * [-engine=E] [-threads=N] [-quantum=N] [-live=N] [-thread-per-run]
+ * batch-file" reads batch-file, every line of which names the
+ * executable-input, process-input and process-output files of one run, and
+ * runs each on its own virtual machine with engine E (SWITCH unless given).
+ * The machines share N threads (one per processor unless given), take turns
+ * of a quantum of N instructions (10000 unless given), and at most N of them
+ * (500 unless given) are alive at once.
+ * 
+ * With -thread-per-run, each machine instead runs to its end on a thread of
+ * its own (a virtual thread where the JVM has them) and reads its process
+ * input from an InputQueue, fed one line at a time, taking turns among the
+ * runs, by a feeder thread; a machine that reads ahead of its input blocks
+ * until the line arrives. -threads and -quantum do not apply.
+ * 
+ * Nothing is traced. Once every run has ended, the accounting of each run and
+ * the aggregate throughput and latency are written to System.out. Errors are
+ * logged to System.err; a run whose files can not be read is left out.
+ * 
+ * @author Dragon Slayer
+ */
+public class RunBatch {
+
+	private static final String USAGE = "Usage: RunBatch [-address-bits=N] "
+			+ "[-max-instructions=N] [-engine=E] [-threads=N] [-quantum=N] "
+			+ "[-live=N] [-thread-per-run] batch-file";
+	private static final String ADDRESS_BITS = "-address-bits=";
+	private static final String MAX_INSTRUCTIONS = "-max-instructions=";
+	private static final String ENGINE = "-engine=";
+	private static final String THREADS = "-threads=";
+	private static final String QUANTUM = "-quantum=";
+	private static final String LIVE = "-live=";
+	private static final String THREAD_PER_RUN = "-thread-per-run";
+
+	public static void main(String[] args) {
+		LogSetup logSet = new Wi12LoaderLogSetup(null);
+		Logger log = logSet.initializeToErr("RunBatch");
+		// without tracing the engines run their fast paths
+		log.setLevel(Level.INFO);
+		try {
+			MachineConfig config = MachineConfig.DEFAULT;
+			long limit = MachineInfo.MAX_EXECUTABLE_INSTRUCTIONS;
+			Engine engine = Engine.SWITCH;
+			int threads = Runtime.getRuntime().availableProcessors();
+			long quantum = 10000;
+			int live = 500;
+			boolean threadPerRun = false;
+			int i = 0;
+			for (; i < args.length && args[i].startsWith("-"); i++) {
+				boolean valid = false;
+				try {
+					if (args[i].startsWith(ADDRESS_BITS)) {
+						config = MachineConfig.forAddressBits(Integer
+								.parseInt(args[i].substring(ADDRESS_BITS
+										.length())));
+						valid = true;
+					} else if (args[i].startsWith(MAX_INSTRUCTIONS)) {
+						String value = args[i].substring(MAX_INSTRUCTIONS
+								.length());
+						limit = value.equals("unlimited") ? VirtualMachine.UNLIMITED
+								: Long.parseLong(value);
+						valid = limit >= 0;
+					} else if (args[i].startsWith(ENGINE)) {
+						engine = Engine.valueOf(args[i].substring(ENGINE
+								.length()));
+						valid = true;
+					} else if (args[i].startsWith(THREADS)) {
+						threads = Integer.parseInt(args[i].substring(THREADS
+								.length()));
+						valid = threads > 0;
+					} else if (args[i].startsWith(QUANTUM)) {
+						quantum = Long.parseLong(args[i].substring(QUANTUM
+								.length()));
+						valid = quantum > 0;
+					} else if (args[i].startsWith(LIVE)) {
+						live = Integer.parseInt(args[i].substring(LIVE
+								.length()));
+						valid = live > 0;
+					} else if (args[i].equals(THREAD_PER_RUN)) {
+						threadPerRun = true;
+						valid = true;
+					}
+				} catch (IllegalArgumentException e) {
+					// not a valid value for the option
+				}
+				if (!valid) {
+					log.severe("024: Invalid option " + args[i] + ".");
+					log.severe(USAGE);
+					return;
+				}
+			}
+			if (args.length - i != 1) {
+				log.severe("001: Invalid number of arguments; Expected 1 received "
+						+ (args.length - i) + " ");
+				log.severe(USAGE);
+				return;
+			}
+			List<String[]> runs = readBatch(new File(args[i]), log);
+			if (runs == null) {
+				return;
+			}
+			Wi12FileProcessor processor = new Wi12FileProcessor(log, config);
+			if (threadPerRun) {
+				runOnThreads(runs, processor, engine, limit, live, log);
+			} else {
+				runScheduled(runs, processor, engine, limit, threads, quantum,
+						live, log);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			logSet.closeLog();
+		}
+	}
+
+	/**
+	 * Description: runs every run of runs on a VMScheduler with threads
+	 * threads and the given quantum, and writes the accounting to System.out.
+	 */
+	private static void runScheduled(List<String[]> runs,
+			Wi12FileProcessor processor, Engine engine, long limit,
+			int threads, long quantum, int live, Logger log)
+			throws InterruptedException {
+		VMScheduler scheduler = new VMScheduler(threads, quantum);
+		try {
+			List<String> names = new ArrayList<String>();
+			List<VMScheduler.Task> tasks = new ArrayList<VMScheduler.Task>();
+			for (String[] run : runs) {
+				// bounds the number of open files
+				scheduler.awaitLive(live - 1);
+				VirtualMachine vm = makeVM(run, processor, engine, log, null);
+				if (vm != null) {
+					vm.setInstructionLimit(limit);
+					names.add(run[0]);
+					tasks.add(scheduler.submit(vm));
+				}
+			}
+			scheduler.awaitAll();
+			long[] latencies = new long[tasks.size()];
+			for (int t = 0; t < tasks.size(); t++) {
+				VMScheduler.Task task = tasks.get(t);
+				latencies[t] = task.getLatencyNanos();
+				System.out.println(names.get(t) + ": "
+						+ task.getInstructionsExecuted() + " instructions, "
+						+ task.getQuanta() + " quanta, "
+						+ task.getRunNanos() / 1000 + " us running, "
+						+ latencies[t] / 1000 + " us latency");
+			}
+			System.out.println(tasks.size() + " runs on " + threads
+					+ " threads: " + scheduler.getInstructionsExecuted()
+					+ " instructions in " + scheduler.getQuanta()
+					+ " quanta, " + Math.round(scheduler.getThroughput())
+					+ " instructions per second, " + latency(latencies));
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	/**
+	 * Description: runs every run of runs on a thread of its own from a
+	 * VMThreadRunner, with its process input fed line by line through an
+	 * InputQueue, and writes the accounting to System.out.
+	 */
+	private static void runOnThreads(List<String[]> runs,
+			Wi12FileProcessor processor, Engine engine, long limit, int live,
+			Logger log) throws InterruptedException {
+		VMThreadRunner runner = new VMThreadRunner();
+		Feeder feeder = new Feeder();
+		feeder.start();
+		try {
+			List<String> names = new ArrayList<String>();
+			List<VMThreadRunner.Run> started = new ArrayList<VMThreadRunner.Run>();
+			for (String[] run : runs) {
+				// bounds the number of open files
+				runner.awaitLive(live - 1);
+				VirtualMachine vm = makeVM(run, processor, engine, log, feeder);
+				if (vm != null) {
+					vm.setInstructionLimit(limit);
+					names.add(run[0]);
+					started.add(runner.start(vm));
+				}
+			}
+			runner.awaitAll();
+			long[] latencies = new long[started.size()];
+			for (int t = 0; t < started.size(); t++) {
+				VMThreadRunner.Run run = started.get(t);
+				latencies[t] = run.getLatencyNanos();
+				System.out.println(names.get(t) + ": "
+						+ run.getInstructionsExecuted() + " instructions, "
+						+ latencies[t] / 1000 + " us latency");
+			}
+			System.out.println(started.size() + " runs on "
+					+ (runner.usesVirtualThreads() ? "virtual" : "platform")
+					+ " threads: " + runner.getInstructionsExecuted()
+					+ " instructions, " + Math.round(runner.getThroughput())
+					+ " instructions per second, " + latency(latencies));
+		} finally {
+			feeder.finish();
+			runner.shutdown();
+		}
+	}
+
+	/**
+	 * Description: returns the median and largest of latencies in
+	 * microseconds as text.
+	 */
+	private static String latency(long[] latencies) {
+		if (latencies.length == 0) {
+			return "no latency";
+		}
+		Arrays.sort(latencies);
+		return "latency median " + latencies[latencies.length / 2] / 1000
+				+ " us, max " + latencies[latencies.length - 1] / 1000 + " us";
+	}
+
+	/**
+	 * Description: returns the runs listed in batch, each as the names of
+	 * its executable-input, process-input and process-output files, or null
+	 * after logging an error if batch can not be read or a line does not
+	 * name three files. Empty lines are skipped.
+	 */
+	private static List<String[]> readBatch(File batch, Logger log) {
+		List<String[]> runs = new ArrayList<String[]>();
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(batch));
+			try {
+				int number = 0;
+				String line;
+				while ((line = in.readLine()) != null) {
+					number++;
+					String trimmed = line.trim();
+					if (trimmed.length() == 0) {
+						continue;
+					}
+					String[] run = trimmed.split("\\s+");
+					if (run.length != 3) {
+						log.severe("030: Invalid batch line " + number
+								+ "; Expected 3 file names.");
+						return null;
+					}
+					runs.add(run);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			log.severe("007: IO Exception");
+			return null;
+		}
+		return runs;
+	}
+
+	/**
+	 * Description: returns a virtual machine for run, the names of its
+	 * executable-input, process-input and process-output files, or null if
+	 * the files can not be read or written; the error is logged. If feeder is
+	 * not null, the process input is read whole and given to feeder to feed
+	 * to the machine.
+	 */
+	private static VirtualMachine makeVM(String[] run,
+			Wi12FileProcessor processor, Engine engine, Logger log,
+			Feeder feeder) {
+		try {
+			HexWordSegment seg = processor.processExecutableFile(new File(
+					run[0]));
+			String text = null;
+			Reader in;
+			if (feeder != null) {
+				text = readText(new File(run[1]));
+				in = new InputQueue();
+			} else {
+				in = new BufferedReader(new FileReader(run[1]));
+			}
+			BufferedOutputStream out;
+			try {
+				out = new BufferedOutputStream(new FileOutputStream(run[2]));
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			}
+			VirtualMachine vm = new VirtualMachine(seg, new IOGroup(in, out),
+					log, engine);
+			if (feeder != null) {
+				feeder.add((InputQueue) in, text);
+			}
+			return vm;
+		} catch (DataFormatException e) {
+			// Error has already been logged
+		} catch (IOException e) {
+			log.severe("007: IO Exception; " + run[0] + " not run.");
+		}
+		return null;
+	}
+
+	/**
+	 * Description: returns the text of file.
+	 */
+	private static String readText(File file) throws IOException {
+		StringBuilder text = new StringBuilder();
+		Reader in = new BufferedReader(new FileReader(file));
+		try {
+			char[] buf = new char[4096];
+			int count;
+			while ((count = in.read(buf)) != -1) {
+				text.append(buf, 0, count);
+			}
+		} finally {
+			in.close();
+		}
+		return text.toString();
+	}
+
+	/**
+	 * A thread that feeds the process input of the runs to their
+	 * InputQueues the way interactive users would: one line at a time, taking
+	 * turns among the runs, so a run that reads faster than its input arrives
+	 * waits for it.
+	 */
+	private static final class Feeder extends Thread {
+
+		// marks that no more runs will be added
+		private static final Feed LAST = new Feed(null, "");
+
+		private final LinkedBlockingQueue<Feed> feeds = new LinkedBlockingQueue<Feed>();
+
+		private Feeder() {
+			super("RunBatch feeder");
+			this.setDaemon(true);
+		}
+
+		/**
+		 * Description: adds a run whose input queue is to be fed text.
+		 */
+		void add(InputQueue queue, String text) {
+			this.feeds.add(new Feed(queue, text));
+		}
+
+		/**
+		 * Description: lets the feeder end once every run added has been fed.
+		 */
+		void finish() {
+			this.feeds.add(LAST);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Feed feed = this.feeds.take();
+					if (feed == LAST) {
+						if (this.feeds.isEmpty()) {
+							return;
+						}
+						this.feeds.add(LAST);
+					} else if (feed.next()) {
+						this.feeds.add(feed);
+					}
+				}
+			} catch (InterruptedException e) {
+				// the JVM is ending
+			}
+		}
+	}
+
+	/**
+	 * The input of one run that is left to be fed.
+	 */
+	private static final class Feed {
+
+		private final InputQueue queue;
+		private final String text;
+		private int position;
+
+		Feed(InputQueue queue, String text) {
+			this.queue = queue;
+			this.text = text;
+		}
+
+		/**
+		 * Description: offers the next line of the text to the queue, or
+		 * ends the queue if none is left, and returns true iff text is left.
+		 */
+		boolean next() {
+			if (this.position == this.text.length()) {
+				this.queue.end();
+				return false;
+			}
+			int end = this.text.indexOf('\n', this.position);
+			end = end < 0 ? this.text.length() : end + 1;
+			this.queue.offer(this.text.substring(this.position, end));
+			this.position = end;
+			return true;
+		}
+	}
+}
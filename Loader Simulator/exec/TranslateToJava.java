@@ -0,0 +1,76 @@
+package exec;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+import loader.LogSetup;
+import loader.Wi12FileProcessor;
+import loader.Wi12LoaderLogSetup;
+import translator.Wi12Translator;
+import vm.HexWordSegment;
+
+/**
+ * Executable program that translates an executable-input file into the source
+ * of a Java class (see translator.Wi12Translator). The class is named after
+ * the java-output file, so "Prog.java" holds the class Prog. Once compiled
+ * with the simulator on the class path, "java Prog process-input
+ * process-output [process-trace]" runs the program the same as LoadAndExecute
+ * would. Errors are logged to System.err.
+ * 
+ * @author Dragon Slayer
+ */
+public class TranslateToJava {
+
+	public static void main(String[] args) {
+		LogSetup logSet = new Wi12LoaderLogSetup(null);
+		Logger log = logSet.initializeToErr("TranslateToJava");
+		try {
+			if (args.length != 2) {
+				log.severe("001: Invalid number of arguments; Expected 2 received "
+						+ args.length + " ");
+				log.severe("Usage: TranslateToJava executable-input java-output");
+				return;
+			}
+			File javaOutput = new File(args[1]);
+			String className = javaOutput.getName();
+			if (className.endsWith(".java")) {
+				className = className.substring(0, className.length() - 5);
+			}
+			if (!isIdentifier(className)) {
+				log.severe("023: " + javaOutput.getName()
+						+ " does not name a Java class.");
+				return;
+			}
+			HexWordSegment seg = new Wi12FileProcessor(log)
+					.processExecutableFile(new File(args[0]));
+			Writer out = new FileWriter(javaOutput);
+			try {
+				out.write(Wi12Translator.translate(seg, className));
+			} finally {
+				out.close();
+			}
+		} catch (DataFormatException e) {
+			// Error has already been logged
+		} catch (IOException e) {
+			log.severe("007: IO Exception");
+		} finally {
+			logSet.closeLog();
+		}
+	}
+
+	/**
+	 * Description: returns true iff name can be the name of a Java class.
+	 */
+	private static boolean isIdentifier(String name) {
+		boolean result = name.length() > 0
+				&& Character.isJavaIdentifierStart(name.charAt(0));
+		for (int i = 1; i < name.length(); i++) {
+			result &= Character.isJavaIdentifierPart(name.charAt(i));
+		}
+		return result;
+	}
+}
@@ -3,6 +3,9 @@ package loader;
 import java.io.File;
 import java.util.logging.Logger;
 
+import vm.AsyncTrace;
+import vm.ChannelTrace;
+
 /**
  * Interface implemented by W12iLoaderLogSetup. See W12iLoaderLogSetup or
  * programmer's guide for more details.
@@ -39,6 +42,79 @@ public interface LogSetup {
 	 */
 	public abstract boolean setReportLog(File logDest);
 
+	/**
+	 * Description: Sets up an information logger to the process-trace file the
+	 * same as setReportLog, but writes the text of the file as flush says
+	 * (see vm.ChannelTrace.Flush). If the file is not able to be opened, the
+	 * error is logged as severe, and the method returns false.
+	 * 
+	 * @requires true
+	 * @alters logDest
+	 * @ensures true
+	 * @param logDest
+	 *            - The file where the information/error that is logged will be
+	 *            sent
+	 * @param flush
+	 *            - when the text is written to the file
+	 * @return true iff the file being logged to was able to be opened.
+	 */
+	public abstract boolean setReportLog(File logDest,
+			ChannelTrace.Flush flush);
+
+	/**
+	 * Description: Sets up an information logger to the process-trace file the
+	 * same as setReportLog, but writes the file as a vm.BinaryTrace, which
+	 * records the trace of each instruction without formatting it. If the
+	 * file is not able to be opened, the error is logged as severe, and the
+	 * method returns false.
+	 * 
+	 * @requires true
+	 * @alters logDest
+	 * @ensures true
+	 * @param logDest
+	 *            - The file where the information/error that is logged will be
+	 *            sent
+	 * @return true iff the file being logged to was able to be opened.
+	 */
+	public abstract boolean setBinaryReportLog(File logDest);
+
+	/**
+	 * Description: Sets up an information logger to the process-trace file the
+	 * same as setReportLog, but writes the file as a vm.DeltaTrace, which
+	 * records only the registers and memory each instruction changed, with
+	 * keyframes of the whole state to seek to. If the file is not able to be
+	 * opened, the error is logged as severe, and the method returns false.
+	 * 
+	 * @requires true
+	 * @alters logDest
+	 * @ensures true
+	 * @param logDest
+	 *            - The file where the information/error that is logged will be
+	 *            sent
+	 * @return true iff the file being logged to was able to be opened.
+	 */
+	public abstract boolean setDeltaReportLog(File logDest);
+
+	/**
+	 * Description: Sets up an information logger to the process-trace file the
+	 * same as setReportLog, but the file is written by a thread of its own
+	 * (see vm.AsyncTrace), which waits for, drops or spills traces as
+	 * backpressure says when it falls behind. If the file is not able to be
+	 * opened, the error is logged as severe, and the method returns false.
+	 * 
+	 * @requires true
+	 * @alters logDest
+	 * @ensures true
+	 * @param logDest
+	 *            - The file where the information/error that is logged will be
+	 *            sent
+	 * @param backpressure
+	 *            - what is done with traces while the writer is behind
+	 * @return true iff the file being logged to was able to be opened.
+	 */
+	public abstract boolean setAsyncReportLog(File logDest,
+			AsyncTrace.Backpressure backpressure);
+
 	/**
 	 * Description: Removes all the handlers from the logger.
 	 * 
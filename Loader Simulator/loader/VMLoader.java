@@ -47,6 +47,26 @@ public interface VMLoader {
 	public abstract VirtualMachine parseMemMakeVM() throws DataFormatException,
 			IOException;
 
+	/**
+	 * Description: Attempts to create a VirtualMachine that resumes the run
+	 * saved in the checkpoint file given on the command line. The process
+	 * input is read from where the checkpoint was taken, and the process
+	 * output is kept up to that point and continued. If the checkpoint is not
+	 * valid, an error is logged as severe and the process-output file is
+	 * unchanged.
+	 * 
+	 * @requires checkFiles was called
+	 * @alters creates a new VirtualMachine, the process-output file
+	 * @ensures See "Returns". If the checkpoint is not valid, an error is
+	 *          logged as severe.
+	 * @return the VirtualMachine resumed from the checkpoint, or null if no
+	 *         checkpoint was given.
+	 * @throws DataFormatException
+	 * @throws IOException
+	 */
+	public abstract VirtualMachine resumeMakeVM() throws DataFormatException,
+			IOException;
+
 	/**
 	 * Description: Closes the log and removes the log handlers.
 	 * 
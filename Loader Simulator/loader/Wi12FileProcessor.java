@@ -10,6 +10,7 @@ import java.util.zip.DataFormatException;
 
 import utilities.CharChecker;
 import vm.HexWordSegment;
+import vm.MachineConfig;
 
 /**
  * This class implements the interface, FileProcessor. It processes the files.
@@ -19,13 +20,18 @@ import vm.HexWordSegment;
  * record and test records in the file meet the specifications given in their
  * definitions, then the records are parsed and the different parts of the
  * records are stored. If the file does not have the correct format, an error is
- * logged, and a DataFormatException is thrown.
+ * logged, and a DataFormatException is thrown. The number of hex characters
+ * in an address and in a word is that of the MachineConfig the file is read
+ * for (2 and 5 by default).
  * 
  * @author Dragon Slayer
  */
 public class Wi12FileProcessor implements FileProcessor {
 
 	Logger LOG;
+	private final MachineConfig config;
+	private final int addressChars;
+	private final int wordChars;
 
 	/**
 	 * Description: Assigns the logger, making it immutable.
@@ -37,7 +43,26 @@ public class Wi12FileProcessor implements FileProcessor {
 	 *            - is assigned to LOG
 	 */
 	public Wi12FileProcessor(Logger log) {
+		this(log, MachineConfig.DEFAULT);
+	}
+
+	/**
+	 * Description: Assigns the logger and the geometry of the machine the
+	 * executable files are read for.
+	 * 
+	 * @requires true
+	 * @alters true
+	 * @ensures the logger and config are assigned.
+	 * @param log
+	 *            - is assigned to LOG
+	 * @param config
+	 *            - geometry of the machine
+	 */
+	public Wi12FileProcessor(Logger log, MachineConfig config) {
 		LOG = log;
+		this.config = config;
+		this.addressChars = config.addressHexChars();
+		this.wordChars = config.wordHexChars();
 	}
 
 	/*
@@ -86,7 +111,7 @@ public class Wi12FileProcessor implements FileProcessor {
 	 */
 	private HexWordSegment processHeader(BufferedReader in) throws IOException,
 			DataFormatException {
-		int headerLength = 13;
+		int headerLength = 1 + 3 * addressChars + 6;
 		String execStart = "";
 		String name = "";
 		String startAdd = "";
@@ -114,7 +139,7 @@ public class Wi12FileProcessor implements FileProcessor {
 		}
 		lineIndex++;
 		// 2 hex char address execution starts at
-		for (int i = 0; i < 2; i++) {
+		for (int i = 0; i < addressChars; i++) {
 			c = fullLine.charAt(lineIndex);
 			valid &= CharChecker.isHexChar(c);
 			execStart += c;
@@ -122,7 +147,7 @@ public class Wi12FileProcessor implements FileProcessor {
 		}
 		if (!valid) {
 			LOG.severe("011: Invalid Header. Execution starting address must be "
-					+ "2 valid hex characters.");
+					+ addressChars + " valid hex characters.");
 			throw new DataFormatException();
 		}
 		// 6 char segment name
@@ -138,26 +163,27 @@ public class Wi12FileProcessor implements FileProcessor {
 			throw new DataFormatException();
 		}
 		// 2 hex char load address
-		for (int i = 0; i < 2; i++) {
+		for (int i = 0; i < addressChars; i++) {
 			c = fullLine.charAt(lineIndex);
 			valid &= CharChecker.isHexChar(c);
 			startAdd += c;
 			lineIndex++;
 		}
 		if (!valid) {
-			LOG.severe("014: Invalid header. Segment load address must be 2 "
-					+ "valid hex characters");
+			LOG.severe("014: Invalid header. Segment load address must be "
+					+ addressChars + " valid hex characters");
 			throw new DataFormatException();
 		}
 		// 2 hex char segment length
-		for (int i = 0; i < 2; i++) {
+		for (int i = 0; i < addressChars; i++) {
 			c = fullLine.charAt(lineIndex);
 			valid &= CharChecker.isHexChar(c);
 			length += c;
 			lineIndex++;
 		}
 		if (!valid) {
-			LOG.severe("015: Invalid Header. Segment length must be 2 valid hex characters");
+			LOG.severe("015: Invalid Header. Segment length must be "
+					+ addressChars + " valid hex characters");
 			throw new DataFormatException();
 		}
 		// convert strings to decimal and create mem segment
@@ -167,7 +193,7 @@ public class Wi12FileProcessor implements FileProcessor {
 		HexWordSegment segment = null;
 		try{
 		segment = HexWordSegment.getHexWordSegment(ExecStart,
-				name, StartAdd, Length);}
+				name, StartAdd, Length, config);}
 		catch(DataFormatException e){
 			LOG.severe("022: Execution start address and maximum load address must be less than memory size");
 		}
@@ -202,7 +228,7 @@ public class Wi12FileProcessor implements FileProcessor {
 	 */
 	private boolean processRecord(BufferedReader in, HexWordSegment segment)
 			throws IOException, DataFormatException {
-		int recordLength = 8;
+		int recordLength = 1 + addressChars + wordChars;
 		String address = "";
 		String word = "";
 		String fullLine = in.readLine();
@@ -221,19 +247,19 @@ public class Wi12FileProcessor implements FileProcessor {
 		}
 		lineIndex++;
 		// 2 hex char address
-		for (int i = 0; i < 2; i++) {
+		for (int i = 0; i < addressChars; i++) {
 			c = fullLine.charAt(lineIndex);
 			valid &= CharChecker.isHexChar(c);
 			address += c;
 			lineIndex++;
 		}
 		if (!valid) {
-			LOG.severe("018: Invalid Text Record. Record memory address must be 2 "
-					+ "valid hex characters");
+			LOG.severe("018: Invalid Text Record. Record memory address must be "
+					+ addressChars + " valid hex characters");
 			throw new DataFormatException();
 		}
 		// 5 hex char word
-		for (int i = 0; i < 5; i++) {
+		for (int i = 0; i < wordChars; i++) {
 			c = fullLine.charAt(lineIndex);
 			valid &= CharChecker.isHexChar(c);
 			word += c;
@@ -241,12 +267,14 @@ public class Wi12FileProcessor implements FileProcessor {
 		}
 		int Address = Integer.parseInt(address, 16);
 		if (!valid) {
-			LOG.severe("019: Invalid text record. Value of word must be 5 valid hex characters");
+			LOG.severe("019: Invalid text record. Value of word must be "
+					+ wordChars + " valid hex characters");
 			throw new DataFormatException();
 		}
 		valid &= segment.addWord(Address, word);
 		if (!valid) {
-			LOG.severe("020: Invalid text record. Address must be [0,255] U [segment load "
+			LOG.severe("020: Invalid text record. Address must be [0,"
+					+ (config.wordsInMem - 1) + "] U [segment load "
 					+ "address, segment load address + segment length]");
 			throw new DataFormatException();
 		}
@@ -2,18 +2,26 @@ package loader;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.logging.ConsoleHandler;
-import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+import vm.AsyncTrace;
+import vm.BinaryTrace;
+import vm.ChannelTrace;
+import vm.DeltaTrace;
 
 /**
  * Initializes and sets up the logger for errors and information messages.
  * Reformats errors according to whether they are severe error or info level
- * messages.
+ * messages. Errors go to System.err through a ConsoleHandler; the text
+ * process-trace is written by a vm.ChannelTrace, which takes the trace of
+ * each instruction without going through the Logger.
  * 
  * @author Dragon Slayer
  */
@@ -63,11 +71,21 @@ public class Wi12LoaderLogSetup implements LogSetup {
 	 */
 	@Override
 	public boolean setReportLog(File logDest) {
+		// messages reach the file at once, traces when a buffer is full
+		return setReportLog(logDest, ChannelTrace.Flush.MESSAGE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see proc.LogSetup#setReportLog(java.io.File, vm.ChannelTrace.Flush)
+	 */
+	@Override
+	public boolean setReportLog(File logDest, ChannelTrace.Flush flush) {
 		// Set up info log to report file
 		boolean success = true;
 		try {
-			FileHandler infoHandler = new FileHandler(logDest.toString());
-			infoHandler.setLevel(Level.FINE);
+			ChannelTrace infoHandler = ChannelTrace.create(logDest, flush);
 			infoHandler.setFormatter(new InfoFormatter());
 			LOG.addHandler(infoHandler);
 
@@ -81,6 +99,116 @@ public class Wi12LoaderLogSetup implements LogSetup {
 		return success;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see proc.LogSetup#setBinaryReportLog(java.io.File)
+	 */
+	@Override
+	public boolean setBinaryReportLog(File logDest) {
+		boolean success = true;
+		try {
+			BinaryTrace infoHandler = BinaryTrace.create(logDest);
+			infoHandler.setFormatter(new InfoFormatter());
+			LOG.addHandler(infoHandler);
+		} catch (IOException e) {
+			LOG.severe("008: IO error with " + logDest.toString());
+			success = false;
+		}
+		return success;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see proc.LogSetup#setDeltaReportLog(java.io.File)
+	 */
+	@Override
+	public boolean setDeltaReportLog(File logDest) {
+		boolean success = true;
+		try {
+			DeltaTrace infoHandler = DeltaTrace.create(logDest);
+			infoHandler.setFormatter(new InfoFormatter());
+			LOG.addHandler(infoHandler);
+		} catch (IOException e) {
+			LOG.severe("008: IO error with " + logDest.toString());
+			success = false;
+		}
+		return success;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see proc.LogSetup#setAsyncReportLog(java.io.File,
+	 * vm.AsyncTrace.Backpressure)
+	 */
+	@Override
+	public boolean setAsyncReportLog(File logDest,
+			AsyncTrace.Backpressure backpressure) {
+		boolean success = true;
+		try {
+			AsyncTrace infoHandler = AsyncTrace.create(logDest, backpressure);
+			infoHandler.setFormatter(new InfoFormatter());
+			LOG.addHandler(infoHandler);
+		} catch (IOException e) {
+			LOG.severe("008: IO error with " + logDest.toString());
+			success = false;
+		}
+		return success;
+	}
+
+	/**
+	 * Description: writes to out the text of the binary or delta
+	 * process-trace file binary, the same text setReportLog would have
+	 * written to a process-trace file.
+	 * 
+	 * @requires binary was written by a logger set up by setBinaryReportLog
+	 *           or setDeltaReportLog
+	 * @alters out
+	 * @ensures binary is unchanged
+	 * @param binary
+	 *            - the binary or delta process-trace file
+	 * @param out
+	 *            - destination of the text
+	 * @throws IOException
+	 * @throws DataFormatException
+	 *             if binary is not a binary or delta trace
+	 */
+	public static void renderReportLog(File binary, Writer out)
+			throws IOException, DataFormatException {
+		if (DeltaTrace.isDeltaTrace(binary)) {
+			DeltaTrace.render(binary, out, new InfoFormatter());
+		} else {
+			BinaryTrace.render(binary, out, new InfoFormatter());
+		}
+	}
+
+	/**
+	 * Description: writes to out the contents of the registers and memory
+	 * before instruction number of the delta process-trace file delta and the
+	 * trace of that instruction, as setReportLog would have written them, and
+	 * returns true, or returns false if the instruction was not traced.
+	 * 
+	 * @requires delta was written by a logger set up by setDeltaReportLog
+	 * @alters out
+	 * @ensures delta is unchanged
+	 * @param delta
+	 *            - the delta process-trace file
+	 * @param number
+	 *            - number of the instruction in its run, counting from 1
+	 * @param out
+	 *            - destination of the text
+	 * @return true iff the instruction is in the trace
+	 * @throws IOException
+	 * @throws DataFormatException
+	 *             if delta is not a delta trace
+	 */
+	public static boolean renderReportLog(File delta, long number, Writer out)
+			throws IOException, DataFormatException {
+		return DeltaTrace.renderAt(delta, number, out, new InfoFormatter());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -124,7 +252,7 @@ public class Wi12LoaderLogSetup implements LogSetup {
 	 * 
 	 * @author Dragon Slayer
 	 */
-	private class InfoFormatter extends Formatter {
+	private static class InfoFormatter extends Formatter {
 		/*
 		 * (non-Javadoc)
 		 * 
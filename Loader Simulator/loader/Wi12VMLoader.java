@@ -2,16 +2,32 @@ package loader;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
 
+import utilities.MachineInfo;
+import vm.AsyncTrace;
+import vm.ChannelTrace;
+import vm.Checkpoint;
+import vm.Engine;
 import vm.HexWordSegment;
 import vm.IOGroup;
+import vm.InputLog;
+import vm.MachineConfig;
+import vm.Operation;
+import vm.TraceFilter;
+import vm.TranslatedProgram;
 import vm.VirtualMachine;
 
 /**
@@ -22,25 +38,104 @@ import vm.VirtualMachine;
  * executable-input and create a VirtualMachine. It creates a reader for the
  * process-input file, and a writer for the process-trace file. It logs all the
  * loader error messages to a logger which is set to go to the process-trace
- * file.
+ * file. A loader can also be made for a TranslatedProgram, which holds its own
+ * segment instead of an executable-input file.
+ * 
+ * Options may come before the file names. -address-bits=N loads and runs the
+ * program on a machine with N bit addresses (see MachineConfig), and
+ * -engine=E executes its instructions with engine E (SWITCH unless given; see
+ * vm.Engine). -max-instructions=N lets the run execute N instructions instead
+ * of MAX_EXECUTABLE_INSTRUCTIONS, or any number for
+ * -max-instructions=unlimited.
+ * 
+ * -checkpoint=file writes a Checkpoint of the run to file every
+ * -checkpoint-every=N instructions (10000000 unless given), and -resume=file
+ * resumes the run saved in the checkpoint file instead of loading the
+ * executable-input; the process-output is then kept up to the point of the
+ * checkpoint.
+ * 
+ * -record=file records every value the run reads from the process-input in
+ * the InputLog file, and -replay=file feeds the run from the InputLog file
+ * instead of the process-input. A run that is resumed can not record or
+ * replay its input.
+ * 
+ * -binary-trace writes the process-trace as a vm.BinaryTrace, which
+ * RenderTrace turns into the text trace. -delta-trace writes it as a
+ * vm.DeltaTrace, which only holds what each instruction changed and which
+ * RenderTrace also turns into the text trace, or into the state and trace of
+ * a single instruction. -async-trace=P writes the text process-trace on a
+ * thread of its own (see vm.AsyncTrace) that, when it falls behind, the run
+ * waits for (P = block), drops traces for (drop) or spills traces to disk for
+ * (spill). Otherwise the text process-trace is written by a vm.ChannelTrace,
+ * whose buffer -trace-flush=P writes to the file only when it is full
+ * (P = full), also after each message other than a trace (message, the
+ * default), or after every trace and message (record).
+ * 
+ * -trace-instructions=N-M,..., -trace-addresses=A-B,... (in hexadecimal),
+ * -trace-ops=OP,... and -trace-registers=N,... only trace the instructions
+ * that are in one of the windows of instruction numbers, at one of the
+ * addresses, of one of the operations and with R or X one of the registers
+ * given (see vm.TraceFilter); a single number may stand for a range.
  * 
  * @author Dragon Slayer
  */
 public class Wi12VMLoader implements VMLoader {
 
 	private final int numFiles = 4;
+	// options of every loader after -max-instructions=N
+	private static final String RUN_OPTIONS = " [-checkpoint=file] "
+			+ "[-checkpoint-every=N] [-resume=file] [-record=file] "
+			+ "[-replay=file] [-binary-trace] [-delta-trace] "
+			+ "[-async-trace=P] [-trace-flush=P] "
+			+ "[-trace-instructions=N-M,...] [-trace-addresses=A-B,...] "
+			+ "[-trace-ops=OP,...] [-trace-registers=N,...]";
+	private static final String USAGE = "Usage: LoadAndExecute "
+			+ "[-address-bits=N] [-engine=E] [-max-instructions=N]"
+			+ RUN_OPTIONS + " executable-input process-input process-output "
+			+ "process-trace";
+	private static final String ADDRESS_BITS = "-address-bits=";
+	private static final String ENGINE = "-engine=";
+	private static final String MAX_INSTRUCTIONS = "-max-instructions=";
+	private static final String CHECKPOINT = "-checkpoint=";
+	private static final String CHECKPOINT_EVERY = "-checkpoint-every=";
+	private static final String RESUME = "-resume=";
+	private static final String RECORD = "-record=";
+	private static final String REPLAY = "-replay=";
+	private static final String BINARY_TRACE = "-binary-trace";
+	private static final String DELTA_TRACE = "-delta-trace";
+	private static final String ASYNC_TRACE = "-async-trace=";
+	private static final String TRACE_FLUSH = "-trace-flush=";
+	private static final String TRACE_INSTRUCTIONS = "-trace-instructions=";
+	private static final String TRACE_ADDRESSES = "-trace-addresses=";
+	private static final String TRACE_OPS = "-trace-ops=";
+	private static final String TRACE_REGISTERS = "-trace-registers=";
+	private static final long DEFAULT_CHECKPOINT_INTERVAL = 10000000;
+	private MachineConfig config = MachineConfig.DEFAULT;
+	private Engine engine = Engine.SWITCH;
+	private long instructionLimit = MachineInfo.MAX_EXECUTABLE_INSTRUCTIONS;
+	private boolean limitGiven;
+	private File checkpointFile, resumeFile, recordFile, replayFile;
+	private long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+	private boolean binaryTrace;
+	private boolean deltaTrace;
+	private AsyncTrace.Backpressure asyncTrace;
+	private ChannelTrace.Flush traceFlush;
+	private TraceFilter traceFilter;
 	private FileProcessor processor;
 	private File execInput, processInput, processOutput, processTrace;
 	private Logger LOG;
 	private LogSetup logSet;
+	private TranslatedProgram program;
 
 	/**
-	 * Description: Creates and sets up the logger. If the correct number of
-	 * command line arguments are passed in, it sets the 1st argument as the
-	 * executable-input 2nd as the process-input, 3rd as the process-output, and
-	 * the 4th as the process-trace files. If there are an incorrect number of
-	 * arguments passed, an error is logged and an IllegalArgumentsException is
-	 * thrown. A Wi12FileProcessor is also created.
+	 * Description: Creates and sets up the logger. The options at the start of
+	 * the command line arguments are read first. If the correct number of
+	 * file names follow, it sets the 1st as the executable-input 2nd as the
+	 * process-input, 3rd as the process-output, and the 4th as the
+	 * process-trace files. If there are an incorrect number of arguments
+	 * passed or an option is invalid, an error is logged and an
+	 * IllegalArgumentsException is thrown. A Wi12FileProcessor is also created
+	 * for the MachineConfig of the options.
 	 * 
 	 * @requires true
 	 * @ensures if no Exception is thrown, that the correct number of arguments
@@ -54,25 +149,281 @@ public class Wi12VMLoader implements VMLoader {
 		this.LOG = this.logSet.initializeToErr("LoadAndExecute");
 		// set up an error log that goes to System.err
 
+		fileNames = Arrays.copyOfRange(fileNames,
+				this.readOptions(fileNames, true, USAGE), fileNames.length);
 		if (fileNames.length != this.numFiles) {
 			this.LOG.severe("001: Invalid number of arguments; Expected "
 					+ this.numFiles + " received " + fileNames.length + " ");
-			this.LOG.severe("Usage: LoadAndExecute executable-input process-input "
-					+ "process-output process-trace");
+			this.LOG.severe(USAGE);
 			throw new IllegalArgumentException();
 			// throw an exception if the wrong number of args are entered
 		}
 		if (!this.noDupes(fileNames)) {
 			this.LOG.severe("021: Duplicate file names detected.");
-			this.LOG.severe("Usage: LoadAndExecute executable-input process-input "
-					+ "process-output process-trace");
+			this.LOG.severe(USAGE);
 			throw new IllegalArgumentException();
 		}
 		this.execInput = new File(fileNames[0]);
 		this.processInput = new File(fileNames[1]);
 		this.processOutput = new File(fileNames[2]);
 		this.processTrace = new File(fileNames[3]);
-		this.processor = new Wi12FileProcessor(this.LOG);
+		this.processor = new Wi12FileProcessor(this.LOG, this.config);
+	}
+
+	/**
+	 * Description: reads the options at the start of args, the arguments
+	 * beginning with '-', and returns the index of the first file name.
+	 * -address-bits=N sets config to the machine with N bit addresses and
+	 * -engine=E sets the engine to E; they are only options if executable is
+	 * true. -max-instructions=N sets the instruction limit to N, or to
+	 * UNLIMITED for "unlimited".
+	 * -checkpoint=file, -checkpoint-every=N and -resume=file set the
+	 * checkpoint file, the number of instructions between checkpoints and
+	 * the checkpoint to resume from. -record=file and -replay=file set the
+	 * input log to record or replay; only one of -resume, -record and -replay
+	 * may be given. -binary-trace makes the process-trace a binary trace,
+	 * -delta-trace a delta trace, -async-trace=P an asynchronous one with
+	 * backpressure P, and -trace-flush=P a text one with flush policy P; only
+	 * one of them may be given. -trace-instructions=, -trace-addresses=,
+	 * -trace-ops= and -trace-registers= add to the trace filter. If an option
+	 * is invalid, an error is logged with usage and an
+	 * IllegalArgumentException is thrown.
+	 * 
+	 * @requires true
+	 * @alters config, engine, instructionLimit, the checkpoint files and
+	 *         interval, the input log files, binaryTrace, deltaTrace,
+	 *         asyncTrace, traceFlush, traceFilter
+	 * @ensures args are unchanged
+	 * @param args
+	 *            - command line arguments
+	 * @param executable
+	 *            - true iff the program is an executable-input, for which
+	 *            -address-bits=N and -engine=E may be given
+	 * @param usage
+	 *            - usage message logged for an invalid option
+	 * @return the number of options at the start of args
+	 * @throws IllegalArgumentException
+	 */
+	private int readOptions(String[] args, boolean executable, String usage)
+			throws IllegalArgumentException {
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) {
+			boolean valid = false;
+			try {
+				if (executable && args[i].startsWith(ADDRESS_BITS)) {
+					// throws IllegalArgumentException for a bad number of bits
+					this.config = MachineConfig.forAddressBits(Integer
+							.parseInt(args[i].substring(ADDRESS_BITS
+									.length())));
+					valid = true;
+				} else if (executable && args[i].startsWith(ENGINE)) {
+					// throws IllegalArgumentException for an unknown engine
+					this.engine = Engine.valueOf(args[i].substring(ENGINE
+							.length()));
+					valid = true;
+				} else if (args[i].startsWith(MAX_INSTRUCTIONS)) {
+					String limit = args[i].substring(MAX_INSTRUCTIONS.length());
+					this.instructionLimit = limit.equals("unlimited")
+							? VirtualMachine.UNLIMITED : Long.parseLong(limit);
+					valid = this.instructionLimit >= 0;
+					this.limitGiven = true;
+				} else if (args[i].startsWith(CHECKPOINT)) {
+					this.checkpointFile = optionFile(args[i], CHECKPOINT);
+					valid = this.checkpointFile != null;
+				} else if (args[i].startsWith(CHECKPOINT_EVERY)) {
+					this.checkpointInterval = Long.parseLong(args[i]
+							.substring(CHECKPOINT_EVERY.length()));
+					valid = this.checkpointInterval > 0;
+				} else if (args[i].startsWith(RESUME)) {
+					this.resumeFile = optionFile(args[i], RESUME);
+					valid = this.resumeFile != null && this.recordFile == null
+							&& this.replayFile == null;
+				} else if (args[i].startsWith(RECORD)) {
+					this.recordFile = optionFile(args[i], RECORD);
+					valid = this.recordFile != null && this.replayFile == null
+							&& this.resumeFile == null;
+				} else if (args[i].startsWith(REPLAY)) {
+					this.replayFile = optionFile(args[i], REPLAY);
+					valid = this.replayFile != null && this.recordFile == null
+							&& this.resumeFile == null;
+				} else if (args[i].equals(BINARY_TRACE)) {
+					this.binaryTrace = true;
+					valid = this.oneTraceFormat();
+				} else if (args[i].equals(DELTA_TRACE)) {
+					this.deltaTrace = true;
+					valid = this.oneTraceFormat();
+				} else if (args[i].startsWith(ASYNC_TRACE)) {
+					// throws IllegalArgumentException for an unknown policy
+					this.asyncTrace = AsyncTrace.Backpressure.valueOf(args[i]
+							.substring(ASYNC_TRACE.length()).toUpperCase(
+									Locale.ENGLISH));
+					valid = this.oneTraceFormat();
+				} else if (args[i].startsWith(TRACE_FLUSH)) {
+					// throws IllegalArgumentException for an unknown policy
+					this.traceFlush = ChannelTrace.Flush.valueOf(args[i]
+							.substring(TRACE_FLUSH.length()).toUpperCase(
+									Locale.ENGLISH));
+					valid = this.oneTraceFormat();
+				} else if (args[i].startsWith(TRACE_INSTRUCTIONS)) {
+					for (long[] range : ranges(args[i]
+							.substring(TRACE_INSTRUCTIONS.length()), 10, 1)) {
+						this.filter().addWindow(range[0], range[1]);
+					}
+					valid = true;
+				} else if (args[i].startsWith(TRACE_ADDRESSES)) {
+					valid = true;
+					for (long[] range : ranges(args[i]
+							.substring(TRACE_ADDRESSES.length()), 16, 0)) {
+						valid &= range[1] <= Integer.MAX_VALUE;
+						this.filter().addAddresses((int) range[0],
+								(int) Math.min(range[1], Integer.MAX_VALUE));
+					}
+				} else if (args[i].startsWith(TRACE_OPS)) {
+					for (String op : args[i].substring(TRACE_OPS.length())
+							.split(",")) {
+						// throws IllegalArgumentException for an unknown name
+						this.filter().addOperation(Operation.valueOf(op
+								.toUpperCase(Locale.ENGLISH)));
+					}
+					valid = true;
+				} else if (args[i].startsWith(TRACE_REGISTERS)) {
+					valid = true;
+					for (long[] range : ranges(args[i]
+							.substring(TRACE_REGISTERS.length()), 10, 0)) {
+						valid &= range[1] < MachineInfo.NUM_REGISTERS;
+						for (long r = range[0]; valid && r <= range[1]; r++) {
+							this.filter().addRegister((int) r);
+						}
+					}
+				}
+			} catch (IllegalArgumentException e) {
+				// not a valid value for the option
+			}
+			if (!valid) {
+				this.LOG.severe("024: Invalid option " + args[i] + ".");
+				this.LOG.severe(usage);
+				throw new IllegalArgumentException();
+			}
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Description: returns true iff at most one of the process-trace formats
+	 * has been given.
+	 */
+	private boolean oneTraceFormat() {
+		int given = (this.binaryTrace ? 1 : 0) + (this.deltaTrace ? 1 : 0)
+				+ (this.asyncTrace != null ? 1 : 0)
+				+ (this.traceFlush != null ? 1 : 0);
+		return given <= 1;
+	}
+
+	/**
+	 * Description: returns the trace filter, making it if there is none.
+	 */
+	private TraceFilter filter() {
+		if (this.traceFilter == null) {
+			this.traceFilter = new TraceFilter();
+		}
+		return this.traceFilter;
+	}
+
+	/**
+	 * Description: returns the first and last number of each range of the
+	 * list text, in which ranges "N-M" or "N" written in radix are separated
+	 * by commas.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures text is unchanged
+	 * @param text
+	 *            - the list of ranges
+	 * @param radix
+	 *            - radix of the numbers
+	 * @param least
+	 *            - least number a range may hold
+	 * @return the ranges of text
+	 * @throws IllegalArgumentException
+	 *             if a range is not a number or two, or holds no numbers or
+	 *             one less than least
+	 */
+	private static long[][] ranges(String text, int radix, long least)
+			throws IllegalArgumentException {
+		String[] items = text.split(",");
+		long[][] ranges = new long[items.length][];
+		for (int i = 0; i < items.length; i++) {
+			int dash = items[i].indexOf('-');
+			long first = Long.parseLong(dash < 0 ? items[i] : items[i]
+					.substring(0, dash), radix);
+			long last = dash < 0 ? first : Long.parseLong(
+					items[i].substring(dash + 1), radix);
+			if (first < least || last < first) {
+				throw new IllegalArgumentException(items[i]);
+			}
+			ranges[i] = new long[] { first, last };
+		}
+		return ranges;
+	}
+
+	/**
+	 * Description: returns the file named by the option arg after prefix, or
+	 * null if no file is named.
+	 */
+	private static File optionFile(String arg, String prefix) {
+		String name = arg.substring(prefix.length());
+		return name.length() == 0 ? null : new File(name);
+	}
+
+	/**
+	 * Description: Creates and sets up the logger for running program. After
+	 * the options (all but -address-bits=N and -engine=E), the 1st file name
+	 * is the process-input, the 2nd the process-output and the optional 3rd
+	 * the process-trace file. Without a process-trace file the logger is set
+	 * to INFO, so no trace is made. If there are an incorrect number of
+	 * arguments passed or an option is invalid, an error is logged and an
+	 * IllegalArgumentsException is thrown.
+	 * 
+	 * @requires program exists
+	 * @ensures if no Exception is thrown, that the correct number of arguments
+	 *          were given at the command line
+	 * @param fileNames
+	 *            - command line arguments
+	 * @param program
+	 *            - the translated program to be run
+	 * @throws IllegalArgumentException
+	 */
+	public Wi12VMLoader(String[] fileNames, TranslatedProgram program)
+			throws IllegalArgumentException {
+		this.logSet = new Wi12LoaderLogSetup(this.LOG);
+		this.LOG = this.logSet.initializeToErr("LoadAndExecute");
+		String usage = "Usage: java " + program.getClass().getName()
+				+ " [-max-instructions=N]" + RUN_OPTIONS
+				+ " process-input process-output [process-trace]";
+		fileNames = Arrays.copyOfRange(fileNames,
+				this.readOptions(fileNames, false, usage), fileNames.length);
+		if (fileNames.length != this.numFiles - 2
+				&& fileNames.length != this.numFiles - 1) {
+			this.LOG.severe("001: Invalid number of arguments; Expected "
+					+ (this.numFiles - 2) + " or " + (this.numFiles - 1)
+					+ " received " + fileNames.length + " ");
+			this.LOG.severe(usage);
+			throw new IllegalArgumentException();
+		}
+		if (!this.noDupes(fileNames)) {
+			this.LOG.severe("021: Duplicate file names detected.");
+			this.LOG.severe(usage);
+			throw new IllegalArgumentException();
+		}
+		this.program = program;
+		this.processInput = new File(fileNames[0]);
+		this.processOutput = new File(fileNames[1]);
+		if (fileNames.length == this.numFiles - 1) {
+			this.processTrace = new File(fileNames[2]);
+		} else {
+			this.LOG.setLevel(Level.INFO);
+		}
 	}
 
 	/*
@@ -82,17 +433,46 @@ public class Wi12VMLoader implements VMLoader {
 	 */
 	@Override
 	public void checkFiles() throws IllegalArgumentException {
-		boolean result;
-		result = this.writeableOutput(this.processTrace);
-		// make sure report is valid
-		if (result) {
-			result = this.logSet.setReportLog(this.processTrace);
-			// if report is valid, link log to report file
+		boolean result = true;
+		if (this.processTrace != null) {
+			result = this.writeableOutput(this.processTrace);
+			// make sure report is valid
+			if (result) {
+				if (this.binaryTrace) {
+					result = this.logSet.setBinaryReportLog(this.processTrace);
+				} else if (this.deltaTrace) {
+					result = this.logSet.setDeltaReportLog(this.processTrace);
+				} else if (this.asyncTrace != null) {
+					result = this.logSet.setAsyncReportLog(this.processTrace,
+							this.asyncTrace);
+				} else if (this.traceFlush != null) {
+					result = this.logSet.setReportLog(this.processTrace,
+							this.traceFlush);
+				} else {
+					result = this.logSet.setReportLog(this.processTrace);
+				}
+				// if report is valid, link log to report file
+			}
+		}
+		if (this.resumeFile == null) {
+			result &= this.writeableOutput(this.processOutput);
+		} else {
+			// the output up to the checkpoint is kept
+			result &= this.readableInput(this.processOutput)
+					& this.readableInput(this.resumeFile);
 		}
-		result &= this.writeableOutput(this.processOutput);
 		// check other files for validity
 
-		result &= this.readableInput(this.execInput);
+		if (this.recordFile != null) {
+			result &= this.writeableOutput(this.recordFile);
+		}
+		if (this.replayFile != null) {
+			result &= this.readableInput(this.replayFile);
+		}
+
+		if (this.program == null) {
+			result &= this.readableInput(this.execInput);
+		}
 		result &= this.readableInput(this.processInput);
 		if (!result) {
 			throw new IllegalArgumentException();
@@ -203,9 +583,18 @@ public class Wi12VMLoader implements VMLoader {
 		VirtualMachine vm = null;
 
 		try {
-			HexWordSegment seg = this.processor
-					.processExecutableFile(this.execInput);
-			vm = new VirtualMachine(seg, this.getVMIO(), this.LOG);
+			if (this.program != null) {
+				vm = new VirtualMachine(this.program.getSegment(),
+						this.getVMIO(), this.LOG, this.program);
+			} else {
+				HexWordSegment seg = this.processor
+						.processExecutableFile(this.execInput);
+				vm = new VirtualMachine(seg, this.getVMIO(), this.LOG,
+						this.engine);
+			}
+			vm.setInstructionLimit(this.instructionLimit);
+			this.setCheckpoint(vm);
+			vm.setTraceFilter(this.traceFilter);
 		} catch (IOException e) {
 			this.LOG.severe("007: IO Exception");// Shouldn't occur, we already
 			// checked files for validity
@@ -215,10 +604,89 @@ public class Wi12VMLoader implements VMLoader {
 
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see VMLoader#resumeMakeVM()
+	 */
+	@Override
+	public VirtualMachine resumeMakeVM() throws DataFormatException,
+			IOException {
+		if (this.resumeFile == null) {
+			return null;
+		}
+		VirtualMachine vm = null;
+		Reader in = null;
+		FileOutputStream outFile = null;
+		boolean resumed = false;
+		try {
+			Checkpoint checkpoint = Checkpoint.read(this.resumeFile, this.LOG,
+					this.engine, this.program);
+			in = new BufferedReader(new FileReader(this.processInput));
+			// appends, so the output is unchanged until it is truncated
+			outFile = new FileOutputStream(this.processOutput, true);
+			FileChannel outChannel = outFile.getChannel();
+			if (outChannel.size() < checkpoint.getOutputLength()) {
+				throw new DataFormatException("process-output is shorter");
+			}
+			try {
+				vm = checkpoint.resume(in, new BufferedOutputStream(outFile));
+			} catch (EOFException e) {
+				throw new DataFormatException("process-input is shorter");
+			}
+			// drop the output written after the checkpoint, once nothing
+			// else can fail
+			outChannel.truncate(checkpoint.getOutputLength());
+			if (this.limitGiven) {
+				vm.setInstructionLimit(this.instructionLimit);
+			}
+			this.setCheckpoint(vm);
+			vm.setTraceFilter(this.traceFilter);
+			resumed = true;
+		} catch (DataFormatException e) {
+			this.LOG.severe("025: Invalid checkpoint "
+					+ this.resumeFile.getName() + "; " + e.getMessage() + ".");
+			throw e;
+		} catch (IOException e) {
+			this.LOG.severe("007: IO Exception");
+			throw e;
+		} finally {
+			if (!resumed) {
+				closeQuietly(in);
+				closeQuietly(outFile);
+			}
+		}
+		return vm;
+	}
+
+	/**
+	 * Description: closes stream, if it exists, ignoring an IOException.
+	 */
+	private static void closeQuietly(Closeable stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				// nothing was written to it
+			}
+		}
+	}
+
+	/**
+	 * Description: makes vm write a checkpoint every checkpointInterval
+	 * instructions if a checkpoint file was given.
+	 */
+	private void setCheckpoint(VirtualMachine vm) {
+		if (this.checkpointFile != null) {
+			vm.setCheckpoint(this.checkpointFile, this.checkpointInterval);
+		}
+	}
+
 	/**
 	 * Description: Creates a BufferedReader specifically for reading the
 	 * process-input file, and a BufferedWriter for writing to the
-	 * process-output file. These together form an IOGroup. If process-output
+	 * process-output file. These together form an IOGroup, which records or
+	 * replays the input log if one was given. If process-output
 	 * cannot be written to, an IOException is thrown and a message is sent to
 	 * System.out.
 	 * 
@@ -228,12 +696,28 @@ public class Wi12VMLoader implements VMLoader {
 	 *          an IOException is thrown and a message is sent to System.out.
 	 * @return a new IOGroup if an IOException is not thrown.
 	 * @throws IOException
+	 * @throws DataFormatException
+	 *             if the input log to replay is invalid
 	 */
-	private IOGroup getVMIO() throws IOException {
+	private IOGroup getVMIO() throws IOException, DataFormatException {
 		Reader in = new BufferedReader(new FileReader(this.processInput));
 		BufferedOutputStream out = new BufferedOutputStream(
 				new FileOutputStream(this.processOutput));
-		return new IOGroup(in, out);
+		IOGroup IO = new IOGroup(in, out);
+		if (this.recordFile != null) {
+			IO.setInputLog(InputLog.record(this.recordFile));
+		} else if (this.replayFile != null) {
+			try {
+				IO.setInputLog(InputLog.replay(this.replayFile));
+			} catch (DataFormatException e) {
+				IO.cleanUp();
+				this.LOG.severe("027: Invalid input log "
+						+ this.replayFile.getName() + "; " + e.getMessage()
+						+ ".");
+				throw e;
+			}
+		}
+		return IO;
 	}
 
 	/**
@@ -252,7 +736,7 @@ public class Wi12VMLoader implements VMLoader {
 	 * Description: Checks if all the input and output file names are unique.
 	 * Returns true iff they are unique.
 	 * 
-	 * @requires exactly 4 command line arguments
+	 * @requires true
 	 * @alters N/A
 	 * @ensures arguments are unchanged
 	 * @return true iff the names of the files are unique.
@@ -260,10 +744,12 @@ public class Wi12VMLoader implements VMLoader {
 	 */
 	private boolean noDupes(String[] f) {
 
-		boolean result = f[0].equals(f[1]) || f[0].equals(f[2])
-				|| f[0].equals(f[3]);
-		result |= f[1].equals(f[2]) || f[1].equals(f[3]);
-		result |= f[2].equals(f[3]);
+		boolean result = false;
+		for (int i = 0; i < f.length; i++) {
+			for (int j = i + 1; j < f.length; j++) {
+				result |= f[i].equals(f[j]);
+			}
+		}
 		return !result;
 	}
 
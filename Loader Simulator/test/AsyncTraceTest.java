@@ -0,0 +1,209 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import vm.AsyncTrace;
+import vm.ChannelTrace;
+import vm.HexWordSegment;
+import vm.IOGroup;
+import vm.TraceHandler;
+import vm.VirtualMachine;
+
+/**
+ * Checks that an AsyncTrace writes the text a synchronous ChannelTrace writes
+ * for the same run. The writer of the asynchronous trace is held back at its
+ * first trace until the machine has put more than AsyncTrace.CAPACITY traces
+ * into the ring, so every run fills the ring: BLOCK and SPILL must still write
+ * the same text, and DROP the same text with traces left out, each gap marked
+ * by the number of traces dropped in it.
+ */
+public class AsyncTraceTest {
+
+	// iterations of the loop, of three instructions each
+	private static final int COUNT = AsyncTrace.CAPACITY / 2;
+	private static final String DROPPED = "Traces of ";
+	private static final String END = "*********END INSTRUCTION"
+			+ "*************************\n\n";
+
+	/**
+	 * Counts COUNT down to zero, then writes 42 to the process output and
+	 * halts. Its data is at 0x20 - 0x22.
+	 */
+	private static final String[][] COUNTER = { { "00", "00020" },
+			{ "01", "40021" }, { "02", "D0004" }, { "03", "C3001" },
+			{ "04", "B2022" }, { "05", "C0000" },
+			{ "20", String.format("%05X", COUNT) }, { "21", "00001" },
+			{ "22", "0002A" } };
+
+	/**
+	 * Formats a message as the message and a newline, as a ChannelTrace
+	 * needs. Until gate is opened, or a second has passed, the first record
+	 * is not formatted.
+	 */
+	private static class GateFormatter extends Formatter {
+
+		private final CountDownLatch gate;
+		private boolean opened;
+
+		GateFormatter(CountDownLatch gate) {
+			this.gate = gate;
+		}
+
+		@Override
+		public String format(LogRecord record) {
+			if (!this.opened) {
+				try {
+					this.gate.await(1, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				this.opened = true;
+			}
+			return record.getMessage() + "\n";
+		}
+	}
+
+	/**
+	 * Runs COUNTER with a trace to handler, which the machine opens gate in
+	 * when it writes its process output, after the loop. Returns the text of
+	 * trace when the run has ended and when handler has been closed, which
+	 * must be the same.
+	 */
+	private static String run(TraceHandler handler, File trace,
+			final CountDownLatch gate) throws Exception {
+		HexWordSegment seg = HexWordSegment.getHexWordSegment(0x00,
+				"COUNTER", 0x00, 0x22);
+		for (String[] record : COUNTER) {
+			seg.addWord(Integer.parseInt(record[0], 16), record[1]);
+		}
+		Logger log = Logger.getAnonymousLogger();
+		log.setUseParentHandlers(false);
+		log.setLevel(Level.FINE);
+		log.addHandler(handler);
+		// a buffer of one byte hands every write straight to the stream
+		IOGroup io = new IOGroup(new StringReader(""),
+				new BufferedOutputStream(new OutputStream() {
+					@Override
+					public void write(int b) {
+						gate.countDown();
+					}
+
+					@Override
+					public void write(byte[] b, int off, int len) {
+						gate.countDown();
+					}
+				}, 1));
+		VirtualMachine vm = new VirtualMachine(seg, io, log);
+		vm.setInstructionLimit(VirtualMachine.UNLIMITED);
+		vm.run();
+		String ended = text(trace);
+		handler.close();
+		log.removeHandler(handler);
+		assertEquals("text once the run has ended", text(trace), ended);
+		return ended;
+	}
+
+	/**
+	 * Returns the text of the synchronous trace of COUNTER.
+	 */
+	private static String reference() throws Exception {
+		File file = File.createTempFile("channel", ".trace");
+		file.deleteOnExit();
+		ChannelTrace handler = ChannelTrace.create(file,
+				ChannelTrace.Flush.MESSAGE);
+		CountDownLatch open = new CountDownLatch(0);
+		handler.setFormatter(new GateFormatter(open));
+		return run(handler, file, open);
+	}
+
+	/**
+	 * Returns the text of the asynchronous trace of COUNTER with
+	 * backpressure, and checks that no spill file is left.
+	 */
+	private static String async(AsyncTrace.Backpressure backpressure)
+			throws Exception {
+		File file = File.createTempFile("async", ".trace");
+		file.deleteOnExit();
+		AsyncTrace handler = AsyncTrace.create(file, backpressure);
+		CountDownLatch gate = new CountDownLatch(1);
+		handler.setFormatter(new GateFormatter(gate));
+		String text = run(handler, file, gate);
+		assertFalse("spill file left", new File(file.getPath() + ".spill0")
+				.exists());
+		return text;
+	}
+
+	private static String text(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()));
+	}
+
+	/**
+	 * BLOCK writes every trace
+	 */
+	@Test
+	public void blockTest() throws Exception {
+		assertEquals(reference(), async(AsyncTrace.Backpressure.BLOCK));
+	}
+
+	/**
+	 * SPILL writes every trace, rendering the spill files in their place
+	 */
+	@Test
+	public void spillTest() throws Exception {
+		assertEquals(reference(), async(AsyncTrace.Backpressure.SPILL));
+	}
+
+	/**
+	 * DROP writes the traces it kept in order, and the number of traces left
+	 * out in place of each gap
+	 */
+	@Test
+	public void dropTest() throws Exception {
+		String expected = reference();
+		String actual = async(AsyncTrace.Backpressure.DROP);
+		long dropped = 0;
+		int e = 0;
+		int a = 0;
+		while (a < actual.length()) {
+			if (actual.startsWith(DROPPED, a)) {
+				int end = actual.indexOf('\n', a);
+				long n = Long.parseLong(actual.substring(a + DROPPED.length(),
+						actual.indexOf(' ', a + DROPPED.length())));
+				assertEquals("marker at " + a, DROPPED + n
+						+ " instructions dropped.", actual.substring(a, end));
+				for (long i = 0; i < n; i++) {
+					e = expected.indexOf(END, e);
+					assertTrue("more traces dropped than run", e >= 0);
+					e += END.length();
+				}
+				dropped += n;
+				a = end + 1;
+			} else {
+				assertTrue("text differs at " + a,
+						e < expected.length()
+								&& actual.charAt(a) == expected.charAt(e));
+				a++;
+				e++;
+			}
+		}
+		assertEquals("text after the last trace kept", expected.length(), e);
+		assertTrue("no traces dropped", dropped > 0);
+	}
+}
@@ -0,0 +1,101 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+import vm.Engine;
+import vm.HexWordSegment;
+import vm.IOGroup;
+import vm.VirtualMachine;
+
+/**
+ * Checks that a run without tracing allocates nothing per instruction. Every
+ * engine runs a loop of a million instructions while the thread's allocated
+ * bytes are measured; only a fixed amount, for the end of the run and the
+ * blocks compiled by TIERED, may be allocated.
+ */
+public class NoTraceAllocationTest {
+
+	private static final long INSTRUCTIONS = 1000000;
+	// far less than one byte per instruction
+	private static final long ALLOWANCE = 64 * 1024;
+
+	/**
+	 * A loop that never halts: a fused LD/ADD/ST, an indexed LD, a shift, a
+	 * division and a branch back. Its data is at 0x20 - 0x22.
+	 */
+	private static final String[][] LOOP = { { "00", "11001" },
+			{ "01", "02020" }, { "02", "32021" }, { "03", "22020" },
+			{ "04", "02421" }, { "05", "A2001" }, { "06", "62022" },
+			{ "07", "C3001" }, { "20", "00005" }, { "21", "00003" },
+			{ "22", "00002" } };
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static VirtualMachine loop(Engine engine) throws IOException,
+			DataFormatException {
+		HexWordSegment seg = HexWordSegment.getHexWordSegment(0x00, "LOOPER",
+				0x00, 0x22);
+		for (String[] record : LOOP) {
+			seg.addWord(Integer.parseInt(record[0], 16), record[1]);
+		}
+		Logger log = Logger.getAnonymousLogger();
+		log.setUseParentHandlers(false);
+		log.setLevel(Level.INFO);
+		IOGroup io = new IOGroup(new StringReader(""),
+				new BufferedOutputStream(new ByteArrayOutputStream()));
+		VirtualMachine vm = new VirtualMachine(seg, io, log, engine);
+		vm.setInstructionLimit(INSTRUCTIONS);
+		return vm;
+	}
+
+	private static void assertNoAllocation(Engine engine) throws Exception {
+		// load and compile the classes of the run first
+		loop(engine).run();
+		VirtualMachine vm = loop(engine);
+		long thread = Thread.currentThread().getId();
+		long before = THREADS.getThreadAllocatedBytes(thread);
+		vm.run();
+		long allocated = THREADS.getThreadAllocatedBytes(thread) - before;
+		assertEquals(engine + " instructions", INSTRUCTIONS,
+				vm.getInstructionsExecuted());
+		assertTrue(engine + " allocated " + allocated + " bytes",
+				allocated < ALLOWANCE);
+	}
+
+	/**
+	 * The SWITCH engine with superinstructions
+	 */
+	@Test
+	public void switchTest() throws Exception {
+		assertNoAllocation(Engine.SWITCH);
+	}
+
+	/**
+	 * The DISPATCH engine with superinstructions
+	 */
+	@Test
+	public void dispatchTest() throws Exception {
+		assertNoAllocation(Engine.DISPATCH);
+	}
+
+	/**
+	 * The TIERED engine, whose blocks are compiled during the run
+	 */
+	@Test
+	public void tieredTest() throws Exception {
+		assertNoAllocation(Engine.TIERED);
+	}
+}
@@ -0,0 +1,191 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import vm.BitField;
+import vm.PackedField;
+
+/**
+ * Differential tests for PackedField. Every operation is checked bit for bit
+ * against the BitField implementation it replaces.
+ */
+public class PackedFieldTest {
+
+	private static final PackedField WORD = PackedField.WORD;
+	private static final int LENGTH = WORD.length;
+	private static final int[] EDGES = { 0x00000, 0x00001, 0x00002, 0x00003,
+			0x0000F, 0x000FF, 0x00100, 0x3FFFF, 0x40000, 0x7FFFE, 0x7FFFF,
+			0x80000, 0x80001, 0xC0000, 0xFFFFE, 0xFFFFF, 0x12345, 0xABCDE };
+
+	private final int[] values = sampleValues(400);
+
+	private static int[] sampleValues(int randomCount) {
+		Random r = new Random(560);
+		int[] result = new int[EDGES.length + randomCount];
+		System.arraycopy(EDGES, 0, result, 0, EDGES.length);
+		for (int i = EDGES.length; i < result.length; i++) {
+			// mix small magnitudes in with full width values
+			int v = r.nextBoolean() ? r.nextInt(1 << LENGTH) : r.nextInt(64);
+			result[i] = r.nextBoolean() ? v : WORD.negate(v);
+		}
+		return result;
+	}
+
+	private static BitField bits(int value) {
+		return new BitField(WORD.toHexString(value), LENGTH);
+	}
+
+	private static void assertSameBits(String message, BitField expected,
+			int actual) {
+		assertEquals(message, expected.toBinString(), WORD.toBitField(actual)
+				.toBinString());
+	}
+
+	/**
+	 * Conversions between the two representations round trip
+	 */
+	@Test
+	public void conversionTest() {
+		for (int v : this.values) {
+			BitField b = bits(v);
+			assertEquals("toDecInt of " + b, v, b.toDecInt());
+			assertEquals("fromBitField of " + b, v, WORD.fromBitField(b));
+			assertEquals("toHexString of " + b, b.toHexString(),
+					WORD.toHexString(v));
+			assertSameBits("toBitField of " + b, b, v);
+		}
+	}
+
+	/**
+	 * fromDec matches the BitField(int, int) constructor, including values
+	 * too large for the field
+	 */
+	@Test
+	public void fromDecTest() {
+		int[] decs = { 0, 1, 15, 16, 255, 256, 0x1FF, 0xFFF, 0x1000, 0x20AC,
+				0xFFFF, 0x10000, 0xFFFFF, 0x100000, 0x7FFFFFFF, -1, -5 };
+		for (int dec : decs) {
+			assertEquals("word fromDec " + dec,
+					new BitField(dec, LENGTH).toDecInt(), WORD.fromDec(dec));
+			assertEquals("address fromDec " + dec, new BitField(dec,
+					PackedField.ADDRESS.length).toDecInt(),
+					PackedField.ADDRESS.fromDec(dec));
+		}
+	}
+
+	/**
+	 * Single operand operations
+	 */
+	@Test
+	public void unaryTest() {
+		for (int v : this.values) {
+			BitField b = bits(v);
+			assertSameBits("increment " + b, b.increment(), WORD.increment(v));
+			assertSameBits("invert " + b, b.invert(), WORD.invert(v));
+			assertSameBits("negate " + b, b.negate(), WORD.negate(v));
+			assertEquals("isZero " + b, b.isZero(), WORD.isZero(v));
+			assertEquals("isPositive " + b, b.isPositive(), WORD.isPositive(v));
+			assertEquals("toDecInt2sComp " + b, b.toDecInt2sComp(),
+					WORD.toDecInt2sComp(v));
+		}
+	}
+
+	/**
+	 * add, subtract, multiply, or and and over every pair of sample values
+	 */
+	@Test
+	public void binaryTest() {
+		for (int a : this.values) {
+			BitField x = bits(a);
+			for (int b : this.values) {
+				BitField y = bits(b);
+				String pair = x + ", " + y;
+				assertSameBits("add " + pair, x.add(y), WORD.add(a, b));
+				assertSameBits("subtract " + pair, x.subtract(y),
+						WORD.subtract(a, b));
+				assertSameBits("or " + pair, x.or(y), WORD.or(a, b));
+				assertSameBits("and " + pair, x.and(y), WORD.and(a, b));
+			}
+		}
+		for (int a : EDGES) {
+			for (int b : this.values) {
+				assertSameBits("multiply " + a + ", " + b,
+						bits(a).multiply(bits(b)), WORD.multiply(a, b));
+			}
+		}
+	}
+
+	/**
+	 * divideBy over every pair of sample values, including division by zero
+	 */
+	@Test
+	public void divideTest() {
+		for (int a : this.values) {
+			BitField x = bits(a);
+			for (int b : this.values) {
+				BitField y = bits(b);
+				if (b == 0) {
+					try {
+						WORD.divideBy(a, b);
+						fail("divide by zero accepted for " + x);
+					} catch (IllegalArgumentException e) {
+						// expected, same as BitField
+					}
+				} else {
+					assertSameBits("divideBy " + x + ", " + y, x.divideBy(y),
+							WORD.divideBy(a, b));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Shifts for every legal amount, and rejection of illegal amounts
+	 */
+	@Test
+	public void shiftTest() {
+		for (int v : this.values) {
+			BitField b = bits(v);
+			for (int times = 0; times < LENGTH; times++) {
+				assertSameBits("shiftLeft " + b + " by " + times,
+						b.shiftLeft(times), WORD.shiftLeft(v, times));
+				assertSameBits("shiftRight " + b + " by " + times,
+						b.shiftRight(times), WORD.shiftRight(v, times));
+			}
+		}
+		int[] illegal = { -1, LENGTH, LENGTH + 1, 255 };
+		for (int times : illegal) {
+			try {
+				WORD.shiftLeft(1, times);
+				fail("shiftLeft accepted " + times);
+			} catch (IllegalArgumentException e) {
+				// expected, same as BitField
+			}
+			try {
+				WORD.shiftRight(1, times);
+				fail("shiftRight accepted " + times);
+			} catch (IllegalArgumentException e) {
+				// expected, same as BitField
+			}
+		}
+	}
+
+	/**
+	 * isValid2sComp agrees with the BitField range check
+	 */
+	@Test
+	public void valid2sCompTest() {
+		int[] decs = { 0, 1, -1, 524287, 524288, -524288, -524289,
+				Integer.MAX_VALUE, Integer.MIN_VALUE };
+		for (int dec : decs) {
+			assertEquals("isValid2sComp " + dec,
+					BitField.isValid2sComp(dec, LENGTH),
+					WORD.isValid2sComp(dec));
+		}
+	}
+}
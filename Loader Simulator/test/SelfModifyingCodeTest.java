@@ -0,0 +1,96 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+import vm.Engine;
+import vm.HexWordSegment;
+import vm.IOGroup;
+import vm.VirtualMachine;
+
+/**
+ * Checks that TIERED keeps up with SWITCH on a loop that overwrites its own
+ * code with a different word every time around. Only the block holding the
+ * overwritten word may be thrown away, and it must stop being compiled again
+ * after a few times, so the loop may not run much slower than interpreted.
+ */
+public class SelfModifyingCodeTest {
+
+	private static final long INSTRUCTIONS = 10000000;
+	// how many times slower than SWITCH TIERED may be
+	private static final long FACTOR = 3;
+	private static final int RUNS = 3;
+
+	/**
+	 * A loop that never halts and flips the word at 0x04 between two NOPs:
+	 * LD, ADD and AND make the other NOP, ST writes it over the NOP and BR
+	 * goes back. Its data is at 0x20 - 0x21.
+	 */
+	private static final String[][] LOOP = { { "00", "01004" },
+			{ "01", "31020" }, { "02", "81021" }, { "03", "21004" },
+			{ "04", "04000" }, { "05", "C3000" }, { "20", "00001" },
+			{ "21", "04001" } };
+
+	private static VirtualMachine loop(Engine engine) throws IOException,
+			DataFormatException {
+		HexWordSegment seg = HexWordSegment.getHexWordSegment(0x00, "FLIPPER",
+				0x00, 0x21);
+		for (String[] record : LOOP) {
+			seg.addWord(Integer.parseInt(record[0], 16), record[1]);
+		}
+		Logger log = Logger.getAnonymousLogger();
+		log.setUseParentHandlers(false);
+		log.setLevel(Level.INFO);
+		IOGroup io = new IOGroup(new StringReader(""),
+				new BufferedOutputStream(new ByteArrayOutputStream()));
+		VirtualMachine vm = new VirtualMachine(seg, io, log, engine);
+		vm.setInstructionLimit(INSTRUCTIONS);
+		return vm;
+	}
+
+	/**
+	 * Returns the shortest time in nanoseconds of RUNS runs of the loop with
+	 * engine, after a run to load and compile the classes of the run, and
+	 * checks that every run ends as the SWITCH run does.
+	 */
+	private static long time(Engine engine) throws Exception {
+		VirtualMachine reference = loop(Engine.SWITCH);
+		reference.run();
+		long best = Long.MAX_VALUE;
+		loop(engine).run();
+		for (int i = 0; i < RUNS; i++) {
+			VirtualMachine vm = loop(engine);
+			long start = System.nanoTime();
+			vm.run();
+			best = Math.min(best, System.nanoTime() - start);
+			assertEquals(engine + " instructions", INSTRUCTIONS,
+					vm.getInstructionsExecuted());
+			assertEquals(engine + " state", reference.toString(),
+					vm.toString());
+		}
+		return best;
+	}
+
+	/**
+	 * The TIERED engine runs the loop within FACTOR times the time SWITCH
+	 * takes
+	 */
+	@Test
+	public void tieredTest() throws Exception {
+		long interpreted = time(Engine.SWITCH);
+		long tiered = time(Engine.TIERED);
+		assertTrue("TIERED took " + tiered / 1000000 + " ms, SWITCH "
+				+ interpreted / 1000000 + " ms", tiered <= FACTOR
+				* interpreted);
+	}
+}
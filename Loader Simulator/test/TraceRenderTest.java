@@ -0,0 +1,335 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.StreamHandler;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+import vm.BinaryTrace;
+import vm.DeltaTrace;
+import vm.HexWordSegment;
+import vm.IOGroup;
+import vm.TraceFilter;
+import vm.VirtualMachine;
+
+/**
+ * Checks that a BinaryTrace and a DeltaTrace render to the text a
+ * StreamHandler with the same Formatter writes for the same run, with and
+ * without a TraceFilter, and that
+ * DeltaTrace.renderAt gives the state a run stopped before the instruction
+ * ends with, and the trace of the instruction. The run is longer than
+ * DeltaTrace.KEYFRAME_INTERVAL, so the delta trace has a keyframe in the
+ * middle of the run as well as after each gap of the filter.
+ */
+public class TraceRenderTest {
+
+	// iterations of the loop, of three instructions each
+	private static final int COUNT = DeltaTrace.KEYFRAME_INTERVAL / 2;
+	private static final String BEGIN = "\n\n*********BEGIN INSTRUCTION";
+	private static final String END = "*********END INSTRUCTION"
+			+ "*************************\n\n";
+	// bytes after the INDEX record of a delta trace
+	private static final int TRAILER_BYTES = 12;
+	private static final int MAGIC = 0x57693144;
+
+	/**
+	 * Counts COUNT down to zero, then writes 42 to the process output and
+	 * halts. Its data is at 0x20 - 0x22.
+	 */
+	private static final String[][] COUNTER = { { "00", "00020" },
+			{ "01", "40021" }, { "02", "D0004" }, { "03", "C3001" },
+			{ "04", "B2022" }, { "05", "C0000" },
+			{ "20", String.format("%05X", COUNT) }, { "21", "00001" },
+			{ "22", "0002A" } };
+
+	/**
+	 * Formats a message as the message and a newline.
+	 */
+	private static final Formatter FORMATTER = new Formatter() {
+		@Override
+		public String format(LogRecord record) {
+			return record.getMessage() + "\n";
+		}
+	};
+
+	/**
+	 * Returns a machine running COUNTER that logs to log.
+	 */
+	private static VirtualMachine counter(Logger log) throws Exception {
+		HexWordSegment seg = HexWordSegment.getHexWordSegment(0x00,
+				"COUNTER", 0x00, 0x22);
+		for (String[] record : COUNTER) {
+			seg.addWord(Integer.parseInt(record[0], 16), record[1]);
+		}
+		VirtualMachine vm = new VirtualMachine(seg, new IOGroup(
+				new StringReader(""), new BufferedOutputStream(
+						new ByteArrayOutputStream())), log);
+		vm.setInstructionLimit(VirtualMachine.UNLIMITED);
+		return vm;
+	}
+
+	/**
+	 * Runs COUNTER with filter, or every instruction traced if it is null, and
+	 * a trace to handler, which is closed when the run has ended.
+	 */
+	private static void run(Handler handler, TraceFilter filter)
+			throws Exception {
+		Logger log = Logger.getAnonymousLogger();
+		log.setUseParentHandlers(false);
+		log.setLevel(Level.FINE);
+		handler.setFormatter(FORMATTER);
+		log.addHandler(handler);
+		VirtualMachine vm = counter(log);
+		if (filter != null) {
+			vm.setTraceFilter(filter);
+		}
+		vm.run();
+		handler.close();
+		log.removeHandler(handler);
+	}
+
+	/**
+	 * Returns the text a StreamHandler writes for COUNTER with filter.
+	 */
+	private static String reference(TraceFilter filter) throws Exception {
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		StreamHandler handler = new StreamHandler(text, FORMATTER);
+		handler.setLevel(Level.FINE);
+		run(handler, filter);
+		return text.toString();
+	}
+
+	/**
+	 * Returns the delta trace of COUNTER with filter.
+	 */
+	private static File delta(TraceFilter filter) throws Exception {
+		File file = temp("delta");
+		run(DeltaTrace.create(file), filter);
+		return file;
+	}
+
+	/**
+	 * Returns the text of the delta trace in file.
+	 */
+	private static String render(File file) throws Exception {
+		StringWriter out = new StringWriter();
+		DeltaTrace.render(file, out, FORMATTER);
+		return out.toString();
+	}
+
+	/**
+	 * Returns the text renderAt writes for instruction number of the delta
+	 * trace in file, or null if it returns false.
+	 */
+	private static String renderAt(File file, long number) throws Exception {
+		StringWriter out = new StringWriter();
+		if (!DeltaTrace.renderAt(file, number, out, FORMATTER)) {
+			assertEquals("text for an instruction not found", "",
+					out.toString());
+			return null;
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Returns the text renderAt must write for instruction number: the state
+	 * of COUNTER stopped after number - 1 instructions, and the trace of
+	 * instruction number in the unfiltered text, the trace of every
+	 * instruction.
+	 */
+	private static String expectedAt(String text, long number)
+			throws Exception {
+		Logger log = Logger.getAnonymousLogger();
+		log.setUseParentHandlers(false);
+		log.setLevel(Level.OFF);
+		VirtualMachine vm = counter(log);
+		vm.setInstructionLimit(number - 1);
+		vm.run();
+		assertEquals("instructions before " + number, number - 1,
+				vm.getInstructionsExecuted());
+		int begin = text.indexOf(BEGIN);
+		for (long i = 1; i < number; i++) {
+			begin = text.indexOf(BEGIN, begin + 1);
+		}
+		assertTrue("no trace of " + number, begin >= 0);
+		int end = text.indexOf(END, begin) + END.length();
+		return vm.toString() + "\n" + text.substring(begin, end);
+	}
+
+	private static File temp(String prefix) throws IOException {
+		File file = File.createTempFile(prefix, ".trace");
+		file.deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Returns the offset of the INDEX record that the trailer of the delta
+	 * trace in file gives, after checking that the trailer ends the file.
+	 */
+	private static long index(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			raf.seek(raf.length() - TRAILER_BYTES);
+			long index = raf.readLong();
+			assertEquals("magic of the trailer", MAGIC, raf.readInt());
+			raf.seek(index);
+			assertEquals("kind of the INDEX record", 4, raf.read());
+			return index;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes an invalid kind over the first record of the delta trace in
+	 * file, so that only a replay from a later keyframe can succeed.
+	 */
+	private static void spoilFirstRecord(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(8);
+			raf.write(99);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * A binary trace renders to the text of the stream handler
+	 */
+	@Test
+	public void binaryTest() throws Exception {
+		File file = temp("binary");
+		run(BinaryTrace.create(file), null);
+		StringWriter out = new StringWriter();
+		BinaryTrace.render(file, out, FORMATTER);
+		assertEquals(reference(null), out.toString());
+	}
+
+	/**
+	 * A binary trace of a filtered run renders to the filtered text
+	 */
+	@Test
+	public void binaryFilterTest() throws Exception {
+		TraceFilter filter = new TraceFilter();
+		filter.addWindow(10, 20);
+		filter.addWindow(1000, 1010);
+		File file = temp("binary");
+		run(BinaryTrace.create(file), filter);
+		StringWriter out = new StringWriter();
+		BinaryTrace.render(file, out, FORMATTER);
+		assertEquals(reference(filter), out.toString());
+	}
+
+	/**
+	 * A delta trace, keyframed past KEYFRAME_INTERVAL, renders to the text of
+	 * the stream handler
+	 */
+	@Test
+	public void deltaTest() throws Exception {
+		assertTrue("run too short", 3 * COUNT > DeltaTrace.KEYFRAME_INTERVAL);
+		File file = delta(null);
+		assertTrue(DeltaTrace.isDeltaTrace(file));
+		assertEquals(reference(null), render(file));
+	}
+
+	/**
+	 * A delta trace of a filtered run renders to the filtered text; each
+	 * window after a gap begins with a keyframe
+	 */
+	@Test
+	public void deltaFilterTest() throws Exception {
+		TraceFilter filter = new TraceFilter();
+		filter.addWindow(10, 20);
+		filter.addWindow(1000, 1010);
+		filter.addWindow(DeltaTrace.KEYFRAME_INTERVAL - 5,
+				DeltaTrace.KEYFRAME_INTERVAL + 5);
+		File file = delta(filter);
+		assertEquals(reference(filter), render(file));
+		String text = reference(null);
+		for (long n : new long[] { 10, 20, 1000, 1005,
+				DeltaTrace.KEYFRAME_INTERVAL,
+				DeltaTrace.KEYFRAME_INTERVAL + 5 }) {
+			assertEquals("instruction " + n, expectedAt(text, n),
+					renderAt(file, n));
+		}
+		for (long n : new long[] { 1, 9, 21, 999, 1011, 3 * COUNT }) {
+			assertEquals("instruction " + n + " filtered out", null,
+					renderAt(file, n));
+		}
+	}
+
+	/**
+	 * renderAt gives the state before the instruction and its trace, on both
+	 * sides of the keyframe at KEYFRAME_INTERVAL
+	 */
+	@Test
+	public void renderAtTest() throws Exception {
+		File file = delta(null);
+		String text = reference(null);
+		long last = 3 * COUNT + 2;
+		for (long n : new long[] { 1, 2, DeltaTrace.KEYFRAME_INTERVAL,
+				DeltaTrace.KEYFRAME_INTERVAL + 1,
+				DeltaTrace.KEYFRAME_INTERVAL + 2, last }) {
+			assertEquals("instruction " + n, expectedAt(text, n),
+					renderAt(file, n));
+		}
+		assertEquals("past the last instruction", null, renderAt(file,
+				last + 1));
+	}
+
+	/**
+	 * renderAt starts from the keyframe the index gives, and a file without
+	 * its index is replayed from its first record
+	 */
+	@Test
+	public void indexTest() throws Exception {
+		File file = delta(null);
+		String text = reference(null);
+		long past = DeltaTrace.KEYFRAME_INTERVAL + 2;
+		long index = index(file);
+
+		File cut = temp("cut");
+		Files.copy(file.toPath(), cut.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		RandomAccessFile raf = new RandomAccessFile(cut, "rw");
+		try {
+			raf.setLength(index);
+		} finally {
+			raf.close();
+		}
+		assertEquals("render without the index", text, render(cut));
+		assertEquals("renderAt without the index", expectedAt(text, past),
+				renderAt(cut, past));
+
+		// only the index leads past the first record
+		spoilFirstRecord(file);
+		spoilFirstRecord(cut);
+		assertEquals("renderAt from the index", expectedAt(text, past),
+				renderAt(file, past));
+		try {
+			renderAt(cut, past);
+			fail("replayed a spoilt record");
+		} catch (DataFormatException e) {
+			// the first record is read without an index
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package translator;
+
+import utilities.MachineInfo;
+import vm.HexWordSegment;
+import vm.InstructionInfo;
+import vm.Operation;
+import vm.PackedField;
+
+/**
+ * Translates a Wi12 segment (see HexWordSegment) ahead of time into the source
+ * of a Java class that extends vm.TranslatedProgram. Every word of the segment
+ * becomes one case of a switch on the program counter, and the cases follow
+ * each other in address order so that straight-line code falls through from
+ * one instruction to the next. A branch sets the program counter and goes back
+ * to the switch. Instructions that read input, write output, halt, use a
+ * register for their address or can give a warning are left to the
+ * interpreter through TranslatedProgram.interpret; everything else is done by
+ * the translated code itself. Addresses outside the segment have no case, so
+ * the virtual machine interprets them.
+ * 
+ * The class has a main that runs the program with
+ * exec.LoadAndExecute.runTranslated.
+ * 
+ * @author Dragon Slayer
+ */
+public class Wi12Translator {
+
+	private static final PackedField WORD = PackedField.WORD;
+	private static final PackedField ADDRESS = PackedField.ADDRESS;
+	private static final int size = MachineInfo.WORDS_IN_MEM;
+
+	/**
+	 * Description: returns the source of a Java class named className that
+	 * runs the segment seg.
+	 * 
+	 * @requires className is a valid Java identifier and seg is for
+	 *           MachineConfig.DEFAULT
+	 * @alters N/A
+	 * @ensures seg is unchanged
+	 * @param seg
+	 *            - segment to be translated
+	 * @param className
+	 *            - name of the class to be written
+	 * @return the source of the class
+	 */
+	public static String translate(HexWordSegment seg, String className) {
+		int[] image = seg.getImage();
+		StringBuilder out = new StringBuilder();
+		out.append("// Translated from the Wi12 segment \"")
+				.append(javaString(seg.name))
+				.append("\" by translator.Wi12Translator.\n");
+		out.append("import java.io.IOException;\n\n");
+		out.append("import vm.TranslatedProgram;\n\n");
+		out.append("public final class ").append(className)
+				.append(" extends TranslatedProgram {\n\n");
+		out.append("\tprivate static final int[] SEGMENT = {");
+		for (int i = 0; i < image.length; i++) {
+			out.append(i % 8 == 0 ? "\n\t\t\t" : " ");
+			out.append(hex(image[i], 5)).append(',');
+		}
+		out.append(" };\n\n");
+		out.append("\tpublic ").append(className).append("() {\n");
+		out.append("\t\tsuper(\"").append(javaString(seg.name)).append("\", ")
+				.append(hex(seg.execStart, 2)).append(", ")
+				.append(hex(seg.startAdd, 2)).append(", SEGMENT);\n");
+		out.append("\t}\n\n");
+		out.append("\tpublic static void main(String[] args) {\n");
+		out.append("\t\texec.LoadAndExecute.runTranslated(new ")
+				.append(className).append("(), args);\n");
+		out.append("\t}\n\n");
+		out.append("\t@Override\n");
+		out.append("\tprotected int execute(int pc) throws IOException {\n");
+		out.append("\t\twhile (true) {\n");
+		out.append("\t\t\tswitch (pc) {\n");
+		out.append("\t\t\tdefault:\n");
+		out.append("\t\t\t\treturn pc;\n");
+		int addr = seg.startAdd;
+		boolean fallsThrough = false;
+		for (int i = 0; i < image.length; i++, addr++) {
+			fallsThrough = translateInstruction(out, addr, image[i]);
+		}
+		if (fallsThrough) {
+			// the last word of the segment goes on to the next address
+			jump(out, hex(ADDRESS.mask(addr), 2));
+		}
+		out.append("\t\t\t}\n");
+		out.append("\t\t}\n");
+		out.append("\t}\n");
+		out.append("}\n");
+		return out.toString();
+	}
+
+	/**
+	 * Description: appends the case for the instruction word at address addr
+	 * and returns true iff its code can go on to the next case.
+	 * 
+	 * @requires 0 <= addr < 256
+	 * @alters out
+	 * @ensures word is unchanged
+	 * @param out
+	 *            - source being written
+	 * @param addr
+	 *            - address of the instruction
+	 * @param word
+	 *            - packed instruction word
+	 * @return true iff the code of the case can complete normally
+	 */
+	private static boolean translateInstruction(StringBuilder out, int addr,
+			int word) {
+		InstructionInfo info = InstructionInfo.decodeInstruction(word);
+		String a = hex(addr, 2);
+		String r = Integer.toString(info.rIndex);
+		String s = hex(info.sIndex, 2);
+		int next = ADDRESS.increment(addr);
+		out.append("\t\t\tcase ").append(a).append(": // ")
+				.append(hex(word, 5)).append(' ').append(describe(info))
+				.append('\n');
+		out.append("\t\t\t\tif (step(").append(a).append(")) {\n");
+		out.append("\t\t\t\t\treturn ").append(a).append(";\n");
+		out.append("\t\t\t\t}\n");
+		String interpret = "\t\t\t\tinterpret(" + a + ");\n";
+		String interpretBranch = "\t\t\t\tpc = interpret(" + a + ");\n"
+				+ "\t\t\t\tcontinue;\n";
+		boolean branch = info.op == Operation.BR || info.op == Operation.BRZ
+				|| info.op == Operation.BRN || info.op == Operation.BRS;
+		if (info.op == Operation.NOP) {
+			return true;
+		}
+		if (info.xIndex != 0 || info.sIndex >= size) {
+			out.append(branch ? interpretBranch : interpret);
+			return !branch;
+		}
+		switch (info.op) {
+		case LD:
+			call(out, "load", r, s);
+			break;
+		case LDI:
+			call(out, "loadImmediate", r, s);
+			break;
+		case ST:
+			call(out, "store", r, s);
+			break;
+		case ADD:
+			call(out, "add", r, s);
+			break;
+		case SUB:
+			call(out, "subtract", r, s);
+			break;
+		case MUL:
+			call(out, "multiply", r, s);
+			break;
+		case DIV:
+			out.append("\t\t\t\tif (!divide(").append(r).append(", ").append(s)
+					.append(")) {\n");
+			out.append("\t\t\t\t\tinterpret(").append(a).append(");\n");
+			out.append("\t\t\t\t}\n");
+			break;
+		case OR:
+			call(out, "or", r, s);
+			break;
+		case AND:
+			call(out, "and", r, s);
+			break;
+		case SHL:
+		case SHR:
+			if (info.sIndex > WORD.length - 1) {
+				out.append(interpret);
+			} else {
+				call(out, info.op == Operation.SHL ? "shiftLeft"
+						: "shiftRight", r, s);
+			}
+			break;
+		case IO:
+			out.append(interpret);
+			break;
+		case BR:
+			if (info.rIndex == 3) {
+				jump(out, s);
+			} else if (info.rIndex == 2
+					&& WORD.add(info.sIndex, next) < size) {
+				jump(out, hex(WORD.add(info.sIndex, next), 2));
+			} else {
+				// halts, dumps and illegal targets
+				out.append(interpretBranch);
+			}
+			return false;
+		case BRZ:
+		case BRN:
+			out.append("\t\t\t\tif (")
+					.append(info.op == Operation.BRZ ? "isZero" : "isNegative")
+					.append('(').append(r).append(")) {\n");
+			out.append("\t\t\t\t\tpc = ").append(s).append(";\n");
+			out.append("\t\t\t\t\tcontinue;\n");
+			out.append("\t\t\t\t}\n");
+			break;
+		case BRS:
+			out.append("\t\t\t\tstorePC(").append(r).append(", ")
+					.append(hex(next, 2)).append(");\n");
+			jump(out, s);
+			return false;
+		default:
+			break;
+		}
+		return true;
+	}
+
+	private static void call(StringBuilder out, String method, String r,
+			String s) {
+		out.append("\t\t\t\t").append(method).append('(').append(r)
+				.append(", ").append(s).append(");\n");
+	}
+
+	private static void jump(StringBuilder out, String target) {
+		out.append("\t\t\t\tpc = ").append(target).append(";\n");
+		out.append("\t\t\t\tcontinue;\n");
+	}
+
+	/**
+	 * Description: returns the instruction in the form "OP r,s(x)" for the
+	 * comment of its case.
+	 */
+	private static String describe(InstructionInfo info) {
+		if (info.op == Operation.NOP) {
+			return "NOP";
+		}
+		String text = info.op + " " + info.rIndex + "," + hex(info.sIndex, 2);
+		if (info.xIndex != 0) {
+			text += "(" + info.xIndex + ")";
+		}
+		return text;
+	}
+
+	private static String hex(int value, int digits) {
+		String hex = Integer.toHexString(value).toUpperCase();
+		while (hex.length() < digits) {
+			hex = "0" + hex;
+		}
+		return "0x" + hex;
+	}
+
+	private static String javaString(String text) {
+		StringBuilder escaped = new StringBuilder();
+		for (char c : text.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				escaped.append('\\').append(c);
+			} else if (c < ' ' || c > '~') {
+				escaped.append(String.format("\\u%04x", (int) c));
+			} else {
+				escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+}
@@ -28,6 +28,8 @@ public class CharChecker {
 												// separator characters
 	public static final int ASCIISEPMAX2 = 160;// Maximum value of second set of
 												// separator characters
+	public static final long NOT_A_NUMBER = Long.MIN_VALUE;// parseDecimal of
+															// an invalid number
 
 	private static Set<Integer> ASCIIDigits;
 	private static Set<Integer> ASCIIPrintable;
@@ -243,4 +245,49 @@ public class CharChecker {
 		}
 		return ASCIISeparators.contains(nextChar);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Description: returns the value of the decimal number text, accepting
+	 * exactly the strings Integer.parseInt accepts, or NOT_A_NUMBER for any
+	 * string Integer.parseInt would throw a NumberFormatException for. Numbers
+	 * read from the process input are checked with this, so an invalid number
+	 * costs no exception.
+	 * 
+	 * @requires text is not null
+	 * @alters N/A
+	 * @ensures text unchanged
+	 * @param text
+	 *            - an optional sign followed by decimal digits
+	 * @return the value of text, or NOT_A_NUMBER
+	 */
+	public static long parseDecimal(CharSequence text) {
+		int length = text.length();
+		int i = 0;
+		boolean negative = false;
+		if (length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+			negative = text.charAt(0) == '-';
+			i = 1;
+		}
+		if (i == length) {
+			return NOT_A_NUMBER;
+		}
+		long value = 0;
+		for (; i < length; i++) {
+			int digit = Character.digit(text.charAt(i), 10);
+			if (digit < 0) {
+				return NOT_A_NUMBER;
+			}
+			// once value is out of range it only needs to stay out of range
+			if (value <= Integer.MAX_VALUE + 1L) {
+				value = value * 10 + digit;
+			}
+		}
+		if (negative) {
+			value = -value;
+		}
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			return NOT_A_NUMBER;
+		}
+		return value;
+	}
+}
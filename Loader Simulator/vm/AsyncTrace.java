@@ -0,0 +1,436 @@
+package vm;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.zip.DataFormatException;
+
+/**
+ * A process trace written by a thread of its own. The thread running the
+ * virtual machine only puts each trace, as the record of Trace.write, or
+ * each LogRecord, into a ring of CAPACITY slots; the writer thread takes them
+ * out in order, formats them with the Formatter of the handler and writes the
+ * text to the process-trace file, the same text a FileHandler would have
+ * written. The ring has one producer and one consumer and no locks: each side
+ * only moves its own counter, and reads the other's.
+ * 
+ * When the ring is full, the Backpressure of the handler decides: BLOCK waits
+ * for the writer, DROP leaves out the traces of instructions (messages still
+ * wait) and writes a line with the number left out in their place, and SPILL
+ * writes what follows to a BinaryTrace file next to the process-trace until
+ * the ring is half empty again; the writer renders the spill file in its
+ * place and deletes it. flush waits until the writer has written everything
+ * put in the ring before it, and close until it has written everything.
+ * 
+ * The handler must be used by one thread at a time, the thread running the
+ * machine; messages logged from other threads must not overlap its use.
+ * 
+ * @author Dragon Slayer
+ */
+public final class AsyncTrace extends TraceHandler {
+
+	/**
+	 * What a thread putting a trace into a full ring does.
+	 */
+	public enum Backpressure {
+		/**
+		 * waits until the writer has made room
+		 */
+		BLOCK,
+		/**
+		 * leaves the traces of instructions out, counting them
+		 */
+		DROP,
+		/**
+		 * writes to a spill file until the ring has room
+		 */
+		SPILL
+	}
+
+	/**
+	 * Number of slots in the ring.
+	 */
+	public static final int CAPACITY = 1 << 14;
+
+	private static final int MASK = CAPACITY - 1;
+	private static final byte TEXT = 0;
+	private static final byte CONFIG = 1;
+	private static final byte INSTRUCTION = 2;
+	private static final byte DROPPED = 3;
+	private static final byte SPILLED = 4;
+	// nanoseconds either side waits before looking at the ring again
+	private static final long WAIT = 50000;
+
+	private final Backpressure backpressure;
+	private final String spillName;
+	private final Writer out;
+	private final Thread writer;
+
+	// the slots: the kind of each, its object, and the record of a trace
+	private final byte[] kinds = new byte[CAPACITY];
+	private final Object[] objects = new Object[CAPACITY];
+	private final ByteBuffer records = ByteBuffer
+			.allocate(CAPACITY * Trace.RECORD_BYTES);
+	// number of slots the writer has taken
+	private final AtomicLong head = new AtomicLong();
+	// number of slots put in the ring
+	private final AtomicLong tail = new AtomicLong();
+	// number of slots written and flushed to the file
+	private final AtomicLong flushed = new AtomicLong();
+	private volatile boolean closing;
+
+	// the producer's side
+	private final ByteBuffer producerRecords = this.records.duplicate();
+	private long next;
+	private long dropped;
+	private Spill spill;
+	private int spills;
+	private MachineConfig config;
+	private boolean closed;
+
+	/**
+	 * Description: creates a handler writing to out with backpressure, and
+	 * starts its writer.
+	 */
+	private AsyncTrace(Writer out, Backpressure backpressure, String spillName) {
+		this.out = out;
+		this.backpressure = backpressure;
+		this.spillName = spillName;
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				AsyncTrace.this.drain();
+			}
+		}, "AsyncTrace writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Description: creates an asynchronous trace to file, replacing it, with
+	 * backpressure for a full ring. Spill files are named file.spillN. Its
+	 * level is FINE.
+	 * 
+	 * @requires true
+	 * @alters file is empty
+	 * @ensures true
+	 * @param file
+	 *            - the process-trace file
+	 * @param backpressure
+	 *            - what to do when the ring is full
+	 * @return a handler writing to file
+	 * @throws IOException
+	 */
+	public static AsyncTrace create(File file, Backpressure backpressure)
+			throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file)));
+		return new AsyncTrace(out, backpressure, file.getPath() + ".spill");
+	}
+
+	/**
+	 * Description: puts config in the ring.
+	 */
+	@Override
+	void begin(MachineConfig config) throws IOException {
+		this.config = config;
+		if (this.room(false)) {
+			this.put(CONFIG, config);
+		} else {
+			this.spill.trace.begin(config);
+		}
+	}
+
+	/**
+	 * Description: puts the record of trace in the ring, or drops or spills
+	 * it if the ring is full.
+	 */
+	@Override
+	void write(Trace trace, long number) throws IOException {
+		if (this.room(true)) {
+			int slot = (int) this.next & MASK;
+			this.producerRecords.position(slot * Trace.RECORD_BYTES);
+			trace.write(this.producerRecords);
+			this.put(INSTRUCTION, trace.error());
+		} else if (this.spill != null) {
+			this.spill.trace.write(trace, number);
+		} else {
+			this.dropped++;
+		}
+	}
+
+	/**
+	 * Description: puts record in the ring if it is loggable, or spills it if
+	 * the ring is full.
+	 */
+	@Override
+	public void publish(LogRecord record) {
+		if (this.closed || !this.isLoggable(record)) {
+			return;
+		}
+		try {
+			if (this.room(false)) {
+				this.put(TEXT, record);
+			} else {
+				this.spill.trace.publish(record);
+			}
+		} catch (IOException e) {
+			this.reportError(null, e, ErrorManager.WRITE_FAILURE);
+		}
+	}
+
+	/**
+	 * Description: waits until the writer has written and flushed everything
+	 * put in the ring so far, the count of any traces dropped last included.
+	 */
+	@Override
+	public void flush() {
+		if (this.closed) {
+			return;
+		}
+		this.endSpill();
+		this.putDropped();
+		long target = this.next;
+		while (this.flushed.get() < target && this.writer.isAlive()) {
+			LockSupport.parkNanos(WAIT);
+		}
+	}
+
+	/**
+	 * Description: waits until the writer has written everything, and closes
+	 * the process-trace file.
+	 */
+	@Override
+	public void close() {
+		if (this.closed) {
+			return;
+		}
+		this.endSpill();
+		this.putDropped();
+		this.closed = true;
+		this.closing = true;
+		try {
+			this.writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			this.out.close();
+		} catch (IOException e) {
+			this.reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+	}
+
+	/**
+	 * Description: returns true iff an event may be put in the ring. Ends a
+	 * spill once the ring is half empty. The count of traces dropped is put
+	 * in the ring before the event, once there is room for both, so a gap is
+	 * marked once. If the ring is full, a trace that may be dropped is dropped
+	 * with DROP, and with SPILL a spill is begun if there is none; otherwise
+	 * the thread waits for room. One slot is kept for the marker of a spill.
+	 */
+	private boolean room(boolean droppable) throws IOException {
+		if (this.spill != null) {
+			if (this.used() > CAPACITY / 2) {
+				return false;
+			}
+			this.endSpill();
+		}
+		while (true) {
+			// free slots besides the one kept
+			int free = CAPACITY - 1 - this.used();
+			if (this.dropped > 0 && free >= 2) {
+				this.put(DROPPED, Long.valueOf(this.dropped));
+				this.dropped = 0;
+				free--;
+			}
+			if (free >= 1 && this.dropped == 0) {
+				return true;
+			} else if (this.backpressure == Backpressure.SPILL) {
+				this.beginSpill();
+				return false;
+			} else if (this.backpressure == Backpressure.DROP && droppable) {
+				return false;
+			} else if (!this.writer.isAlive()) {
+				throw new IOException("trace writer stopped");
+			}
+			LockSupport.parkNanos(WAIT);
+		}
+	}
+
+	/**
+	 * Description: puts the count of the traces dropped in the ring, if any
+	 * have been dropped since the last count.
+	 */
+	private void putDropped() {
+		if (this.dropped > 0) {
+			try {
+				this.room(false);
+			} catch (IOException e) {
+				this.reportError(null, e, ErrorManager.WRITE_FAILURE);
+			}
+		}
+	}
+
+	/**
+	 * Description: returns the number of slots in the ring not yet taken by
+	 * the writer.
+	 */
+	private int used() {
+		return (int) (this.next - this.head.get());
+	}
+
+	/**
+	 * Description: puts an event of kind with object in the next slot, whose
+	 * record has been written if it has one.
+	 */
+	private void put(byte kind, Object object) {
+		int slot = (int) this.next & MASK;
+		this.kinds[slot] = kind;
+		this.objects[slot] = object;
+		this.next++;
+		// the slot is written before the writer can see it
+		this.tail.lazySet(this.next);
+	}
+
+	/**
+	 * Description: puts the marker of a new spill file in the kept slot, and
+	 * spills what follows to it.
+	 */
+	private void beginSpill() throws IOException {
+		File file = new File(this.spillName + this.spills++);
+		Spill spill = new Spill(file, BinaryTrace.create(file));
+		spill.trace.setFormatter(this.getFormatter());
+		if (this.config != null) {
+			spill.trace.begin(this.config);
+		}
+		this.put(SPILLED, spill);
+		this.spill = spill;
+	}
+
+	/**
+	 * Description: ends the spill, if there is one, so that the writer can
+	 * render it.
+	 */
+	private void endSpill() {
+		if (this.spill != null) {
+			this.spill.trace.close();
+			this.spill.done = true;
+			this.spill = null;
+		}
+	}
+
+	/**
+	 * Description: the writer: takes the slots out of the ring in order and
+	 * writes their text until the handler is closed and the ring is empty.
+	 * After an IOException the error is reported and the slots are only
+	 * taken, so the machine is never kept waiting.
+	 */
+	private void drain() {
+		ByteBuffer records = this.records.duplicate();
+		Trace trace = null;
+		boolean failed = false;
+		while (true) {
+			long h = this.head.get();
+			if (h == this.tail.get()) {
+				if (this.flushed.get() != h) {
+					try {
+						this.out.flush();
+					} catch (IOException e) {
+						failed = this.fail(failed, e);
+					}
+					this.flushed.set(h);
+				}
+				if (this.closing && h == this.tail.get()) {
+					return;
+				}
+				LockSupport.parkNanos(WAIT);
+				continue;
+			}
+			int slot = (int) h & MASK;
+			Object object = this.objects[slot];
+			try {
+				switch (this.kinds[slot]) {
+				case TEXT:
+					if (!failed) {
+						this.out.write(this.getFormatter().format(
+								(LogRecord) object));
+					}
+					break;
+				case CONFIG:
+					trace = new Trace((MachineConfig) object);
+					break;
+				case INSTRUCTION:
+					records.position(slot * Trace.RECORD_BYTES);
+					trace.read(records, (String) object);
+					if (!failed) {
+						this.out.write(this.getFormatter().format(
+								new LogRecord(Level.FINE, trace.toString())));
+					}
+					break;
+				case DROPPED:
+					if (!failed) {
+						this.out.write(this.getFormatter().format(
+								new LogRecord(Level.FINE, "Traces of " + object
+										+ " instructions dropped.")));
+					}
+					break;
+				case SPILLED:
+					Spill spill = (Spill) object;
+					while (!spill.done) {
+						LockSupport.parkNanos(WAIT);
+					}
+					if (!failed) {
+						BinaryTrace.render(spill.file, this.out,
+								this.getFormatter());
+					}
+					spill.file.delete();
+					break;
+				}
+			} catch (IOException e) {
+				failed = this.fail(failed, e);
+			} catch (DataFormatException e) {
+				failed = this.fail(failed, new IOException(e.getMessage()));
+			}
+			this.objects[slot] = null;
+			// the slot is read before the machine can reuse it
+			this.head.lazySet(h + 1);
+		}
+	}
+
+	/**
+	 * Description: reports e unless an error has been reported already, and
+	 * returns true.
+	 */
+	private boolean fail(boolean failed, IOException e) {
+		if (!failed) {
+			this.reportError(null, e, ErrorManager.WRITE_FAILURE);
+		}
+		return true;
+	}
+
+	/**
+	 * A spill file and the BinaryTrace writing it.
+	 */
+	private static final class Spill {
+
+		final File file;
+		final BinaryTrace trace;
+		// true once nothing more is spilled to the file
+		volatile boolean done;
+
+		Spill(File file, BinaryTrace trace) {
+			this.file = file;
+			this.trace = trace;
+		}
+	}
+}
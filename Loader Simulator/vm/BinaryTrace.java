@@ -0,0 +1,191 @@
+package vm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.zip.DataFormatException;
+
+/**
+ * A process trace written as binary records to a memory-mapped file instead
+ * of as text. It is a TraceHandler: attached to the Logger of a run, it
+ * writes every message logged to it, formatted by its Formatter, as a text
+ * record, and the trace of each instruction as a fixed-width record of the
+ * numbers in its Trace, without making a string. render turns the file
+ * back into exactly the text a handler with the same Formatter would have
+ * written.
+ * 
+ * The file holds, in big-endian order, the int "Wi1T" and a version, then
+ * records, each starting with a byte for its kind: TEXT and ERROR are
+ * followed by an int length and that many chars, CONFIG by the int bits in an
+ * address of the machines whose instructions follow, and INSTRUCTION by the
+ * Trace.RECORD_BYTES bytes of a Trace. An ERROR holds the error message of the
+ * instruction after it.
+ * 
+ * The file is written as MappedRecords.
+ * 
+ * @author Dragon Slayer
+ */
+public final class BinaryTrace extends TraceHandler {
+
+	private static final int MAGIC = 0x57693154;
+	private static final int VERSION = 1;
+	private static final byte TEXT = 0;
+	private static final byte ERROR = 1;
+	private static final byte CONFIG = 2;
+	private static final byte INSTRUCTION = 3;
+
+	private final MappedRecords records;
+
+	/**
+	 * Description: creates a binary trace writing to records.
+	 */
+	private BinaryTrace(MappedRecords records) {
+		this.records = records;
+	}
+
+	/**
+	 * Description: creates a binary trace in file, replacing it. Its level is
+	 * FINE.
+	 * 
+	 * @requires true
+	 * @alters file holds a binary trace without records
+	 * @ensures true
+	 * @param file
+	 *            - the binary trace file
+	 * @return a handler writing to file
+	 * @throws IOException
+	 */
+	public static BinaryTrace create(File file) throws IOException {
+		return new BinaryTrace(MappedRecords.create(file, MAGIC, VERSION));
+	}
+
+	/**
+	 * Description: writes a CONFIG record of config.
+	 */
+	@Override
+	synchronized void begin(MachineConfig config) throws IOException {
+		ByteBuffer buf = this.records.reserve(5);
+		buf.put(CONFIG);
+		buf.putInt(config.bitsInAddress);
+	}
+
+	/**
+	 * Description: writes trace as an INSTRUCTION record, after an ERROR
+	 * record if the instruction had an error.
+	 */
+	@Override
+	synchronized void write(Trace trace, long number) throws IOException {
+		String error = trace.error();
+		if (error != null) {
+			this.records.writeText(ERROR, error);
+		}
+		ByteBuffer buf = this.records.reserve(1 + Trace.RECORD_BYTES);
+		buf.put(INSTRUCTION);
+		trace.write(buf);
+	}
+
+	/**
+	 * Description: writes the message of record, formatted, as a TEXT record
+	 * if it is loggable.
+	 */
+	@Override
+	public synchronized void publish(LogRecord record) {
+		if (!this.isLoggable(record)) {
+			return;
+		}
+		try {
+			this.records.writeText(TEXT, this.getFormatter().format(record));
+		} catch (IOException e) {
+			this.reportError(null, e, ErrorManager.WRITE_FAILURE);
+		} catch (IllegalStateException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Description: does nothing; the records are in the mapped file as soon
+	 * as they are written.
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * Description: cuts the file to the length of the records written and
+	 * closes it.
+	 */
+	@Override
+	public synchronized void close() {
+		if (this.records.isClosed()) {
+			return;
+		}
+		try {
+			this.records.close();
+		} catch (IOException e) {
+			this.reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+	}
+
+	/**
+	 * Description: writes the text of the binary trace in file to out: each
+	 * TEXT record as it is, and each INSTRUCTION record as its Trace would
+	 * have been formatted by formatter when logged as fine.
+	 * 
+	 * @requires formatter is the Formatter the binary trace was written with
+	 * @alters out
+	 * @ensures file is unchanged
+	 * @param file
+	 *            - the binary trace file
+	 * @param out
+	 *            - destination of the text
+	 * @param formatter
+	 *            - Formatter of the messages
+	 * @throws IOException
+	 * @throws DataFormatException
+	 *             if file is not a binary trace
+	 */
+	public static void render(File file, Writer out, Formatter formatter)
+			throws IOException, DataFormatException {
+		MappedByteBuffer buf = MappedRecords.map(file, MAGIC, VERSION,
+				"binary trace");
+		try {
+			Trace trace = null;
+			String error = null;
+			while (buf.hasRemaining()) {
+				byte kind = buf.get();
+				if (kind == TEXT) {
+					out.write(MappedRecords.readText(buf));
+				} else if (kind == ERROR) {
+					error = MappedRecords.readText(buf);
+				} else if (kind == CONFIG) {
+					try {
+						trace = new Trace(MachineConfig.forAddressBits(buf
+								.getInt()));
+					} catch (IllegalArgumentException e) {
+						throw new DataFormatException(e.getMessage());
+					}
+				} else if (kind == INSTRUCTION && trace != null) {
+					try {
+						trace.read(buf, error);
+					} catch (ArrayIndexOutOfBoundsException e) {
+						throw new DataFormatException("Invalid operation");
+					}
+					error = null;
+					out.write(formatter.format(new LogRecord(Level.FINE, trace
+							.toString())));
+				} else {
+					throw new DataFormatException("Invalid record");
+				}
+			}
+		} catch (BufferUnderflowException e) {
+			throw new DataFormatException("Binary trace too short");
+		}
+	}
+}
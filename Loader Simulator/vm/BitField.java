@@ -176,7 +176,12 @@ public class BitField {
 	 * @return the decimal value of the BitField
 	 */
 	public int toDecInt() {
-		return Integer.parseInt(this.toBinString(), 2);
+		// accumulate the bits directly instead of going through a string
+		int value = 0;
+		for (int i = this.length - 1; i >= 0; i--) {
+			value = (value << 1) | BinHexConverter.boolToBin(this.rep[i]);
+		}
+		return value;
 	}
 
 	/**
@@ -0,0 +1,333 @@
+package vm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the class file of one compiled block: a final class that implements
+ * CompiledBlock, with a public no argument constructor and the execute method.
+ * Only the small part of the class file format that BlockCompiler needs is
+ * supported. The class is written as version 49 so that its code needs no
+ * stack map frames, which lets the code of execute be written straight through
+ * with forward jumps patched once their target is known.
+ * 
+ * @author Dragon Slayer
+ */
+final class BlockClassWriter {
+
+	static final int ALOAD_1 = 0x2B;
+	static final int ALOAD_2 = 0x2C;
+	static final int ALOAD_3 = 0x2D;
+	static final int ILOAD = 0x15;
+	static final int ISTORE = 0x36;
+	static final int IALOAD = 0x2E;
+	static final int IASTORE = 0x4F;
+	static final int DUP2 = 0x5C;
+	static final int IADD = 0x60;
+	static final int ISUB = 0x64;
+	static final int IMUL = 0x68;
+	static final int ISHL = 0x78;
+	static final int IAND = 0x7E;
+	static final int IOR = 0x80;
+	static final int LOR = 0x81;
+	static final int I2L = 0x85;
+	static final int IFEQ = 0x99;
+	static final int IFNE = 0x9A;
+	static final int IF_ICMPLT = 0xA1;
+	static final int IF_ICMPLE = 0xA4;
+	static final int LRETURN = 0xAD;
+
+	private static final int CLASS_VERSION = 49;
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+	private static final int MAX_STACK = 8;
+	private static final int MAX_LOCALS = 6;
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolOut = new DataOutputStream(this.pool);
+	private final Map<String, Integer> poolIndex = new HashMap<String, Integer>();
+	private int poolCount = 1;
+	private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+	private final String className;
+
+	/**
+	 * Description: starts the class file of a block class named className.
+	 * 
+	 * @requires className is a binary class name in package vm, like
+	 *           "vm/Block"
+	 * @alters creates a BlockClassWriter with no code
+	 * @ensures true
+	 * @param className
+	 *            - internal name of the class being written
+	 */
+	BlockClassWriter(String className) {
+		this.className = className;
+	}
+
+	/**
+	 * Description: adds one byte of code to execute.
+	 * 
+	 * @requires 0 <= op <= 255
+	 * @alters the code of execute
+	 * @ensures true
+	 * @param op
+	 *            - op code or operand byte
+	 */
+	void op(int op) {
+		this.code.write(op);
+	}
+
+	/**
+	 * Description: adds an instruction with a one byte local variable operand.
+	 * 
+	 * @requires 0 <= local < MAX_LOCALS
+	 * @alters the code of execute
+	 * @ensures true
+	 * @param op
+	 *            - ILOAD or ISTORE
+	 * @param local
+	 *            - index of the local variable
+	 */
+	void local(int op, int local) {
+		this.code.write(op);
+		this.code.write(local);
+	}
+
+	/**
+	 * Description: adds code that pushes the int constant value, using the
+	 * shortest instruction that can hold it.
+	 * 
+	 * @requires true
+	 * @alters the code of execute and possibly the constant pool
+	 * @ensures true
+	 * @param value
+	 *            - constant to be pushed
+	 */
+	void pushInt(int value) {
+		if (value >= -1 && value <= 5) {
+			// iconst_m1 through iconst_5
+			this.code.write(0x03 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			this.code.write(0x10); // bipush
+			this.code.write(value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			this.code.write(0x11); // sipush
+			this.writeShort(value);
+		} else {
+			this.code.write(0x13); // ldc_w
+			this.writeShort(this.constant("I" + value, 3, value));
+		}
+	}
+
+	/**
+	 * Description: adds code that pushes the long constant value.
+	 * 
+	 * @requires true
+	 * @alters the code of execute and possibly the constant pool
+	 * @ensures true
+	 * @param value
+	 *            - constant to be pushed
+	 */
+	void pushLong(long value) {
+		this.code.write(0x14); // ldc2_w
+		this.writeShort(this.constant("J" + value, 5, value));
+	}
+
+	/**
+	 * Description: adds a call to the static method name of BlockCompiler.
+	 * 
+	 * @requires BlockCompiler has a static method name with descriptor
+	 * @alters the code of execute and possibly the constant pool
+	 * @ensures true
+	 * @param name
+	 *            - name of the method
+	 * @param descriptor
+	 *            - type descriptor of the method
+	 */
+	void invokeHelper(String name, String descriptor) {
+		this.code.write(0xB8); // invokestatic
+		this.writeShort(this.methodRef("vm/BlockCompiler", name, descriptor));
+	}
+
+	/**
+	 * Description: adds the jump instruction op with a target that is not
+	 * known yet and returns its position for patchJump.
+	 * 
+	 * @requires op is a conditional jump or goto
+	 * @alters the code of execute
+	 * @ensures true
+	 * @param op
+	 *            - jump instruction
+	 * @return the position of the jump in the code
+	 */
+	int jump(int op) {
+		int at = this.code.size();
+		this.code.write(op);
+		this.writeShort(0);
+		return at;
+	}
+
+	/**
+	 * Description: makes the jump at position at go to the end of the code
+	 * written so far.
+	 * 
+	 * @requires at was returned by jump
+	 * @alters the code of execute
+	 * @ensures true
+	 * @param at
+	 *            - position of the jump
+	 */
+	void patchJump(int at) {
+		byte[] written = this.code.toByteArray();
+		int offset = written.length - at;
+		written[at + 1] = (byte) (offset >> 8);
+		written[at + 2] = (byte) offset;
+		this.code.reset();
+		this.code.write(written, 0, written.length);
+	}
+
+	/**
+	 * Description: returns the length of the code written so far.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures true
+	 * @return the number of bytes of code
+	 */
+	int codeLength() {
+		return this.code.size();
+	}
+
+	/**
+	 * Description: returns the finished class file.
+	 * 
+	 * @requires the code of execute ends with a return
+	 * @alters the constant pool
+	 * @ensures true
+	 * @return the bytes of the class file
+	 */
+	byte[] toByteArray() {
+		int thisClass = this.classRef(this.className);
+		int superClass = this.classRef("java/lang/Object");
+		int blockInterface = this.classRef("vm/CompiledBlock");
+		int objectInit = this.methodRef("java/lang/Object", "<init>", "()V");
+		int init = this.utf8("<init>");
+		int initType = this.utf8("()V");
+		int execute = this.utf8("execute");
+		int executeType = this.utf8("([I[ILvm/Memory;)J");
+		int codeName = this.utf8("Code");
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(CLASS_VERSION);
+			out.writeShort(this.poolCount);
+			this.poolOut.flush();
+			this.pool.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(blockInterface);
+			out.writeShort(0); // no fields
+			out.writeShort(2); // constructor and execute
+			// public constructor that only calls Object()
+			byte[] initCode = { 0x2A, (byte) 0xB7, (byte) (objectInit >> 8),
+					(byte) objectInit, (byte) 0xB1 };
+			this.writeMethod(out, init, initType, codeName, 1, 1, initCode);
+			this.writeMethod(out, execute, executeType, codeName, MAX_STACK,
+					MAX_LOCALS, this.code.toByteArray());
+			out.writeShort(0); // no attributes
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// writing to a byte array does not fail
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void writeMethod(DataOutputStream out, int name, int type,
+			int codeName, int maxStack, int maxLocals, byte[] body)
+			throws IOException {
+		out.writeShort(ACC_PUBLIC);
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + body.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(body.length);
+		out.write(body);
+		out.writeShort(0); // no exception table
+		out.writeShort(0); // no attributes
+	}
+
+	private void writeShort(int value) {
+		this.code.write(value >> 8);
+		this.code.write(value);
+	}
+
+	private int utf8(String value) {
+		Integer index = this.poolIndex.get("U" + value);
+		if (index == null) {
+			index = this.poolCount++;
+			this.poolIndex.put("U" + value, index);
+			try {
+				this.poolOut.writeByte(1);
+				this.poolOut.writeUTF(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return index;
+	}
+
+	private int classRef(String name) {
+		int nameIndex = this.utf8(name);
+		return this.constant("C" + name, 7, nameIndex);
+	}
+
+	private int methodRef(String owner, String name, String descriptor) {
+		int ownerIndex = this.classRef(owner);
+		int nameType = this.constant("N" + name + descriptor, 12,
+				((long) this.utf8(name) << 16) | this.utf8(descriptor));
+		return this.constant("M" + owner + "." + name + descriptor, 10,
+				((long) ownerIndex << 16) | nameType);
+	}
+
+	/**
+	 * Description: returns the pool index of the constant named key, adding it
+	 * with tag and value if it is not in the pool yet. Integer constants (tag
+	 * 3) write value as an int, long constants (tag 5) as a long that takes two
+	 * entries, and class constants (tag 7) as a short. References (tags 10 and
+	 * 12) write value as two shorts, packed in its low 32 bits.
+	 */
+	private int constant(String key, int tag, long value) {
+		Integer index = this.poolIndex.get(key);
+		if (index != null) {
+			return index;
+		}
+		index = this.poolCount;
+		this.poolCount += tag == 5 ? 2 : 1;
+		this.poolIndex.put(key, index);
+		try {
+			this.poolOut.writeByte(tag);
+			if (tag == 5) {
+				this.poolOut.writeLong(value);
+			} else if (tag == 7) {
+				this.poolOut.writeShort((int) value);
+			} else {
+				this.poolOut.writeInt((int) value);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,590 @@
+package vm;
+
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Compiles hot basic blocks of Wi12 code into JVM bytecode for the TIERED
+ * engine. A block starts at the address the program counter arrives at after a
+ * branch and runs up to and including the first BR, BRZ, BRN or BRS. Every
+ * time a block start is reached its count goes up, and once it has been
+ * reached HOT_ENTRIES times the block is compiled into a hidden class that
+ * works directly on the packed registers and words of memory.
+ * 
+ * A compiled block only performs instructions that can not give a warning. IO
+ * instructions, BR with R = 0 or 1 and instructions whose S(X) is always
+ * illegal end the block before them. Any other instruction that would give a
+ * warning when it is reached (an illegal address, division by zero or an
+ * illegal shift) makes the block stop before it, so the Executioner executes
+ * it and reports the warning exactly as it would have. The compiled words are
+ * marked in Memory, and once one of them is overwritten with a different value
+ * the blocks holding it are thrown away and execution goes back to the
+ * Executioner until they become hot again. Each time a block is thrown away
+ * its start must be reached twice as many times before it is compiled again,
+ * and after MAX_DEOPTS times it is not compiled any more. Loading a segment
+ * throws every block away. A block that stores into compiled code stops right
+ * after the store.
+ * 
+ * @author Dragon Slayer
+ */
+final class BlockCompiler {
+
+	/**
+	 * Number of times a block start must be reached before it is compiled.
+	 */
+	static final int HOT_ENTRIES = 8;
+	/**
+	 * Largest number of instructions in one block.
+	 */
+	static final int MAX_BLOCK_LENGTH = 64;
+	/**
+	 * Number of times a block may be thrown away because its code was
+	 * overwritten before its start is left to the Executioner.
+	 */
+	static final int MAX_DEOPTS = 4;
+
+	private static final String STORE_TYPE = "(Lvm/Memory;II)Z";
+	// the last argument is the number of bits in an address of the machine
+	private static final String ARITHMETIC_TYPE = "(III)I";
+	// local variable holding S(X) when X is not 0
+	private static final int S_LOCAL = 4;
+	// local variable holding an operand read from memory
+	private static final int OPERAND_LOCAL = 5;
+
+	private final Memory mem;
+	private final MachineConfig config;
+	private final PackedField word;
+	private final PackedField address;
+	private final int size;
+	private final CompiledBlock[] blocks;
+	private final int[] lengths;
+	private final int[] entries;
+	private final boolean[] uncompilable;
+	// times the block at each start was thrown away since the last load
+	private final int[] deopts;
+	// addresses of the compiled words overwritten, from Memory
+	private final int[] overwritten;
+	private int generation;
+
+	/**
+	 * Description: creates a BlockCompiler with no compiled blocks for the
+	 * memory mem.
+	 * 
+	 * @requires mem exists
+	 * @alters creates a BlockCompiler
+	 * @ensures mem is unchanged
+	 * @param mem
+	 *            - memory the blocks are compiled from
+	 */
+	BlockCompiler(Memory mem) {
+		this.mem = mem;
+		this.config = mem.getConfig();
+		this.word = this.config.word;
+		this.address = this.config.address;
+		this.size = this.config.wordsInMem;
+		this.blocks = new CompiledBlock[this.size];
+		this.lengths = new int[this.size];
+		this.entries = new int[this.size];
+		this.uncompilable = new boolean[this.size];
+		this.deopts = new int[this.size];
+		this.overwritten = new int[Memory.MAX_OVERWRITTEN];
+		// nothing is compiled yet, so nothing has been overwritten
+		mem.takeOverwritten(this.overwritten);
+		this.generation = mem.codeGeneration();
+	}
+
+	/**
+	 * Description: counts an entry to the block starting at the program
+	 * counter and, if that block is compiled and no longer than budget,
+	 * executes it and moves the program counter past it. The block is
+	 * compiled first if this entry makes it hot, and the blocks whose code
+	 * has been overwritten are thrown away before that. Returns the number of
+	 * instructions executed, which is 0 if no compiled block was run.
+	 * 
+	 * @requires the program counter is the start of a block
+	 * @alters reg and mem as specified in the Machine Instructions for the
+	 *         instructions of the block that were executed
+	 * @ensures at most budget instructions are executed
+	 * @param reg
+	 *            - registers of the virtual machine
+	 * @param budget
+	 *            - number of instructions that may still be executed
+	 * @return the number of instructions executed
+	 */
+	int execute(Registers reg, int budget) {
+		if (this.mem.codeGeneration() != this.generation) {
+			this.discardOverwritten();
+		}
+		int start = reg.nextInstruction();
+		CompiledBlock block = this.blocks[start];
+		if (block == null) {
+			int hot = HOT_ENTRIES << this.deopts[start];
+			if (this.uncompilable[start] || ++this.entries[start] < hot) {
+				return 0;
+			}
+			block = this.compile(start);
+			if (block == null) {
+				this.uncompilable[start] = true;
+				return 0;
+			}
+		}
+		if (this.lengths[start] > budget) {
+			return 0;
+		}
+		long exit = block.execute(reg.regArr, this.mem.rep, this.mem);
+		// the block only exits to legal addresses
+		reg.trySetPC((int) exit);
+		return (int) (exit >>> 32);
+	}
+
+	/**
+	 * Description: throws away the compiled blocks holding a word that has
+	 * been overwritten since the last call, or every block if memory has
+	 * discarded its compiled words.
+	 * 
+	 * @requires true
+	 * @alters the blocks whose code is no longer in memory are forgotten
+	 * @ensures memory is unchanged
+	 */
+	private void discardOverwritten() {
+		int count = this.mem.takeOverwritten(this.overwritten);
+		if (count < 0) {
+			this.discardBlocks();
+		}
+		for (int i = 0; i < count; i++) {
+			this.discardHolding(this.overwritten[i]);
+		}
+		this.generation = this.mem.codeGeneration();
+	}
+
+	/**
+	 * Description: throws away every compiled block holding the word at
+	 * address addr and counts that against its start. Blocks do not wrap
+	 * past the end of memory, so they all start at most MAX_BLOCK_LENGTH - 1
+	 * words before addr.
+	 * 
+	 * @requires 0 <= addr < the number of words in memory
+	 * @alters the blocks holding addr are forgotten, their entry counts
+	 *         restart and their deopt counts go up
+	 * @ensures memory is unchanged
+	 * @param addr
+	 *            - address of the overwritten word
+	 */
+	private void discardHolding(int addr) {
+		int first = Math.max(0, addr - MAX_BLOCK_LENGTH + 1);
+		for (int start = first; start <= addr; start++) {
+			int end = start + this.lengths[start];
+			if (this.blocks[start] == null || end <= addr) {
+				continue;
+			}
+			this.mem.unmarkCompiled(start, end);
+			this.blocks[start] = null;
+			this.lengths[start] = 0;
+			this.entries[start] = 0;
+			if (++this.deopts[start] == MAX_DEOPTS) {
+				this.uncompilable[start] = true;
+			}
+		}
+	}
+
+	/**
+	 * Description: throws away every compiled block, entry count and deopt
+	 * count, so blocks are compiled again from the current contents of
+	 * memory.
+	 * 
+	 * @requires memory has discarded its compiled words
+	 * @alters every block is forgotten
+	 * @ensures memory is unchanged
+	 */
+	private void discardBlocks() {
+		for (int i = 0; i < this.size; i++) {
+			this.blocks[i] = null;
+			this.lengths[i] = 0;
+			this.entries[i] = 0;
+			this.uncompilable[i] = false;
+			this.deopts[i] = 0;
+		}
+	}
+
+	/**
+	 * Description: compiles the block starting at address start and marks its
+	 * words as compiled in memory. Returns null if the first instruction of
+	 * the block can not be compiled or the class can not be defined.
+	 * 
+	 * @requires 0 <= start < the number of words in memory
+	 * @alters blocks and lengths at start, the compiled marks of memory
+	 * @ensures the words in memory are unchanged
+	 * @param start
+	 *            - address of the first instruction of the block
+	 * @return the compiled block, or null
+	 */
+	private CompiledBlock compile(int start) {
+		BlockClassWriter out = new BlockClassWriter("vm/CompiledBlock$At"
+				+ start);
+		int count = 0;
+		int addr = start;
+		boolean ended = false;
+		while (!ended && count < MAX_BLOCK_LENGTH && addr < this.size) {
+			InstructionInfo info;
+			try {
+				info = this.mem.fetchInstruction(addr);
+			} catch (IllegalMemoryAddressException e) {
+				break;
+			}
+			if (!this.compilable(info)) {
+				break;
+			}
+			ended = this.emit(out, info, count, addr);
+			count++;
+			addr = this.address.increment(addr);
+			if (addr == 0) {
+				// the block may not wrap past the end of memory
+				break;
+			}
+		}
+		if (count == 0) {
+			return null;
+		}
+		if (!ended) {
+			exit(out, count, addr);
+		}
+		CompiledBlock block;
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup()
+					.defineHiddenClass(out.toByteArray(), true);
+			block = (CompiledBlock) lookup.lookupClass()
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+		this.blocks[start] = block;
+		this.lengths[start] = count;
+		this.mem.markCompiled(start, start + count);
+		return block;
+	}
+
+	/**
+	 * Description: returns true iff info can be part of a compiled block. IO
+	 * and BR with R = 0 or 1 can not, nor can an instruction with X = 0 whose
+	 * S would always give a warning.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures info is unchanged
+	 * @param info
+	 *            - the instruction
+	 * @return true iff info can be compiled
+	 */
+	private boolean compilable(InstructionInfo info) {
+		boolean constant = info.xIndex == 0;
+		switch (info.op) {
+		case IO:
+			return false;
+		case BR:
+			if (info.rIndex == 0 || info.rIndex == 1) {
+				return false;
+			}
+			if (info.rIndex == 2) {
+				// the target depends on the address, checked when emitted
+				return true;
+			}
+			return !constant || info.sIndex < this.size;
+		case LD:
+		case ST:
+		case ADD:
+		case SUB:
+		case MUL:
+		case DIV:
+		case OR:
+		case AND:
+		case BRZ:
+		case BRN:
+		case BRS:
+			return !constant || info.sIndex < this.size;
+		case SHL:
+		case SHR:
+			return !constant || info.sIndex <= this.word.length - 1;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Description: writes the code of one instruction of a block. count is the
+	 * number of instructions of the block before it and addr is its address.
+	 * Returns true iff the instruction ends the block.
+	 * 
+	 * @requires compilable(info)
+	 * @alters the code written by out
+	 * @ensures info is unchanged
+	 * @param out
+	 *            - writer of the block class
+	 * @param info
+	 *            - the instruction
+	 * @param count
+	 *            - number of instructions in the block before info
+	 * @param addr
+	 *            - address of info
+	 * @return true iff info ends the block
+	 */
+	private boolean emit(BlockClassWriter out, InstructionInfo info,
+			int count, int addr) {
+		int next = this.address.increment(addr);
+		int r = info.rIndex;
+		if (info.xIndex != 0) {
+			// S(X) = S + R[X]
+			out.op(BlockClassWriter.ALOAD_1);
+			out.pushInt(info.xIndex);
+			out.op(BlockClassWriter.IALOAD);
+			out.pushInt(info.sIndex);
+			out.op(BlockClassWriter.IADD);
+			out.pushInt(this.word.mask);
+			out.op(BlockClassWriter.IAND);
+			out.local(BlockClassWriter.ISTORE, S_LOCAL);
+		}
+		switch (info.op) {
+		case LD: {
+			checkBelow(out, info, this.size, count, addr);
+			out.op(BlockClassWriter.ALOAD_1);
+			out.pushInt(r);
+			out.op(BlockClassWriter.ALOAD_2);
+			loadS(out, info);
+			out.op(BlockClassWriter.IALOAD);
+			out.op(BlockClassWriter.IASTORE);
+			return false;
+		}
+		case LDI: {
+			out.op(BlockClassWriter.ALOAD_1);
+			out.pushInt(r);
+			loadS(out, info);
+			out.op(BlockClassWriter.IASTORE);
+			return false;
+		}
+		case ST: {
+			checkBelow(out, info, this.size, count, addr);
+			out.op(BlockClassWriter.ALOAD_3);
+			loadS(out, info);
+			out.op(BlockClassWriter.ALOAD_1);
+			out.pushInt(r);
+			out.op(BlockClassWriter.IALOAD);
+			out.invokeHelper("store", STORE_TYPE);
+			// stop if the store overwrote compiled code
+			int kept = out.jump(BlockClassWriter.IFEQ);
+			exit(out, count + 1, next);
+			out.patchJump(kept);
+			return false;
+		}
+		case ADD:
+			this.arithmetic(out, info, count, addr, BlockClassWriter.IADD);
+			return false;
+		case SUB:
+			this.arithmetic(out, info, count, addr, BlockClassWriter.ISUB);
+			return false;
+		case MUL:
+			this.arithmetic(out, info, count, addr, BlockClassWriter.IMUL);
+			return false;
+		case OR:
+			this.arithmetic(out, info, count, addr, BlockClassWriter.IOR);
+			return false;
+		case AND:
+			this.arithmetic(out, info, count, addr, BlockClassWriter.IAND);
+			return false;
+		case DIV: {
+			checkBelow(out, info, this.size, count, addr);
+			out.op(BlockClassWriter.ALOAD_2);
+			loadS(out, info);
+			out.op(BlockClassWriter.IALOAD);
+			out.local(BlockClassWriter.ISTORE, OPERAND_LOCAL);
+			// division by zero is left to the Executioner
+			out.local(BlockClassWriter.ILOAD, OPERAND_LOCAL);
+			int nonZero = out.jump(BlockClassWriter.IFNE);
+			exit(out, count, addr);
+			out.patchJump(nonZero);
+			out.op(BlockClassWriter.ALOAD_1);
+			out.pushInt(r);
+			out.op(BlockClassWriter.DUP2);
+			out.op(BlockClassWriter.IALOAD);
+			out.local(BlockClassWriter.ILOAD, OPERAND_LOCAL);
+			out.pushInt(this.config.bitsInAddress);
+			out.invokeHelper("divide", ARITHMETIC_TYPE);
+			out.op(BlockClassWriter.IASTORE);
+			return false;
+		}
+		case SHL:
+		case SHR: {
+			checkBelow(out, info, this.word.length, count, addr);
+			out.op(BlockClassWriter.ALOAD_1);
+			out.pushInt(r);
+			out.op(BlockClassWriter.DUP2);
+			out.op(BlockClassWriter.IALOAD);
+			loadS(out, info);
+			if (info.op == Operation.SHL) {
+				out.op(BlockClassWriter.ISHL);
+				out.pushInt(this.word.mask);
+				out.op(BlockClassWriter.IAND);
+			} else {
+				out.pushInt(this.config.bitsInAddress);
+				out.invokeHelper("shiftRight", ARITHMETIC_TYPE);
+			}
+			out.op(BlockClassWriter.IASTORE);
+			return false;
+		}
+		case BR: {
+			if (info.rIndex == 2) {
+				// PC = PC + S(X), where PC is already the next address
+				if (info.xIndex == 0) {
+					int target = this.word.add(info.sIndex, next);
+					if (target >= this.size) {
+						exit(out, count, addr);
+					} else {
+						exit(out, count + 1, target);
+					}
+					return true;
+				}
+				out.local(BlockClassWriter.ILOAD, S_LOCAL);
+				out.pushInt(next);
+				out.op(BlockClassWriter.IADD);
+				out.pushInt(this.word.mask);
+				out.op(BlockClassWriter.IAND);
+				out.local(BlockClassWriter.ISTORE, S_LOCAL);
+			}
+			checkBelow(out, info, this.size, count, addr);
+			exitToS(out, info, count + 1);
+			return true;
+		}
+		case BRZ:
+		case BRN: {
+			out.op(BlockClassWriter.ALOAD_1);
+			out.pushInt(r);
+			out.op(BlockClassWriter.IALOAD);
+			int notTaken;
+			if (info.op == Operation.BRZ) {
+				notTaken = out.jump(BlockClassWriter.IFNE);
+			} else {
+				out.pushInt(this.word.signBit);
+				out.op(BlockClassWriter.IAND);
+				notTaken = out.jump(BlockClassWriter.IFEQ);
+			}
+			checkBelow(out, info, this.size, count, addr);
+			exitToS(out, info, count + 1);
+			out.patchJump(notTaken);
+			exit(out, count + 1, next);
+			return true;
+		}
+		case BRS: {
+			checkBelow(out, info, this.size, count, addr);
+			out.op(BlockClassWriter.ALOAD_1);
+			out.pushInt(r);
+			out.pushInt(next);
+			out.op(BlockClassWriter.IASTORE);
+			exitToS(out, info, count + 1);
+			return true;
+		}
+		default:
+			// NOP
+			return false;
+		}
+	}
+
+	/**
+	 * Description: writes R[r] = (R[r] op M[S(X)]) cut down to a word.
+	 */
+	private void arithmetic(BlockClassWriter out, InstructionInfo info,
+			int count, int addr, int op) {
+		checkBelow(out, info, this.size, count, addr);
+		out.op(BlockClassWriter.ALOAD_1);
+		out.pushInt(info.rIndex);
+		out.op(BlockClassWriter.DUP2);
+		out.op(BlockClassWriter.IALOAD);
+		out.op(BlockClassWriter.ALOAD_2);
+		loadS(out, info);
+		out.op(BlockClassWriter.IALOAD);
+		out.op(op);
+		out.pushInt(this.word.mask);
+		out.op(BlockClassWriter.IAND);
+		out.op(BlockClassWriter.IASTORE);
+	}
+
+	/**
+	 * Description: writes code that pushes S(X) of info.
+	 */
+	private static void loadS(BlockClassWriter out, InstructionInfo info) {
+		if (info.xIndex == 0) {
+			out.pushInt(info.sIndex);
+		} else {
+			out.local(BlockClassWriter.ILOAD, S_LOCAL);
+		}
+	}
+
+	/**
+	 * Description: writes code that leaves the block before the instruction
+	 * at addr unless S(X) < limit. Nothing is written when X = 0, since
+	 * compilable has already checked S.
+	 */
+	private static void checkBelow(BlockClassWriter out, InstructionInfo info,
+			int limit, int count, int addr) {
+		if (info.xIndex == 0) {
+			return;
+		}
+		out.local(BlockClassWriter.ILOAD, S_LOCAL);
+		out.pushInt(limit);
+		int legal = out.jump(BlockClassWriter.IF_ICMPLT);
+		exit(out, count, addr);
+		out.patchJump(legal);
+	}
+
+	/**
+	 * Description: writes code that leaves the block after count
+	 * instructions, going to address next.
+	 */
+	private static void exit(BlockClassWriter out, int count, int next) {
+		out.pushLong(((long) count << 32) | next);
+		out.op(BlockClassWriter.LRETURN);
+	}
+
+	/**
+	 * Description: writes code that leaves the block after count
+	 * instructions, going to the address S(X) of info.
+	 */
+	private static void exitToS(BlockClassWriter out, InstructionInfo info,
+			int count) {
+		if (info.xIndex == 0) {
+			exit(out, count, info.sIndex);
+			return;
+		}
+		out.pushLong((long) count << 32);
+		out.local(BlockClassWriter.ILOAD, S_LOCAL);
+		out.op(BlockClassWriter.I2L);
+		out.op(BlockClassWriter.LOR);
+		out.op(BlockClassWriter.LRETURN);
+	}
+
+	/**
+	 * Description: stores value at the legal address addr for a compiled
+	 * block and returns true iff the store overwrote compiled code.
+	 */
+	static boolean store(Memory mem, int addr, int value) {
+		int before = mem.codeGeneration();
+		// compiled blocks check the address first
+		mem.writeLegal(addr, value);
+		return mem.codeGeneration() != before;
+	}
+
+	/**
+	 * Description: returns a / b for a compiled block of a machine with
+	 * addresses of bits bits, b not zero.
+	 */
+	static int divide(int a, int b, int bits) {
+		return MachineConfig.forAddressBits(bits).word.divideBy(a, b);
+	}
+
+	/**
+	 * Description: returns value shifted right times times for a compiled
+	 * block of a machine with addresses of bits bits, times a legal shift
+	 * amount.
+	 */
+	static int shiftRight(int value, int times, int bits) {
+		return MachineConfig.forAddressBits(bits).word.shiftRight(value, times);
+	}
+}
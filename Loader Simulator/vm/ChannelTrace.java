@@ -0,0 +1,242 @@
+package vm;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.ErrorManager;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * A text process trace written through a FileChannel instead of a
+ * FileHandler. It is a TraceHandler: the trace of each instruction is
+ * written straight from its Trace as the bytes of its string (see
+ * Trace.format) and copied to a direct ByteBuffer at once, without a string,
+ * a LogRecord, a level check or a lock; the messages logged to it, which are
+ * few, are formatted by its Formatter and encoded as a FileHandler encodes
+ * them. The file holds the same text a FileHandler with the same Formatter
+ * would have written, provided the Formatter formats a fine message as the
+ * message and a newline.
+ * 
+ * The buffer is written to the file when it is full, and otherwise as the
+ * Flush policy of the handler says. Buffers are taken from a pool shared by
+ * every ChannelTrace and given back when the handler is closed, so the runs
+ * of a process do not each allocate a direct buffer.
+ * 
+ * The handler must be used by one thread at a time, the thread running the
+ * machine; messages logged from other threads must not overlap its use.
+ * 
+ * @author Dragon Slayer
+ */
+public final class ChannelTrace extends TraceHandler {
+
+	/**
+	 * When the buffer of a handler is written to its file, besides when it
+	 * is full.
+	 */
+	public enum Flush {
+		/**
+		 * only when the handler is flushed or closed
+		 */
+		FULL,
+		/**
+		 * also after every message other than the trace of an instruction
+		 */
+		MESSAGE,
+		/**
+		 * also after every trace and message, as a FileHandler does
+		 */
+		RECORD
+	}
+
+	/**
+	 * Number of bytes in a buffer.
+	 */
+	public static final int BUFFER_BYTES = 1 << 16;
+
+	// largest number of buffers kept in the pool
+	private static final int POOL_LIMIT = 8;
+	private static final ConcurrentLinkedQueue<ByteBuffer> POOL =
+			new ConcurrentLinkedQueue<ByteBuffer>();
+
+	private final FileOutputStream stream;
+	private final FileChannel channel;
+	private final Flush flush;
+	private final CharsetEncoder encoder = Charset.defaultCharset()
+			.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private ByteBuffer buf;
+	// the text of a trace, copied to buf at once
+	private byte[] text = new byte[512];
+	private boolean failed;
+
+	/**
+	 * Description: creates a handler writing to stream with flush.
+	 */
+	private ChannelTrace(FileOutputStream stream, Flush flush) {
+		this.stream = stream;
+		this.channel = stream.getChannel();
+		this.flush = flush;
+		this.buf = POOL.poll();
+		if (this.buf == null) {
+			this.buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+		}
+	}
+
+	/**
+	 * Description: creates a channel trace to file, replacing it, that
+	 * writes its buffer as flush says. Its level is FINE.
+	 * 
+	 * @requires true
+	 * @alters file is empty
+	 * @ensures true
+	 * @param file
+	 *            - the process-trace file
+	 * @param flush
+	 *            - when the buffer is written besides when it is full
+	 * @return a handler writing to file
+	 * @throws IOException
+	 */
+	public static ChannelTrace create(File file, Flush flush)
+			throws IOException {
+		return new ChannelTrace(new FileOutputStream(file), flush);
+	}
+
+	/**
+	 * Description: does nothing; the text of a trace does not depend on the
+	 * machine beyond its Trace.
+	 */
+	@Override
+	void begin(MachineConfig config) {
+	}
+
+	/**
+	 * Description: writes the text of trace, as formatted when logged as
+	 * fine, to the buffer. A trace too long for a buffer is logged as fine.
+	 */
+	@Override
+	void write(Trace trace, long number) {
+		if (this.buf == null) {
+			return;
+		} else if (trace.textBytes() + 1 > BUFFER_BYTES) {
+			this.publish(new LogRecord(Level.FINE, trace.toString()));
+			return;
+		}
+		if (this.text.length < trace.textBytes() + 1) {
+			this.text = new byte[trace.textBytes() + 1];
+		}
+		int length = trace.format(this.text);
+		this.text[length++] = '\n';
+		try {
+			if (this.buf.remaining() < length) {
+				this.drain();
+			}
+			this.buf.put(this.text, 0, length);
+			if (this.flush == Flush.RECORD) {
+				this.drain();
+			}
+		} catch (IOException e) {
+			this.fail(e);
+		}
+	}
+
+	/**
+	 * Description: writes the message of record, formatted and encoded, to
+	 * the buffer if it is loggable.
+	 */
+	@Override
+	public void publish(LogRecord record) {
+		if (this.buf == null || !this.isLoggable(record)) {
+			return;
+		}
+		try {
+			CharBuffer text = CharBuffer.wrap(this.getFormatter().format(
+					record));
+			this.encoder.reset();
+			while (this.encoder.encode(text, this.buf, true)
+					== CoderResult.OVERFLOW) {
+				this.drain();
+			}
+			while (this.encoder.flush(this.buf) == CoderResult.OVERFLOW) {
+				this.drain();
+			}
+			if (this.flush != Flush.FULL) {
+				this.drain();
+			}
+		} catch (IOException e) {
+			this.fail(e);
+		}
+	}
+
+	/**
+	 * Description: writes the buffer to the file.
+	 */
+	@Override
+	public void flush() {
+		if (this.buf == null) {
+			return;
+		}
+		try {
+			this.drain();
+		} catch (IOException e) {
+			this.fail(e);
+		}
+	}
+
+	/**
+	 * Description: writes the buffer to the file, closes the file and gives
+	 * the buffer back to the pool.
+	 */
+	@Override
+	public void close() {
+		if (this.buf == null) {
+			return;
+		}
+		this.flush();
+		this.buf.clear();
+		if (POOL.size() < POOL_LIMIT) {
+			POOL.offer(this.buf);
+		}
+		this.buf = null;
+		try {
+			this.stream.close();
+		} catch (IOException e) {
+			this.reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+	}
+
+	/**
+	 * Description: writes the bytes in the buffer to the file and empties
+	 * it. Once a write has failed the bytes are only dropped, so the machine
+	 * is never stopped by its trace.
+	 */
+	private void drain() throws IOException {
+		this.buf.flip();
+		try {
+			while (!this.failed && this.buf.hasRemaining()) {
+				this.channel.write(this.buf);
+			}
+		} finally {
+			this.buf.clear();
+		}
+	}
+
+	/**
+	 * Description: reports e unless an error has been reported already, and
+	 * stops writing to the file.
+	 */
+	private void fail(IOException e) {
+		if (!this.failed) {
+			this.reportError(null, e, ErrorManager.WRITE_FAILURE);
+		}
+		this.failed = true;
+	}
+}
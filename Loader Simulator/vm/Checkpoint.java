@@ -0,0 +1,291 @@
+package vm;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/**
+ * The state of a VirtualMachine saved in a file, so that a long run can be
+ * resumed after the process running it has stopped. A checkpoint holds a
+ * VMSnapshot together with the offset of the process input and the length of
+ * the process output when it was taken. It is written and read through a
+ * memory-mapped FileChannel. It is written to a temporary file that then
+ * replaces the checkpoint file, so a checkpoint is never left half written.
+ * The file holds, in big-endian order:
+ * 
+ * int "Wi12" | int version | int bits in an address | int PC | int number of
+ * registers, then one int for each register | long instructions executed |
+ * long instruction limit | long input offset | long output length | int
+ * number of pages, then for every page that is not all zeros: int page
+ * number, Memory.PAGE_SIZE ints
+ * 
+ * Registers and words are packed (see PackedField).
+ * 
+ * @author Dragon Slayer
+ */
+public final class Checkpoint {
+
+	private static final int MAGIC = 0x57693132;
+	private static final int VERSION = 1;
+	// ints before the registers, and the page count
+	private static final int HEADER_INTS = 6;
+	private static final int HEADER_LONGS = 4;
+
+	private final VMSnapshot snapshot;
+	private final long inputOffset;
+	private final long outputLength;
+
+	/**
+	 * Description: creates a checkpoint of snapshot with the given IO
+	 * offsets.
+	 */
+	private Checkpoint(VMSnapshot snapshot, long inputOffset, long outputLength) {
+		this.snapshot = snapshot;
+		this.inputOffset = inputOffset;
+		this.outputLength = outputLength;
+	}
+
+	/**
+	 * Description: writes snap, taken with inputOffset characters of the
+	 * process input read and outputLength bytes of the process output
+	 * written, to file. Pages of zeros are left out.
+	 * 
+	 * @requires 0 <= inputOffset, 0 <= outputLength
+	 * @alters file holds the checkpoint; a file named file.tmp is used while
+	 *         writing it
+	 * @ensures snap is unchanged
+	 * @param file
+	 *            - the checkpoint file
+	 * @param snap
+	 *            - the state of the virtual machine
+	 * @param inputOffset
+	 *            - number of characters of process input read
+	 * @param outputLength
+	 *            - number of bytes of process output written
+	 * @throws IOException
+	 */
+	static void write(File file, VMSnapshot snap, long inputOffset,
+			long outputLength) throws IOException {
+		int used = 0;
+		for (int[] page : snap.pages) {
+			if (page != Memory.ZERO_PAGE) {
+				used++;
+			}
+		}
+		long size = 4L * (HEADER_INTS + snap.registers.length) + 8L
+				* HEADER_LONGS + 4L * used * (1 + Memory.PAGE_SIZE);
+		File temp = new File(file.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		try {
+			raf.setLength(size);
+			MappedByteBuffer buf = raf.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, size);
+			buf.putInt(MAGIC);
+			buf.putInt(VERSION);
+			buf.putInt(snap.config.bitsInAddress);
+			buf.putInt(snap.programCounter);
+			buf.putInt(snap.registers.length);
+			for (int register : snap.registers) {
+				buf.putInt(register);
+			}
+			buf.putLong(snap.instructionsExecuted);
+			buf.putLong(snap.instructionLimit);
+			buf.putLong(inputOffset);
+			buf.putLong(outputLength);
+			buf.putInt(snap.pages.length);
+			for (int p = 0; p < snap.pages.length; p++) {
+				if (snap.pages[p] != Memory.ZERO_PAGE) {
+					buf.putInt(p);
+					buf.asIntBuffer().put(snap.pages[p]);
+					buf.position(buf.position() + 4 * Memory.PAGE_SIZE);
+				}
+			}
+			buf.force();
+		} finally {
+			raf.close();
+		}
+		Files.move(temp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Description: reads the checkpoint in file. The virtual machine resumed
+	 * from it logs to log and executes with engine, or with program if it is
+	 * not null.
+	 * 
+	 * @requires file, log and engine exist
+	 * @alters creates a Checkpoint
+	 * @ensures file is unchanged
+	 * @param file
+	 *            - the checkpoint file
+	 * @param log
+	 *            - logger of the resumed virtual machine
+	 * @param engine
+	 *            - engine of the resumed virtual machine
+	 * @param program
+	 *            - translated program of the resumed virtual machine, or null
+	 * @return the checkpoint in file
+	 * @throws IOException
+	 * @throws DataFormatException
+	 *             if file is not a checkpoint, or is one for another machine
+	 *             than program
+	 */
+	public static Checkpoint read(File file, Logger log, Engine engine,
+			TranslatedProgram program) throws IOException, DataFormatException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buf = raf.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			return read(buf, log, engine, program);
+		} catch (BufferUnderflowException e) {
+			throw new DataFormatException("Checkpoint too short");
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Description: reads a checkpoint from buf (see read(file, ...)).
+	 */
+	private static Checkpoint read(MappedByteBuffer buf, Logger log,
+			Engine engine, TranslatedProgram program)
+			throws DataFormatException {
+		if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+			throw new DataFormatException("Not a checkpoint");
+		}
+		MachineConfig config;
+		try {
+			config = MachineConfig.forAddressBits(buf.getInt());
+		} catch (IllegalArgumentException e) {
+			throw new DataFormatException(e.getMessage());
+		}
+		if (program != null && config != MachineConfig.DEFAULT) {
+			throw new DataFormatException("Checkpoint of another machine");
+		}
+		int pc = buf.getInt();
+		if (!config.isAddress(pc) || buf.getInt() != config.numRegisters) {
+			throw new DataFormatException("Invalid registers");
+		}
+		int[] registers = new int[config.numRegisters];
+		for (int i = 0; i < registers.length; i++) {
+			registers[i] = word(buf, config);
+		}
+		long executed = buf.getLong();
+		long limit = buf.getLong();
+		long inputOffset = buf.getLong();
+		long outputLength = buf.getLong();
+		if (executed < 0 || limit < 0 || inputOffset < 0 || outputLength < 0) {
+			throw new DataFormatException("Invalid counts");
+		}
+		int[][] pages = new int[config.wordsInMem / Memory.PAGE_SIZE][];
+		if (buf.getInt() != pages.length) {
+			throw new DataFormatException("Invalid memory");
+		}
+		int last = -1;
+		while (buf.hasRemaining()) {
+			int p = buf.getInt();
+			if (p <= last || p >= pages.length) {
+				throw new DataFormatException("Invalid page " + p);
+			}
+			pages[p] = new int[Memory.PAGE_SIZE];
+			for (int i = 0; i < Memory.PAGE_SIZE; i++) {
+				pages[p][i] = word(buf, config);
+			}
+			last = p;
+		}
+		for (int p = 0; p < pages.length; p++) {
+			if (pages[p] == null) {
+				pages[p] = Memory.ZERO_PAGE;
+			}
+		}
+		return new Checkpoint(new VMSnapshot(config, engine, program, log,
+				pages, registers, pc, executed, limit), inputOffset,
+				outputLength);
+	}
+
+	/**
+	 * Description: reads a packed word of config from buf.
+	 */
+	private static int word(MappedByteBuffer buf, MachineConfig config)
+			throws DataFormatException {
+		int value = buf.getInt();
+		if (config.word.mask(value) != value) {
+			throw new DataFormatException("Invalid word");
+		}
+		return value;
+	}
+
+	/**
+	 * Description: creates a virtual machine that resumes the run of the
+	 * checkpoint. It reads the process input from in, skipping the characters
+	 * read before the checkpoint, and writes to out, which must already hold
+	 * the first getOutputLength() bytes of the process output.
+	 * 
+	 * @requires in and out exist
+	 * @alters creates a VirtualMachine
+	 * @ensures the checkpoint is unchanged
+	 * @param in
+	 *            - process input of the run
+	 * @param out
+	 *            - process output of the run, positioned at getOutputLength()
+	 * @return a virtual machine in the state of the checkpoint
+	 * @throws IOException
+	 * @throws java.io.EOFException
+	 *             if in is shorter than the input offset of the checkpoint
+	 */
+	public VirtualMachine resume(Reader in, BufferedOutputStream out)
+			throws IOException {
+		return new VirtualMachine(this.snapshot, new IOGroup(in, out,
+				this.inputOffset, this.outputLength), this.snapshot.log,
+				this.snapshot.engine, this.snapshot.program);
+	}
+
+	/**
+	 * Description: returns the number of characters of process input read
+	 * before the checkpoint.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the checkpoint is unchanged
+	 * @return the input offset
+	 */
+	public long getInputOffset() {
+		return this.inputOffset;
+	}
+
+	/**
+	 * Description: returns the number of bytes of process output written
+	 * before the checkpoint.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the checkpoint is unchanged
+	 * @return the output length
+	 */
+	public long getOutputLength() {
+		return this.outputLength;
+	}
+
+	/**
+	 * Description: returns the number of instructions executed before the
+	 * checkpoint.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the checkpoint is unchanged
+	 * @return the number of instructions executed
+	 */
+	public long getInstructionsExecuted() {
+		return this.snapshot.instructionsExecuted;
+	}
+}
@@ -0,0 +1,30 @@
+package vm;
+
+/**
+ * Interface implemented by the classes BlockCompiler makes from basic blocks
+ * of Wi12 code. See BlockCompiler for how a block is compiled.
+ * 
+ * @author Dragon Slayer
+ */
+interface CompiledBlock {
+
+	/**
+	 * Description: executes the block against the registers reg and the words
+	 * of memory, stopping early before any instruction that would give a
+	 * warning and right after any store into compiled code. Returns the number
+	 * of instructions executed in the high 32 bits and the address of the next
+	 * instruction in the low 32 bits.
+	 * 
+	 * @requires reg and words are the registers and words of mem
+	 * @alters reg and mem as specified in the Machine Instructions
+	 * @ensures the program counter is not changed
+	 * @param reg
+	 *            - the packed registers of the virtual machine
+	 * @param words
+	 *            - the packed words of mem
+	 * @param mem
+	 *            - the memory of the virtual machine, used for stores
+	 * @return (instructions executed << 32) | address of the next instruction
+	 */
+	public abstract long execute(int[] reg, int[] words, Memory mem);
+}
@@ -0,0 +1,421 @@
+package vm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.zip.DataFormatException;
+
+/**
+ * A process trace that holds, for each instruction, only the registers and
+ * the memory word it changed. It is a TraceHandler, written as MappedRecords
+ * like a BinaryTrace: every message logged to it is a
+ * text record, and the trace of each instruction is a delta (see
+ * Trace.writeDelta). A delta is replayed on the state before its instruction,
+ * which gives the instruction, the trace and the state after it, so render
+ * turns the file back into exactly the text a handler with the same Formatter
+ * would have written.
+ * 
+ * Before the first instruction of a run, before an instruction that does not
+ * follow the one traced before it (see TraceFilter), and every
+ * KEYFRAME_INTERVAL instructions, the full state of the machine before the
+ * instruction is written as a keyframe. When the handler is closed, an index
+ * of the keyframes is written at the end of the file, so that renderAt can go
+ * straight to the keyframe before instruction N and replay only the deltas
+ * from there to N.
+ * 
+ * The file holds, in big-endian order, the int "Wi1D" and a version, then
+ * records, each starting with a byte for its kind: TEXT and ERROR are
+ * followed by an int length and that many chars, KEYFRAME by the long number
+ * of the next instruction and the state of Trace.writeState, and INSTRUCTION
+ * by a delta. An ERROR holds the error message of the instruction after it.
+ * A closed file ends with an INDEX record, the int number of keyframes and
+ * the long number and long offset of each, then the long offset of the INDEX
+ * record and "Wi1D" again.
+ * 
+ * @author Dragon Slayer
+ */
+public final class DeltaTrace extends TraceHandler {
+
+	/**
+	 * Largest number of instructions between two keyframes.
+	 */
+	public static final int KEYFRAME_INTERVAL = 1 << 14;
+
+	private static final int MAGIC = 0x57693144;
+	private static final int VERSION = 1;
+	private static final byte TEXT = 0;
+	private static final byte ERROR = 1;
+	private static final byte KEYFRAME = 2;
+	private static final byte INSTRUCTION = 3;
+	private static final byte INDEX = 4;
+	// bytes after the INDEX record
+	private static final int TRAILER_BYTES = 12;
+	private static final int FIRST = MappedRecords.HEADER_BYTES;
+
+	private final MappedRecords records;
+	// number and offset of each keyframe
+	private final List<long[]> keyframes = new ArrayList<long[]>();
+	// number of the instruction that continues the deltas, or -1
+	private long expected = -1;
+	private long lastKeyframe;
+
+	/**
+	 * Description: creates a delta trace writing to records.
+	 */
+	private DeltaTrace(MappedRecords records) {
+		this.records = records;
+	}
+
+	/**
+	 * Description: creates a delta trace in file, replacing it. Its level is
+	 * FINE.
+	 * 
+	 * @requires true
+	 * @alters file holds a delta trace without records
+	 * @ensures true
+	 * @param file
+	 *            - the delta trace file
+	 * @return a handler writing to file
+	 * @throws IOException
+	 */
+	public static DeltaTrace create(File file) throws IOException {
+		return new DeltaTrace(MappedRecords.create(file, MAGIC, VERSION));
+	}
+
+	/**
+	 * Description: makes the next instruction begin with a keyframe.
+	 */
+	@Override
+	synchronized void begin(MachineConfig config) {
+		this.expected = -1;
+	}
+
+	/**
+	 * Description: writes the delta of trace as an INSTRUCTION record, after
+	 * a keyframe if one is due and after an ERROR record if the instruction
+	 * had an error.
+	 */
+	@Override
+	synchronized void write(Trace trace, long number) throws IOException {
+		if (number != this.expected
+				|| number - this.lastKeyframe >= KEYFRAME_INTERVAL) {
+			ByteBuffer buf = this.records.reserve(9 + trace.stateBytes());
+			this.keyframes.add(new long[] { number, this.records.position() });
+			buf.put(KEYFRAME);
+			buf.putLong(number);
+			trace.writeState(buf);
+			this.lastKeyframe = number;
+		}
+		String error = trace.error();
+		if (error != null) {
+			this.records.writeText(ERROR, error);
+		}
+		ByteBuffer buf = this.records.reserve(1 + Trace.DELTA_BYTES);
+		buf.put(INSTRUCTION);
+		trace.writeDelta(buf);
+		this.expected = number + 1;
+	}
+
+	/**
+	 * Description: writes the message of record, formatted, as a TEXT record
+	 * if it is loggable.
+	 */
+	@Override
+	public synchronized void publish(LogRecord record) {
+		if (!this.isLoggable(record)) {
+			return;
+		}
+		try {
+			this.records.writeText(TEXT, this.getFormatter().format(record));
+		} catch (IOException e) {
+			this.reportError(null, e, ErrorManager.WRITE_FAILURE);
+		} catch (IllegalStateException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Description: does nothing; the records are in the mapped file as soon
+	 * as they are written.
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * Description: writes the index of the keyframes, cuts the file to the
+	 * length of the records written and closes it.
+	 */
+	@Override
+	public synchronized void close() {
+		if (this.records.isClosed()) {
+			return;
+		}
+		try {
+			long index = this.records.position();
+			ByteBuffer buf = this.records.reserve(5 + 16
+					* this.keyframes.size() + TRAILER_BYTES);
+			buf.put(INDEX);
+			buf.putInt(this.keyframes.size());
+			for (long[] keyframe : this.keyframes) {
+				buf.putLong(keyframe[0]);
+				buf.putLong(keyframe[1]);
+			}
+			buf.putLong(index);
+			buf.putInt(MAGIC);
+		} catch (IOException e) {
+			// the file is still closed, without an index
+			this.reportError(null, e, ErrorManager.WRITE_FAILURE);
+		}
+		try {
+			this.records.close();
+		} catch (IOException e) {
+			this.reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+	}
+
+	/**
+	 * Description: returns true iff file begins as a delta trace.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures file is unchanged
+	 * @param file
+	 *            - a process-trace file
+	 * @return true iff file is a delta trace
+	 * @throws IOException
+	 */
+	public static boolean isDeltaTrace(File file) throws IOException {
+		return MappedRecords.begins(file, MAGIC, VERSION);
+	}
+
+	/**
+	 * Description: writes the text of the delta trace in file to out: each
+	 * TEXT record as it is, and each INSTRUCTION record as its Trace would
+	 * have been formatted by formatter when logged as fine.
+	 * 
+	 * @requires formatter is the Formatter the delta trace was written with
+	 * @alters out
+	 * @ensures file is unchanged
+	 * @param file
+	 *            - the delta trace file
+	 * @param out
+	 *            - destination of the text
+	 * @param formatter
+	 *            - Formatter of the messages
+	 * @throws IOException
+	 * @throws DataFormatException
+	 *             if file is not a delta trace
+	 */
+	public static void render(File file, Writer out, Formatter formatter)
+			throws IOException, DataFormatException {
+		new Replay(file, out, formatter).run(FIRST, -1);
+	}
+
+	/**
+	 * Description: writes to out the contents of the registers and memory
+	 * before instruction number of the delta trace in file, as a run shows
+	 * them at its start, followed by the trace of that instruction, both as
+	 * formatted by formatter when logged as fine, and returns true; returns
+	 * false and writes nothing if the instruction is not in the trace. Only
+	 * the deltas from the keyframe before the instruction are replayed.
+	 * 
+	 * @requires formatter is the Formatter the delta trace was written with
+	 * @alters out
+	 * @ensures file is unchanged
+	 * @param file
+	 *            - the delta trace file
+	 * @param number
+	 *            - number of the instruction in its run, counting from 1
+	 * @param out
+	 *            - destination of the text
+	 * @param formatter
+	 *            - Formatter of the messages
+	 * @return true iff the instruction is in the trace
+	 * @throws IOException
+	 * @throws DataFormatException
+	 *             if file is not a delta trace
+	 */
+	public static boolean renderAt(File file, long number, Writer out,
+			Formatter formatter) throws IOException, DataFormatException {
+		Replay replay = new Replay(file, out, formatter);
+		return replay.run(replay.keyframeBefore(number), number);
+	}
+
+	/**
+	 * The replay of the records of a delta trace file on a memory and
+	 * registers.
+	 */
+	private static final class Replay {
+
+		private final MappedByteBuffer buf;
+		private final Writer out;
+		private final Formatter formatter;
+		private Memory mem;
+		private Registers reg;
+		private Trace trace;
+		// number of the next instruction
+		private long number;
+
+		/**
+		 * Description: maps file and checks its header.
+		 */
+		Replay(File file, Writer out, Formatter formatter)
+				throws IOException, DataFormatException {
+			this.buf = MappedRecords.map(file, MAGIC, VERSION, "delta trace");
+			this.out = out;
+			this.formatter = formatter;
+		}
+
+		/**
+		 * Description: returns the offset of the last keyframe before the
+		 * first keyframe after instruction number, or of the first record if
+		 * the file has no index.
+		 */
+		long keyframeBefore(long number) throws DataFormatException {
+			int end = this.buf.limit() - TRAILER_BYTES;
+			if (end < FIRST || this.buf.getInt(end + 8) != MAGIC) {
+				return FIRST;
+			}
+			long index = this.buf.getLong(end);
+			if (index < FIRST || index >= end
+					|| this.buf.get((int) index) != INDEX) {
+				return FIRST;
+			}
+			try {
+				this.buf.position((int) index + 1);
+				int count = this.buf.getInt();
+				long offset = FIRST;
+				for (int i = 0; i < count; i++) {
+					long first = this.buf.getLong();
+					long at = this.buf.getLong();
+					if (first > number) {
+						break;
+					} else if (at < FIRST || at >= index) {
+						throw new DataFormatException("Invalid index");
+					}
+					offset = at;
+				}
+				return offset;
+			} catch (BufferUnderflowException e) {
+				throw new DataFormatException("Invalid index");
+			}
+		}
+
+		/**
+		 * Description: replays the records from offset on. If target is -1
+		 * every record is written to out; otherwise nothing is written until
+		 * instruction target, whose state and trace are written, and true is
+		 * returned. Returns false at the end of the records or at a keyframe
+		 * after target.
+		 */
+		boolean run(long offset, long target) throws IOException,
+				DataFormatException {
+			boolean all = target == -1;
+			String error = null;
+			try {
+				this.buf.position((int) offset);
+				while (this.buf.hasRemaining()) {
+					byte kind = this.buf.get();
+					if (kind == TEXT) {
+						String text = MappedRecords.readText(this.buf);
+						if (all) {
+							this.out.write(text);
+						}
+					} else if (kind == ERROR) {
+						error = MappedRecords.readText(this.buf);
+					} else if (kind == KEYFRAME) {
+						this.readKeyframe();
+						if (!all && this.number > target) {
+							return false;
+						}
+					} else if (kind == INSTRUCTION && this.trace != null) {
+						boolean found = this.number == target;
+						if (found) {
+							// as VirtualMachine.toString shows them
+							this.log(this.reg.toString() + "\n"
+									+ this.mem.toString() + "\n");
+						}
+						this.trace.readDelta(this.buf, error);
+						error = null;
+						if (all || found) {
+							this.log(this.trace.toString());
+						}
+						if (found) {
+							return true;
+						}
+						this.number++;
+					} else if (kind == INDEX) {
+						break;
+					} else {
+						throw new DataFormatException("Invalid record");
+					}
+				}
+			} catch (BufferUnderflowException e) {
+				throw new DataFormatException("Delta trace too short");
+			} catch (IllegalMemoryAddressException e) {
+				throw new DataFormatException("Invalid address");
+			} catch (ArrayIndexOutOfBoundsException e) {
+				throw new DataFormatException("Invalid delta");
+			}
+			return false;
+		}
+
+		/**
+		 * Description: sets the memory, registers and number to the keyframe
+		 * at the position of buf.
+		 */
+		private void readKeyframe() throws DataFormatException {
+			this.number = this.buf.getLong();
+			MachineConfig config;
+			try {
+				config = MachineConfig.forAddressBits(this.buf.getInt());
+			} catch (IllegalArgumentException e) {
+				throw new DataFormatException(e.getMessage());
+			}
+			int pc = this.buf.getInt();
+			if (this.number < 1 || !config.isAddress(pc)
+					|| this.buf.getInt() != config.numRegisters) {
+				throw new DataFormatException("Invalid keyframe");
+			}
+			this.mem = new Memory(config);
+			this.reg = new Registers(config, pc);
+			for (int i = 0; i < config.numRegisters; i++) {
+				this.reg.setRegRaw(this.buf.getInt(), i);
+			}
+			int pages = config.wordsInMem / Memory.PAGE_SIZE;
+			int used = this.buf.getInt();
+			int last = -1;
+			for (int i = 0; i < used; i++) {
+				int p = this.buf.getInt();
+				if (p <= last || p >= pages) {
+					throw new DataFormatException("Invalid page " + p);
+				}
+				for (int a = p * Memory.PAGE_SIZE; a < (p + 1)
+						* Memory.PAGE_SIZE; a++) {
+					this.mem.rep[a] = config.word.mask(this.buf.getInt());
+				}
+				last = p;
+			}
+			this.trace = new Trace(this.mem, this.reg);
+		}
+
+		/**
+		 * Description: writes message to out as formatted when logged as
+		 * fine.
+		 */
+		private void log(String message) throws IOException {
+			this.out.write(this.formatter.format(new LogRecord(Level.FINE,
+					message)));
+		}
+	}
+}
@@ -0,0 +1,441 @@
+package vm;
+
+import java.io.IOException;
+
+import utilities.CharChecker;
+
+/**
+ * Executes the instructions according to the specifications of Machine
+ * Instructions, the same as Executioner, but without a switch. Each operation
+ * has a small handler of its own, and the handlers are kept in a table indexed
+ * by the 4 bit op code (NOP follows the 16 op codes). A DispatchExecutioner is
+ * made once for a virtual machine and reused for every instruction it
+ * executes.
+ * 
+ * A handler returns the warning to be reported when its instruction can not be
+ * performed, or null if it was performed. A halt or the end of the process
+ * input is reported in the FaultRecord given to the handler, so no handler
+ * throws anything but an IOException from the process output.
+ * 
+ * @author Dragon Slayer
+ */
+public final class DispatchExecutioner implements InstructionExecutor {
+
+	private static final String ILLEGAL_ADDRESS = "WARNING: Illegal memory address detected. No operation will be performed.";
+	private static final String DIVIDE_BY_ZERO = "WARNING: attempt to divide by zero encountered. No operation will be performed";
+	private static final String ILLEGAL_SHIFT = "WARNING: Illegal shift amount detected. No operation will be performed.";
+	private static final String INVALID_NUMBER = "WARNING: Invalid number entered. No operation will be performed.";
+
+	private final Memory mem;
+	private final Registers reg;
+	private final IOGroup IO;
+	private final Handler[] handlers;
+	private final PackedField word;
+	private final Trace trace;
+
+	/**
+	 * Description: Initializes the internal representation of the
+	 * DispatchExecutioner to contain mem, reg, and IO and fills the handler
+	 * table.
+	 * 
+	 * @requires mem, reg, IO exist
+	 * @alters internal representation of the DispatchExecutioner
+	 * @ensures mem, reg, IO remain unchanged
+	 * @param mem
+	 *            - memory the instructions are executed against
+	 * @param reg
+	 *            - registers the instructions are executed against
+	 * @param IO
+	 *            - input and output of the instructions
+	 */
+	public DispatchExecutioner(Memory mem, Registers reg, IOGroup IO) {
+		this.mem = mem;
+		this.reg = reg;
+		this.IO = IO;
+		this.word = mem.getConfig().word;
+		this.trace = new Trace(mem, reg);
+		this.handlers = new Handler[Operation.values().length];
+		this.handlers[Operation.LD.ordinal()] = new Load();
+		this.handlers[Operation.LDI.ordinal()] = new LoadImmediate();
+		this.handlers[Operation.ST.ordinal()] = new Store();
+		this.handlers[Operation.ADD.ordinal()] = new Add();
+		this.handlers[Operation.SUB.ordinal()] = new Subtract();
+		this.handlers[Operation.MUL.ordinal()] = new Multiply();
+		this.handlers[Operation.DIV.ordinal()] = new Divide();
+		this.handlers[Operation.OR.ordinal()] = new Or();
+		this.handlers[Operation.AND.ordinal()] = new And();
+		this.handlers[Operation.SHL.ordinal()] = new ShiftLeft();
+		this.handlers[Operation.SHR.ordinal()] = new ShiftRight();
+		this.handlers[Operation.IO.ordinal()] = new InputOutput();
+		this.handlers[Operation.BR.ordinal()] = new Branch();
+		this.handlers[Operation.BRZ.ordinal()] = new BranchZero();
+		this.handlers[Operation.BRN.ordinal()] = new BranchNegative();
+		this.handlers[Operation.BRS.ordinal()] = new BranchSubroutine();
+		this.handlers[Operation.NOP.ordinal()] = new NoOperation();
+	}
+
+	/**
+	 * Description: increments the program counter and runs the handler for the
+	 * op code of opInfo. If the handler reports a warning, it is written to IO
+	 * and added to the trace. Returns an updated trace of the registers and
+	 * memory affected by the instruction; the status of the instruction is
+	 * left in fault. The trace is recorded in the one Trace of the
+	 * DispatchExecutioner, so nothing is allocated.
+	 * 
+	 * @requires opInfo is the instruction at the program counter
+	 * @alters mem, reg, and/or IO as specified in the Machine Instructions,
+	 *         fault holds the status of the instruction.
+	 * @ensures opInfo is unchanged.
+	 * @param opInfo
+	 *            - the instruction information being evaluated and executed.
+	 * @param fault
+	 *            - record the status of the instruction is reported in
+	 * @return a Trace of the registers and memory affected by the instruction
+	 * @throws IOException
+	 */
+	@Override
+	public Trace execute(InstructionInfo opInfo, FaultRecord fault)
+			throws IOException {
+		fault.clear();
+		Trace trace = this.trace;
+		trace.record(opInfo);
+		this.reg.incPC();
+		String warning = this.handlers[opInfo.op.ordinal()].execute(opInfo,
+				trace.sOfXWord, fault);
+		if (warning != null) {
+			this.IO.write(warning);
+			trace.errorOccured(warning);
+			fault.warn(warning);
+		}
+		trace.update();
+		if (fault.status() == Status.HALT) {
+			fault.halt(trace);
+		}
+		return trace;
+	}
+
+	/**
+	 * Executes one operation of the Machine Instructions.
+	 */
+	private interface Handler {
+		/**
+		 * Description: performs the operation of opInfo with S(X) = sWord.
+		 * 
+		 * A halt or the end of the process input is reported in fault.
+		 * 
+		 * @requires opInfo.op is the operation of this handler
+		 * @alters mem, reg, and/or IO as specified in the Machine
+		 *         Instructions, fault for a halt or the end of input
+		 * @ensures opInfo and sWord are unchanged
+		 * @return the warning to report if the operation was not performed,
+		 *         else null
+		 */
+		String execute(InstructionInfo opInfo, int sWord, FaultRecord fault)
+				throws IOException;
+	}
+
+	private final class Load implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			if (!mem.isAddress(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
+			DispatchExecutioner.this.reg.setRegRaw(
+					DispatchExecutioner.this.mem.rep[sWord], opInfo.rIndex);
+			return null;
+		}
+	}
+
+	private final class LoadImmediate implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			DispatchExecutioner.this.reg.setRegRaw(sWord, opInfo.rIndex);
+			return null;
+		}
+	}
+
+	private final class Store implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			if (!mem.isAddress(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
+			DispatchExecutioner.this.mem.writeLegal(sWord,
+					DispatchExecutioner.this.reg.getRegRaw(opInfo.rIndex));
+			return null;
+		}
+	}
+
+	private final class Add implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			Registers reg = DispatchExecutioner.this.reg;
+			if (!mem.isAddress(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
+			int operand = DispatchExecutioner.this.mem.rep[sWord];
+			reg.setRegRaw(word.add(reg.getRegRaw(opInfo.rIndex), operand),
+					opInfo.rIndex);
+			return null;
+		}
+	}
+
+	private final class Subtract implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			Registers reg = DispatchExecutioner.this.reg;
+			if (!mem.isAddress(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
+			int operand = DispatchExecutioner.this.mem.rep[sWord];
+			reg.setRegRaw(word.subtract(reg.getRegRaw(opInfo.rIndex), operand),
+					opInfo.rIndex);
+			return null;
+		}
+	}
+
+	private final class Multiply implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			Registers reg = DispatchExecutioner.this.reg;
+			if (!mem.isAddress(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
+			int operand = DispatchExecutioner.this.mem.rep[sWord];
+			reg.setRegRaw(word.multiply(reg.getRegRaw(opInfo.rIndex), operand),
+					opInfo.rIndex);
+			return null;
+		}
+	}
+
+	private final class Divide implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			Registers reg = DispatchExecutioner.this.reg;
+			if (!mem.isAddress(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
+			int operand = DispatchExecutioner.this.mem.rep[sWord];
+			if (word.isZero(operand)) {
+				return DIVIDE_BY_ZERO;
+			}
+			reg.setRegRaw(word.divideBy(reg.getRegRaw(opInfo.rIndex), operand),
+					opInfo.rIndex);
+			return null;
+		}
+	}
+
+	private final class Or implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			Registers reg = DispatchExecutioner.this.reg;
+			if (!mem.isAddress(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
+			int operand = DispatchExecutioner.this.mem.rep[sWord];
+			reg.setRegRaw(word.or(reg.getRegRaw(opInfo.rIndex), operand),
+					opInfo.rIndex);
+			return null;
+		}
+	}
+
+	private final class And implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			Registers reg = DispatchExecutioner.this.reg;
+			if (!mem.isAddress(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
+			int operand = DispatchExecutioner.this.mem.rep[sWord];
+			reg.setRegRaw(word.and(reg.getRegRaw(opInfo.rIndex), operand),
+					opInfo.rIndex);
+			return null;
+		}
+	}
+
+	private final class ShiftLeft implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			if (sWord > word.length - 1) {
+				return ILLEGAL_SHIFT;
+			}
+			Registers reg = DispatchExecutioner.this.reg;
+			reg.setRegRaw(word.shiftLeft(reg.getRegRaw(opInfo.rIndex), sWord),
+					opInfo.rIndex);
+			return null;
+		}
+	}
+
+	private final class ShiftRight implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			if (sWord > word.length - 1) {
+				return ILLEGAL_SHIFT;
+			}
+			Registers reg = DispatchExecutioner.this.reg;
+			reg.setRegRaw(word.shiftRight(reg.getRegRaw(opInfo.rIndex), sWord),
+					opInfo.rIndex);
+			return null;
+		}
+	}
+
+	private final class InputOutput implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) throws IOException {
+			IOGroup IO = DispatchExecutioner.this.IO;
+			Registers reg = DispatchExecutioner.this.reg;
+			switch (opInfo.rIndex) {
+			case 0: {
+				long value = IO.readDecimal();
+				if (value == IOGroup.END_OF_INPUT) {
+					fault.set(Status.END_OF_INPUT);
+					break;
+				}
+				if (value == CharChecker.NOT_A_NUMBER) {
+					return INVALID_NUMBER;
+				}
+				if (word.isValid2sComp((int) value)) {
+					if (!mem.isAddress(sWord)) {
+						return ILLEGAL_ADDRESS;
+					}
+					DispatchExecutioner.this.mem.writeLegal(sWord,
+							word.mask((int) value));
+				}
+				break;
+			}
+			case 1: {
+				int c = IO.readChar();
+				if (c == -1) {
+					fault.set(Status.END_OF_INPUT);
+					break;
+				}
+				reg.storeIOByte(opInfo.xIndex, PackedField.ADDRESS.fromDec(c));
+				break;
+			}
+			case 2: {
+				if (!mem.isAddress(sWord)) {
+					return ILLEGAL_ADDRESS;
+				}
+				int twosComp = word.toDecInt2sComp(DispatchExecutioner.this.mem
+						.rep[sWord]);
+				IO.write(Integer.toString(twosComp));
+				break;
+			}
+			case 3: {
+				IO.writeByte(reg.getSigIOByte(opInfo.xIndex));
+				break;
+			}
+			}
+			return null;
+		}
+	}
+
+	private final class Branch implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) throws IOException {
+			IOGroup IO = DispatchExecutioner.this.IO;
+			Registers reg = DispatchExecutioner.this.reg;
+			Memory mem = DispatchExecutioner.this.mem;
+			switch (opInfo.rIndex) {
+			case 0: {
+				switch (opInfo.xIndex) {
+				case 1: {
+					IO.write(mem.toString());
+					break;
+				}
+				case 2: {
+					IO.write(reg.toString());
+					break;
+				}
+				case 3: {
+					IO.write(reg.toString() + mem.toString());
+					break;
+				}
+				}
+				fault.set(Status.HALT);
+				break;
+			}
+			case 1: {
+				IO.write(reg.toString() + mem.toString());
+				if (!reg.trySetPC(sWord)) {
+					return ILLEGAL_ADDRESS;
+				}
+				break;
+			}
+			case 2: {
+				if (!reg.tryIndexPC(sWord)) {
+					return ILLEGAL_ADDRESS;
+				}
+				break;
+			}
+			case 3: {
+				if (!reg.trySetPC(sWord)) {
+					return ILLEGAL_ADDRESS;
+				}
+				break;
+			}
+			}
+			return null;
+		}
+	}
+
+	private final class BranchZero implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			Registers reg = DispatchExecutioner.this.reg;
+			if (word.isZero(reg.getRegRaw(opInfo.rIndex))
+					&& !reg.trySetPC(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
+			return null;
+		}
+	}
+
+	private final class BranchNegative implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			Registers reg = DispatchExecutioner.this.reg;
+			if (!word.isPositive(reg.getRegRaw(opInfo.rIndex))
+					&& !reg.trySetPC(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
+			return null;
+		}
+	}
+
+	private final class BranchSubroutine implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			Registers reg = DispatchExecutioner.this.reg;
+			reg.storePC(opInfo.rIndex);
+			if (!reg.trySetPC(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
+			return null;
+		}
+	}
+
+	private final class NoOperation implements Handler {
+		@Override
+		public String execute(InstructionInfo opInfo, int sWord,
+				FaultRecord fault) {
+			return null;
+		}
+	}
+}
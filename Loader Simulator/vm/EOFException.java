@@ -1,13 +0,0 @@
-package vm;
-
-/**
- * Creates a new exception by extending Exception, which should be thrown when
- * trying to read past the end of the file.
- * 
- * @author Dragon Slayer
- */
-public class EOFException extends Exception {
-
-	private static final long serialVersionUID = 275122589658287529L;
-
-}
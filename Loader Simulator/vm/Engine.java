@@ -0,0 +1,55 @@
+package vm;
+
+/**
+ * This is an enum class which contains the engines a VirtualMachine can use to
+ * execute instructions. SWITCH uses the Executioner, which picks the
+ * instruction with a switch on the operation. DISPATCH uses the
+ * DispatchExecutioner, which looks the instruction up in a table of handlers.
+ * TIERED starts out with the Executioner and, while no trace is being logged,
+ * compiles hot blocks of code into JVM bytecode (see BlockCompiler). All of
+ * them produce the same process output, and the same trace when one is logged.
+ * 
+ * @author Dragon Slayer
+ */
+public enum Engine {
+	SWITCH {
+		@Override
+		public InstructionExecutor createExecutor(Memory mem, Registers reg,
+				IOGroup IO) {
+			return new Executioner(mem, reg, IO);
+		}
+	},
+	DISPATCH {
+		@Override
+		public InstructionExecutor createExecutor(Memory mem, Registers reg,
+				IOGroup IO) {
+			return new DispatchExecutioner(mem, reg, IO);
+		}
+	},
+	TIERED {
+		@Override
+		public InstructionExecutor createExecutor(Memory mem, Registers reg,
+				IOGroup IO) {
+			// instructions that are not compiled are interpreted
+			return new Executioner(mem, reg, IO);
+		}
+	};
+
+	/**
+	 * Description: creates the executor of this engine for the given memory,
+	 * registers and IO.
+	 * 
+	 * @requires mem, reg, IO exist
+	 * @alters creates a new InstructionExecutor
+	 * @ensures mem, reg, IO remain unchanged
+	 * @param mem
+	 *            - memory of the virtual machine
+	 * @param reg
+	 *            - registers of the virtual machine
+	 * @param IO
+	 *            - input and output of the virtual machine
+	 * @return an InstructionExecutor that executes against mem, reg and IO
+	 */
+	public abstract InstructionExecutor createExecutor(Memory mem,
+			Registers reg, IOGroup IO);
+}
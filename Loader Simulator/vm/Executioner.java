@@ -3,7 +3,6 @@ package vm;
 import java.io.IOException;
 
 import utilities.CharChecker;
-import utilities.MachineInfo;
 
 /**
  * Executes the instructions according to the specifications of Machine
@@ -11,15 +10,22 @@ import utilities.MachineInfo;
  * Registers field, and an IOGroup. First, the op code is evaluated. If the
  * op-code is IO or BR then the R value of the instruction is evaluated. If the
  * R in a BR instruction i s 0, then the X value is evaluated. The appropriate
- * Assembler instruction is then executed.
+ * Assembler instruction is then executed. This is the SWITCH engine; see
+ * DispatchExecutioner for the DISPATCH engine.
  * 
  * @author Dragon Slayer
  */
-public class Executioner {
+public class Executioner implements InstructionExecutor {
 
 	private Memory mem;
 	private Registers reg;
 	private IOGroup IO;
+	private final PackedField word;
+	private final Trace trace;
+	private static final String ILLEGAL_ADDRESS = "WARNING: Illegal memory address detected. No operation will be performed.";
+	private static final String DIVIDE_BY_ZERO = "WARNING: attempt to divide by zero encountered. No operation will be performed";
+	private static final String ILLEGAL_SHIFT = "WARNING: Illegal shift amount detected. No operation will be performed.";
+	private static final String INVALID_NUMBER = "WARNING: Invalid number entered. No operation will be performed.";
 
 	/**
 	 * Description: Initializes the internal representation of the Executioner
@@ -42,6 +48,8 @@ public class Executioner {
 		this.mem = mem;
 		this.reg = reg;
 		this.IO = IO;
+		this.word = mem.getConfig().word;
+		this.trace = new Trace(mem, reg);
 	}
 
 	/**
@@ -49,245 +57,166 @@ public class Executioner {
 	 * appropriate instruction is executed, except if the op code is an IO or
 	 * BR, in which case the appropriate method is called to further evaluate
 	 * the instruction. Returns an updated trace of the registers and memory
-	 * affected by the instructions execution
+	 * affected by the instructions execution. Nothing is thrown for a fault of
+	 * the program: an illegal address, a bad operand, a halt or the end of the
+	 * process input is left as the status in fault. The trace is recorded in
+	 * the one Trace of the Executioner, so nothing is allocated.
 	 * 
 	 * @requires true
-	 * @alters mem, reg, and/or IO as specified in the Machine Instructions.
+	 * @alters mem, reg, and/or IO as specified in the Machine Instructions,
+	 *         fault holds the status of the instruction.
 	 * @ensures opInfo is unchanged.
 	 * @return Returns an updated Trace of the registers and memory affected by
-	 *         the instruction. If an exception is caught, an error is added to
-	 *         the trace.
+	 *         the instruction. If the instruction could not be performed, a
+	 *         warning is added to the trace.
 	 * @param opInfo
 	 *            - the instruction information being evaluated and executed.
-	 * @return a Trace object of all the s
+	 * @param fault
+	 *            - record the status of the instruction is reported in
 	 * @throws IOException
-	 * @throws EOFException
-	 * @throws HaltException
 	 */
-	public Trace execute(InstructionInfo opInfo) throws IOException,
-			EOFException, HaltException {
-		Trace trace = new Trace(this.mem, this.reg, opInfo);
-		BitField sWord = trace.sOfXWord;
+	@Override
+	public Trace execute(InstructionInfo opInfo, FaultRecord fault)
+			throws IOException {
+		fault.clear();
+		Trace trace = this.trace;
+		trace.record(opInfo);
+		int sWord = trace.sOfXWord;
 		this.reg.incPC();
+		String warning = null;
 		//choosing machine instructions
 		switch (opInfo.op) {
 		case LD: {
-			try {
-				this.reg.setReg(this.mem.getWordAtAddr(sWord.toDecInt()),
-						opInfo.rIndex);
-			} catch (IllegalMemoryAddressException e) {
-				String error = "WARNING: Illegal memory address detected. No operation "
-						+ "will be performed.";
-				this.IO.write(error);
-				trace.errorOccured(error);
-				
+			if (this.mem.isAddress(sWord)) {
+				this.reg.setRegRaw(this.mem.rep[sWord], opInfo.rIndex);
+			} else {
+				warning = ILLEGAL_ADDRESS;
 			}
 			break;
 		}
 		case LDI: {
-			this.reg.setReg(sWord, opInfo.rIndex);
+			this.reg.setRegRaw(sWord, opInfo.rIndex);
 
 			break;
 		}
 		case ST: {
-			try {
-				this.mem.addWord(this.reg.getReg(opInfo.rIndex),
-						sWord.toDecInt());
-			} catch (IllegalMemoryAddressException e) {
-				String error = "WARNING: Illegal memory address detected. No operation "
-						+ "will be performed.";
-				this.IO.write(error);
-				trace.errorOccured(error);
+			if (this.mem.isAddress(sWord)) {
+				this.mem.writeLegal(sWord, this.reg.getRegRaw(opInfo.rIndex));
+			} else {
+				warning = ILLEGAL_ADDRESS;
 			}
 			break;
 		}
 		case ADD: {
-			BitField result = null;
-			try {
-				result = this.reg.getReg(opInfo.rIndex).add(
-						this.mem.getWordAtAddr(sWord.toDecInt()));
-			} catch (IllegalMemoryAddressException e) {
-				String error = "WARNING: Illegal memory address detected. No operation "
-						+ "will be performed.";
-				this.IO.write(error);
-				trace.errorOccured(error);
+			if (this.mem.isAddress(sWord)) {
+				int result = word.add(this.reg.getRegRaw(opInfo.rIndex),
+						this.mem.rep[sWord]);
+				this.reg.setRegRaw(result, opInfo.rIndex);
+			} else {
+				warning = ILLEGAL_ADDRESS;
 			}
-			this.reg.setReg(result, opInfo.rIndex);
 			break;
 		}
 		case SUB: {
-			BitField result;
-			try {
-				result = this.reg.getReg(opInfo.rIndex).subtract(
-						this.mem.getWordAtAddr(sWord.toDecInt()));
-				this.reg.setReg(result, opInfo.rIndex);
-			} catch (IllegalMemoryAddressException e) {
-				// log Auto-generated catch block
-				String error = "WARNING: Illegal memory address detected. No operation will "
-						+ "be performed.";
-				this.IO.write(error);
-				trace.errorOccured(error);
+			if (this.mem.isAddress(sWord)) {
+				int result = word.subtract(this.reg.getRegRaw(opInfo.rIndex),
+						this.mem.rep[sWord]);
+				this.reg.setRegRaw(result, opInfo.rIndex);
+			} else {
+				warning = ILLEGAL_ADDRESS;
 			}
 			break;
 		}
 		case MUL: {
-			BitField result;
-			try {
-				result = this.reg.getReg(opInfo.rIndex).multiply(
-						this.mem.getWordAtAddr(sWord.toDecInt()));
-				this.reg.setReg(result, opInfo.rIndex);
-			} catch (IllegalMemoryAddressException e) {
-				//log Auto-generated catch block
-				String error = "WARNING: Illegal memory address detected. No operation will "
-						+ "be performed.";
-				this.IO.write(error);
-				trace.errorOccured(error);
+			if (this.mem.isAddress(sWord)) {
+				int result = word.multiply(this.reg.getRegRaw(opInfo.rIndex),
+						this.mem.rep[sWord]);
+				this.reg.setRegRaw(result, opInfo.rIndex);
+			} else {
+				warning = ILLEGAL_ADDRESS;
 			}
 			break;
 
 		}
 		case DIV: {
-			try {
-				BitField result = this.reg.getReg(opInfo.rIndex).divideBy(
-						this.mem.getWordAtAddr(sWord.toDecInt()));
-				this.reg.setReg(result, opInfo.rIndex);
-			} catch (IllegalArgumentException e) {
-				String error = "WARNING: attempt to divide by zero encountered. No operation "
-						+ "will be performed";
-				this.IO.write(error);
-				trace.errorOccured(error);
-			} catch (IllegalMemoryAddressException e) {
-				// log
-				String error = "WARNING: Illegal memory address detected. No operation will "
-						+ "be performed.";
-				this.IO.write(error);
-				trace.errorOccured(error);
+			if (!this.mem.isAddress(sWord)) {
+				warning = ILLEGAL_ADDRESS;
+			} else if (word.isZero(this.mem.rep[sWord])) {
+				warning = DIVIDE_BY_ZERO;
+			} else {
+				int result = word.divideBy(this.reg.getRegRaw(opInfo.rIndex),
+						this.mem.rep[sWord]);
+				this.reg.setRegRaw(result, opInfo.rIndex);
 			}
 
 			break;
 		}
 		case OR: {
-			BitField result;
-			try {
-				result = this.reg.getReg(opInfo.rIndex).or(
-						this.mem.getWordAtAddr(sWord.toDecInt()));
-				this.reg.setReg(result, opInfo.rIndex);
-			} catch (IllegalMemoryAddressException e) {
-				// log Auto-generated catch block
-				String error = "WARNING: Illegal memory address detected. No operation will "
-						+ "be performed.";
-				this.IO.write(error);
-				trace.errorOccured(error);
+			if (this.mem.isAddress(sWord)) {
+				int result = word.or(this.reg.getRegRaw(opInfo.rIndex),
+						this.mem.rep[sWord]);
+				this.reg.setRegRaw(result, opInfo.rIndex);
+			} else {
+				warning = ILLEGAL_ADDRESS;
 			}
 			break;
 		}
 		case AND: {
-			BitField result;
-			try {
-				result = this.reg.getReg(opInfo.rIndex).and(
-						this.mem.getWordAtAddr(sWord.toDecInt()));
-				this.reg.setReg(result, opInfo.rIndex);
-			} catch (IllegalMemoryAddressException e) {
-				// log Auto-generated catch block
-				String error = "WARNING: Illegal memory address detected. No operation will "
-						+ "be performed.";
-				this.IO.write(error);
-				trace.errorOccured(error);
+			if (this.mem.isAddress(sWord)) {
+				int result = word.and(this.reg.getRegRaw(opInfo.rIndex),
+						this.mem.rep[sWord]);
+				this.reg.setRegRaw(result, opInfo.rIndex);
+			} else {
+				warning = ILLEGAL_ADDRESS;
 			}
 			break;
 		}
 		case SHL: {
-			try {
-				BitField result = this.reg.getReg(opInfo.rIndex).shiftLeft(
-						sWord.toDecInt());
-				this.reg.setReg(result, opInfo.rIndex);
-			} catch (IllegalArgumentException e) {
-				String error = "WARNING: Illegal shift amount detected. No operation will "
-						+ "be performed.";
-				this.IO.write(error);
-				trace.errorOccured(error);
+			if (sWord > word.length - 1) {
+				warning = ILLEGAL_SHIFT;
+			} else {
+				int result = word.shiftLeft(this.reg.getRegRaw(opInfo.rIndex),
+						sWord);
+				this.reg.setRegRaw(result, opInfo.rIndex);
 			}
 			break;
 		}
 		case SHR: {
-			try {
-				BitField result = this.reg.getReg(opInfo.rIndex).shiftRight(
-						sWord.toDecInt());
-				this.reg.setReg(result, opInfo.rIndex);
-			} catch (IllegalArgumentException e) {
-				String error = "WARNING: Illegal shift amount detected. No operation will "
-						+ "be performed.";
-				this.IO.write(error);
-				trace.errorOccured(error);
+			if (sWord > word.length - 1) {
+				warning = ILLEGAL_SHIFT;
+			} else {
+				int result = word.shiftRight(this.reg.getRegRaw(opInfo.rIndex),
+						sWord);
+				this.reg.setRegRaw(result, opInfo.rIndex);
 			}
 			break;
 		}
 		case IO: {
-			try {
-				this.performIO(opInfo, sWord);
-			} catch (NumberFormatException e) {
-				String error = "WARNING: Invalid number entered. No operation will "
-						+ "be performed.";
-				this.IO.write(error);
-				trace.errorOccured(error);
-			} catch (IllegalMemoryAddressException e) {
-				String error = "WARNING: Illegal memory address detected. No operation will "
-						+ "be performed.";
-				this.IO.write(error);
-				trace.errorOccured(error);
-			}
+			warning = this.performIO(opInfo, sWord, fault);
 			break;
 		}
 		case BR: {
-			try {
-				this.performBranchUnconditional(opInfo, sWord);
-			} catch (IllegalMemoryAddressException e) {
-				String error = "WARNING: Illegal memory address detected. No operation will "
-						+ "be performed.";
-				this.IO.write(error);
-				trace.errorOccured(error);
-			} catch (HaltException e) {
-				trace.update();
-				e.setTrace(trace.toString());
-				throw e;
-			}
+			warning = this.performBranchUnconditional(opInfo, sWord, fault);
 			break;
 		}
 		case BRZ: {
-			if (this.reg.getReg(opInfo.rIndex).isZero()) {
-				try {
-					this.reg.setPC(sWord);
-				} catch (IllegalMemoryAddressException e) {
-					String error = "WARNING: Illegal memory address detected. No operation will "
-							+ "be performed.";
-					this.IO.write(error);
-					trace.errorOccured(error);
-				}
+			if (word.isZero(this.reg.getRegRaw(opInfo.rIndex))
+					&& !this.reg.trySetPC(sWord)) {
+				warning = ILLEGAL_ADDRESS;
 			}
 			break;
 		}
 		case BRN: {
-			if (!this.reg.getReg(opInfo.rIndex).isPositive()) {
-				try {
-					this.reg.setPC(sWord);
-				} catch (IllegalMemoryAddressException e) {
-					String error = "WARNING: Illegal memory address detected. No operation will "
-							+ "be performed.";
-					this.IO.write(error);
-					trace.errorOccured(error);
-				}
+			if (!word.isPositive(this.reg.getRegRaw(opInfo.rIndex))
+					&& !this.reg.trySetPC(sWord)) {
+				warning = ILLEGAL_ADDRESS;
 			}
 			break;
 		}
 		case BRS: {
 			this.reg.storePC(opInfo.rIndex);
-			try {
-				this.reg.setPC(sWord);
-			} catch (IllegalMemoryAddressException e) {
-				String error = "WARNING: Illegal memory address detected. No operation will "
-						+ "be performed.";
-				this.IO.write(error);
-				trace.errorOccured(error);
+			if (!this.reg.trySetPC(sWord)) {
+				warning = ILLEGAL_ADDRESS;
 			}
 		}
 			break;
@@ -296,7 +225,15 @@ public class Executioner {
 
 		}
 		}
+		if (warning != null) {
+			this.IO.write(warning);
+			trace.errorOccured(warning);
+			fault.warn(warning);
+		}
 		trace.update();
+		if (fault.status() == Status.HALT) {
+			fault.halt(trace);
+		}
 		return trace;
 	}
 
@@ -304,9 +241,8 @@ public class Executioner {
 	 * Description: further evaluates and executes the opInfo for opcode BR by
 	 * evaluating the R part of the instruction. Changes the value of the
 	 * program counter and/or IO as specified in the Machine Instructions as
-	 * based on the R field. If it is not able to perform the BR as specified, a
-	 * HaltExeption, IOException, or IllegalMemoryAddresException will be
-	 * thrown.
+	 * based on the R field. Returns the warning to report if the branch can
+	 * not be performed, else null. A halt is reported in fault.
 	 * 
 	 * @requires true
 	 * @alters the registers and/or IO specified by the Machine Instructions
@@ -318,50 +254,58 @@ public class Executioner {
 	 * @param sWord
 	 *            - word used to change the value of the program counter as
 	 *            specified in the Machine Instructions.
-	 * @throws HaltException
+	 * @param fault
+	 *            - record a halt is reported in
+	 * @return the warning to report, or null
 	 * @throws IOException
-	 * @throws IllegalMemoryAddressException
 	 */
-	private void performBranchUnconditional(InstructionInfo opInfo,
-			BitField sWord) throws HaltException, IOException,
-			IllegalMemoryAddressException {
+	private String performBranchUnconditional(InstructionInfo opInfo,
+			int sWord, FaultRecord fault) throws IOException {
 		//choosing R value
 		switch (opInfo.rIndex) {
 		case 0: {
-			this.halt(opInfo.xIndex);
+			this.halt(opInfo.xIndex, fault);
 			break;
 		}
 		case 1: {
 			this.IO.write(this.reg.toString() + this.mem.toString());
-			this.reg.setPC(sWord);
+			if (!this.reg.trySetPC(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
 			break;
 		}
 		case 2: {
-			this.reg.indexPC(sWord);
+			if (!this.reg.tryIndexPC(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
 			break;
 		}
 		case 3: {
-			this.reg.setPC(sWord);
+			if (!this.reg.trySetPC(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
 			break;
 		}
 		}
-
+		return null;
 	}
 
 	/**
 	 * Description: further evaluates and executes the instruction based on the
 	 * xIndex of the instruction according to the specifications in the Machine
-	 * Instructions. It changes IO accordingly.
+	 * Instructions. It changes IO accordingly and reports the halt in fault.
 	 * 
 	 * @requires true
-	 * @alters IO according to the Machine Instructions for BR with R = 0
+	 * @alters IO according to the Machine Instructions for BR with R = 0,
+	 *         fault is HALT
 	 * @ensures xIndex is unchanged
 	 * @param xIndex
 	 *            - x part of the instruction being evaluated.
-	 * @throws HaltException
+	 * @param fault
+	 *            - record the halt is reported in
 	 * @throws IOException
 	 */
-	private void halt(int xIndex) throws HaltException, IOException {
+	private void halt(int xIndex, FaultRecord fault) throws IOException {
 		switch (xIndex) {
 		case 0: {
 			// quiet halt
@@ -380,7 +324,8 @@ public class Executioner {
 			break;
 		}
 		}
-		throw new HaltException();
+		// the trace is added once it has been updated
+		fault.set(Status.HALT);
 
 	}
 
@@ -388,6 +333,8 @@ public class Executioner {
 	 * Description: further evaluates and executes an IO instruction based on
 	 * the R value of the instruction. IO, Registers, and/or Memory are changed
 	 * according to the description in the Machine Instructions for IO.
+	 * Returns the warning to report if the instruction can not be performed,
+	 * else null. Reaching the end of the process input is reported in fault.
 	 * 
 	 * @requires true
 	 * @alters IO, Registers, and/or Memory according to the Machine
@@ -397,60 +344,48 @@ public class Executioner {
 	 *            - the instruction information being evaluated and executed
 	 * @param sWord
 	 *            - value of S(X) in the Machine Instructions.
+	 * @param fault
+	 *            - record the end of the process input is reported in
+	 * @return the warning to report, or null
 	 * @throws IOException
-	 * @throws EOFException
-	 * @throws IllegalMemoryAddressException
-	 * @throws NumberFormatException
 	 */
-	private void performIO(InstructionInfo opInfo, BitField sWord)
-			throws IOException, EOFException, IllegalMemoryAddressException,
-			NumberFormatException {
+	private String performIO(InstructionInfo opInfo, int sWord,
+			FaultRecord fault) throws IOException {
 		//choosing io instructions 
 		switch (opInfo.rIndex) {
 		case 0: {
-			while (this.IO.nextChar() != -1
-					&& CharChecker.isSeparator(this.IO.nextChar())) {
-				this.IO.read();
+			long value = this.IO.readDecimal();
+			if (value == IOGroup.END_OF_INPUT) {
+				fault.set(Status.END_OF_INPUT);
+				break;
 			}
-			if (this.IO.nextChar() == -1) {
-				throw new EOFException();
+			if (value == CharChecker.NOT_A_NUMBER) {
+				return INVALID_NUMBER;
 			}
-			StringBuffer line = new StringBuffer();
-			while (this.IO.nextChar() != -1
-					&& !CharChecker.isSeparator(this.IO.nextChar())) {
-				line.append((char) this.IO.nextChar());
-				this.IO.read();
-			}
-			String lineString = line.toString();
-			if (line.charAt(0) == '+') {
-				lineString = line.substring(1);
-			}
-			int value = Integer.parseInt(lineString);
-			if (BitField.isValid2sComp(value, MachineInfo.BITS_IN_WORD)) {
-				boolean neg = value < 0;
-				BitField w = new BitField(Math.abs(value),
-						MachineInfo.BITS_IN_WORD);
-				if (neg) {
-					w = w.negate();
+			if (word.isValid2sComp((int) value)) {
+				if (!this.mem.isAddress(sWord)) {
+					return ILLEGAL_ADDRESS;
 				}
-				this.mem.addWord(w, sWord.toDecInt());
+				this.mem.writeLegal(sWord, word.mask((int) value));
 			}
 			break;
 		}
 		case 1: {
-			if (this.IO.nextChar() == -1) {
-				throw new EOFException();
+			int c = this.IO.readChar();
+			if (c == -1) {
+				fault.set(Status.END_OF_INPUT);
+				break;
 			}
-			BitField b = new BitField(this.IO.nextChar(),
-					MachineInfo.BITS_IN_ADDRESS);
+			int b = PackedField.ADDRESS.fromDec(c);
 			this.reg.storeIOByte(opInfo.xIndex, b);
-			this.IO.read();
 			break;
 
 		}
 		case 2: {
-			int twosComp = this.mem.getWordAtAddr(sWord.toDecInt())
-					.toDecInt2sComp();
+			if (!this.mem.isAddress(sWord)) {
+				return ILLEGAL_ADDRESS;
+			}
+			int twosComp = word.toDecInt2sComp(this.mem.rep[sWord]);
 			this.IO.write(Integer.toString(twosComp));
 			break;
 		}
@@ -459,5 +394,6 @@ public class Executioner {
 			break;
 		}
 		}
+		return null;
 	}
-}
\ No newline at end of file
+}
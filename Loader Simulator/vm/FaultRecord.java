@@ -0,0 +1,113 @@
+package vm;
+
+/**
+ * Holds the status of the last instruction executed by an InstructionExecutor
+ * (see Status). A virtual machine makes one FaultRecord and hands the same
+ * record to its executor for every instruction, so reporting a fault allocates
+ * nothing. Along with the status it keeps the warning that was written for a
+ * WARNING and the trace of the instruction that halted the program for a HALT.
+ * 
+ * @author Dragon Slayer
+ */
+public final class FaultRecord {
+
+	private Status status = Status.OK;
+	private String warning;
+	private Trace haltTrace;
+
+	/**
+	 * Description: returns the status of the last instruction.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the record is unchanged
+	 * @return the status of the last instruction
+	 */
+	public Status status() {
+		return this.status;
+	}
+
+	/**
+	 * Description: returns the warning written for the last instruction, or
+	 * null if its status is not WARNING.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the record is unchanged
+	 * @return the warning of the last instruction, or null
+	 */
+	public String warning() {
+		return this.warning;
+	}
+
+	/**
+	 * Description: returns the trace of the instruction that halted the
+	 * program, or null if the status is not HALT. The trace holds the halt
+	 * until the next instruction is executed.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the record is unchanged
+	 * @return the trace of the halt, or null
+	 */
+	public Trace haltTrace() {
+		return this.haltTrace;
+	}
+
+	/**
+	 * Description: sets the status to OK for the next instruction.
+	 * 
+	 * @requires true
+	 * @alters the status is OK and there is no warning or halt trace
+	 * @ensures true
+	 */
+	void clear() {
+		this.status = Status.OK;
+		this.warning = null;
+		this.haltTrace = null;
+	}
+
+	/**
+	 * Description: records that the instruction could not be performed and
+	 * warning was written.
+	 * 
+	 * @requires warning is not null
+	 * @alters the status is WARNING with the given warning
+	 * @ensures true
+	 * @param warning
+	 *            - the warning written to the process output
+	 */
+	void warn(String warning) {
+		this.status = Status.WARNING;
+		this.warning = warning;
+	}
+
+	/**
+	 * Description: records that the instruction traced by trace halted the
+	 * program.
+	 * 
+	 * @requires trace has been updated
+	 * @alters the status is HALT with the given trace
+	 * @ensures true
+	 * @param trace
+	 *            - trace of the halting instruction
+	 */
+	void halt(Trace trace) {
+		this.status = Status.HALT;
+		this.haltTrace = trace;
+	}
+
+	/**
+	 * Description: records a status with no warning or trace, such as
+	 * END_OF_INPUT or INSTRUCTION_LIMIT.
+	 * 
+	 * @requires true
+	 * @alters the status is status
+	 * @ensures true
+	 * @param status
+	 *            - the status of the instruction
+	 */
+	void set(Status status) {
+		this.status = status;
+	}
+}
@@ -4,16 +4,19 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.zip.DataFormatException;
 
-import utilities.MachineInfo;
-
 /**
  * This class can be used to represent a list of Text Records. (see definition)
  * HexWordSegment is represented by a Map whose key value is an integer (the
- * address) and whose dependent value is a String, which is a TextRecord.
+ * address) and whose dependent value is a String, which is a TextRecord. As
+ * each Text Record is added its word is also parsed once into a packed image
+ * of the segment, which Memory copies in a single block when it is loaded.
+ * A segment is read for one MachineConfig, which bounds its addresses.
  */
 public class HexWordSegment {
 	private Map<Integer, String> rep;
-	private static final int maxAddress = MachineInfo.WORDS_IN_MEM;
+	final int[] image;
+	private final int maxAddress;
+	public final MachineConfig config;
 	public final int execStart;
 	public final int startAdd;
 	public final int size;
@@ -50,11 +53,43 @@ public class HexWordSegment {
 	public static HexWordSegment getHexWordSegment(int execStartAddress,
 			String name, int loadAddressStart, int segmentLength)
 			throws DataFormatException {
+		return getHexWordSegment(execStartAddress, name, loadAddressStart,
+				segmentLength, MachineConfig.DEFAULT);
+	}
+
+	/**
+	 * Description: creates a HexWordSegment for a machine with the geometry
+	 * config, the same as getHexWordSegment(execStartAddress, name,
+	 * loadAddressStart, segmentLength) with maxAddress being
+	 * config.wordsInMem.
+	 * 
+	 * @requires config exists
+	 * @alters N/A
+	 * @ensures immutability
+	 * @return the HexWordSegment
+	 * @param execStartAddress
+	 *            - the starting address for execution which was taken from the
+	 *            Header Record
+	 * @param name
+	 *            - character segment name from the Header Record
+	 * @param loadAddressStart
+	 *            - the segment load address from the Header Record
+	 * @param segmentLength
+	 *            - the length of the segment that will be read into a
+	 *            HexWordSegment
+	 * @param config
+	 *            - geometry of the machine the segment is for
+	 * @throws DataFormatException
+	 */
+	public static HexWordSegment getHexWordSegment(int execStartAddress,
+			String name, int loadAddressStart, int segmentLength,
+			MachineConfig config) throws DataFormatException {
 		HexWordSegment seg = null;
+		int maxAddress = config.wordsInMem;
 		if (!(execStartAddress >= maxAddress || loadAddressStart
 				+ segmentLength >= maxAddress)) {
 			seg = new HexWordSegment(execStartAddress, name, loadAddressStart,
-					segmentLength);
+					segmentLength, config);
 		} else {
 			throw new DataFormatException();
 		}
@@ -81,15 +116,19 @@ public class HexWordSegment {
 	 * @param segmentLength
 	 *            - the length of the segment that will be read into a
 	 *            HexWordSegment
-	 * 
+	 * @param config
+	 *            - geometry of the machine the segment is for
 	 */
 	private HexWordSegment(int execStartAddress, String name,
-			int loadAddressStart, int segmentLength) {
+			int loadAddressStart, int segmentLength, MachineConfig config) {
+		this.config = config;
+		maxAddress = config.wordsInMem;
 		execStart = execStartAddress;
 		startAdd = loadAddressStart;
 		size = segmentLength;
 		this.name = name;
 		rep = new HashMap<Integer, String>();
+		image = new int[segmentLength + 1];
 
 	}
 
@@ -97,7 +136,8 @@ public class HexWordSegment {
 	 * Description: adds an Address and word (a text record) to the
 	 * HexWordSegment (map). Each address has a corresponding BitField word. If
 	 * the map previously contained a mapping for the key Address, the old word
-	 * is replaced by the new word.
+	 * is replaced by the new word. Words inside the segment are also parsed
+	 * into the packed image of the segment.
 	 * 
 	 * @requires true
 	 * @alters adds a word (Text Record) to the map representing HexWordSegment.
@@ -112,8 +152,12 @@ public class HexWordSegment {
 	 */
 	public Boolean addWord(int address, String word) {
 		rep.put(address, word);
-		return address >= startAdd && address <= maxAddress
+		boolean inSegment = address >= startAdd && address <= maxAddress
 				&& address <= startAdd + size;
+		if (inSegment) {
+			image[address - startAdd] = Integer.parseInt(word, 16);
+		}
+		return inSegment;
 	}
 
 	/**
@@ -131,4 +175,18 @@ public class HexWordSegment {
 		}
 		return copy;
 	}
+
+	/**
+	 * Description: returns a copy of the packed image of the segment. Index i
+	 * of the image holds the word for address startAdd + i, or zero if no Text
+	 * Record was given for that address.
+	 * 
+	 * @requires true
+	 * @alters Nothing
+	 * @ensures original HexWordSegment is unchanged.
+	 * @return a copy of the packed image of the segment
+	 */
+	public int[] getImage() {
+		return image.clone();
+	}
 }
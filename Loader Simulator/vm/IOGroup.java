@@ -1,25 +1,53 @@
 package vm;
 
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.Reader;
 
+import utilities.CharChecker;
+
 /**
  * Wraps the input reader and output writer into one class. Instead of using
  * both a Reader and Writer, an IOGroup can be used. It contains three fields, a
  * Reader, a Writer, and an integer which is the next character from input.
+ * It counts the characters of input read past and the bytes written to
+ * output, which a Checkpoint records so a run can be resumed where it was.
+ * readDecimal and readChar read the values of IO with R = 0 and R = 1; they
+ * also write every value to an InputLog while recording, or take the values
+ * from the InputLog instead of the input while replaying.
+ * 
+ * The next character is only read from input when it is needed, so a run
+ * reading from a Reader that blocks until input arrives (see InputQueue) does
+ * not wait for a character past the ones its instructions read. Before a read
+ * that may block, the output written so far is flushed.
  * 
  * @author Dragon Slayer
  */
 public class IOGroup {
+	/**
+	 * Returned by readDecimal at the end of the input.
+	 */
+	public static final long END_OF_INPUT = Long.MAX_VALUE;
+
+	private static final int UNREAD = -2;
+
 	private Reader in;
 	private BufferedOutputStream out;
-	private int nextChar;
+	// UNREAD until the next character is needed
+	private int nextChar = UNREAD;
+	// characters before nextChar
+	private long inputOffset;
+	private long outputLength;
+	private final StringBuilder token = new StringBuilder();
+	private InputLog log;
+	// number of the IO instruction being executed
+	private long instruction;
 
 	/**
 	 * Description: Sets the private fields of IOGroup. Sets in as the Reader,
-	 * out as the Writer, and the next character is set to the next character
-	 * from input. If this is unsuccessful, an IOException is thrown.
+	 * out as the Writer; the next character is read from input when it is
+	 * first needed. If this is unsuccessful, an IOException is thrown.
 	 * 
 	 * @requires true
 	 * @alters IOGroup's reader and writer are set if possible, if not, an
@@ -34,7 +62,70 @@ public class IOGroup {
 	public IOGroup(Reader in, BufferedOutputStream out2) throws IOException {
 		this.in = in;
 		this.out = out2;
-		nextChar = in.read();
+	}
+
+	/**
+	 * Description: Sets the private fields of IOGroup for a run that resumes
+	 * with inputOffset characters of input already read and outputLength
+	 * bytes already written. The first inputOffset characters of in are
+	 * skipped; out must already be positioned after the first outputLength
+	 * bytes of output.
+	 * 
+	 * @requires 0 <= inputOffset, 0 <= outputLength
+	 * @alters inputOffset characters of in are read
+	 * @ensures the offsets of the IOGroup are inputOffset and outputLength
+	 * @param in
+	 *            - character stream reader being set for the IOGroup
+	 * @param out2
+	 *            - character stream writer being set for the IOGroup
+	 * @param inputOffset
+	 *            - number of characters of input already read
+	 * @param outputLength
+	 *            - number of bytes of output already written
+	 * @throws IOException
+	 * @throws EOFException
+	 *             if in has fewer than inputOffset characters
+	 */
+	public IOGroup(Reader in, BufferedOutputStream out2, long inputOffset,
+			long outputLength) throws IOException {
+		for (long left = inputOffset; left > 0;) {
+			long skipped = in.skip(left);
+			if (skipped <= 0) {
+				if (in.read() == -1) {
+					throw new EOFException();
+				}
+				skipped = 1;
+			}
+			left -= skipped;
+		}
+		this.in = in;
+		this.out = out2;
+		this.inputOffset = inputOffset;
+		this.outputLength = outputLength;
+	}
+
+	/**
+	 * Description: sets the IOGroup to read from in and write to out2 the same
+	 * as IOGroup(in, out2) does, so one IOGroup can serve one run after
+	 * another. The streams of the last run are not closed, and no input log
+	 * is kept.
+	 * 
+	 * @requires true
+	 * @alters IOGroup's reader, writer and next character
+	 * @ensures in and out2 are the streams of the IOGroup
+	 * @param in
+	 *            - character stream reader being set for the IOGroup
+	 * @param out2
+	 *            - character stream writer being set for the IOGroup
+	 * @throws IOException
+	 */
+	public void reset(Reader in, BufferedOutputStream out2) throws IOException {
+		this.in = in;
+		this.out = out2;
+		inputOffset = 0;
+		outputLength = 0;
+		log = null;
+		nextChar = UNREAD;
 	}
 
 	/**
@@ -44,9 +135,10 @@ public class IOGroup {
 	 * @alters N/A
 	 * @ensures true
 	 * @return the next character as an integer
+	 * @throws IOException
 	 */
-	public int nextChar() {
-		return nextChar;
+	public int nextChar() throws IOException {
+		return peek();
 	}
 
 	/**
@@ -61,10 +153,36 @@ public class IOGroup {
 	 * @throws IOException
 	 */
 	public int read() throws IOException {
-		nextChar = in.read();
+		advance();
+		return peek();
+	}
+
+	/**
+	 * Description: returns the next character, reading it from input if it
+	 * has not been read yet.
+	 */
+	private int peek() throws IOException {
+		if (nextChar == UNREAD) {
+			if (!in.ready()) {
+				// in may block until more input arrives
+				out.flush();
+			}
+			nextChar = in.read();
+		}
 		return nextChar;
 	}
 
+	/**
+	 * Description: moves past the next character, unless the input has
+	 * ended, without reading the one after it.
+	 */
+	private void advance() throws IOException {
+		if (peek() != -1) {
+			inputOffset++;
+			nextChar = UNREAD;
+		}
+	}
+
 	/**
 	 * Description: Write a single character.
 	 * 
@@ -91,7 +209,9 @@ public class IOGroup {
 	 * @throws IOException
 	 */
 	public void write(String str) throws IOException {
-		out.write(str.getBytes());
+		byte[] bytes = str.getBytes();
+		out.write(bytes);
+		outputLength += bytes.length;
 
 	}
 
@@ -107,6 +227,144 @@ public class IOGroup {
 	 */
 	public void writeByte(int i) throws IOException {
 		out.write(i);
+		outputLength++;
+	}
+
+	/**
+	 * Description: reads the next word of the input, the characters up to the
+	 * next separator after skipping separators, and returns its value (a
+	 * leading '+' is allowed), NOT_A_NUMBER if it is not a decimal int, or
+	 * END_OF_INPUT if only separators are left. While replaying the value is
+	 * taken from the InputLog instead.
+	 * 
+	 * @requires input stream is open
+	 * @alters the input up to the end of the word is read
+	 * @ensures true
+	 * @return the value of the word, CharChecker.NOT_A_NUMBER or END_OF_INPUT
+	 * @throws IOException
+	 *             also if the run diverges from the replayed log
+	 */
+	public long readDecimal() throws IOException {
+		if (log != null && log.replaying()) {
+			return log.read(instruction, 0);
+		}
+		while (peek() != -1 && CharChecker.isSeparator(nextChar)) {
+			advance();
+		}
+		long value;
+		if (nextChar == -1) {
+			value = END_OF_INPUT;
+		} else {
+			token.setLength(0);
+			while (peek() != -1 && !CharChecker.isSeparator(nextChar)) {
+				token.append((char) nextChar);
+				advance();
+			}
+			if (token.charAt(0) == '+') {
+				token.deleteCharAt(0);
+			}
+			value = CharChecker.parseDecimal(token);
+		}
+		if (log != null) {
+			log.write(instruction, value == END_OF_INPUT ? InputLog.END
+					: value == CharChecker.NOT_A_NUMBER ? InputLog.NOT_A_NUMBER
+							: InputLog.NUMBER, value);
+		}
+		return value;
+	}
+
+	/**
+	 * Description: reads the next character of the input and returns it, or
+	 * returns -1 at the end of the input. While replaying the character is
+	 * taken from the InputLog instead.
+	 * 
+	 * @requires input stream is open
+	 * @alters one character of input is read
+	 * @ensures true
+	 * @return the character read, or -1
+	 * @throws IOException
+	 *             also if the run diverges from the replayed log
+	 */
+	public int readChar() throws IOException {
+		if (log != null && log.replaying()) {
+			return (int) log.read(instruction, 1);
+		}
+		int c = peek();
+		advance();
+		if (log != null) {
+			log.write(instruction, c == -1 ? InputLog.END : InputLog.CHAR, c);
+		}
+		return c;
+	}
+
+	/**
+	 * Description: makes readDecimal and readChar record to, or replay from,
+	 * log.
+	 * 
+	 * @requires log exists
+	 * @alters the input log of the IOGroup
+	 * @ensures log is closed by cleanUp
+	 * @param log
+	 *            - the input log
+	 */
+	public void setInputLog(InputLog log) {
+		this.log = log;
+	}
+
+	/**
+	 * Description: sets the number of the IO instruction about to be
+	 * executed, which is the instruction number of the values it reads.
+	 * 
+	 * @requires true
+	 * @alters the instruction number
+	 * @ensures true
+	 * @param instruction
+	 *            - number of the instruction, counting the first of the run
+	 *            as 1
+	 */
+	void setInstruction(long instruction) {
+		this.instruction = instruction;
+	}
+
+	/**
+	 * Description: returns the number of characters of input read past, the
+	 * characters before nextChar.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures true
+	 * @return the offset of nextChar in the input
+	 */
+	public long inputOffset() {
+		return inputOffset;
+	}
+
+	/**
+	 * Description: returns the number of bytes written to output.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures true
+	 * @return the length of the output
+	 */
+	public long outputLength() {
+		return outputLength;
+	}
+
+	/**
+	 * Description: Flushes the output stream, so every byte written so far is
+	 * in the output.
+	 * 
+	 * @requires output stream is open
+	 * @alters flushes the output stream
+	 * @ensures outputLength bytes have been sent to the output
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		out.flush();
+		if (log != null) {
+			log.flush();
+		}
 	}
 
 	/**
@@ -119,6 +377,9 @@ public class IOGroup {
 	 */
 	public void cleanUp() {
 		try {
+			if (log != null) {
+				log.close();
+			}
 			in.close();
 			out.close();
 		} catch (IOException e) {
@@ -0,0 +1,251 @@
+package vm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+
+import utilities.CharChecker;
+
+/**
+ * A binary log of every value a run reads from its process input, each with
+ * the number of the IO instruction that read it (counting the first
+ * instruction of the run as 1). An IOGroup that records writes the value of
+ * every IO with R = 0 or R = 1 to the log; an IOGroup that replays takes the
+ * values from the log instead of parsing the process input, and fails with a
+ * ReplayDivergedException as soon as the run reads at another instruction or
+ * reads another kind of value than was recorded. A run replayed from its log
+ * therefore executes exactly as the recorded run did.
+ * 
+ * The log holds the int "Wi1L" and a version, then one record for each value
+ * read: the instruction number as a varint of its difference from the number
+ * of the record before, a byte for the kind of value, and for NUMBER the value
+ * as a zigzag varint or for CHAR the character as a varint.
+ * 
+ * @author Dragon Slayer
+ */
+public final class InputLog {
+
+	/**
+	 * Kind of a value read by IO with R = 0: a number.
+	 */
+	static final int NUMBER = 0;
+	/**
+	 * Kind of a value read by IO with R = 0: a word that is not a number.
+	 */
+	static final int NOT_A_NUMBER = 1;
+	/**
+	 * Kind of a value read by IO with R = 1: a character.
+	 */
+	static final int CHAR = 2;
+	/**
+	 * Kind of a value read by IO with R = 0 or 1: the end of the input.
+	 */
+	static final int END = 3;
+
+	private static final int MAGIC = 0x5769314C;
+	private static final int VERSION = 1;
+
+	private final DataOutputStream out;
+	private final DataInputStream in;
+	private long lastInstruction;
+
+	private InputLog(DataOutputStream out, DataInputStream in) {
+		this.out = out;
+		this.in = in;
+	}
+
+	/**
+	 * Description: creates a log that records to file, replacing it.
+	 * 
+	 * @requires true
+	 * @alters file is an empty log
+	 * @ensures true
+	 * @param file
+	 *            - the log file
+	 * @return a log for recording
+	 * @throws IOException
+	 */
+	public static InputLog record(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		return new InputLog(out, null);
+	}
+
+	/**
+	 * Description: opens the log in file for replaying it.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures file is unchanged
+	 * @param file
+	 *            - the log file
+	 * @return a log for replaying
+	 * @throws IOException
+	 * @throws DataFormatException
+	 *             if file is not an input log
+	 */
+	public static InputLog replay(File file) throws IOException,
+			DataFormatException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		boolean valid;
+		try {
+			valid = in.readInt() == MAGIC && in.readInt() == VERSION;
+		} catch (EOFException e) {
+			valid = false;
+		}
+		if (!valid) {
+			in.close();
+			throw new DataFormatException("Not an input log");
+		}
+		return new InputLog(null, in);
+	}
+
+	/**
+	 * Description: returns true iff the log is replayed.
+	 */
+	boolean replaying() {
+		return this.in != null;
+	}
+
+	/**
+	 * Description: writes a record of a value of kind read by instruction.
+	 * 
+	 * @requires the log records, instruction is not less than that of the
+	 *           last record
+	 * @alters the log
+	 * @ensures true
+	 * @param instruction
+	 *            - number of the reading instruction
+	 * @param kind
+	 *            - NUMBER, NOT_A_NUMBER, CHAR or END
+	 * @param value
+	 *            - the number or character read
+	 * @throws IOException
+	 */
+	void write(long instruction, int kind, long value) throws IOException {
+		writeVarint(instruction - this.lastInstruction);
+		this.lastInstruction = instruction;
+		this.out.writeByte(kind);
+		if (kind == NUMBER) {
+			writeVarint((value << 1) ^ (value >> 63));
+		} else if (kind == CHAR) {
+			writeVarint(value);
+		}
+	}
+
+	/**
+	 * Description: reads the next record, which must have been made by
+	 * instruction and be of a kind read by IO with R = r, and returns its
+	 * value: the number, CharChecker.NOT_A_NUMBER or IOGroup.END_OF_INPUT for
+	 * R = 0, and the character or -1 for R = 1.
+	 * 
+	 * @requires the log is replayed, r is 0 or 1
+	 * @alters the position in the log
+	 * @ensures true
+	 * @param instruction
+	 *            - number of the reading instruction
+	 * @param r
+	 *            - R of the reading instruction
+	 * @return the value read by the recorded run
+	 * @throws IOException
+	 * @throws ReplayDivergedException
+	 *             if the log ends, or the record is for another instruction
+	 *             or R
+	 */
+	long read(long instruction, int r) throws IOException {
+		long recorded;
+		int kind;
+		try {
+			recorded = this.lastInstruction + readVarint();
+			kind = this.in.readByte();
+		} catch (EOFException e) {
+			throw new ReplayDivergedException(
+					"input log ends before instruction " + instruction);
+		}
+		this.lastInstruction = recorded;
+		if (recorded != instruction) {
+			throw new ReplayDivergedException("input read at instruction "
+					+ instruction + " was recorded at " + recorded);
+		}
+		if (kind == END) {
+			return r == 0 ? IOGroup.END_OF_INPUT : -1;
+		}
+		if ((kind == CHAR) != (r == 1)) {
+			throw new ReplayDivergedException("input read at instruction "
+					+ instruction + " was recorded for another IO");
+		}
+		if (kind == NUMBER) {
+			long zigzag = readVarint();
+			return (zigzag >>> 1) ^ -(zigzag & 1);
+		} else if (kind == NOT_A_NUMBER) {
+			return CharChecker.NOT_A_NUMBER;
+		}
+		return readVarint();
+	}
+
+	/**
+	 * Description: writes the records made so far to the log file.
+	 * 
+	 * @requires true
+	 * @alters the log file
+	 * @ensures true
+	 * @throws IOException
+	 */
+	void flush() throws IOException {
+		if (this.out != null) {
+			this.out.flush();
+		}
+	}
+
+	/**
+	 * Description: closes the log file.
+	 * 
+	 * @requires true
+	 * @alters closes the log file
+	 * @ensures true
+	 * @throws IOException
+	 */
+	void close() throws IOException {
+		if (this.out != null) {
+			this.out.close();
+		} else {
+			this.in.close();
+		}
+	}
+
+	/**
+	 * Description: writes the unsigned value in groups of 7 bits, lowest
+	 * first, with the top bit of each byte set if more follow.
+	 */
+	private void writeVarint(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			this.out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.out.writeByte((int) value);
+	}
+
+	/**
+	 * Description: reads a value written by writeVarint.
+	 */
+	private long readVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = this.in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+}
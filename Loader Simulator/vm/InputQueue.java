@@ -0,0 +1,152 @@
+package vm;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A Reader for the process input of an interactive run: one thread offers
+ * text as it arrives and the virtual machine reading it blocks until there is
+ * some, or until end is called. It is built on a LinkedBlockingQueue rather
+ * than a pipe, and holds no monitor while it waits, so a run waiting for
+ * input on a virtual thread (see VMThreadRunner) gives up its carrier thread.
+ * It should be given to an IOGroup as is, not wrapped in a BufferedReader,
+ * which would hold its lock while waiting.
+ * 
+ * @author Dragon Slayer
+ */
+public final class InputQueue extends Reader {
+
+	// offered after the last text; compared by identity
+	private static final String END = new String();
+
+	private final LinkedBlockingQueue<String> texts = new LinkedBlockingQueue<String>();
+	private String text = "";
+	private int position;
+	private boolean ended;
+
+	/**
+	 * Description: adds text to the end of the input.
+	 * 
+	 * @requires end has not been called
+	 * @alters the input
+	 * @ensures text is read after the input offered before it
+	 * @param text
+	 *            - the text to add
+	 */
+	public void offer(String text) {
+		if (text.length() > 0) {
+			this.texts.add(text);
+		}
+	}
+
+	/**
+	 * Description: ends the input; once the text offered so far has been
+	 * read, reads return -1.
+	 * 
+	 * @requires end has not been called
+	 * @alters the input
+	 * @ensures no more text is offered
+	 */
+	public void end() {
+		this.texts.add(END);
+	}
+
+	/**
+	 * Description: reads one character of the input, waiting until there is
+	 * one or the input has ended.
+	 * 
+	 * @requires the queue is read by one thread
+	 * @alters the position in the input
+	 * @ensures true
+	 * @return the character read, or -1 at the end of the input
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted while it waits
+	 */
+	@Override
+	public int read() throws IOException {
+		if (!this.fill()) {
+			return -1;
+		}
+		return this.text.charAt(this.position++);
+	}
+
+	/**
+	 * Description: reads characters of the input into buf, waiting until
+	 * there are some or the input has ended.
+	 * 
+	 * @requires the queue is read by one thread
+	 * @alters the position in the input
+	 * @ensures true
+	 * @param buf
+	 *            - destination of the characters
+	 * @param off
+	 *            - index in buf of the first character
+	 * @param len
+	 *            - largest number of characters to read
+	 * @return the number of characters read, or -1 at the end of the input
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted while it waits
+	 */
+	@Override
+	public int read(char[] buf, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!this.fill()) {
+			return -1;
+		}
+		int count = Math.min(len, this.text.length() - this.position);
+		this.text.getChars(this.position, this.position + count, buf, off);
+		this.position += count;
+		return count;
+	}
+
+	/**
+	 * Description: waits until text is left to read and returns true, or
+	 * returns false once the input has ended.
+	 */
+	private boolean fill() throws IOException {
+		while (this.position == this.text.length()) {
+			if (this.ended) {
+				return false;
+			}
+			String next;
+			try {
+				next = this.texts.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			if (next == END) {
+				this.ended = true;
+			} else {
+				this.text = next;
+				this.position = 0;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Description: returns true iff a read would not wait.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the input is unchanged
+	 * @return true iff input is available or has ended
+	 */
+	@Override
+	public boolean ready() {
+		return this.position < this.text.length() || this.ended
+				|| !this.texts.isEmpty();
+	}
+
+	/**
+	 * Description: does nothing; the input is ended by end.
+	 */
+	@Override
+	public void close() {
+	}
+}
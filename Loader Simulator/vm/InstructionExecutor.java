@@ -0,0 +1,38 @@
+package vm;
+
+import java.io.IOException;
+
+/**
+ * Interface implemented by Executioner and DispatchExecutioner. An
+ * InstructionExecutor is made once for a virtual machine and executes every
+ * instruction of its run against that machine's memory, registers and IO. See
+ * Executioner or the Machine Instructions for how each instruction behaves.
+ * 
+ * @author Dragon Slayer
+ */
+public interface InstructionExecutor {
+
+	/**
+	 * Description: executes the instruction described by opInfo according to
+	 * the Machine Instructions and returns a trace of the registers and memory
+	 * affected by it. The status of the instruction is left in fault (see
+	 * Status). If the instruction can not be performed, a warning is written
+	 * to the process output and added to the trace. A halt or the end of the
+	 * process input is reported in fault, not thrown; only a failure of the
+	 * process output itself is thrown. The returned trace may be reused by the
+	 * executor for its next instruction.
+	 * 
+	 * @requires opInfo is the instruction at the program counter
+	 * @alters memory, registers and/or IO as specified in the Machine
+	 *         Instructions, fault holds the status of the instruction.
+	 * @ensures opInfo is unchanged.
+	 * @param opInfo
+	 *            - the instruction information being evaluated and executed.
+	 * @param fault
+	 *            - record the status of the instruction is reported in
+	 * @return a Trace of the registers and memory affected by the instruction
+	 * @throws IOException
+	 */
+	public abstract Trace execute(InstructionInfo opInfo, FaultRecord fault)
+			throws IOException;
+}
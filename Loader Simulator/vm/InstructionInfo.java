@@ -1,5 +1,7 @@
 package vm;
 
+import utilities.MachineInfo;
+
 /**
  * This class makes it much easier for a user to separate out the different
  * parts of an instruction for the virtual machine. An example of the
@@ -7,29 +9,46 @@ package vm;
  * (Figure.1) . InstructionInfo can break the instruction into its 4 parts, op,
  * r, x, and s for easy use later.
  * 
+ * InstructionInfo objects are immutable flyweights: there is at most one for
+ * each of the 2^20 possible instruction words. They are created the first time
+ * their word is decoded and kept in a table shared by every virtual machine in
+ * the JVM, so a word that has been decoded once is never decoded again. Since
+ * every field is final, an InstructionInfo can be handed between threads
+ * without locking; two threads decoding the same new word at once may both
+ * create one, and either may end up in the table.
+ * 
+ * The fields above S start at the length of an address, so instructions of a
+ * larger MachineConfig are decoded the same way with a wider S. Those have too
+ * many words for a shared table and are decoded each time; Memory keeps the
+ * decoded instruction of each address anyway.
+ * 
  * @author Dragon Slayer
  */
-public class InstructionInfo {
+public final class InstructionInfo {
 
 	public final Operation op;
 	public final int rIndex;
 	public final int xIndex;
-	public int sIndex;
-	private final int opStart = 16;
-	private final int opEnd = 20;
-	private final int regStart = 12;
-	private final int regEnd = 14;
-	private final int xStart = 10;
-	private final int xEnd = 12;
-	private final int addStart = 0;
-	private final int addEnd = 8;
-	private final int[] noOp = { 8, 9, 14, 15 };
-	private BitField instruction;
+	public final int sIndex;
+	// the starts of the fields above S, counted from the end of S
+	private static final int opStart = 8;
+	private static final int regStart = 4;
+	private static final int xStart = 2;
+	private static final int fieldMask = 0x3;
+	private static final int opMask = 0xF;
+	// bits 8, 9, 14 and 15 must be zero (with 8 bit addresses), or the
+	// instruction is a NOP
+	private static final int noOpMask = (1 << 0) | (1 << 1) | (1 << 6)
+			| (1 << 7);
+	private static final int defaultAddressBits = MachineInfo.BITS_IN_ADDRESS;
+	private static final Operation[] opCodes = Operation.values();
+	private static final InstructionInfo[] decoded =
+			new InstructionInfo[1 << MachineInfo.BITS_IN_WORD];
 
 	/**
 	 * Description: decodes the parameter instructionWord into its different
 	 * parts according to the instruction format given in the beginning of the
-	 * programmers guide by calling the InstructionInfo constructor.
+	 * programmers guide.
 	 * 
 	 * @requires true
 	 * @alters N/A
@@ -39,7 +58,57 @@ public class InstructionInfo {
 	 *            - to be separated out into its separate op, r, x and s parts.
 	 */
 	public static InstructionInfo decodeInstruction(BitField instructionWord) {
-		return new InstructionInfo(instructionWord);
+		return decodeInstruction(PackedField.WORD
+				.fromBitField(instructionWord));
+	}
+
+	/**
+	 * Description: returns the shared InstructionInfo for the packed
+	 * instruction word, decoding the word only if no InstructionInfo has been
+	 * made for it yet.
+	 * 
+	 * @requires true
+	 * @alters the table of decoded words may gain an entry
+	 * @ensure the fields, op, rIndex, xIndex, and sIndex of the result are set
+	 *         from the instruction.
+	 * @param instructionWord
+	 *            - packed word to be separated out into its separate op, r, x
+	 *            and s parts.
+	 * @return the InstructionInfo for instructionWord
+	 */
+	public static InstructionInfo decodeInstruction(int instructionWord) {
+		int word = PackedField.WORD.mask(instructionWord);
+		InstructionInfo info = decoded[word];
+		if (info == null) {
+			info = new InstructionInfo(word, defaultAddressBits);
+			decoded[word] = info;
+		}
+		return info;
+	}
+
+	/**
+	 * Description: returns the InstructionInfo for the packed instruction word
+	 * of a machine with the geometry config. For MachineConfig.DEFAULT this is
+	 * the shared InstructionInfo of decodeInstruction(instructionWord).
+	 * 
+	 * @requires config exists
+	 * @alters the table of decoded words may gain an entry
+	 * @ensure the fields, op, rIndex, xIndex, and sIndex of the result are set
+	 *         from the instruction.
+	 * @param instructionWord
+	 *            - packed word to be separated out into its separate op, r, x
+	 *            and s parts.
+	 * @param config
+	 *            - geometry of the machine the word belongs to
+	 * @return the InstructionInfo for instructionWord
+	 */
+	public static InstructionInfo decodeInstruction(int instructionWord,
+			MachineConfig config) {
+		if (config == MachineConfig.DEFAULT) {
+			return decodeInstruction(instructionWord);
+		}
+		return new InstructionInfo(config.word.mask(instructionWord),
+				config.bitsInAddress);
 	}
 
 	/**
@@ -51,138 +120,62 @@ public class InstructionInfo {
 	 * @ensures sets the fields, op, rIndex, xIndex, and sIndex for an
 	 *          InstructionInfo object from the instruction
 	 * @param instructionWord
-	 *            - to be separated out into its separate op, r, x and s parts.
+	 *            - packed word to be separated out into its separate op, r, x
+	 *            and s parts.
+	 * @param addressBits
+	 *            - length of the S part
 	 */
-	private InstructionInfo(BitField instructionWord) {
-		this.instruction = instructionWord;
-		op = opLookup();
-		rIndex = getRegDec();
-		xIndex = getXDec();
-		sIndex = getAddrDec();
+	private InstructionInfo(int instructionWord, int addressBits) {
+		op = opLookup(instructionWord >>> addressBits);
+		rIndex = getRegDec(instructionWord >>> addressBits);
+		xIndex = getXDec(instructionWord >>> addressBits);
+		sIndex = getAddrDec(instructionWord, addressBits);
 	}
 
 	/**
 	 * Description: returns the enum type that corresponds to the part of the
-	 * BitField that is the op code.
+	 * word that is the op code, given the bits of the word above S. If any of
+	 * the bits that must be zero are set, the operation is a NOP.
 	 * 
 	 * @requires true
 	 * @alters N/A
 	 * @ensures The instruction remains the same.
-	 * @return the enum type that corresponds to the part of the BitField that
-	 *         is the op code.
+	 * @return the enum type that corresponds to the part of the word that is
+	 *         the op code.
 	 */
-	public Operation opLookup() {
-		Operation result = Operation.NOP;
-		String bin = instruction.binSubstring(opStart, opEnd);
-		int code = Integer.parseInt(bin, 2);
-		//choosing machine ops
-		switch (code) {
-		case 0: {
-			result = Operation.LD;
-			break;
-		}
-		case 1: {
-			result = Operation.LDI;
-			break;
-		}
-		case 2: {
-			result = Operation.ST;
-			break;
+	private static Operation opLookup(int instruction) {
+		if ((instruction & noOpMask) != 0) {
+			return Operation.NOP;
 		}
-		case 3: {
-			result = Operation.ADD;
-			break;
-		}
-		case 4: {
-			result = Operation.SUB;
-			break;
-		}
-		case 5: {
-			result = Operation.MUL;
-			break;
-		}
-		case 6: {
-			result = Operation.DIV;
-			break;
-		}
-		case 7: {
-			result = Operation.OR;
-			break;
-		}
-		case 8: {
-			result = Operation.AND;
-			break;
-		}
-		case 9: {
-			result = Operation.SHL;
-			break;
-		}
-		case 10: {
-			result = Operation.SHR;
-			break;
-		}
-		case 11: {
-			result = Operation.IO;
-			break;
-		}
-		case 12: {
-			result = Operation.BR;
-			break;
-		}
-		case 13: {
-			result = Operation.BRZ;
-			break;
-		}
-		case 14: {
-			result = Operation.BRN;
-			break;
-		}
-		case 15: {
-			result = Operation.BRS;
-			break;
-		}
-		}
-
-		boolean nop = false;
-		for (int i : noOp) {
-			nop |= instruction.getBit(i);
-		}
-		if (nop) {
-			result = Operation.NOP;
-		}
-
-		return result;
-
+		return opCodes[(instruction >>> opStart) & opMask];
 	}
 
 	/**
 	 * Description: returns the decimal value of the register(r) part of the
-	 * instruction
+	 * instruction, given the bits of the word above S.
 	 * 
 	 * @requires true
 	 * @alters N/A
 	 * @ensures instruction remains the same.
 	 * @return the decimal value of the register(r) part of the instruction.
 	 */
-	public int getRegDec() {
+	private static int getRegDec(int instruction) {
 		//decimal for R
-		String bin = instruction.binSubstring(regStart, regEnd);
-		return Integer.parseInt(bin, 2);
+		return (instruction >>> regStart) & fieldMask;
 	}
 
 	/**
 	 * Description: returns the decimal value of the x part of the instruction
-	 * (see Figure.1 in Programmer's guide)
+	 * (see Figure.1 in Programmer's guide), given the bits of the word above S.
 	 * 
 	 * @requires true
 	 * @alters N/A
 	 * @ensures instruction remains the same.
 	 * @return the decimal value of the x part of the instruction.
 	 */
-	public int getXDec() {
-		//decimal for X 
-		String bin = instruction.binSubstring(xStart, xEnd);
-		return Integer.parseInt(bin, 2);
+	private static int getXDec(int instruction) {
+		//decimal for X
+		return (instruction >>> xStart) & fieldMask;
 	}
 
 	/**
@@ -194,9 +187,8 @@ public class InstructionInfo {
 	 * @ensures instruction remains the same.
 	 * @return the decimal value of the address(s) part of the instruction.
 	 */
-	public int getAddrDec() {
+	private static int getAddrDec(int instruction, int addressBits) {
 		//decimal for S
-		String bin = instruction.binSubstring(addStart, addEnd);
-		return Integer.parseInt(bin, 2);
+		return instruction & ((1 << addressBits) - 1);
 	}
 }
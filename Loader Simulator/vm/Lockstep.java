@@ -0,0 +1,240 @@
+package vm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Runs a candidate virtual machine in lockstep with a reference one to prove
+ * that the candidate's engine executes a program exactly as the interpreter
+ * does. The reference executes one instruction at a time with
+ * executeInstruction, the Executioner of the SWITCH engine alone; the
+ * candidate runs with its own engine (superinstructions, compiled blocks or a
+ * translated program) by runSlice. After every interval instructions, and
+ * when the run ends, the two are compared: the status of the last
+ * instruction, the number of instructions executed, the PC, the registers,
+ * the process output and the words of memory. Only the memory pages either
+ * machine has written since the last comparison are compared (see
+ * Memory.snapshot), and only the process output written since then, so a
+ * comparison costs little more than the words and bytes written. The run
+ * stops at the first difference.
+ * 
+ * Both machines must have been loaded with the same program and read the same
+ * process input, and each must write its process output to an Output of the
+ * lockstep run.
+ * 
+ * @author Dragon Slayer
+ */
+public final class Lockstep {
+
+	/**
+	 * The process output of a machine in a lockstep run. It keeps the bytes
+	 * written to it until they have been compared.
+	 */
+	public static final class Output extends ByteArrayOutputStream {
+
+		/**
+		 * Description: returns the byte at index of the bytes kept.
+		 */
+		private int byteAt(int index) {
+			return this.buf[index] & 0xFF;
+		}
+	}
+
+	private final VirtualMachine reference;
+	private final VirtualMachine candidate;
+	private final long interval;
+	private final Output referenceOutput, candidateOutput;
+	// snapshots taken at the last comparison
+	private VMSnapshot lastReference, lastCandidate;
+	// instructions executed by the reference when the machines were last
+	// the same, or -1 if they differed before the first instruction
+	private long lastSame = -1;
+	private Status referenceStatus = Status.OK, candidateStatus = Status.OK;
+	private String difference;
+
+	/**
+	 * Description: creates a lockstep run of candidate against reference,
+	 * comparing them every interval instructions.
+	 * 
+	 * @requires reference and candidate have not been run, interval > 0,
+	 *           reference writes its process output to referenceOutput and
+	 *           candidate to candidateOutput, through any buffer their IO
+	 *           flushes
+	 * @alters creates a Lockstep
+	 * @ensures reference and candidate are unchanged
+	 * @param reference
+	 *            - virtual machine executed by the interpreter
+	 * @param candidate
+	 *            - virtual machine executed by its engine
+	 * @param interval
+	 *            - number of instructions between comparisons
+	 * @param referenceOutput
+	 *            - process output of reference
+	 * @param candidateOutput
+	 *            - process output of candidate
+	 * @throws IllegalArgumentException
+	 *             if the machines have different MachineConfigs
+	 */
+	public Lockstep(VirtualMachine reference, VirtualMachine candidate,
+			long interval, Output referenceOutput, Output candidateOutput) {
+		this.reference = reference;
+		this.candidate = candidate;
+		this.interval = interval;
+		this.referenceOutput = referenceOutput;
+		this.candidateOutput = candidateOutput;
+		this.lastReference = reference.snapshot();
+		this.lastCandidate = candidate.snapshot();
+		if (this.lastReference.config != this.lastCandidate.config) {
+			throw new IllegalArgumentException();
+		}
+	}
+
+	/**
+	 * Description: runs both virtual machines until their run ends or they
+	 * differ, and returns true iff they never differed. The machines are
+	 * compared before the first instruction as well. The IO of the machines is
+	 * not closed.
+	 * 
+	 * @requires run has not been called
+	 * @alters both virtual machines as their runs do
+	 * @ensures the machines are compared at most every interval instructions
+	 * @return true iff the machines ended the same
+	 * @throws IOException
+	 */
+	public boolean run() throws IOException {
+		if (!this.compare(this.lastReference, this.lastCandidate, true)) {
+			return false;
+		}
+		while (true) {
+			this.lastSame = this.lastReference.instructionsExecuted;
+			for (long i = 0; i < this.interval; i++) {
+				this.referenceStatus = this.reference.executeInstruction();
+				if (this.referenceStatus.endsRun()) {
+					break;
+				}
+			}
+			if (!this.referenceStatus.endsRun()) {
+				// a warning only concerns the instruction that gave it
+				this.referenceStatus = Status.OK;
+			}
+			this.candidateStatus = this.candidate.runSlice(this.interval);
+			VMSnapshot ref = this.reference.snapshot();
+			VMSnapshot cand = this.candidate.snapshot();
+			boolean same = this.compare(ref, cand, false);
+			this.lastReference = ref;
+			this.lastCandidate = cand;
+			if (!same) {
+				return false;
+			}
+			if (this.referenceStatus.endsRun()) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Description: returns true iff ref and cand are the same state, and
+	 * otherwise records the first difference. Unless all is true, only the
+	 * pages written since the last snapshots are compared. The process output
+	 * written since the last comparison is compared and then dropped.
+	 */
+	private boolean compare(VMSnapshot ref, VMSnapshot cand, boolean all)
+			throws IOException {
+		MachineConfig config = ref.config;
+		this.reference.flushOutput();
+		this.candidate.flushOutput();
+		if (this.referenceStatus != this.candidateStatus) {
+			this.difference = "status " + this.referenceStatus + " / "
+					+ this.candidateStatus;
+		} else if (ref.instructionsExecuted != cand.instructionsExecuted) {
+			this.difference = "instructions executed "
+					+ ref.instructionsExecuted + " / "
+					+ cand.instructionsExecuted;
+		} else if (ref.programCounter != cand.programCounter) {
+			this.difference = "PC 0x"
+					+ config.address.toHexString(ref.programCounter) + " / 0x"
+					+ config.address.toHexString(cand.programCounter);
+		} else if (this.reference.outputLength() != this.candidate
+				.outputLength()) {
+			this.difference = "process output " + this.reference.outputLength()
+					+ " / " + this.candidate.outputLength() + " bytes";
+		} else if (this.referenceOutput.size() != this.candidateOutput.size()) {
+			this.difference = "process output since the last comparison "
+					+ this.referenceOutput.size() + " / "
+					+ this.candidateOutput.size() + " bytes";
+		}
+		// the lengths are the same, so the output since the last comparison
+		// starts at the same byte
+		long start = this.reference.outputLength()
+				- this.referenceOutput.size();
+		for (int i = 0; this.difference == null
+				&& i < this.referenceOutput.size(); i++) {
+			int refByte = this.referenceOutput.byteAt(i);
+			int candByte = this.candidateOutput.byteAt(i);
+			if (refByte != candByte) {
+				this.difference = "process output byte " + (start + i) + " 0x"
+						+ Integer.toHexString(refByte) + " / 0x"
+						+ Integer.toHexString(candByte);
+			}
+		}
+		if (this.difference == null) {
+			this.referenceOutput.reset();
+			this.candidateOutput.reset();
+		}
+		for (int r = 0; this.difference == null && r < ref.registers.length; r++) {
+			if (ref.registers[r] != cand.registers[r]) {
+				this.difference = "R[" + r + "] 0x"
+						+ config.word.toHexString(ref.registers[r]) + " / 0x"
+						+ config.word.toHexString(cand.registers[r]);
+			}
+		}
+		for (int p = 0; this.difference == null && p < ref.pages.length; p++) {
+			// pages neither machine wrote were the same at the last comparison
+			boolean written = all || ref.pages[p] != this.lastReference.pages[p]
+					|| cand.pages[p] != this.lastCandidate.pages[p];
+			if (written && !Arrays.equals(ref.pages[p], cand.pages[p])) {
+				int i = 0;
+				while (ref.pages[p][i] == cand.pages[p][i]) {
+					i++;
+				}
+				this.difference = "word at 0x"
+						+ config.address.toHexString(p * Memory.PAGE_SIZE + i)
+						+ " 0x" + config.word.toHexString(ref.pages[p][i])
+						+ " / 0x" + config.word.toHexString(cand.pages[p][i]);
+			}
+		}
+		return this.difference == null;
+	}
+
+	/**
+	 * Description: returns a report of the first difference found by run:
+	 * what differed, the instructions executed by the reference at the
+	 * comparison where the machines differed and at the last one where they
+	 * were the same, and the states of both machines when they differed.
+	 * Returns null if the machines have not differed.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the virtual machines are unchanged
+	 * @return the report, or null
+	 */
+	public String report() {
+		if (this.difference == null) {
+			return null;
+		}
+		StringBuffer result = new StringBuffer("Engines differ in "
+				+ this.difference + " (reference / candidate)\nafter instruction "
+				+ this.lastReference.instructionsExecuted + " of the reference");
+		if (this.lastSame >= 0) {
+			result.append("; last the same after instruction "
+					+ this.lastSame);
+		}
+		result.append(".\n");
+		result.append("Reference (" + this.referenceStatus + "):\n");
+		result.append(this.reference.toString());
+		result.append("Candidate (" + this.candidateStatus + "):\n");
+		result.append(this.candidate.toString());
+		return result.toString();
+	}
+}
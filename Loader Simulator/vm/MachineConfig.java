@@ -0,0 +1,147 @@
+package vm;
+
+import utilities.MachineInfo;
+
+/**
+ * Describes the geometry of a Wi12 machine: how many bits an address has, how
+ * many words memory holds and how long a word is. DEFAULT is the machine of
+ * MachineInfo (8 bit addresses, 256 words of 20 bits), and executable files
+ * for it are read and run exactly as before. A larger machine widens the S
+ * field of every instruction to the length of an address and keeps the other
+ * fields of an instruction above it in the same order, so a word is always 12
+ * bits longer than an address:
+ * 
+ * op (4) | 0 0 | r (2) | x (2) | 0 0 | S (bits in address)
+ * 
+ * Addresses may be 8, 12 or 16 bits long, so that addresses and words are
+ * whole hex characters in an executable file. A HexWordSegment is read for
+ * one MachineConfig, and the Memory and Registers made for it use the same
+ * one.
+ * 
+ * @author Dragon Slayer
+ */
+public final class MachineConfig {
+
+	/**
+	 * The machine described by MachineInfo.
+	 */
+	public static final MachineConfig DEFAULT = new MachineConfig(
+			MachineInfo.BITS_IN_ADDRESS);
+
+	// op code, register, index and the bits that must be zero
+	private static final int INSTRUCTION_BITS = 12;
+	private static final MachineConfig[] configs = { DEFAULT,
+			new MachineConfig(12), new MachineConfig(16) };
+
+	/**
+	 * Number of bits in an address and in the program counter.
+	 */
+	public final int bitsInAddress;
+	/**
+	 * Number of bits in a word.
+	 */
+	public final int bitsInWord;
+	/**
+	 * Number of words in memory, the first illegal address.
+	 */
+	public final int wordsInMem;
+	/**
+	 * Number of registers.
+	 */
+	public final int numRegisters;
+	/**
+	 * A field as long as one word.
+	 */
+	public final PackedField word;
+	/**
+	 * A field as long as one address.
+	 */
+	public final PackedField address;
+
+	/**
+	 * Description: creates the configuration with addresses of bitsInAddress
+	 * bits.
+	 */
+	private MachineConfig(int bitsInAddress) {
+		this.bitsInAddress = bitsInAddress;
+		this.bitsInWord = bitsInAddress + INSTRUCTION_BITS;
+		this.wordsInMem = 1 << bitsInAddress;
+		this.numRegisters = MachineInfo.NUM_REGISTERS;
+		// the default machine shares the fields of PackedField
+		if (bitsInAddress == MachineInfo.BITS_IN_ADDRESS) {
+			this.word = PackedField.WORD;
+			this.address = PackedField.ADDRESS;
+		} else {
+			this.word = new PackedField(this.bitsInWord);
+			this.address = new PackedField(bitsInAddress);
+		}
+	}
+
+	/**
+	 * Description: returns the configuration whose addresses are bits long.
+	 * 8 gives DEFAULT.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures true
+	 * @param bits
+	 *            - number of bits in an address
+	 * @return the configuration with bits long addresses
+	 * @throws IllegalArgumentException
+	 *             if bits is not 8, 12 or 16
+	 */
+	public static MachineConfig forAddressBits(int bits)
+			throws IllegalArgumentException {
+		for (MachineConfig config : configs) {
+			if (config.bitsInAddress == bits) {
+				return config;
+			}
+		}
+		throw new IllegalArgumentException("Invalid address length");
+	}
+
+	/**
+	 * Description: returns the number of hex characters of an address in an
+	 * executable file.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures true
+	 * @return bits in an address / 4
+	 */
+	public int addressHexChars() {
+		return this.bitsInAddress / 4;
+	}
+
+	/**
+	 * Description: returns the number of hex characters of a word in an
+	 * executable file.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures true
+	 * @return bits in a word / 4
+	 */
+	public int wordHexChars() {
+		return this.bitsInWord / 4;
+	}
+
+	/**
+	 * Description: returns true iff addr is an address of memory.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures true
+	 * @param addr
+	 *            - the address to be checked
+	 * @return true iff 0 <= addr < wordsInMem
+	 */
+	public boolean isAddress(int addr) {
+		return addr >= 0 && addr < this.wordsInMem;
+	}
+
+	@Override
+	public String toString() {
+		return this.wordsInMem + " words of " + this.bitsInWord + " bits";
+	}
+}
@@ -0,0 +1,263 @@
+package vm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+
+/**
+ * A file of records written through memory-mapped regions, as BinaryTrace and
+ * DeltaTrace write theirs. The file begins with, in big-endian order, an int
+ * magic number and an int version, HEADER_BYTES in all. Each record is
+ * reserved before it is written and put straight into the mapped region; the
+ * file is mapped a REGION at a time from the end of the records on, and is cut
+ * to the length of its records when it is closed. A text record is a byte for
+ * its kind, an int length and that many chars.
+ * 
+ * map and readText read such a file back.
+ * 
+ * @author Dragon Slayer
+ */
+final class MappedRecords {
+
+	/**
+	 * Number of bytes of the magic number and version.
+	 */
+	static final int HEADER_BYTES = 8;
+
+	// bytes of the file mapped at once
+	private static final int REGION = 1 << 22;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private MappedByteBuffer buf;
+	// offset in the file of buf
+	private long base;
+	private boolean closed;
+
+	/**
+	 * Description: creates records written to file.
+	 */
+	private MappedRecords(RandomAccessFile file) {
+		this.file = file;
+		this.channel = file.getChannel();
+	}
+
+	/**
+	 * Description: creates a file of records in file, replacing it, that
+	 * begins with magic and version.
+	 * 
+	 * @requires true
+	 * @alters file holds the header and no records
+	 * @ensures true
+	 * @param file
+	 *            - the file of records
+	 * @param magic
+	 *            - the magic number of the kind of file
+	 * @param version
+	 *            - the version of the kind of file
+	 * @return the records of file
+	 * @throws IOException
+	 */
+	static MappedRecords create(File file, int magic, int version)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		MappedRecords records = new MappedRecords(raf);
+		try {
+			raf.setLength(0);
+			ByteBuffer buf = records.reserve(HEADER_BYTES);
+			buf.putInt(magic);
+			buf.putInt(version);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		return records;
+	}
+
+	/**
+	 * Description: returns the mapped region with at least bytes remaining at
+	 * its position, the end of the records, mapping the file from there on if
+	 * the region has not.
+	 * 
+	 * @requires bytes > 0
+	 * @alters maps a new region if the one mapped is too short
+	 * @ensures the records written are unchanged
+	 * @param bytes
+	 *            - number of bytes of the record to write
+	 * @return the region to write the record to
+	 * @throws IOException
+	 * @throws IllegalStateException
+	 *             if the records are closed
+	 */
+	ByteBuffer reserve(int bytes) throws IOException {
+		if (this.closed) {
+			throw new IllegalStateException("closed");
+		}
+		if (this.buf == null || this.buf.remaining() < bytes) {
+			long end = this.position();
+			this.buf = this.channel.map(FileChannel.MapMode.READ_WRITE, end,
+					Math.max(REGION, bytes));
+			this.base = end;
+		}
+		return this.buf;
+	}
+
+	/**
+	 * Description: returns the offset in the file of the end of the records.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the records are unchanged
+	 * @return the offset of the next record
+	 */
+	long position() {
+		return this.buf == null ? 0 : this.base + this.buf.position();
+	}
+
+	/**
+	 * Description: writes a text record of kind holding text.
+	 * 
+	 * @requires true
+	 * @alters adds the record
+	 * @ensures the records before it are unchanged
+	 * @param kind
+	 *            - the kind of the record
+	 * @param text
+	 *            - the text of the record
+	 * @throws IOException
+	 * @throws IllegalStateException
+	 *             if the records are closed
+	 */
+	void writeText(byte kind, String text) throws IOException {
+		ByteBuffer buf = this.reserve(5 + 2 * text.length());
+		buf.put(kind);
+		buf.putInt(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			buf.putChar(text.charAt(i));
+		}
+	}
+
+	/**
+	 * Description: returns true iff the records have been closed.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the records are unchanged
+	 * @return true iff close has been called
+	 */
+	boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * Description: cuts the file to the length of the records written and
+	 * closes it. The file is closed even if cutting it fails.
+	 * 
+	 * @requires close has not been called
+	 * @alters the file holds only the records written
+	 * @ensures no record can be written
+	 * @throws IOException
+	 */
+	void close() throws IOException {
+		this.closed = true;
+		try {
+			this.buf.force();
+			this.channel.truncate(this.position());
+		} finally {
+			this.file.close();
+		}
+	}
+
+	/**
+	 * Description: maps all of file to read and checks that it begins with
+	 * magic and version, leaving the buffer at the first record.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures file is unchanged
+	 * @param file
+	 *            - the file of records
+	 * @param magic
+	 *            - the magic number of the kind of file
+	 * @param version
+	 *            - the version of the kind of file
+	 * @param name
+	 *            - name of the kind of file, for the error
+	 * @return the contents of file
+	 * @throws IOException
+	 * @throws DataFormatException
+	 *             if file does not begin with magic and version
+	 */
+	static MappedByteBuffer map(File file, int magic, int version, String name)
+			throws IOException, DataFormatException {
+		MappedByteBuffer buf;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					raf.length());
+		} finally {
+			raf.close();
+		}
+		if (buf.limit() < HEADER_BYTES || buf.getInt() != magic
+				|| buf.getInt() != version) {
+			throw new DataFormatException("Not a " + name);
+		}
+		return buf;
+	}
+
+	/**
+	 * Description: returns true iff file begins with magic and version.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures file is unchanged
+	 * @param file
+	 *            - a file
+	 * @param magic
+	 *            - the magic number of the kind of file
+	 * @param version
+	 *            - the version of the kind of file
+	 * @return true iff file begins as that kind of file
+	 * @throws IOException
+	 */
+	static boolean begins(File file, int magic, int version)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return raf.length() >= HEADER_BYTES && raf.readInt() == magic
+					&& raf.readInt() == version;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Description: reads the length and chars of a text record from buf,
+	 * whose kind has been read.
+	 * 
+	 * @requires true
+	 * @alters buf is after the record
+	 * @ensures the contents of buf are unchanged
+	 * @param buf
+	 *            - the records
+	 * @return the text of the record
+	 * @throws DataFormatException
+	 *             if the length is not that of text in buf
+	 * @throws java.nio.BufferUnderflowException
+	 *             if buf ends before the length
+	 */
+	static String readText(ByteBuffer buf) throws DataFormatException {
+		int length = buf.getInt();
+		if (length < 0 || 2L * length > buf.remaining()) {
+			throw new DataFormatException("Invalid text");
+		}
+		char[] text = new char[length];
+		buf.asCharBuffer().get(text);
+		buf.position(buf.position() + 2 * length);
+		return new String(text);
+	}
+}
@@ -1,38 +1,101 @@
 package vm;
 
-import java.util.Map;
+import java.util.Arrays;
 
 import utilities.BinHexConverter;
-import utilities.MachineInfo;
 
 /**
  * This class represents the memory in the virtual machine. It keeps a list of
  * all the values in the memory of the virtual machine. The memory is
- * represented by an array of BitFields that are words (20 bits). The memory for
- * this virtual machine has 256 20-bit words, with addresses 0-255.
+ * represented by a flat array of ints, each holding one packed word (see
+ * PackedField). The memory for this virtual machine has 256 20-bit words, with
+ * addresses 0-255, unless it is made for a larger MachineConfig. readRaw and
+ * writeRaw give copy-free access to the packed words; getWordAtAddr and addWord
+ * convert to and from BitFields. Memory also keeps the decoded form of every
+ * word that has been fetched as an instruction, so a word is only decoded again
+ * after it has been overwritten. Words that a BlockCompiler has compiled are
+ * marked with the number of blocks holding them; overwriting a marked word
+ * with a different value remembers its address (see takeOverwritten) and
+ * moves Memory to a new code generation, which tells the compiler to throw
+ * away the blocks holding it. Writing the value a word already holds changes
+ * nothing. fuseInstructions finds the sequences that can run as one
+ * Superinstruction; overwriting any word of a sequence removes its
+ * superinstruction.
+ * 
+ * snapshot copies memory into pages of PAGE_SIZE words that are never written
+ * again. Memory remembers the pages of its last snapshot or restore and which
+ * pages have been written since, so the next snapshot shares every page that
+ * was not written with the one before it, and restore only copies the pages
+ * that differ from memory. Pages of zeros are all the same page.
  * 
  * @author Dragon Slayer
  */
 public class Memory {
-	private static final int size = MachineInfo.WORDS_IN_MEM;
-	private BitField[] rep;
+	private static final int PAGE_BITS = 4;
+	/**
+	 * Number of words in a page of a snapshot.
+	 */
+	static final int PAGE_SIZE = 1 << PAGE_BITS;
+	/**
+	 * The page of a snapshot for every page of zeros; it is never written.
+	 */
+	static final int[] ZERO_PAGE = new int[PAGE_SIZE];
+	/**
+	 * Largest number of overwritten compiled words remembered between two
+	 * calls of takeOverwritten.
+	 */
+	static final int MAX_OVERWRITTEN = 16;
+
+	private final MachineConfig config;
+	private final int size;
+	private final PackedField word;
+	// package visible so compiled blocks can read words directly
+	final int[] rep;
+	private InstructionInfo[] decoded;
+	// number of compiled blocks holding each word
+	private int[] compiled;
+	private Superinstruction[] fused;
+	private boolean fusing;
+	private int codeGeneration;
+	// compiled words overwritten since takeOverwritten, -1 once discarded
+	private final int[] overwritten = new int[MAX_OVERWRITTEN];
+	private int overwrittenCount;
+	// pages of the last snapshot or restore, null after a segment is loaded
+	private int[][] base;
+	// pages written since base
+	private final boolean[] dirty;
 
 	/**
 	 * Description: Initializes all the words in memory to have the value of
-	 * zero. In other words, all of the BitFields are given the default value of
-	 * a BitField word (which is for all 20 bits in the BitField to be set to
-	 * false).
+	 * zero.
 	 * 
 	 * @requires true
 	 * @alters allocates memory for the virtual machine.
-	 * @ensures each BitField in memory is given the default value of a BitField
-	 *          word (20 bits).
+	 * @ensures each word in memory is zero.
 	 */
 	public Memory() {
-		rep = new BitField[size];
-		for (int i = 0; i < size; i++) {
-			rep[i] = new BitField(MachineInfo.BITS_IN_WORD);
-		}
+		this(MachineConfig.DEFAULT);
+	}
+
+	/**
+	 * Description: Initializes all the words of a memory with the geometry
+	 * config to have the value of zero.
+	 * 
+	 * @requires config exists
+	 * @alters allocates memory for the virtual machine.
+	 * @ensures each word in memory is zero.
+	 * @param config
+	 *            - geometry of the machine
+	 */
+	public Memory(MachineConfig config) {
+		this.config = config;
+		this.size = config.wordsInMem;
+		this.word = config.word;
+		rep = new int[size];
+		decoded = new InstructionInfo[size];
+		compiled = new int[size];
+		fused = new Superinstruction[size];
+		dirty = new boolean[size >>> PAGE_BITS];
 	}
 
 	/**
@@ -48,39 +111,205 @@ public class Memory {
 	 *            - to be put into the memory of the virtual machine
 	 */
 	public Memory(HexWordSegment segment) {
-		this();
+		this(segment.config);
 		addMemSegment(segment);
 	}
 
 	/**
-	 * Description: returns a copy of the BitField word that is stored in memory
-	 * at the specified address, addr.
+	 * Description: sets every word of memory to zero and places the
+	 * HexWordSegment segment into it, the same as Memory(segment) but reusing
+	 * the arrays of this memory. Every decoded instruction and
+	 * superinstruction is forgotten.
+	 * 
+	 * @requires segment.config is the MachineConfig of memory
+	 * @alters every word of memory
+	 * @ensures segment is unchanged and is the only thing in memory.
+	 * @param segment
+	 *            - to be put into the memory of the virtual machine
+	 */
+	public void reset(HexWordSegment segment) {
+		Arrays.fill(rep, 0);
+		Arrays.fill(decoded, null);
+		addMemSegment(segment);
+	}
+
+	/**
+	 * Description: returns a BitField copy of the word that is stored in
+	 * memory at the specified address, addr.
 	 * 
 	 * @requires true
 	 * @alters N/A
 	 * @ensures Memory is unchanged
 	 * @param addr
-	 *            - the position of the BitFieldword in memory (array of
-	 *            BitFields) to be returned.
-	 * @return a copy of the BitField that is stored at the address addr in
-	 *         memory.
+	 *            - the position of the word in memory to be returned.
+	 * @return a BitField holding the word that is stored at the address addr
+	 *         in memory.
 	 * @throws IllegalMemoryAddressException
 	 */
 	public BitField getWordAtAddr(int addr)
 			throws IllegalMemoryAddressException {
-		//give address 
-		if (addr >= size) {
+		return word.toBitField(readRaw(addr));
+	}
+
+	/**
+	 * Description: returns the packed word that is stored in memory at the
+	 * specified address, addr. Nothing is copied or allocated.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures Memory is unchanged
+	 * @param addr
+	 *            - the position of the word in memory to be returned.
+	 * @return the packed word stored at the address addr in memory.
+	 * @throws IllegalMemoryAddressException
+	 */
+	public int readRaw(int addr) throws IllegalMemoryAddressException {
+		//give address
+		if (!isAddress(addr)) {
+			throw new IllegalMemoryAddressException();
+		}
+		return rep[addr];
+	}
+
+	/**
+	 * Description: returns true iff addr is an address of memory (0 - 255 for
+	 * the default MachineConfig). Executors check an address with this before
+	 * using it, so an illegal address costs no exception.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures Memory is unchanged
+	 * @param addr
+	 *            - the address to be checked
+	 * @return true iff 0 <= addr < the number of words in memory
+	 */
+	boolean isAddress(int addr) {
+		return addr >= 0 && addr < size;
+	}
+
+	/**
+	 * Description: returns the geometry of the machine this memory belongs
+	 * to.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures Memory is unchanged
+	 * @return the MachineConfig of memory
+	 */
+	public MachineConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * Description: stores the packed word value in memory at the specified
+	 * address. Bits of value above the length of a word are discarded. It
+	 * throws an IllegalMemoryAddressException if the address is outside the
+	 * range of (0 - 255)
+	 * 
+	 * @requires true
+	 * @alters the word in memory at address addr
+	 * @ensures the rest of memory is unchanged
+	 * @param addr
+	 *            - position in memory where the word is to be stored.
+	 * @param value
+	 *            - packed word being stored.
+	 * @throws IllegalMemoryAddressException
+	 */
+	public void writeRaw(int addr, int value)
+			throws IllegalMemoryAddressException {
+		//illegal size check
+		if (!isAddress(addr)) {
+			throw new IllegalMemoryAddressException();
+		}
+		writeLegal(addr, value);
+	}
+
+	/**
+	 * Description: stores the packed word value in memory at the legal address
+	 * addr, the same as writeRaw but without checking the address. Nothing is
+	 * done if the word already holds value.
+	 * 
+	 * @requires isAddress(addr)
+	 * @alters the word in memory at address addr
+	 * @ensures the rest of memory is unchanged
+	 * @param addr
+	 *            - position in memory where the word is to be stored.
+	 * @param value
+	 *            - packed word being stored.
+	 */
+	void writeLegal(int addr, int value) {
+		int masked = word.mask(value);
+		if (rep[addr] == masked) {
+			// nothing made from the word has changed
+			return;
+		}
+		rep[addr] = masked;
+		dirty[addr >>> PAGE_BITS] = true;
+		// the old decoded instruction no longer matches the word
+		decoded[addr] = null;
+		if (compiled[addr] != 0) {
+			if (overwrittenCount >= 0 && overwrittenCount < MAX_OVERWRITTEN) {
+				overwritten[overwrittenCount++] = addr;
+				codeGeneration++;
+			} else {
+				discardCompiled();
+			}
+		}
+		// superinstructions starting at addr or just before it include addr
+		int first = Math.max(0, addr - Superinstruction.LENGTH + 1);
+		Arrays.fill(fused, first, addr + 1, null);
+	}
+
+	/**
+	 * Description: returns the decoded instruction for the word stored at
+	 * address addr. The word is decoded the first time it is fetched and the
+	 * result is kept until the word is overwritten, so repeated fetches of the
+	 * same address do not decode the word again.
+	 * 
+	 * @requires true
+	 * @alters the decoded instruction for addr is remembered
+	 * @ensures the words in memory are unchanged
+	 * @param addr
+	 *            - the address of the instruction to be fetched
+	 * @return the decoded instruction stored at address addr
+	 * @throws IllegalMemoryAddressException
+	 */
+	public InstructionInfo fetchInstruction(int addr)
+			throws IllegalMemoryAddressException {
+		if (!isAddress(addr)) {
 			throw new IllegalMemoryAddressException();
 		}
-		BitField result = new BitField(rep[addr]);
-		return result;
+		return fetchLegal(addr);
+	}
+
+	/**
+	 * Description: returns the decoded instruction for the word stored at the
+	 * legal address addr, the same as fetchInstruction but without checking
+	 * the address.
+	 * 
+	 * @requires isAddress(addr)
+	 * @alters the decoded instruction for addr is remembered
+	 * @ensures the words in memory are unchanged
+	 * @param addr
+	 *            - the address of the instruction to be fetched
+	 * @return the decoded instruction stored at address addr
+	 */
+	InstructionInfo fetchLegal(int addr) {
+		InstructionInfo info = decoded[addr];
+		if (info == null) {
+			info = InstructionInfo.decodeInstruction(rep[addr], config);
+			decoded[addr] = info;
+		}
+		return info;
 	}
 
 	/**
 	 * Description: places the HexWordSegment segment into the memory of the
 	 * virtual machine starting at the start address given by HexWordSegment and
-	 * continuing to the end of the segment. It does this by calling addWord as
-	 * many times as necessary to add the whole segment to Memory.
+	 * continuing to the end of the segment. The words were already converted
+	 * to a packed image when the segment was read, so they are copied into
+	 * memory in one block. Addresses in the segment that were not given a
+	 * Text Record are loaded as zero.
 	 * 
 	 * @requires true
 	 * @alters the values in memory starting at the start address given by
@@ -90,14 +319,222 @@ public class Memory {
 	 *            - values being put into memory.
 	 */
 	public void addMemSegment(HexWordSegment segment) {
-		Map<Integer, String> values = segment.getVals();
-		for (Integer address : values.keySet()) {
-			try {
-				addWord(values.get(address), address);
-			} catch (IllegalMemoryAddressException e) {
-				// Already checked when segment is created;
+		System.arraycopy(segment.image, 0, rep, segment.startAdd,
+				segment.image.length);
+		Arrays.fill(decoded, segment.startAdd, segment.startAdd
+				+ segment.image.length, null);
+		discardCompiled();
+		Arrays.fill(fused, null);
+		fusing = false;
+		base = null;
+	}
+
+	/**
+	 * Description: makes a Superinstruction at every address where a fused
+	 * sequence of instructions starts (see Superinstruction). A sequence may
+	 * not wrap past the end of memory.
+	 * 
+	 * @requires true
+	 * @alters the superinstructions of memory and the decoded instructions
+	 * @ensures the words in memory are unchanged
+	 */
+	void fuseInstructions() {
+		fuse(0, size);
+		fusing = true;
+	}
+
+	/**
+	 * Description: makes the superinstructions starting at the addresses from
+	 * first up to, but not including, end (see fuseInstructions).
+	 */
+	private void fuse(int first, int end) {
+		int last = Math.min(end, size - Superinstruction.LENGTH + 1);
+		for (int addr = first; addr < last; addr++) {
+			fused[addr] = Superinstruction.fuse(config, addr, fetchLegal(addr),
+					fetchLegal(addr + 1), fetchLegal(addr + 2));
+		}
+	}
+
+	/**
+	 * Description: returns the words of memory as pages of PAGE_SIZE words,
+	 * page p holding the words from address p * PAGE_SIZE. A page that has
+	 * not been written since the last snapshot or restore is the same page as
+	 * in that snapshot. The pages are never written, so they may be shared
+	 * between threads.
+	 * 
+	 * @requires true
+	 * @alters the pages memory compares with are the returned pages
+	 * @ensures the words in memory are unchanged
+	 * @return the pages of memory
+	 */
+	int[][] snapshot() {
+		int[][] pages = new int[dirty.length][];
+		for (int p = 0; p < pages.length; p++) {
+			if (base != null && !dirty[p]) {
+				pages[p] = base[p];
+				continue;
+			}
+			int start = p << PAGE_BITS;
+			int addr = start;
+			while (addr < start + PAGE_SIZE && rep[addr] == 0) {
+				addr++;
+			}
+			pages[p] = addr == start + PAGE_SIZE ? ZERO_PAGE : Arrays
+					.copyOfRange(rep, start, start + PAGE_SIZE);
+		}
+		base = pages;
+		Arrays.fill(dirty, false);
+		return pages;
+	}
+
+	/**
+	 * Description: sets the words of memory to those of pages, which were
+	 * returned by snapshot of a memory with the same MachineConfig. Only the
+	 * pages that differ from memory are copied; their decoded instructions
+	 * are forgotten, their superinstructions are made again if memory was
+	 * fused, and if any of their words was compiled a new code generation
+	 * starts.
+	 * 
+	 * @requires pages was returned by snapshot of a memory with the geometry
+	 *           of this one
+	 * @alters the words of memory
+	 * @ensures memory holds the words of pages
+	 * @param pages
+	 *            - the pages to be put into memory
+	 */
+	void restore(int[][] pages) {
+		boolean codeChanged = false;
+		for (int p = 0; p < pages.length; p++) {
+			if (base != null && !dirty[p] && base[p] == pages[p]) {
+				continue;
+			}
+			// dirty now marks the pages copied
+			dirty[p] = true;
+			int start = p << PAGE_BITS;
+			System.arraycopy(pages[p], 0, rep, start, PAGE_SIZE);
+			Arrays.fill(decoded, start, start + PAGE_SIZE, null);
+			for (int addr = start; addr < start + PAGE_SIZE; addr++) {
+				codeChanged |= compiled[addr] != 0;
+			}
+		}
+		if (codeChanged) {
+			discardCompiled();
+		}
+		for (int p = 0; p < pages.length; p++) {
+			if (fusing && dirty[p]) {
+				int start = p << PAGE_BITS;
+				// superinstructions just before the page include its words
+				fuse(Math.max(0, start - Superinstruction.LENGTH + 1), start
+						+ PAGE_SIZE);
 			}
 		}
+		base = pages;
+		Arrays.fill(dirty, false);
+	}
+
+	/**
+	 * Description: returns the superinstruction starting at address addr, or
+	 * null if there is none.
+	 * 
+	 * @requires 0 <= addr < getConfig().wordsInMem
+	 * @alters N/A
+	 * @ensures Memory is unchanged
+	 * @param addr
+	 *            - address of the first instruction
+	 * @return the superinstruction at addr, or null
+	 */
+	Superinstruction fusedAt(int addr) {
+		return fused[addr];
+	}
+
+	/**
+	 * Description: marks the words from address start up to, but not
+	 * including, address end as held by one more compiled block, so that
+	 * overwriting any of them starts a new code generation.
+	 * 
+	 * @requires 0 <= start <= end <= getConfig().wordsInMem
+	 * @alters the words from start to end - 1 are marked as compiled
+	 * @ensures the words in memory are unchanged
+	 * @param start
+	 *            - first address of the compiled words
+	 * @param end
+	 *            - address after the last compiled word
+	 */
+	void markCompiled(int start, int end) {
+		for (int addr = start; addr < end; addr++) {
+			compiled[addr]++;
+		}
+	}
+
+	/**
+	 * Description: marks the words from address start up to, but not
+	 * including, address end as held by one compiled block less, after the
+	 * block has been thrown away.
+	 * 
+	 * @requires markCompiled(start, end) was called since the compiled words
+	 *           were last discarded, and unmarkCompiled(start, end) was not
+	 * @alters the marks of the words from start to end - 1
+	 * @ensures the words in memory are unchanged
+	 * @param start
+	 *            - first address of the compiled words
+	 * @param end
+	 *            - address after the last compiled word
+	 */
+	void unmarkCompiled(int start, int end) {
+		for (int addr = start; addr < end; addr++) {
+			compiled[addr]--;
+		}
+	}
+
+	/**
+	 * Description: copies the addresses of the compiled words overwritten
+	 * since the last call into addrs and returns how many there are, or -1
+	 * if every compiled word was discarded instead (a segment was loaded,
+	 * compiled code was restored or more than MAX_OVERWRITTEN words were
+	 * overwritten). In either case they are forgotten.
+	 * 
+	 * @requires addrs.length >= MAX_OVERWRITTEN
+	 * @alters addrs holds the addresses, no overwritten word is remembered
+	 * @ensures the words in memory are unchanged
+	 * @param addrs
+	 *            - array to copy the addresses into
+	 * @return the number of addresses copied, or -1
+	 */
+	int takeOverwritten(int[] addrs) {
+		int count = overwrittenCount;
+		if (count > 0) {
+			System.arraycopy(overwritten, 0, addrs, 0, count);
+		}
+		overwrittenCount = 0;
+		return count;
+	}
+
+	/**
+	 * Description: returns the code generation of memory. It changes every
+	 * time a word marked as compiled is overwritten with a different value
+	 * and every time the compiled words are discarded.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures Memory is unchanged
+	 * @return the current code generation
+	 */
+	int codeGeneration() {
+		return codeGeneration;
+	}
+
+	/**
+	 * Description: clears every compiled mark and starts a new code
+	 * generation in which every compiled block is thrown away.
+	 * 
+	 * @requires true
+	 * @alters no word is marked as compiled and the code generation changes
+	 * @ensures the words in memory are unchanged
+	 */
+	private void discardCompiled() {
+		Arrays.fill(compiled, 0);
+		overwrittenCount = -1;
+		codeGeneration++;
 	}
 
 	/**
@@ -116,16 +553,12 @@ public class Memory {
 	 */
 	public void addWord(BitField w, int address)
 			throws IllegalMemoryAddressException {
-		//illegal size check
-		if (address >= size) {
-			throw new IllegalMemoryAddressException();
-		}
-		rep[address] = new BitField(w);
+		writeRaw(address, word.fromBitField(w));
 	}
 
 	/**
-	 * Description: Converts hex into its boolean representation of a BitField,
-	 * this is what is placed in memory.
+	 * Description: Converts hex into its packed representation, this is what
+	 * is placed in memory.
 	 * 
 	 * @requires address must be between 0 and 255
 	 * @alters one BitField word is added to memory at the specified address
@@ -138,11 +571,7 @@ public class Memory {
 	 */
 	public void addWord(String hex, int address)
 			throws IllegalMemoryAddressException {
-		//boolean rep of bitfield
-		if (address >= size) {
-			throw new IllegalMemoryAddressException();
-		}
-		rep[address] = new BitField(hex, MachineInfo.BITS_IN_WORD);
+		writeRaw(address, Integer.parseInt(hex, 16));
 	}
 
 	/**
@@ -164,8 +593,9 @@ public class Memory {
 			if (i % 4 == 0) {
 				result.append("\n");
 			}
-			result.append("0x" + BinHexConverter.toHexString(i, 8) + ": "
-					+ rep[i] + "\t");
+			result.append("0x"
+					+ BinHexConverter.toHexString(i, config.bitsInAddress)
+					+ ": " + word.toHexString(rep[i]) + "\t");
 		}
 		return result.toString() + "\n";
 	}
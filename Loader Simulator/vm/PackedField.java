@@ -0,0 +1,392 @@
+package vm;
+
+import utilities.BinHexConverter;
+import utilities.MachineInfo;
+
+/**
+ * Packed-integer counterpart of BitField. Instead of keeping one Boolean per
+ * bit, a value is kept in the low length bits of a primitive int and every
+ * operation is done with native int arithmetic followed by masking back to
+ * length bits. A PackedField does not hold a value itself; it describes the
+ * length of the field (like the length of a BitField) and provides the same
+ * operations as BitField for values of that length. Results are bit-for-bit
+ * identical to the corresponding BitField operations, so values can be moved
+ * between the two representations with toBitField and fromBitField.
+ * 
+ * @author Dragon Slayer
+ */
+public final class PackedField {
+	/**
+	 * A field as long as one word of memory (20 bits).
+	 */
+	public static final PackedField WORD = new PackedField(
+			MachineInfo.BITS_IN_WORD);
+	/**
+	 * A field as long as one address (8 bits).
+	 */
+	public static final PackedField ADDRESS = new PackedField(
+			MachineInfo.BITS_IN_ADDRESS);
+
+	public final int length;
+	public final int mask;
+	public final int signBit;
+	private final int extendShift;
+
+	/**
+	 * Description: Creates a PackedField for values of the given length. The
+	 * mask has the low length bits set and the sign bit is the left most bit
+	 * of the field.
+	 * 
+	 * @requires 1 <= length <= 31
+	 * @alters creates a PackedField
+	 * @ensures the mask and sign bit correspond to length
+	 * @param length
+	 *            - number of bits in the field
+	 */
+	public PackedField(int length) {
+		if (length < 1 || length > 31) {
+			throw new IllegalArgumentException("Invalid field length");
+		}
+		this.length = length;
+		this.mask = (1 << length) - 1;
+		this.signBit = 1 << (length - 1);
+		this.extendShift = Integer.SIZE - length;
+	}
+
+	/**
+	 * Description: returns the low length bits of value.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures value is unchanged
+	 * @param value
+	 *            - int to be cut down to the length of the field
+	 * @return value with every bit above the field cleared
+	 */
+	public int mask(int value) {
+		return value & this.mask;
+	}
+
+	/**
+	 * Description: returns the packed value a BitField of this length would
+	 * hold after being built with the BitField(int dec, int length)
+	 * constructor. That constructor reads the left most length bits of the
+	 * zero padded hex string of dec, so a dec that does not fit in the field
+	 * keeps its high bits instead of its low ones.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures dec is unchanged
+	 * @param dec
+	 *            - decimal number to be converted
+	 * @return the packed value of new BitField(dec, length)
+	 */
+	public int fromDec(int dec) {
+		int hexBits = 4 * Math.max(1,
+				(Integer.SIZE - Integer.numberOfLeadingZeros(dec) + 3) / 4);
+		int padded = Math.max(hexBits, 4 * (this.length / 4));
+		if (padded > this.length) {
+			return (int) ((dec & 0xFFFFFFFFL) >>> (padded - this.length))
+					& this.mask;
+		}
+		return dec & this.mask;
+	}
+
+	/**
+	 * Description: returns the packed value of the BitField b.
+	 * 
+	 * @requires b.length <= length
+	 * @alters N/A
+	 * @ensures b is unchanged
+	 * @param b
+	 *            - BitField to be packed
+	 * @return the packed value of b
+	 */
+	public int fromBitField(BitField b) {
+		return b.toDecInt() & this.mask;
+	}
+
+	/**
+	 * Description: returns a new BitField of this length holding value.
+	 * 
+	 * @requires true
+	 * @alters creates a new BitField
+	 * @ensures value is unchanged
+	 * @param value
+	 *            - packed value to be unpacked
+	 * @return a BitField of this length with the same bits as value
+	 */
+	public BitField toBitField(int value) {
+		BitField result = new BitField(this.length);
+		for (int i = 0; i < this.length; i++) {
+			result.rep[i] = ((value >>> i) & 1) == 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Description: returns value as a string of upper case hex characters,
+	 * padded to length / 4 characters, the same as BitField.toHexString.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures value is unchanged
+	 * @param value
+	 *            - packed value to be converted
+	 * @return value as a string of upper case hex characters
+	 */
+	public String toHexString(int value) {
+		return BinHexConverter.toHexString(value & this.mask, this.length);
+	}
+
+	/**
+	 * Description: returns value plus one.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures value is unchanged
+	 * @param value
+	 *            - packed value to be incremented
+	 * @return (value + 1) cut down to the length of the field
+	 */
+	public int increment(int value) {
+		return (value + 1) & this.mask;
+	}
+
+	/**
+	 * Description: returns the sum of a and b.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures a and b are unchanged
+	 * @param a
+	 *            - packed value
+	 * @param b
+	 *            - packed value to be added to a
+	 * @return (a + b) cut down to the length of the field
+	 */
+	public int add(int a, int b) {
+		return (a + b) & this.mask;
+	}
+
+	/**
+	 * Description: returns value with each bit inverted.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures value is unchanged
+	 * @param value
+	 *            - packed value to be inverted
+	 * @return the inverted value
+	 */
+	public int invert(int value) {
+		return ~value & this.mask;
+	}
+
+	/**
+	 * Description: returns the 2's complement of value.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures value is unchanged
+	 * @param value
+	 *            - packed value to be negated
+	 * @return the 2's complement of value
+	 */
+	public int negate(int value) {
+		return -value & this.mask;
+	}
+
+	/**
+	 * Description: returns a minus b.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures a and b are unchanged
+	 * @param a
+	 *            - packed value
+	 * @param b
+	 *            - packed value to be subtracted from a
+	 * @return (a - b) cut down to the length of the field
+	 */
+	public int subtract(int a, int b) {
+		return (a - b) & this.mask;
+	}
+
+	/**
+	 * Description: returns a times b. Only the low length bits of the product
+	 * are kept, as with BitField.multiply.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures a and b are unchanged
+	 * @param a
+	 *            - packed value
+	 * @param b
+	 *            - packed value a is multiplied by
+	 * @return (a * b) cut down to the length of the field
+	 */
+	public int multiply(int a, int b) {
+		return (a * b) & this.mask;
+	}
+
+	/**
+	 * Description: returns a divided by b. The quotient is that of the
+	 * magnitudes of a and b, negated if the signs of a and b differ. The long
+	 * division in BitField.divideBy can only produce quotient bits below the
+	 * left most set bit of the divisor once it has been aligned to bit
+	 * length - 2, and it cannot align the most negative value at all, so the
+	 * quotient is limited the same way here.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures a and b are unchanged
+	 * @param a
+	 *            - packed numerator
+	 * @param b
+	 *            - packed denominator
+	 * @return a / b cut down to the length of the field
+	 * @throws IllegalArgumentException
+	 *             if b is zero
+	 */
+	public int divideBy(int a, int b) throws IllegalArgumentException {
+		if (this.isZero(b)) {
+			throw new IllegalArgumentException("Dividing by zero");
+		}
+		boolean dividendIsPos = this.isPositive(a);
+		boolean divisorIsPos = this.isPositive(b);
+		int dividend = dividendIsPos ? a & this.mask : this.negate(a);
+		int divisor = divisorIsPos ? b & this.mask : this.negate(b);
+		int result = 0;
+		if (divisor != this.signBit) {
+			// highest quotient bit the long division can set
+			int top = (this.length - 2)
+					- (Integer.SIZE - 1 - Integer.numberOfLeadingZeros(divisor));
+			result = Math.min(dividend / divisor, (1 << (top + 1)) - 1);
+		}
+		if (divisorIsPos != dividendIsPos) {
+			result = this.negate(result);
+		}
+		return result & this.mask;
+	}
+
+	/**
+	 * Description: returns value shifted left times times. Bits shifted past
+	 * the left end are discarded and the right is filled with zeros.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures value and times are unchanged
+	 * @param value
+	 *            - packed value to be shifted
+	 * @param times
+	 *            - amount of bit shifts
+	 * @return value shifted left times times
+	 * @throws IllegalArgumentException
+	 *             if times is negative or larger than length - 1
+	 */
+	public int shiftLeft(int value, int times) throws IllegalArgumentException {
+		if (times > this.length - 1 || times < 0) {
+			throw new IllegalArgumentException("invalid shift amount");
+		}
+		return (value << times) & this.mask;
+	}
+
+	/**
+	 * Description: returns value shifted right times times, extending the
+	 * sign of value into the left most bits.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures value and times are unchanged
+	 * @param value
+	 *            - packed value to be shifted
+	 * @param times
+	 *            - amount of bit shifts
+	 * @return value arithmetically shifted right times times
+	 * @throws IllegalArgumentException
+	 *             if times is negative or larger than length - 1
+	 */
+	public int shiftRight(int value, int times)
+			throws IllegalArgumentException {
+		if (times > this.length - 1 || times < 0) {
+			throw new IllegalArgumentException("Invalid shift amount");
+		}
+		return (this.toDecInt2sComp(value) >> times) & this.mask;
+	}
+
+	/**
+	 * Description: returns the bitwise or of a and b.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures a and b are unchanged
+	 * @return a | b
+	 */
+	public int or(int a, int b) {
+		return (a | b) & this.mask;
+	}
+
+	/**
+	 * Description: returns the bitwise and of a and b.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures a and b are unchanged
+	 * @return a & b
+	 */
+	public int and(int a, int b) {
+		return a & b & this.mask;
+	}
+
+	/**
+	 * Description: returns true iff value represents a positive number (the
+	 * left most bit of the field is zero).
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures value is unchanged
+	 * @return true iff the sign bit of value is clear
+	 */
+	public boolean isPositive(int value) {
+		return (value & this.signBit) == 0;
+	}
+
+	/**
+	 * Description: returns true iff value represents the number zero.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures value is unchanged
+	 * @return true iff every bit of the field is zero
+	 */
+	public boolean isZero(int value) {
+		return (value & this.mask) == 0;
+	}
+
+	/**
+	 * Description: returns the decimal integer value of value read as a 2's
+	 * complement number of this length.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures value is unchanged
+	 * @return value sign extended to an int
+	 */
+	public int toDecInt2sComp(int value) {
+		return (value << this.extendShift) >> this.extendShift;
+	}
+
+	/**
+	 * Description: returns true iff dec can be represented as a 2's complement
+	 * number of this length.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures dec is unchanged
+	 * @return true iff -2^(length-1) <= dec <= 2^(length-1) - 1
+	 */
+	public boolean isValid2sComp(int dec) {
+		return dec >= -this.signBit && dec <= this.signBit - 1;
+	}
+}
@@ -1,22 +1,32 @@
 package vm;
 
-import utilities.MachineInfo;
+import java.util.Arrays;
 
 /**
  * This class is used to represent the registers and the program counter for the
  * virtual machine. It contains methods for incrementing the program counter and
  * returning the decimal integer value of the program counter as well as a
  * method to return the value in a specified register. Registers internal
- * representation is an array of BitField words and the program counter is
- * represented by a BitField address.
+ * representation is an array of packed words (see PackedField) and the program
+ * counter is a packed address, so fetching and incrementing the program
+ * counter and reading or writing a register allocate nothing. Words and
+ * addresses have the lengths of the MachineConfig the registers are made
+ * for; the IO byte is always the least significant 8 bits of a register.
  * 
  * @author Dragon Slayer
  */
 public class Registers {
-	int numRegisters = MachineInfo.NUM_REGISTERS;
+	int numRegisters;
+	private static final int IO_BYTE = 0xFF;
+	private final MachineConfig config;
+	private final PackedField word;
+	private final PackedField address;
+	// keeps every bit of a word except the IO byte
+	private final int ioByteMask;
 
-	private BitField[] regArr;
-	private BitField programCounter;
+	// package visible so compiled blocks can use the registers directly
+	int[] regArr;
+	private int programCounter;
 
 	/**
 	 * Description: this constructor makes Registers immutable. It initializes
@@ -35,12 +45,63 @@ public class Registers {
 	 *            - the value the PC will be set to.
 	 */
 	public Registers(int execStart) {
-		this.regArr = new BitField[this.numRegisters];
-		for (int i = 0; i < this.numRegisters; i++) {
-			this.regArr[i] = new BitField(MachineInfo.BITS_IN_WORD);
-		}
-		this.programCounter = new BitField(execStart,
-				MachineInfo.BITS_IN_ADDRESS);
+		this(MachineConfig.DEFAULT, execStart);
+	}
+
+	/**
+	 * Description: initializes the registers of a machine with the geometry
+	 * config the same as Registers(execStart).
+	 * 
+	 * @requires 0 <= execStart < config.wordsInMem
+	 * @alters sets the values of the registers and program counter
+	 * @ensures every register is zero and the program counter is execStart
+	 * @param config
+	 *            - geometry of the machine
+	 * @param execStart
+	 *            - the value the PC will be set to.
+	 */
+	public Registers(MachineConfig config, int execStart) {
+		this.config = config;
+		this.word = config.word;
+		this.address = config.address;
+		this.ioByteMask = this.word.mask & ~IO_BYTE;
+		this.numRegisters = config.numRegisters;
+		this.regArr = new int[this.numRegisters];
+		this.programCounter = this.address.fromDec(execStart);
+	}
+
+	/**
+	 * Description: sets every register to zero and the program counter to
+	 * execStart, as they are after Registers(config, execStart), without
+	 * allocating anything.
+	 * 
+	 * @requires 0 <= execStart < config.wordsInMem
+	 * @alters the registers and program counter
+	 * @ensures every register is zero and the program counter is execStart
+	 * @param execStart
+	 *            - the value the PC will be set to.
+	 */
+	public void reset(int execStart) {
+		Arrays.fill(this.regArr, 0);
+		this.programCounter = this.address.fromDec(execStart);
+	}
+
+	/**
+	 * Description: sets the registers to the packed words values and the
+	 * program counter to pc.
+	 * 
+	 * @requires values holds one packed word for every register and pc is an
+	 *           address of memory
+	 * @alters the registers and program counter
+	 * @ensures values is unchanged
+	 * @param values
+	 *            - packed words of the registers
+	 * @param pc
+	 *            - the value the PC will be set to.
+	 */
+	void restore(int[] values, int pc) {
+		System.arraycopy(values, 0, this.regArr, 0, this.numRegisters);
+		this.programCounter = pc;
 	}
 
 	/**
@@ -53,18 +114,19 @@ public class Registers {
 	 * @return the decimal integer value of the program counter
 	 */
 	public int nextInstruction() {
-		return this.programCounter.toDecInt();
+		return this.programCounter;
 	}
 
 	/**
-	 * Description: this method increments the program counter by one
+	 * Description: this method increments the program counter by one,
+	 * wrapping from 255 back to 0.
 	 * 
 	 * @requires true
 	 * @alters programCounter is one greater than it was before the call.
 	 * @ensures the value of the program counter is incremented by one
 	 */
 	public void incPC() {
-		this.programCounter = this.programCounter.increment();
+		this.programCounter = this.address.increment(this.programCounter);
 	}
 
 	/**
@@ -82,10 +144,46 @@ public class Registers {
 	 * @throws IllegalMemoryAddressException
 	 */
 	public void setPC(BitField w) throws IllegalMemoryAddressException {
-		if (w.toDecInt() >= MachineInfo.WORDS_IN_MEM) {
+		this.setPC(this.word.fromBitField(w));
+	}
+
+	/**
+	 * Description: sets the Program Counter to the value of bits 0 - 7 of the
+	 * packed word w. (the value of w must be in the range (0-255), if it is
+	 * not, the program counter is not set and an
+	 * IllegalMemoryAddressException is thrown.)
+	 * 
+	 * @requires true
+	 * @alters programCounter now contains the values of the bits 0 - 7 of w.
+	 * @ensures w remains the same.
+	 * @param w
+	 *            - packed word whose bits 0-7 are set to the program counter.
+	 * @throws IllegalMemoryAddressException
+	 */
+	public void setPC(int w) throws IllegalMemoryAddressException {
+		if (!this.trySetPC(w)) {
 			throw new IllegalMemoryAddressException();
 		}
-		this.programCounter = w.parseAddress();
+	}
+
+	/**
+	 * Description: sets the Program Counter to the value of bits 0 - 7 of the
+	 * packed word w and returns true, the same as setPC, or returns false
+	 * without setting it if w is not in the range (0-255).
+	 * 
+	 * @requires true
+	 * @alters programCounter is w if true is returned
+	 * @ensures w remains the same.
+	 * @param w
+	 *            - packed word whose bits 0-7 are set to the program counter.
+	 * @return true iff the program counter was set
+	 */
+	boolean trySetPC(int w) {
+		if (this.word.mask(w) >= this.config.wordsInMem) {
+			return false;
+		}
+		this.programCounter = this.address.mask(w);
+		return true;
 	}
 
 	/**
@@ -102,7 +200,22 @@ public class Registers {
 	 *            from
 	 */
 	public BitField getReg(int xIndex) {
-		return new BitField(this.regArr[xIndex]);
+		return this.word.toBitField(this.regArr[xIndex]);
+	}
+
+	/**
+	 * Description: returns the packed word that is in the register array at
+	 * the specified index, xIndex. Nothing is copied or allocated.
+	 * 
+	 * @requires 0 <= xIndex < NUM_REGISTERS
+	 * @alters N/A
+	 * @ensures the registers are unchanged
+	 * @return the packed word in register xIndex
+	 * @param xIndex
+	 *            - the number of the register to read
+	 */
+	public int getRegRaw(int xIndex) {
+		return this.regArr[xIndex];
 	}
 
 	/**
@@ -117,8 +230,23 @@ public class Registers {
 	 *            - register number to copy the word into
 	 */
 	public void setReg(BitField w, int i) {
-		BitField newVal = new BitField(w);
-		this.regArr[i] = newVal;
+		this.regArr[i] = this.word.fromBitField(w);
+	}
+
+	/**
+	 * Description: sets the register i, to contain the packed word w. Bits of
+	 * w above the length of a word are discarded.
+	 * 
+	 * @requires 0 <= i <= 3
+	 * @alters register i
+	 * @ensures the other registers remain the same.
+	 * @param w
+	 *            - packed word being stored in the register
+	 * @param i
+	 *            - register number to store the word into
+	 */
+	public void setRegRaw(int w, int i) {
+		this.regArr[i] = this.word.mask(w);
 	}
 
 	/**
@@ -134,7 +262,7 @@ public class Registers {
 	 *            is stored.
 	 */
 	public void storePC(int reg) {
-		this.regArr[reg] = this.programCounter.extendToWord();
+		this.regArr[reg] = this.programCounter;
 	}
 
 	/**
@@ -152,11 +280,40 @@ public class Registers {
 	 * @throws IllegalMemoryAddressException
 	 */
 	public void indexPC(BitField sWord) throws IllegalMemoryAddressException {
-		BitField newAdd = sWord.add(this.programCounter.extendToWord());
-		if (newAdd.toDecInt() >= MachineInfo.WORDS_IN_MEM) {
-			throw new IllegalMemoryAddressException();
-		}
-		this.programCounter = newAdd.parseAddress();
+		this.indexPC(this.word.fromBitField(sWord));
+	}
+
+	/**
+	 * Description: adds the packed word sWord to the value of the PC. Bits 0-7
+	 * of the sum are set as the new value of the program counter. (The sum
+	 * must be in the range (0-255), if it is not, the program counter is not
+	 * indexed and an IllegalMemoryAddressException is thrown.)
+	 * 
+	 * @requires true
+	 * @alters PC = #PC + sWord
+	 * @ensure true
+	 * @param sWord
+	 *            - packed value to be added to the PC
+	 * @throws IllegalMemoryAddressException
+	 */
+	public void indexPC(int sWord) throws IllegalMemoryAddressException {
+		this.setPC(this.word.add(sWord, this.programCounter));
+	}
+
+	/**
+	 * Description: adds the packed word sWord to the value of the PC and
+	 * returns true, the same as indexPC, or returns false without changing
+	 * the PC if the sum is not in the range (0-255).
+	 * 
+	 * @requires true
+	 * @alters PC = #PC + sWord if true is returned
+	 * @ensure true
+	 * @param sWord
+	 *            - packed value to be added to the PC
+	 * @return true iff the program counter was indexed
+	 */
+	boolean tryIndexPC(int sWord) {
+		return this.trySetPC(this.word.add(sWord, this.programCounter));
 	}
 
 	/**
@@ -174,11 +331,26 @@ public class Registers {
 	 *            from.
 	 */
 	public void storeIOByte(int xIndex, BitField add) {
-		BitField addWord = add.extendToWord();
-		BitField mask = new BitField("FFF00", MachineInfo.BITS_IN_WORD);
-		BitField masked = mask.and(this.regArr[xIndex]);
-		this.regArr[xIndex] = masked.or(addWord);
+		this.storeIOByte(xIndex, add.toDecInt());
+	}
 
+	/**
+	 * Description: replaces the least significant 8 bits of register xIndex
+	 * with the least significant 8 bits of the packed value add, leaving the
+	 * rest of the bits in register xIndex alone.
+	 * 
+	 * @requires 0 <= xIndex <= 3
+	 * @alters the 8 least significant register xIndex
+	 * @ensures add and xIndex are unchanged.
+	 * @param xIndex
+	 *            - register number whose value will be changed.
+	 * @param add
+	 *            - packed value from which the 8 least significant bits are
+	 *            from.
+	 */
+	public void storeIOByte(int xIndex, int add) {
+		this.regArr[xIndex] = (this.regArr[xIndex] & this.ioByteMask)
+				| (add & IO_BYTE);
 	}
 
 	/**
@@ -194,10 +366,7 @@ public class Registers {
 	 *         xIndex.
 	 */
 	public int getSigIOByte(int xIndex) {
-		BitField w = this.regArr[xIndex];
-		String binStr = w.binSubstring(MachineInfo.BITS_IN_WORD - 8,
-				MachineInfo.BITS_IN_WORD);
-		return Integer.parseInt(binStr, 2);
+		return (this.regArr[xIndex] >>> (this.word.length - 8)) & IO_BYTE;
 	}
 
 	/*
@@ -208,11 +377,11 @@ public class Registers {
 	@Override
 	public String toString() {
 		StringBuffer regString = new StringBuffer("PC: 0x"
-				+ this.programCounter.toString());
+				+ this.address.toHexString(this.programCounter));
 		regString.append("\nRegisters:\n");
 		for (int i = 0; i < this.numRegisters; i++) {
-			regString.append("R[" + i + "]: 0x" + this.regArr[i].toString()
-					+ "\t");
+			regString.append("R[" + i + "]: 0x"
+					+ this.word.toHexString(this.regArr[i]) + "\t");
 		}
 		return regString.toString() + "\n";
 	}
@@ -0,0 +1,22 @@
+package vm;
+
+import java.io.IOException;
+
+/**
+ * If a run replayed from an InputLog reads its input at another instruction,
+ * or reads another kind of value, than the recorded run did, this is thrown.
+ * 
+ * @author Dragon Slayer
+ */
+public class ReplayDivergedException extends IOException {
+
+	private static final long serialVersionUID = -2317504622389941806L;
+
+	/**
+	 * Description: creates the exception with message.
+	 */
+	ReplayDivergedException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,48 @@
+package vm;
+
+/**
+ * This is an enum class which contains the status codes an instruction can end
+ * with. OK and WARNING let execution go on; HALT, END_OF_INPUT and
+ * INSTRUCTION_LIMIT end the run of the virtual machine. Executors report the
+ * status of an instruction through the FaultRecord of the virtual machine
+ * instead of throwing an exception, so a program that faults on many of its
+ * instructions costs no more to run than one that does not.
+ * 
+ * @author Dragon Slayer
+ */
+public enum Status {
+	/**
+	 * The instruction was performed.
+	 */
+	OK,
+	/**
+	 * The instruction could not be performed and a warning was written to the
+	 * process output.
+	 */
+	WARNING,
+	/**
+	 * A BR with R = 0 halted the program.
+	 */
+	HALT,
+	/**
+	 * An IO instruction tried to read past the end of the process input.
+	 */
+	END_OF_INPUT,
+	/**
+	 * The maximum number of instructions has been executed.
+	 */
+	INSTRUCTION_LIMIT;
+
+	/**
+	 * Description: returns true iff the run of the virtual machine ends with
+	 * this status.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures true
+	 * @return true iff this is HALT, END_OF_INPUT or INSTRUCTION_LIMIT
+	 */
+	public boolean endsRun() {
+		return this == HALT || this == END_OF_INPUT || this == INSTRUCTION_LIMIT;
+	}
+}
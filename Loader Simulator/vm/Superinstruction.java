@@ -0,0 +1,144 @@
+package vm;
+
+/**
+ * A superinstruction executes three instructions that often follow each other
+ * as one operation, without fetching, decoding or tracing each of them. Two
+ * sequences are fused, both on one register R and with X = 0 in every
+ * instruction:
+ * 
+ * LD R,a / op R,b / ST R,c where op is ADD, SUB, MUL, OR or AND
+ * 
+ * LD R,a / op R,b / BRZ R,t or BRN R,t where op is the same
+ * 
+ * With X = 0 every address is known when the sequence is fused and none of
+ * these instructions can give a warning, so a superinstruction always executes
+ * all three. Superinstructions are made by Memory.fuseInstructions when a
+ * program is loaded and are only used while no trace is being logged.
+ * 
+ * @author Dragon Slayer
+ */
+final class Superinstruction {
+
+	/**
+	 * Number of instructions in a superinstruction.
+	 */
+	static final int LENGTH = 3;
+
+	private final PackedField word;
+	private final Operation op;
+	private final Operation last;
+	private final int r;
+	private final int loadAddr;
+	private final int operandAddr;
+	private final int lastS;
+	private final int next;
+
+	/**
+	 * Description: creates the superinstruction for the sequence starting at
+	 * address addr.
+	 */
+	private Superinstruction(MachineConfig config, int addr,
+			InstructionInfo load, InstructionInfo middle, InstructionInfo end) {
+		this.word = config.word;
+		this.op = middle.op;
+		this.last = end.op;
+		this.r = load.rIndex;
+		this.loadAddr = load.sIndex;
+		this.operandAddr = middle.sIndex;
+		this.lastS = end.sIndex;
+		this.next = config.address.mask(addr + LENGTH);
+	}
+
+	/**
+	 * Description: returns the superinstruction for the three instructions
+	 * starting at address addr, or null if they are not one of the fused
+	 * sequences.
+	 * 
+	 * @requires 0 <= addr and addr + 2 < config.wordsInMem
+	 * @alters N/A
+	 * @ensures the instructions are unchanged
+	 * @param config
+	 *            - geometry of the machine the instructions are for
+	 * @param addr
+	 *            - address of the first instruction
+	 * @param load
+	 *            - instruction at addr
+	 * @param middle
+	 *            - instruction at addr + 1
+	 * @param end
+	 *            - instruction at addr + 2
+	 * @return the superinstruction, or null
+	 */
+	static Superinstruction fuse(MachineConfig config, int addr,
+			InstructionInfo load, InstructionInfo middle, InstructionInfo end) {
+		if (load.op != Operation.LD || !isFusedOperation(middle.op)) {
+			return null;
+		}
+		if (end.op != Operation.ST && end.op != Operation.BRZ
+				&& end.op != Operation.BRN) {
+			return null;
+		}
+		if (middle.rIndex != load.rIndex || end.rIndex != load.rIndex) {
+			return null;
+		}
+		if (load.xIndex != 0 || middle.xIndex != 0 || end.xIndex != 0) {
+			return null;
+		}
+		if (!config.isAddress(load.sIndex) || !config.isAddress(middle.sIndex)
+				|| !config.isAddress(end.sIndex)) {
+			return null;
+		}
+		return new Superinstruction(config, addr, load, middle, end);
+	}
+
+	private static boolean isFusedOperation(Operation op) {
+		return op == Operation.ADD || op == Operation.SUB
+				|| op == Operation.MUL || op == Operation.OR
+				|| op == Operation.AND;
+	}
+
+	/**
+	 * Description: executes the three instructions of the superinstruction
+	 * and moves the program counter past them, or to the branch target if the
+	 * branch is taken.
+	 * 
+	 * @requires the program counter is the address of the first instruction
+	 * @alters register R, the program counter and, for ST, the word at c
+	 * @ensures the other registers and words are unchanged
+	 * @param reg
+	 *            - registers of the virtual machine
+	 * @param mem
+	 *            - memory of the virtual machine
+	 */
+	void execute(Registers reg, Memory mem) {
+		int value = mem.rep[this.loadAddr];
+		int operand = mem.rep[this.operandAddr];
+		switch (this.op) {
+		case ADD:
+			value = this.word.add(value, operand);
+			break;
+		case SUB:
+			value = this.word.subtract(value, operand);
+			break;
+		case MUL:
+			value = this.word.multiply(value, operand);
+			break;
+		case OR:
+			value = this.word.or(value, operand);
+			break;
+		default:
+			value = this.word.and(value, operand);
+			break;
+		}
+		reg.regArr[this.r] = value;
+		int pc = this.next;
+		// every address was checked when the sequence was fused
+		if (this.last == Operation.ST) {
+			mem.writeLegal(this.lastS, value);
+		} else if (this.last == Operation.BRZ ? this.word.isZero(value)
+				: !this.word.isPositive(value)) {
+			pc = this.lastS;
+		}
+		reg.trySetPC(pc);
+	}
+}
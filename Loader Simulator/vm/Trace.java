@@ -1,7 +1,8 @@
 package vm;
 
+import java.nio.ByteBuffer;
+
 import utilities.BinHexConverter;
-import utilities.MachineInfo;
 
 /**
  * This class is used for keeping track of the memory, registers, and
@@ -17,30 +18,90 @@ import utilities.MachineInfo;
  * relevant information is displayed when an operation is run. (see instruction
  * information in programmer's guide)
  * 
+ * An executor keeps one Trace and records every instruction it executes in
+ * it, so executing an instruction allocates nothing; the trace only becomes a
+ * string when it is logged. A trace returned by an executor therefore holds
+ * its instruction only until the executor executes the next one.
+ * 
+ * A trace can also be written to a fixed-width record of RECORD_BYTES bytes
+ * and read back from one (see BinaryTrace); a trace read from a record makes
+ * the same string as the one written. For a DeltaTrace, writeState writes
+ * the state of the machine before the instruction and writeDelta only the
+ * values the instruction changed; readDelta replays a delta on a memory and
+ * registers holding the state before it.
+ * 
  * @author Dragon Slayer
  */
 public class Trace {
 
-	public final Operation op;
-	public final int rIndex;
-	public final int xIndex;
-	public final int sIndex;
-	public final int sOfX;
-	public final int pcBefore;
-	public final BitField rWord;
-	public final BitField xWord;
-	public final BitField sOfXWord;
-	public BitField sOfXWordMem;
-
-	public BitField rWordAfter;
-	public BitField xWordAfter;
-	public BitField sOfXWordAfter;
+	/**
+	 * Number of bytes in the record of a trace: the operation, r, x and flags
+	 * as bytes, then the PC and memory word at it, S, S(x), R[r], R[x] and
+	 * MEM[S(x)] before and the PC, R[r] and MEM[S(x)] after as ints.
+	 */
+	static final int RECORD_BYTES = 4 + 10 * 4;
+
+	private static final Operation[] OPERATIONS = Operation.values();
+	// flag of a record whose S(x) is an address of memory
+	private static final int S_OF_X_IN_MEM = 1;
+	// flags of a delta of the values the instruction changed
+	private static final int PC_CHANGED = 1;
+	private static final int R_CHANGED = 2;
+	private static final int X_CHANGED = 4;
+	private static final int MEM_CHANGED = 8;
+	/**
+	 * Largest number of bytes in the delta of a trace.
+	 */
+	static final int DELTA_BYTES = 1 + 4 * 4;
+	// the text of toString around the numbers, as ASCII bytes
+	private static final byte[] BEGIN = ascii("\n\n*********BEGIN INSTRUCTION"
+			+ "***********************\nPC:\t\t\t\t0x");
+	private static final byte[] MEM_AT = ascii("\nMEM[0x");
+	private static final byte[] MEM_IS = ascii("]:\t\t0x");
+	private static final byte[] OP = ascii("\nOP:");
+	private static final byte[] BEFORE = ascii("\nBefore instruction:"
+			+ "\nPC:\t\t\t\t0x");
+	private static final byte[] S_OF_X = ascii("\nS(x):\t\t\t0x");
+	private static final byte[] R_AT = ascii("\nR[r](r=");
+	private static final byte[] X_AT = ascii("\nR[x](x=");
+	private static final byte[] REG_IS = ascii("):\t\t0x");
+	private static final byte[] MEM_S_OF_X = ascii("\nMEM[S(x)]:\t\t0x");
+	private static final byte[] AFTER = ascii("\n\nAfter instruction:"
+			+ "\nPC:\t\t\t\t0x");
+	private static final byte[] END = ascii("\n*********END INSTRUCTION"
+			+ "*************************\n");
+	private static final byte[][] OP_NAMES = new byte[OPERATIONS.length][];
+	private static final byte[] HEX_DIGITS = ascii("0123456789ABCDEF");
+	static {
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			OP_NAMES[i] = ascii(OPERATIONS[i] + "\n");
+		}
+	}
+
+	public Operation op;
+	public int rIndex;
+	public int xIndex;
+	public int sIndex;
+	public int sOfX;
+	public int pcBefore;
+	public int rWord;
+	public int xWord;
+	public int sOfXWord;
+	public int sOfXWordMem;
+
+	public int rWordAfter;
+	public int xWordAfter;
 	private int pcAfter;
 	private Memory mem;
 	private Registers reg;
 	private boolean errorOccured;
 	private String errorString;
-	private BitField sOfXWordMemAfter;
+	private boolean sOfXInMem;
+	private int sOfXWordMemAfter;
+	// the word at pcBefore of a trace read from a record
+	private int pcWord;
+	private final MachineConfig config;
+	private final PackedField word;
 
 	/**
 	 * Description: Sets the fields of Trace to contain the different parts of
@@ -62,29 +123,77 @@ public class Trace {
 	 *            - the instruction information
 	 */
 	public Trace(Memory mem, Registers reg, InstructionInfo opInfo) {
+		this(mem, reg);
+		this.record(opInfo);
+	}
+
+	/**
+	 * Description: creates a Trace of mem and reg that has not recorded an
+	 * instruction yet.
+	 * 
+	 * @requires mem and reg belong to the same virtual machine
+	 * @alters creates a Trace
+	 * @ensures mem and reg are unchanged.
+	 * @param mem
+	 *            - contents of memory
+	 * @param reg
+	 *            - contents of registers
+	 */
+	Trace(Memory mem, Registers reg) {
 		this.mem = mem;
 		this.reg = reg;
+		this.config = mem.getConfig();
+		this.word = this.config.word;
+	}
+
+	/**
+	 * Description: creates a Trace of a machine of config, without memory or
+	 * registers, to read records into.
+	 * 
+	 * @requires true
+	 * @alters creates a Trace
+	 * @ensures config is unchanged.
+	 * @param config
+	 *            - geometry of the traced machine
+	 */
+	Trace(MachineConfig config) {
+		this.config = config;
+		this.word = config.word;
+	}
+
+	/**
+	 * Description: sets the fields of Trace to the instruction opInfo about to
+	 * be executed and the registers and memory before it, the same as
+	 * Trace(mem, reg, opInfo), forgetting the instruction recorded before.
+	 * 
+	 * @requires opInfo is the instruction at the program counter
+	 * @alters the fields of Trace
+	 * @ensures mem, reg, and opInfo are unchanged.
+	 * @param opInfo
+	 *            - the instruction information
+	 */
+	void record(InstructionInfo opInfo) {
+		this.errorOccured = false;
+		this.errorString = null;
 		this.op = opInfo.op;
-		this.pcBefore = reg.nextInstruction();
+		this.pcBefore = this.reg.nextInstruction();
 		this.rIndex = opInfo.rIndex;
 		this.xIndex = opInfo.xIndex;
 		this.sIndex = opInfo.sIndex;
-		this.rWord = reg.getReg(this.rIndex);
-		this.xWord = reg.getReg(this.xIndex);
+		this.rWord = this.reg.getRegRaw(this.rIndex);
+		this.xWord = this.reg.getRegRaw(this.xIndex);
 		
 		//setting up value of s or s+x
 		if (this.xIndex == 0) {
 			this.sOfX = this.sIndex;
 		} else {
-			this.sOfX = (new BitField(this.sIndex, 8).extendToWord()).add(
-					reg.getReg(this.xIndex)).toDecInt();
+			this.sOfX = this.word.add(this.sIndex, this.xWord);
 		}
-		this.sOfXWord = new BitField(this.sOfX, MachineInfo.BITS_IN_WORD);
-		try {
-			this.sOfXWordMem = mem.getWordAtAddr(this.sOfXWord.toDecInt());
-		} catch (IllegalMemoryAddressException e) {
-			this.sOfXWordMem = null;
-			// Error is caught and handled in executioner
+		this.sOfXWord = this.sOfX;
+		// an illegal S(x) is reported by the executor
+		this.sOfXInMem = this.mem.isAddress(this.sOfX);
+		if (this.sOfXInMem) {
+			this.sOfXWordMem = this.mem.rep[this.sOfX];
 		}
 	}
 
@@ -107,6 +216,14 @@ public class Trace {
 		this.errorString = message;
 	}
 
+	/**
+	 * Description: returns the error message of the instruction, or null if
+	 * no error occurred.
+	 */
+	String error() {
+		return this.errorOccured ? this.errorString : null;
+	}
+
 	/**
 	 * Description: updates the values of after r word, after x word, and after
 	 * s(x) word after an operation. The actual values of the registers and
@@ -120,13 +237,361 @@ public class Trace {
 	 */
 	public void update() {
 		this.pcAfter = this.reg.nextInstruction();
-		this.rWordAfter = this.reg.getReg(this.rIndex);
-		this.xWordAfter = this.reg.getReg(this.xIndex);
-		try {
-			this.sOfXWordMemAfter = this.mem.getWordAtAddr(this.sOfX);
-		} catch (IllegalMemoryAddressException e) {
-			// Error is caught and handled in executioner
+		this.rWordAfter = this.reg.getRegRaw(this.rIndex);
+		this.xWordAfter = this.reg.getRegRaw(this.xIndex);
+		if (this.sOfXInMem) {
+			this.sOfXWordMemAfter = this.mem.rep[this.sOfX];
+		}
+	}
+
+	/**
+	 * Description: writes the trace as a record of RECORD_BYTES bytes to buf,
+	 * with the word at the PC before the instruction as it is in memory now,
+	 * which is the word toString would show. The error message is not part of
+	 * the record.
+	 * 
+	 * @requires the trace was recorded and updated, buf has RECORD_BYTES bytes
+	 *           remaining
+	 * @alters buf
+	 * @ensures the trace is unchanged
+	 * @param buf
+	 *            - destination of the record
+	 */
+	void write(ByteBuffer buf) {
+		buf.put((byte) this.op.ordinal());
+		buf.put((byte) this.rIndex);
+		buf.put((byte) this.xIndex);
+		buf.put((byte) (this.sOfXInMem ? S_OF_X_IN_MEM : 0));
+		buf.putInt(this.pcBefore);
+		buf.putInt(this.mem.rep[this.pcBefore]);
+		buf.putInt(this.sIndex);
+		buf.putInt(this.sOfX);
+		buf.putInt(this.rWord);
+		buf.putInt(this.xWord);
+		buf.putInt(this.sOfXWordMem);
+		buf.putInt(this.pcAfter);
+		buf.putInt(this.rWordAfter);
+		buf.putInt(this.sOfXWordMemAfter);
+	}
+
+	/**
+	 * Description: sets the trace to the record at the position of buf, with
+	 * error as its error message if it is not null.
+	 * 
+	 * @requires the trace was made by Trace(config), buf holds a record
+	 *           written by write for a machine of the same config
+	 * @alters the fields of Trace, the position of buf
+	 * @ensures true
+	 * @param buf
+	 *            - source of the record
+	 * @param error
+	 *            - error message of the instruction, or null
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if the operation of the record is not an Operation
+	 */
+	void read(ByteBuffer buf, String error) {
+		this.op = OPERATIONS[buf.get()];
+		this.rIndex = buf.get();
+		this.xIndex = buf.get();
+		this.sOfXInMem = (buf.get() & S_OF_X_IN_MEM) != 0;
+		this.pcBefore = buf.getInt();
+		this.pcWord = buf.getInt();
+		this.sIndex = buf.getInt();
+		this.sOfX = buf.getInt();
+		this.sOfXWord = this.sOfX;
+		this.rWord = buf.getInt();
+		this.xWord = buf.getInt();
+		this.sOfXWordMem = buf.getInt();
+		this.pcAfter = buf.getInt();
+		this.rWordAfter = buf.getInt();
+		this.sOfXWordMemAfter = buf.getInt();
+		this.errorOccured = error != null;
+		this.errorString = error;
+	}
+
+	/**
+	 * Description: returns the largest number of bytes writeState writes for
+	 * the trace.
+	 */
+	int stateBytes() {
+		int pages = this.config.wordsInMem / Memory.PAGE_SIZE;
+		return 4 * (4 + this.config.numRegisters) + 4 * pages
+				* (1 + Memory.PAGE_SIZE);
+	}
+
+	/**
+	 * Description: writes the state of the machine before the instruction to
+	 * buf: the bits in an address, the PC, the number of registers and each
+	 * register, then the number of pages of memory that are not all zeros
+	 * and, for each of them, its number and its Memory.PAGE_SIZE words. The
+	 * registers and memory are read as they are now, with the words the
+	 * instruction changed put back.
+	 * 
+	 * @requires the trace was recorded and updated, the machine has executed
+	 *           nothing since, buf has stateBytes() bytes remaining
+	 * @alters buf
+	 * @ensures the trace, registers and memory are unchanged
+	 * @param buf
+	 *            - destination of the state
+	 */
+	void writeState(ByteBuffer buf) {
+		buf.putInt(this.config.bitsInAddress);
+		buf.putInt(this.pcBefore);
+		buf.putInt(this.config.numRegisters);
+		for (int i = 0; i < this.config.numRegisters; i++) {
+			if (i == this.rIndex) {
+				buf.putInt(this.rWord);
+			} else if (i == this.xIndex) {
+				buf.putInt(this.xWord);
+			} else {
+				buf.putInt(this.reg.getRegRaw(i));
+			}
+		}
+		int pages = this.config.wordsInMem / Memory.PAGE_SIZE;
+		int used = 0;
+		for (int p = 0; p < pages; p++) {
+			if (!this.zeroPage(p)) {
+				used++;
+			}
+		}
+		buf.putInt(used);
+		for (int p = 0; p < pages; p++) {
+			if (!this.zeroPage(p)) {
+				buf.putInt(p);
+				for (int a = p * Memory.PAGE_SIZE; a < (p + 1)
+						* Memory.PAGE_SIZE; a++) {
+					buf.putInt(this.wordBefore(a));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Description: returns true iff every word of page p was zero before the
+	 * instruction.
+	 */
+	private boolean zeroPage(int p) {
+		for (int a = p * Memory.PAGE_SIZE; a < (p + 1)
+				* Memory.PAGE_SIZE; a++) {
+			if (this.wordBefore(a) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Description: returns the word at address a before the instruction.
+	 */
+	private int wordBefore(int a) {
+		return this.sOfXInMem && a == this.sOfX ? this.sOfXWordMem
+				: this.mem.rep[a];
+	}
+
+	/**
+	 * Description: writes the values the instruction changed to buf: a byte
+	 * of flags, then the PC after the instruction unless it is the next
+	 * address, R[r] after if it changed, R[x] after if it changed and x is not
+	 * r, and MEM[S(x)] after if it changed. Everything else about the
+	 * instruction follows from the state before it (see readDelta).
+	 * 
+	 * @requires the trace was recorded and updated, buf has DELTA_BYTES bytes
+	 *           remaining
+	 * @alters buf
+	 * @ensures the trace is unchanged
+	 * @param buf
+	 *            - destination of the delta
+	 */
+	void writeDelta(ByteBuffer buf) {
+		int changes = 0;
+		if (this.pcAfter != this.pcBefore + 1) {
+			changes |= PC_CHANGED;
+		}
+		if (this.rWordAfter != this.rWord) {
+			changes |= R_CHANGED;
+		}
+		if (this.xIndex != this.rIndex && this.xWordAfter != this.xWord) {
+			changes |= X_CHANGED;
+		}
+		if (this.sOfXInMem && this.sOfXWordMemAfter != this.sOfXWordMem) {
+			changes |= MEM_CHANGED;
+		}
+		buf.put((byte) changes);
+		if ((changes & PC_CHANGED) != 0) {
+			buf.putInt(this.pcAfter);
+		}
+		if ((changes & R_CHANGED) != 0) {
+			buf.putInt(this.rWordAfter);
+		}
+		if ((changes & X_CHANGED) != 0) {
+			buf.putInt(this.xWordAfter);
+		}
+		if ((changes & MEM_CHANGED) != 0) {
+			buf.putInt(this.sOfXWordMemAfter);
+		}
+	}
+
+	/**
+	 * Description: records the instruction at the PC of the memory and
+	 * registers of the trace, applies the delta at the position of buf to
+	 * them, and updates the trace, so that it makes the same string as the
+	 * trace the delta was written from, with error as its error message if it
+	 * is not null.
+	 * 
+	 * @requires the trace was made by Trace(mem, reg), mem and reg hold the
+	 *           state before the instruction the delta was written for
+	 * @alters the fields of Trace, memory, registers, the position of buf
+	 * @ensures memory and registers hold the state after the instruction
+	 * @param buf
+	 *            - source of the delta
+	 * @param error
+	 *            - error message of the instruction, or null
+	 * @throws IllegalMemoryAddressException
+	 *             if the PC of the delta is not an address
+	 */
+	void readDelta(ByteBuffer buf, String error)
+			throws IllegalMemoryAddressException {
+		this.record(this.mem.fetchLegal(this.reg.nextInstruction()));
+		int changes = buf.get();
+		if ((changes & PC_CHANGED) != 0) {
+			this.reg.setPC(buf.getInt());
+		} else {
+			this.reg.setPC(this.pcBefore + 1);
+		}
+		if ((changes & R_CHANGED) != 0) {
+			this.reg.setRegRaw(buf.getInt(), this.rIndex);
+		}
+		if ((changes & X_CHANGED) != 0) {
+			this.reg.setRegRaw(buf.getInt(), this.xIndex);
+		}
+		if ((changes & MEM_CHANGED) != 0) {
+			this.mem.writeRaw(this.sOfX, buf.getInt());
+		}
+		this.update();
+		if (error != null) {
+			this.errorOccured(error);
+		}
+	}
+
+	/**
+	 * Description: returns the largest number of bytes format writes for the
+	 * trace.
+	 */
+	int textBytes() {
+		String error = this.error();
+		return 512 + (error == null ? 0 : error.length());
+	}
+
+	/**
+	 * Description: writes the string of the trace, as toString makes it, to
+	 * text as ASCII bytes from index 0 on, without making the string, and
+	 * returns the number of bytes written. A char of the error message that
+	 * is not ASCII is written as '?'.
+	 * 
+	 * @requires the trace was recorded and updated, or read, text has at
+	 *           least textBytes() bytes
+	 * @alters text
+	 * @ensures the trace is unchanged
+	 * @param text
+	 *            - destination of the text
+	 * @return the number of bytes written
+	 */
+	int format(byte[] text) {
+		int addressDigits = this.config.bitsInAddress / 4;
+		int wordDigits = this.word.length / 4;
+		boolean showMem = this.sIndex < this.config.wordsInMem
+				&& this.sOfXInMem;
+		int at = put(text, 0, BEGIN);
+		at = putHex(text, at, this.pcBefore, addressDigits);
+		if (this.config.isAddress(this.pcBefore)) {
+			at = put(text, at, MEM_AT);
+			at = putHex(text, at, this.pcBefore, addressDigits);
+			at = put(text, at, MEM_IS);
+			at = putHex(text, at, this.word.mask(this.mem == null ? this.pcWord
+					: this.mem.rep[this.pcBefore]), wordDigits);
+		}
+		at = put(text, at, OP);
+		at = put(text, at, OP_NAMES[this.op.ordinal()]);
+		at = put(text, at, BEFORE);
+		at = putHex(text, at, this.pcBefore, addressDigits);
+		at = put(text, at, S_OF_X);
+		at = putHex(text, at, this.word.mask(this.sOfXWord), wordDigits);
+		at = this.putRegister(text, at, R_AT, this.rIndex, this.rWord);
+		at = this.putRegister(text, at, X_AT, this.xIndex, this.xWord);
+		if (showMem) {
+			at = put(text, at, MEM_S_OF_X);
+			at = putHex(text, at, this.word.mask(this.sOfXWordMem),
+					wordDigits);
+		}
+		if (this.errorOccured) {
+			String error = String.valueOf(this.errorString);
+			text[at++] = '\n';
+			text[at++] = '\n';
+			for (int i = 0; i < error.length(); i++) {
+				char c = error.charAt(i);
+				text[at++] = (byte) (c < 0x80 ? c : '?');
+			}
+			text[at++] = '\n';
+		}
+		at = put(text, at, AFTER);
+		at = putHex(text, at, this.pcAfter, addressDigits);
+		at = this.putRegister(text, at, R_AT, this.rIndex, this.rWordAfter);
+		if (showMem) {
+			at = put(text, at, MEM_S_OF_X);
+			at = putHex(text, at, this.word.mask(this.sOfXWordMemAfter),
+					wordDigits);
+		}
+		return put(text, at, END);
+	}
+
+	/**
+	 * Description: writes the line of register index holding value, begun by
+	 * label, to text at index at, and returns the index after it.
+	 */
+	private int putRegister(byte[] text, int at, byte[] label, int index,
+			int value) {
+		at = put(text, at, label);
+		if (index >= 10) {
+			text[at++] = (byte) ('0' + index / 10 % 10);
+		}
+		text[at++] = (byte) ('0' + index % 10);
+		at = put(text, at, REG_IS);
+		return putHex(text, at, this.word.mask(value), this.word.length / 4);
+	}
+
+	/**
+	 * Description: writes bytes to text at index at, and returns the index
+	 * after them.
+	 */
+	private static int put(byte[] text, int at, byte[] bytes) {
+		System.arraycopy(bytes, 0, text, at, bytes.length);
+		return at + bytes.length;
+	}
+
+	/**
+	 * Description: writes value to text at index at in upper case hex, padded
+	 * with zeros to digits digits, the same as BinHexConverter.toHexString,
+	 * and returns the index after it.
+	 */
+	private static int putHex(byte[] text, int at, int value, int digits) {
+		// the hex digits of value, as Integer.toHexString makes them
+		int needed = Math.max(1,
+				(35 - Integer.numberOfLeadingZeros(value)) / 4);
+		for (int i = Math.max(digits, needed) - 1; i >= 0; i--) {
+			text[at++] = HEX_DIGITS[value >>> 4 * i & 0xF];
+		}
+		return at;
+	}
+
+	/**
+	 * Description: returns text as ASCII bytes.
+	 */
+	private static byte[] ascii(String text) {
+		byte[] bytes = new byte[text.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) text.charAt(i);
 		}
+		return bytes;
 	}
 
 	@Override
@@ -157,12 +622,15 @@ public class Trace {
 		StringBuffer result = new StringBuffer();
 		result.append("\n\n*********BEGIN INSTRUCTION***********************");
 		result.append("\nPC:\t\t\t\t0x"
-				+ BinHexConverter.toHexString(this.pcBefore, 8));
+				+ BinHexConverter.toHexString(this.pcBefore,
+						this.config.bitsInAddress));
 		try {
 			result.append("\nMEM[0x"
-					+ BinHexConverter.toHexString(this.pcBefore, 8)
+					+ BinHexConverter.toHexString(this.pcBefore,
+						this.config.bitsInAddress)
 					+ "]:\t\t0x"
-					+ this.mem.getWordAtAddr(this.pcBefore).toString());
+					+ this.word.toHexString(this.mem == null ? this.pcWord
+							: this.mem.readRaw(this.pcBefore)));
 		} catch (IllegalMemoryAddressException e) {
 			// PC can't give us an invalid mem
 		}
@@ -188,12 +656,16 @@ public class Trace {
 		//put into strings
 		result.append("\nBefore instruction:");
 		result.append("\nPC:\t\t\t\t0x"
-				+ BinHexConverter.toHexString(this.pcBefore, 8));
-		result.append("\nS(x):\t\t\t0x" + this.sOfXWord);
-		result.append("\nR[r](r=" + this.rIndex + "):\t\t0x" + this.rWord);
-		result.append("\nR[x](x=" + this.xIndex + "):\t\t0x" + this.xWord);
-		if (this.sIndex < MachineInfo.WORDS_IN_MEM && this.sOfXWordMem != null) {
-			result.append("\nMEM[S(x)]:\t\t0x" + this.sOfXWordMem);
+				+ BinHexConverter.toHexString(this.pcBefore,
+						this.config.bitsInAddress));
+		result.append("\nS(x):\t\t\t0x" + this.word.toHexString(this.sOfXWord));
+		result.append("\nR[r](r=" + this.rIndex + "):\t\t0x"
+				+ this.word.toHexString(this.rWord));
+		result.append("\nR[x](x=" + this.xIndex + "):\t\t0x"
+				+ this.word.toHexString(this.xWord));
+		if (this.sIndex < this.config.wordsInMem && this.sOfXInMem) {
+			result.append("\nMEM[S(x)]:\t\t0x"
+					+ this.word.toHexString(this.sOfXWordMem));
 		}
 		return result.toString();
 	}
@@ -216,11 +688,13 @@ public class Trace {
 		StringBuffer result = new StringBuffer();
 		result.append("\n\nAfter instruction:");
 		result.append("\nPC:\t\t\t\t0x"
-				+ BinHexConverter.toHexString(this.pcAfter, 8));
-		result.append("\nR[r](r=" + this.rIndex + "):\t\t0x" + this.rWordAfter);
-		if (this.sIndex < MachineInfo.WORDS_IN_MEM
-				&& this.sOfXWordMemAfter != null) {
-			result.append("\nMEM[S(x)]:\t\t0x" + this.sOfXWordMemAfter);
+				+ BinHexConverter.toHexString(this.pcAfter,
+						this.config.bitsInAddress));
+		result.append("\nR[r](r=" + this.rIndex + "):\t\t0x"
+				+ this.word.toHexString(this.rWordAfter));
+		if (this.sIndex < this.config.wordsInMem && this.sOfXInMem) {
+			result.append("\nMEM[S(x)]:\t\t0x"
+					+ this.word.toHexString(this.sOfXWordMemAfter));
 		}
 		result.append("\n*********END INSTRUCTION*************************\n");
 		return result.toString();
@@ -0,0 +1,155 @@
+package vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Which instructions of a run are traced. An instruction is traced iff its
+ * number is in one of the windows, its PC is in one of the address ranges,
+ * its operation is one of the operations, and its R or X is one of the
+ * registers; a kind of condition that is not given holds for every
+ * instruction. The filter is checked before an instruction is executed, so
+ * the trace of an instruction that is not traced is never made into a
+ * string, and outside the windows the virtual machine runs as if it were not
+ * tracing at all (see VirtualMachine.setTraceFilter).
+ * 
+ * @author Dragon Slayer
+ */
+public final class TraceFilter {
+
+	// first and last instruction numbers of the windows, in order and apart
+	private final List<long[]> windows = new ArrayList<long[]>();
+	// first and last addresses of the ranges
+	private final List<int[]> addresses = new ArrayList<int[]>();
+	// bit i is set for the operation of ordinal i
+	private int operations;
+	// bit i is set for register i
+	private int registers;
+
+	/**
+	 * Description: adds the instructions numbered first to last, counting the
+	 * first instruction of the run as 1, to the windows.
+	 * 
+	 * @requires 1 <= first <= last
+	 * @alters the windows of the filter
+	 * @ensures the other conditions are unchanged
+	 * @param first
+	 *            - number of the first instruction of the window
+	 * @param last
+	 *            - number of the last instruction of the window
+	 */
+	public void addWindow(long first, long last) {
+		int i = 0;
+		while (i < this.windows.size() && this.windows.get(i)[1] < first - 1) {
+			i++;
+		}
+		// the windows that overlap or touch it are joined to it
+		while (i < this.windows.size() && this.windows.get(i)[0] - 1 <= last) {
+			long[] window = this.windows.remove(i);
+			first = Math.min(first, window[0]);
+			last = Math.max(last, window[1]);
+		}
+		this.windows.add(i, new long[] { first, last });
+	}
+
+	/**
+	 * Description: adds the addresses first to last to the address ranges.
+	 * 
+	 * @requires 0 <= first <= last
+	 * @alters the address ranges of the filter
+	 * @ensures the other conditions are unchanged
+	 * @param first
+	 *            - first address of the range
+	 * @param last
+	 *            - last address of the range
+	 */
+	public void addAddresses(int first, int last) {
+		this.addresses.add(new int[] { first, last });
+	}
+
+	/**
+	 * Description: adds op to the operations.
+	 * 
+	 * @requires true
+	 * @alters the operations of the filter
+	 * @ensures the other conditions are unchanged
+	 * @param op
+	 *            - operation to trace
+	 */
+	public void addOperation(Operation op) {
+		this.operations |= 1 << op.ordinal();
+	}
+
+	/**
+	 * Description: adds register index to the registers.
+	 * 
+	 * @requires 0 <= index < 32
+	 * @alters the registers of the filter
+	 * @ensures the other conditions are unchanged
+	 * @param index
+	 *            - index of the register to trace
+	 */
+	public void addRegister(int index) {
+		this.registers |= 1 << index;
+	}
+
+	/**
+	 * Description: returns true iff instruction number is in a window.
+	 */
+	boolean inWindow(long number) {
+		if (this.windows.isEmpty()) {
+			return true;
+		}
+		for (int i = 0; i < this.windows.size(); i++) {
+			long[] window = this.windows.get(i);
+			if (number < window[0]) {
+				return false;
+			} else if (number <= window[1]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Description: returns the number of instructions from instruction number
+	 * on that are all in a window or all outside the windows, or
+	 * VirtualMachine.UNLIMITED if they never change.
+	 */
+	long runLength(long number) {
+		for (int i = 0; i < this.windows.size(); i++) {
+			long[] window = this.windows.get(i);
+			if (number < window[0]) {
+				return window[0] - number;
+			} else if (number <= window[1]) {
+				return window[1] - number + 1;
+			}
+		}
+		return VirtualMachine.UNLIMITED;
+	}
+
+	/**
+	 * Description: returns true iff an instruction of op with the given R and
+	 * X at address pc meets the conditions other than the windows.
+	 */
+	boolean traces(int pc, Operation op, int rIndex, int xIndex) {
+		if (this.operations != 0
+				&& (this.operations & 1 << op.ordinal()) == 0) {
+			return false;
+		}
+		if (this.registers != 0
+				&& (this.registers & (1 << rIndex | 1 << xIndex)) == 0) {
+			return false;
+		}
+		if (this.addresses.isEmpty()) {
+			return true;
+		}
+		for (int i = 0; i < this.addresses.size(); i++) {
+			int[] range = this.addresses.get(i);
+			if (range[0] <= pc && pc <= range[1]) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,87 @@
+package vm;
+
+import java.io.IOException;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A Handler for the process trace that also takes the trace of each
+ * instruction as a Trace rather than as a string. A VirtualMachine whose
+ * Logger traces only to a TraceHandler (see attach) gives it the Trace of
+ * every instruction, so the trace is never made into a string on the thread
+ * running the machine. The text a TraceHandler finally holds or renders is
+ * the same as a handler of the same Formatter would hold had every trace been
+ * logged as fine.
+ * 
+ * @author Dragon Slayer
+ */
+public abstract class TraceHandler extends Handler {
+
+	/**
+	 * Description: creates a TraceHandler of level FINE.
+	 */
+	TraceHandler() {
+		this.setLevel(Level.FINE);
+	}
+
+	/**
+	 * Description: returns the TraceHandler of log if it is the only handler
+	 * of log that publishes fine messages, after beginning the traces of a
+	 * machine of config in it, and otherwise null.
+	 * 
+	 * @requires log exists
+	 * @alters the TraceHandler of log
+	 * @ensures the handlers of log are unchanged
+	 * @param log
+	 *            - Logger of a virtual machine
+	 * @param config
+	 *            - geometry of the virtual machine
+	 * @return the handler to give the traces of the instructions to, or null
+	 * @throws IOException
+	 */
+	static TraceHandler attach(Logger log, MachineConfig config)
+			throws IOException {
+		TraceHandler found = null;
+		for (Handler handler : log.getHandlers()) {
+			if (handler instanceof TraceHandler && found == null) {
+				found = (TraceHandler) handler;
+			} else if (handler.getLevel().intValue() <= Level.FINE.intValue()) {
+				// the trace must also go to handler as text
+				return null;
+			}
+		}
+		if (found != null) {
+			found.begin(config);
+		}
+		return found;
+	}
+
+	/**
+	 * Description: notes that the traces that follow are of a machine of
+	 * config.
+	 * 
+	 * @requires true
+	 * @alters the handler
+	 * @ensures config is unchanged
+	 * @param config
+	 *            - geometry of the traced machine
+	 * @throws IOException
+	 */
+	abstract void begin(MachineConfig config) throws IOException;
+
+	/**
+	 * Description: handles trace as if its string had been logged as fine.
+	 * 
+	 * @requires the trace was recorded and updated by a machine of the config
+	 *           last begun
+	 * @alters the handler
+	 * @ensures trace is unchanged
+	 * @param trace
+	 *            - trace of the instruction executed
+	 * @param number
+	 *            - number of the instruction in the run, counting from 1
+	 * @throws IOException
+	 */
+	abstract void write(Trace trace, long number) throws IOException;
+}
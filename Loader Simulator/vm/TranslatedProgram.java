@@ -0,0 +1,323 @@
+package vm;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+
+import utilities.BinHexConverter;
+import utilities.MachineInfo;
+
+/**
+ * Base class of the Java classes written by translator.Wi12Translator. A
+ * translated program holds the segment it was translated from and implements
+ * execute as Java code with one case of a switch for every address of memory.
+ * The protected methods of this class carry out the instructions that the
+ * translated code performs itself on the memory and registers of the
+ * VirtualMachine running it. Any instruction that reads input, writes output,
+ * halts, depends on a register for its address or might give a warning is
+ * handed to interpret, which executes it with the virtual machine's own
+ * executor, so its behavior is exactly that of the interpreter.
+ * 
+ * Before every instruction the translated code calls step, which stops the
+ * translated code when the word at that address is no longer the word that
+ * was translated (the program has modified its own code) or when no more
+ * instructions may be executed. The virtual machine then interprets that
+ * instruction and enters the translated code again.
+ * 
+ * @author Dragon Slayer
+ */
+public abstract class TranslatedProgram {
+
+	private static final int size = MachineInfo.WORDS_IN_MEM;
+	private static final PackedField WORD = PackedField.WORD;
+
+	private final String name;
+	private final int execStart;
+	private final int loadAddress;
+	private final int[] segmentImage;
+	private final int[] translated;
+	private Memory mem;
+	private Registers reg;
+	private InstructionExecutor interpreter;
+	private FaultRecord fault;
+	private IOGroup IO;
+	private long base;
+	private int left;
+	private int executed;
+
+	/**
+	 * Description: creates a translated program for the segment with the
+	 * given Header Record values and packed image. The memory the program was
+	 * translated from is the image loaded at loadAddress with every other
+	 * word zero.
+	 * 
+	 * @requires the values are those of a valid HexWordSegment
+	 * @alters creates a TranslatedProgram
+	 * @ensures segmentImage is unchanged
+	 * @param name
+	 *            - segment name from the Header Record
+	 * @param execStart
+	 *            - execution start address from the Header Record
+	 * @param loadAddress
+	 *            - load address from the Header Record
+	 * @param segmentImage
+	 *            - packed words of the segment, starting at loadAddress
+	 */
+	protected TranslatedProgram(String name, int execStart, int loadAddress,
+			int[] segmentImage) {
+		this.name = name;
+		this.execStart = execStart;
+		this.loadAddress = loadAddress;
+		this.segmentImage = segmentImage.clone();
+		this.translated = new int[size];
+		System.arraycopy(segmentImage, 0, this.translated, loadAddress,
+				segmentImage.length);
+	}
+
+	/**
+	 * Description: returns a new HexWordSegment holding the segment this
+	 * program was translated from.
+	 * 
+	 * @requires true
+	 * @alters creates a HexWordSegment
+	 * @ensures the program is unchanged
+	 * @return the segment of the program
+	 * @throws DataFormatException
+	 */
+	public HexWordSegment getSegment() throws DataFormatException {
+		HexWordSegment seg = HexWordSegment.getHexWordSegment(this.execStart,
+				this.name, this.loadAddress, this.segmentImage.length - 1);
+		for (int i = 0; i < this.segmentImage.length; i++) {
+			seg.addWord(this.loadAddress + i, BinHexConverter.toHexString(
+					this.segmentImage[i], MachineInfo.BITS_IN_WORD));
+		}
+		return seg;
+	}
+
+	/**
+	 * Description: runs the translated code on mem and reg from the program
+	 * counter until it reaches an instruction it may not execute, and returns
+	 * the address of that instruction. At most budget instructions are
+	 * executed; executed returns how many were. An interpreted instruction
+	 * that ends the run leaves its status in fault and stops the translated
+	 * code.
+	 * 
+	 * @requires mem and reg were loaded from getSegment
+	 * @alters mem, reg and IO as specified in the Machine Instructions
+	 * @ensures at most budget instructions are executed
+	 * @param mem
+	 *            - memory of the virtual machine
+	 * @param reg
+	 *            - registers of the virtual machine
+	 * @param interpreter
+	 *            - executor of the virtual machine
+	 * @param fault
+	 *            - fault record of the virtual machine
+	 * @param budget
+	 *            - number of instructions that may still be executed
+	 * @param IO
+	 *            - input and output of the virtual machine
+	 * @param base
+	 *            - number of instructions executed before this call
+	 * @return the address of the next instruction to be interpreted
+	 * @throws IOException
+	 */
+	final int run(Memory mem, Registers reg, InstructionExecutor interpreter,
+			FaultRecord fault, int budget, IOGroup IO, long base)
+			throws IOException {
+		this.mem = mem;
+		this.reg = reg;
+		this.interpreter = interpreter;
+		this.fault = fault;
+		this.IO = IO;
+		this.base = base;
+		fault.clear();
+		this.left = budget;
+		this.executed = 0;
+		return this.execute(reg.nextInstruction());
+	}
+
+	/**
+	 * Description: returns the number of instructions executed by the last
+	 * call of run, including one that ended it by halting or by reaching the
+	 * end of the process input.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures true
+	 * @return the number of instructions executed
+	 */
+	final int executed() {
+		return this.executed;
+	}
+
+	/**
+	 * Description: executes the program starting at address pc and returns
+	 * the address of the first instruction step refused.
+	 * 
+	 * @requires 0 <= pc < 256
+	 * @alters memory, registers and IO as specified in the Machine
+	 *         Instructions
+	 * @ensures true
+	 * @param pc
+	 *            - address of the first instruction
+	 * @return the address of the next instruction to be interpreted
+	 * @throws IOException
+	 */
+	protected abstract int execute(int pc) throws IOException;
+
+	/**
+	 * Description: counts the instruction at addr and returns false, or
+	 * returns true without counting it if the word at addr is no longer the
+	 * word that was translated or no more instructions may be executed.
+	 * 
+	 * @requires 0 <= addr < 256
+	 * @alters the number of instructions executed
+	 * @ensures memory is unchanged
+	 * @param addr
+	 *            - address of the instruction about to be executed
+	 * @return true iff the translated code must stop before addr
+	 */
+	protected final boolean step(int addr) {
+		if (this.left == 0 || this.mem.rep[addr] != this.translated[addr]) {
+			return true;
+		}
+		this.left--;
+		this.executed++;
+		return false;
+	}
+
+	/**
+	 * Description: executes the instruction at addr with the executor of the
+	 * virtual machine and returns the new program counter. If the instruction
+	 * ends the run (see Status), no more instructions may be executed, so the
+	 * translated code stops at its next step.
+	 * 
+	 * @requires step(addr) returned false
+	 * @alters memory, registers and IO as specified in the Machine
+	 *         Instructions, the fault record of the virtual machine
+	 * @ensures true
+	 * @param addr
+	 *            - address of the instruction
+	 * @return the program counter after the instruction
+	 * @throws IOException
+	 */
+	protected final int interpret(int addr) throws IOException {
+		// addr is an address of memory
+		this.reg.trySetPC(addr);
+		InstructionInfo info = this.mem.fetchLegal(addr);
+		if (info.op == Operation.IO) {
+			// step counted the instruction
+			this.IO.setInstruction(this.base + this.executed);
+		}
+		this.interpreter.execute(info, this.fault);
+		if (this.fault.status().endsRun()) {
+			this.left = 0;
+		}
+		return this.reg.nextInstruction();
+	}
+
+	/**
+	 * Description: LD with X = 0; R[r] = M[s].
+	 */
+	protected final void load(int r, int s) {
+		this.reg.regArr[r] = this.mem.rep[s];
+	}
+
+	/**
+	 * Description: LDI with X = 0; R[r] = s.
+	 */
+	protected final void loadImmediate(int r, int s) {
+		this.reg.regArr[r] = s;
+	}
+
+	/**
+	 * Description: ST with X = 0; M[s] = R[r].
+	 */
+	protected final void store(int r, int s) {
+		this.mem.writeLegal(s, this.reg.regArr[r]);
+	}
+
+	/**
+	 * Description: ADD with X = 0; R[r] = R[r] + M[s].
+	 */
+	protected final void add(int r, int s) {
+		this.reg.regArr[r] = WORD.add(this.reg.regArr[r], this.mem.rep[s]);
+	}
+
+	/**
+	 * Description: SUB with X = 0; R[r] = R[r] - M[s].
+	 */
+	protected final void subtract(int r, int s) {
+		this.reg.regArr[r] = WORD.subtract(this.reg.regArr[r], this.mem.rep[s]);
+	}
+
+	/**
+	 * Description: MUL with X = 0; R[r] = R[r] * M[s].
+	 */
+	protected final void multiply(int r, int s) {
+		this.reg.regArr[r] = WORD.multiply(this.reg.regArr[r], this.mem.rep[s]);
+	}
+
+	/**
+	 * Description: DIV with X = 0; R[r] = R[r] / M[s]. Returns false without
+	 * changing R[r] if M[s] is zero, so the division can be interpreted.
+	 */
+	protected final boolean divide(int r, int s) {
+		int divisor = this.mem.rep[s];
+		if (WORD.isZero(divisor)) {
+			return false;
+		}
+		this.reg.regArr[r] = WORD.divideBy(this.reg.regArr[r], divisor);
+		return true;
+	}
+
+	/**
+	 * Description: OR with X = 0; R[r] = R[r] | M[s].
+	 */
+	protected final void or(int r, int s) {
+		this.reg.regArr[r] = WORD.or(this.reg.regArr[r], this.mem.rep[s]);
+	}
+
+	/**
+	 * Description: AND with X = 0; R[r] = R[r] & M[s].
+	 */
+	protected final void and(int r, int s) {
+		this.reg.regArr[r] = WORD.and(this.reg.regArr[r], this.mem.rep[s]);
+	}
+
+	/**
+	 * Description: SHL with X = 0 and a legal shift amount s.
+	 */
+	protected final void shiftLeft(int r, int s) {
+		this.reg.regArr[r] = WORD.shiftLeft(this.reg.regArr[r], s);
+	}
+
+	/**
+	 * Description: SHR with X = 0 and a legal shift amount s.
+	 */
+	protected final void shiftRight(int r, int s) {
+		this.reg.regArr[r] = WORD.shiftRight(this.reg.regArr[r], s);
+	}
+
+	/**
+	 * Description: returns true iff R[r] is zero, the condition of BRZ.
+	 */
+	protected final boolean isZero(int r) {
+		return WORD.isZero(this.reg.regArr[r]);
+	}
+
+	/**
+	 * Description: returns true iff R[r] is negative, the condition of BRN.
+	 */
+	protected final boolean isNegative(int r) {
+		return !WORD.isPositive(this.reg.regArr[r]);
+	}
+
+	/**
+	 * Description: the register part of BRS; R[r] = next, the address after
+	 * the BRS.
+	 */
+	protected final void storePC(int r, int next) {
+		this.reg.regArr[r] = next;
+	}
+}
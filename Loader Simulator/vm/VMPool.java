@@ -0,0 +1,159 @@
+package vm;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.logging.Logger;
+
+/**
+ * A pool of warm virtual machines for running many short programs one after
+ * another. A batch runner borrows a VirtualMachine for a segment, runs it and
+ * gives it back; a borrowed machine that was given back before is reset (see
+ * VirtualMachine.reset) instead of being built again, so its memory,
+ * registers, IOGroup and executor are reused. A machine may also be borrowed to
+ * continue from a VMSnapshot; a reused machine then only copies the memory
+ * pages that differ from the snapshot. Every machine of a pool has the
+ * same MachineConfig, Engine and Logger. The pool keeps at most capacity idle
+ * machines, and may be used by several threads at once.
+ * 
+ * @author Dragon Slayer
+ */
+public final class VMPool {
+
+	private final MachineConfig config;
+	private final Engine engine;
+	private final Logger log;
+	private final int capacity;
+	private final ArrayDeque<VirtualMachine> idle;
+
+	/**
+	 * Description: creates an empty pool of virtual machines with the geometry
+	 * config that execute with engine and log to log.
+	 * 
+	 * @requires config, engine and log exist, 0 <= capacity
+	 * @alters creates a VMPool
+	 * @ensures the pool has no idle machines
+	 * @param config
+	 *            - geometry of the machines
+	 * @param engine
+	 *            - engine of the machines
+	 * @param log
+	 *            - logger of the machines
+	 * @param capacity
+	 *            - largest number of idle machines kept
+	 */
+	public VMPool(MachineConfig config, Engine engine, Logger log, int capacity) {
+		this.config = config;
+		this.engine = engine;
+		this.log = log;
+		this.capacity = capacity;
+		this.idle = new ArrayDeque<VirtualMachine>(capacity);
+	}
+
+	/**
+	 * Description: returns a virtual machine ready to run seg with input from
+	 * in and output to out. An idle machine is reset for seg if there is
+	 * one, else a new machine is created.
+	 * 
+	 * @requires the machine is given back at most once
+	 * @alters the idle machines of the pool
+	 * @ensures seg is unchanged
+	 * @param seg
+	 *            - segment to be run
+	 * @param in
+	 *            - process input of the run
+	 * @param out
+	 *            - process output of the run
+	 * @return a virtual machine loaded with seg
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             if seg is for another MachineConfig than the pool
+	 */
+	public VirtualMachine borrow(HexWordSegment seg, Reader in,
+			BufferedOutputStream out) throws IOException {
+		if (seg.config != this.config) {
+			throw new IllegalArgumentException();
+		}
+		VirtualMachine vm;
+		synchronized (this.idle) {
+			vm = this.idle.poll();
+		}
+		if (vm == null) {
+			return new VirtualMachine(seg, new IOGroup(in, out), this.log,
+					this.engine);
+		}
+		vm.reset(seg, in, out);
+		return vm;
+	}
+
+	/**
+	 * Description: returns a virtual machine continuing from snap with input
+	 * from in and output to out. An idle machine is restored to snap if there
+	 * is one, else a new machine is made in the state of snap. Either way the
+	 * machine executes with the engine and Logger of the pool.
+	 * 
+	 * @requires the machine is given back at most once
+	 * @alters the idle machines of the pool
+	 * @ensures snap is unchanged
+	 * @param snap
+	 *            - snapshot to continue from
+	 * @param in
+	 *            - process input of the run
+	 * @param out
+	 *            - process output of the run
+	 * @return a virtual machine in the state of snap
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             if snap is for another MachineConfig than the pool
+	 */
+	public VirtualMachine borrow(VMSnapshot snap, Reader in,
+			BufferedOutputStream out) throws IOException {
+		if (snap.config != this.config) {
+			throw new IllegalArgumentException();
+		}
+		VirtualMachine vm;
+		synchronized (this.idle) {
+			vm = this.idle.poll();
+		}
+		if (vm == null) {
+			return new VirtualMachine(snap, new IOGroup(in, out), this.log,
+					this.engine, null);
+		}
+		vm.restore(snap, in, out);
+		return vm;
+	}
+
+	/**
+	 * Description: gives back vm, a machine borrowed from this pool whose run
+	 * has ended, so it can be borrowed again. It is dropped if the pool
+	 * already holds capacity idle machines.
+	 * 
+	 * @requires vm was borrowed from this pool and is not used again
+	 * @alters the idle machines of the pool
+	 * @ensures true
+	 * @param vm
+	 *            - the machine given back
+	 */
+	public void giveBack(VirtualMachine vm) {
+		synchronized (this.idle) {
+			if (this.idle.size() < this.capacity) {
+				this.idle.push(vm);
+			}
+		}
+	}
+
+	/**
+	 * Description: returns the number of idle machines in the pool.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the pool is unchanged
+	 * @return the number of idle machines
+	 */
+	public int idleCount() {
+		synchronized (this.idle) {
+			return this.idle.size();
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package vm;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cooperative scheduler that runs many virtual machines on a fixed number
+ * of threads. Every submitted machine is a Task that runs one quantum of
+ * instructions at a time (see VirtualMachine.runQuantum) and then yields its
+ * thread by going to the back of a single first-in first-out run queue, so
+ * every machine whose run has not ended gets one quantum per round. A
+ * machine therefore never waits for more than the quanta of the machines
+ * ahead of it, however long the others run.
+ * 
+ * Each Task accounts for the instructions, quanta and time of its machine;
+ * the scheduler adds up the instructions and quanta of all of them, and
+ * gives the aggregate throughput in instructions per second since it was
+ * created.
+ * 
+ * @author Dragon Slayer
+ */
+public final class VMScheduler {
+
+	private final ExecutorService threads;
+	private final long quantum;
+	private final long created = System.nanoTime();
+	private final AtomicLong instructions = new AtomicLong();
+	private final AtomicLong quanta = new AtomicLong();
+	// tasks submitted whose run has not ended
+	private int live;
+
+	/**
+	 * Description: creates a scheduler that runs machines on threads threads,
+	 * quantum instructions at a time.
+	 * 
+	 * @requires 0 < threads, 0 < quantum
+	 * @alters starts the threads as machines are submitted
+	 * @ensures no machine is running
+	 * @param threads
+	 *            - number of threads
+	 * @param quantum
+	 *            - number of instructions a machine runs before it yields
+	 */
+	public VMScheduler(int threads, long quantum) {
+		this.threads = Executors.newFixedThreadPool(threads);
+		this.quantum = quantum;
+	}
+
+	/**
+	 * Description: adds vm to the back of the run queue and returns the Task
+	 * that accounts for it. vm runs until its run ends.
+	 * 
+	 * @requires vm has not been run, and is not used by the caller until the
+	 *           task is done
+	 * @alters the run queue
+	 * @ensures vm is run to its end
+	 * @param vm
+	 *            - the virtual machine
+	 * @return the task running vm
+	 */
+	public Task submit(VirtualMachine vm) {
+		synchronized (this) {
+			this.live++;
+		}
+		Task task = new Task(vm);
+		this.threads.execute(task);
+		return task;
+	}
+
+	/**
+	 * Description: waits until the run of every machine submitted has ended.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures every task submitted is done
+	 * @throws InterruptedException
+	 */
+	public void awaitAll() throws InterruptedException {
+		this.awaitLive(0);
+	}
+
+	/**
+	 * Description: waits until the runs of all but at most count of the
+	 * machines submitted have ended, so a caller can bound the number of
+	 * machines (and open files) alive at once.
+	 * 
+	 * @requires 0 <= count
+	 * @alters N/A
+	 * @ensures at most count tasks submitted are not done
+	 * @param count
+	 *            - largest number of machines left running
+	 * @throws InterruptedException
+	 */
+	public synchronized void awaitLive(int count) throws InterruptedException {
+		while (this.live > count) {
+			this.wait();
+		}
+	}
+
+	/**
+	 * Description: stops the threads once the runs of the machines submitted
+	 * have ended; no more machines may be submitted.
+	 * 
+	 * @requires true
+	 * @alters the threads of the scheduler end
+	 * @ensures true
+	 */
+	public void shutdown() {
+		// a task that has not ended holds no thread, so wait for them first
+		try {
+			this.awaitAll();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.threads.shutdown();
+	}
+
+	/**
+	 * Description: returns the number of instructions executed by all
+	 * machines of the scheduler.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the scheduler is unchanged
+	 * @return the total number of instructions executed
+	 */
+	public long getInstructionsExecuted() {
+		return this.instructions.get();
+	}
+
+	/**
+	 * Description: returns the number of quanta run by all machines of the
+	 * scheduler.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the scheduler is unchanged
+	 * @return the total number of quanta
+	 */
+	public long getQuanta() {
+		return this.quanta.get();
+	}
+
+	/**
+	 * Description: returns the number of instructions executed by all
+	 * machines per second since the scheduler was created.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the scheduler is unchanged
+	 * @return the aggregate throughput in instructions per second
+	 */
+	public double getThroughput() {
+		long nanos = Math.max(1, System.nanoTime() - this.created);
+		return this.instructions.get() * 1e9 / nanos;
+	}
+
+	/**
+	 * Description: records that the run of a task has ended.
+	 */
+	private synchronized void ended() {
+		this.live--;
+		this.notifyAll();
+	}
+
+	/**
+	 * A virtual machine submitted to the scheduler together with the
+	 * accounting of its run. The counts may be read from any thread while
+	 * the machine runs.
+	 */
+	public final class Task implements Runnable {
+
+		private final VirtualMachine vm;
+		private final long submitted = System.nanoTime();
+		private volatile long instructions;
+		private volatile long quanta;
+		private volatile long runNanos;
+		private volatile long latencyNanos;
+		private volatile boolean done;
+
+		private Task(VirtualMachine vm) {
+			this.vm = vm;
+		}
+
+		/**
+		 * Description: runs one quantum of the machine and puts the task at
+		 * the back of the run queue unless the run has ended.
+		 * 
+		 * @requires the task is run by one thread at a time
+		 * @alters the machine and the accounting of the task
+		 * @ensures true
+		 */
+		@Override
+		public void run() {
+			boolean more = false;
+			long before = this.vm.getInstructionsExecuted();
+			long start = System.nanoTime();
+			try {
+				more = this.vm.runQuantum(VMScheduler.this.quantum);
+			} finally {
+				long now = System.nanoTime();
+				long executed = this.vm.getInstructionsExecuted() - before;
+				this.instructions += executed;
+				this.quanta++;
+				this.runNanos += now - start;
+				VMScheduler.this.instructions.addAndGet(executed);
+				VMScheduler.this.quanta.incrementAndGet();
+				if (more) {
+					VMScheduler.this.threads.execute(this);
+				} else {
+					this.latencyNanos = now - this.submitted;
+					this.done = true;
+					VMScheduler.this.ended();
+				}
+			}
+		}
+
+		/**
+		 * Description: returns the virtual machine of the task.
+		 * 
+		 * @requires true
+		 * @alters N/A
+		 * @ensures the task is unchanged
+		 * @return the virtual machine
+		 */
+		public VirtualMachine getVM() {
+			return this.vm;
+		}
+
+		/**
+		 * Description: returns the number of instructions the machine has
+		 * executed on the scheduler.
+		 * 
+		 * @requires true
+		 * @alters N/A
+		 * @ensures the task is unchanged
+		 * @return the number of instructions executed
+		 */
+		public long getInstructionsExecuted() {
+			return this.instructions;
+		}
+
+		/**
+		 * Description: returns the number of quanta the machine has run.
+		 * 
+		 * @requires true
+		 * @alters N/A
+		 * @ensures the task is unchanged
+		 * @return the number of quanta
+		 */
+		public long getQuanta() {
+			return this.quanta;
+		}
+
+		/**
+		 * Description: returns the time the machine has spent running, in
+		 * nanoseconds, not counting the time it waited in the run queue.
+		 * 
+		 * @requires true
+		 * @alters N/A
+		 * @ensures the task is unchanged
+		 * @return the running time in nanoseconds
+		 */
+		public long getRunNanos() {
+			return this.runNanos;
+		}
+
+		/**
+		 * Description: returns the time from the submission of the machine to
+		 * the end of its run, in nanoseconds, or 0 while it runs.
+		 * 
+		 * @requires true
+		 * @alters N/A
+		 * @ensures the task is unchanged
+		 * @return the latency of the run in nanoseconds
+		 */
+		public long getLatencyNanos() {
+			return this.latencyNanos;
+		}
+
+		/**
+		 * Description: returns true iff the run of the machine has ended.
+		 * 
+		 * @requires true
+		 * @alters N/A
+		 * @ensures the task is unchanged
+		 * @return true iff the task is done
+		 */
+		public boolean isDone() {
+			return this.done;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package vm;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.logging.Logger;
+
+/**
+ * The state of a VirtualMachine between two instructions: its memory,
+ * registers, program counter, number of instructions executed and instruction
+ * limit, together with the engine, translated program and Logger it runs
+ * with. A snapshot is made by VirtualMachine.snapshot and never changes, so
+ * any number of independent continuations may be forked from it, each with
+ * its own process input and output, at the same time and on different
+ * threads. A continuation executes exactly as the machine would have if it had
+ * read that input from the start. Process output written before the snapshot
+ * is not part of it.
+ * 
+ * Memory is kept as pages (see Memory.snapshot). Snapshots taken one after
+ * another from a machine share the pages it did not write in between, and
+ * restoring a machine to a snapshot only copies the pages it has changed, so a
+ * warm machine (see VMPool) forked many times from one snapshot copies little
+ * more than the words each run writes.
+ * 
+ * @author Dragon Slayer
+ */
+public final class VMSnapshot {
+
+	final MachineConfig config;
+	final Engine engine;
+	final TranslatedProgram program;
+	final Logger log;
+	final int[][] pages;
+	final int[] registers;
+	final int programCounter;
+	final long instructionsExecuted;
+	final long instructionLimit;
+
+	/**
+	 * Description: creates a snapshot with the given state.
+	 */
+	VMSnapshot(MachineConfig config, Engine engine, TranslatedProgram program,
+			Logger log, int[][] pages, int[] registers, int programCounter,
+			long instructionsExecuted, long instructionLimit) {
+		this.config = config;
+		this.engine = engine;
+		this.program = program;
+		this.log = log;
+		this.pages = pages;
+		this.registers = registers;
+		this.programCounter = programCounter;
+		this.instructionsExecuted = instructionsExecuted;
+		this.instructionLimit = instructionLimit;
+	}
+
+	/**
+	 * Description: creates a new virtual machine in the state of the snapshot
+	 * that reads process input from in and writes process output to out.
+	 * It executes with the engine, translated program and Logger of the
+	 * machine the snapshot was taken from.
+	 * 
+	 * @requires in and out exist
+	 * @alters creates a VirtualMachine
+	 * @ensures the snapshot is unchanged
+	 * @param in
+	 *            - process input of the continuation
+	 * @param out
+	 *            - process output of the continuation
+	 * @return a virtual machine continuing from the snapshot
+	 * @throws IOException
+	 */
+	public VirtualMachine fork(Reader in, BufferedOutputStream out)
+			throws IOException {
+		return new VirtualMachine(this, new IOGroup(in, out), this.log,
+				this.engine, this.program);
+	}
+
+	/**
+	 * Description: returns the geometry of the machine the snapshot was taken
+	 * from.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the snapshot is unchanged
+	 * @return the MachineConfig of the snapshot
+	 */
+	public MachineConfig getConfig() {
+		return this.config;
+	}
+
+	/**
+	 * Description: returns the number of instructions executed before the
+	 * snapshot was taken.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the snapshot is unchanged
+	 * @return the number of instructions executed
+	 */
+	public long getInstructionsExecuted() {
+		return this.instructionsExecuted;
+	}
+}
@@ -0,0 +1,248 @@
+package vm;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs every virtual machine given to it on a thread of its own, which is a
+ * virtual thread when the JVM has them (Java 21 and later) and a platform
+ * thread otherwise. A run that blocks for input, for instance on an
+ * InputQueue, then only holds its own virtual thread, not a carrier thread,
+ * so tens of thousands of interactive runs can be alive in one JVM. Unlike a
+ * VMScheduler, the runs are not time-sliced; a run that does not wait for
+ * input keeps its carrier until it ends.
+ * 
+ * Each Run accounts for the instructions and latency of its machine; the
+ * runner adds up the instructions of all of them and gives the aggregate
+ * throughput in instructions per second since it was created.
+ * 
+ * @author Dragon Slayer
+ */
+public final class VMThreadRunner {
+
+	private final ExecutorService threads;
+	private final boolean virtual;
+	private final long created = System.nanoTime();
+	private final AtomicLong instructions = new AtomicLong();
+	// runs started that have not ended
+	private int live;
+
+	/**
+	 * Description: creates a runner that starts a virtual thread for every
+	 * machine if the JVM has virtual threads, and a platform thread
+	 * otherwise.
+	 * 
+	 * @requires true
+	 * @alters creates a VMThreadRunner
+	 * @ensures no machine is running
+	 */
+	public VMThreadRunner() {
+		ExecutorService perTask = null;
+		try {
+			// compiled against Java versions without virtual threads
+			perTask = (ExecutorService) Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			// no virtual threads
+		}
+		this.virtual = perTask != null;
+		this.threads = perTask != null ? perTask : Executors
+				.newCachedThreadPool();
+	}
+
+	/**
+	 * Description: returns true iff the machines run on virtual threads.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the runner is unchanged
+	 * @return true iff the threads are virtual
+	 */
+	public boolean usesVirtualThreads() {
+		return this.virtual;
+	}
+
+	/**
+	 * Description: starts vm.run() on a new thread and returns the Run that
+	 * accounts for it.
+	 * 
+	 * @requires vm has not been run, and is not used by the caller until the
+	 *           run is done
+	 * @alters starts a thread
+	 * @ensures vm is run to its end
+	 * @param vm
+	 *            - the virtual machine
+	 * @return the run of vm
+	 */
+	public Run start(VirtualMachine vm) {
+		synchronized (this) {
+			this.live++;
+		}
+		Run run = new Run(vm);
+		this.threads.execute(run);
+		return run;
+	}
+
+	/**
+	 * Description: waits until every run started has ended.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures every run started is done
+	 * @throws InterruptedException
+	 */
+	public void awaitAll() throws InterruptedException {
+		this.awaitLive(0);
+	}
+
+	/**
+	 * Description: waits until all but at most count of the runs started
+	 * have ended.
+	 * 
+	 * @requires 0 <= count
+	 * @alters N/A
+	 * @ensures at most count runs started are not done
+	 * @param count
+	 *            - largest number of runs left running
+	 * @throws InterruptedException
+	 */
+	public synchronized void awaitLive(int count) throws InterruptedException {
+		while (this.live > count) {
+			this.wait();
+		}
+	}
+
+	/**
+	 * Description: lets the threads of the runner end once the runs started
+	 * have ended; no more machines may be started.
+	 * 
+	 * @requires true
+	 * @alters the threads of the runner end
+	 * @ensures true
+	 */
+	public void shutdown() {
+		this.threads.shutdown();
+	}
+
+	/**
+	 * Description: returns the number of instructions executed by the runs
+	 * that have ended.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the runner is unchanged
+	 * @return the total number of instructions executed
+	 */
+	public long getInstructionsExecuted() {
+		return this.instructions.get();
+	}
+
+	/**
+	 * Description: returns the number of instructions executed by the runs
+	 * that have ended per second since the runner was created.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the runner is unchanged
+	 * @return the aggregate throughput in instructions per second
+	 */
+	public double getThroughput() {
+		long nanos = Math.max(1, System.nanoTime() - this.created);
+		return this.instructions.get() * 1e9 / nanos;
+	}
+
+	/**
+	 * Description: records that a run has ended.
+	 */
+	private synchronized void ended() {
+		this.live--;
+		this.notifyAll();
+	}
+
+	/**
+	 * A virtual machine started by the runner together with the accounting
+	 * of its run.
+	 */
+	public final class Run implements Runnable {
+
+		private final VirtualMachine vm;
+		private final long started = System.nanoTime();
+		private volatile long latencyNanos;
+		private volatile boolean done;
+
+		private Run(VirtualMachine vm) {
+			this.vm = vm;
+		}
+
+		/**
+		 * Description: runs the machine to its end.
+		 * 
+		 * @requires run is called once
+		 * @alters the machine and the accounting of the run
+		 * @ensures the run is done
+		 */
+		@Override
+		public void run() {
+			try {
+				this.vm.run();
+			} finally {
+				this.latencyNanos = System.nanoTime() - this.started;
+				VMThreadRunner.this.instructions.addAndGet(this.vm
+						.getInstructionsExecuted());
+				this.done = true;
+				VMThreadRunner.this.ended();
+			}
+		}
+
+		/**
+		 * Description: returns the virtual machine of the run.
+		 * 
+		 * @requires true
+		 * @alters N/A
+		 * @ensures the run is unchanged
+		 * @return the virtual machine
+		 */
+		public VirtualMachine getVM() {
+			return this.vm;
+		}
+
+		/**
+		 * Description: returns the number of instructions the machine
+		 * executed, once the run is done.
+		 * 
+		 * @requires the run is done
+		 * @alters N/A
+		 * @ensures the run is unchanged
+		 * @return the number of instructions executed
+		 */
+		public long getInstructionsExecuted() {
+			return this.vm.getInstructionsExecuted();
+		}
+
+		/**
+		 * Description: returns the time from the start of the run to its
+		 * end, in nanoseconds, or 0 while it runs.
+		 * 
+		 * @requires true
+		 * @alters N/A
+		 * @ensures the run is unchanged
+		 * @return the latency of the run in nanoseconds
+		 */
+		public long getLatencyNanos() {
+			return this.latencyNanos;
+		}
+
+		/**
+		 * Description: returns true iff the run of the machine has ended.
+		 * 
+		 * @requires true
+		 * @alters N/A
+		 * @ensures the run is unchanged
+		 * @return true iff the run is done
+		 */
+		public boolean isDone() {
+			return this.done;
+		}
+	}
+}
@@ -1,6 +1,10 @@
 package vm;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import utilities.MachineInfo;
@@ -11,20 +15,63 @@ import utilities.MachineInfo;
  * an IOGroup (input and output) and a Logger. It contains methods to run the
  * virtual machine and to execute instructions for the simulator.
  * 
+ * A run executes at most the instruction limit of the virtual machine, which
+ * is MAX_EXECUTABLE_INSTRUCTIONS unless it is set for the run, and may be
+ * UNLIMITED. The run loops do not check the limit for every instruction; they
+ * execute batches of at most BATCH instructions that are known to fit in what
+ * is left of the limit, so the limit is checked once per batch. The first
+ * instruction past the limit ends the run with INSTRUCTION_LIMIT exactly as if
+ * every instruction had been checked.
+ * 
+ * A virtual machine can also write a Checkpoint every so many instructions;
+ * batches are cut short so that a checkpoint is written exactly when a
+ * multiple of that number of instructions has been executed.
+ * 
+ * With a TraceFilter only some instructions are traced; batches are also cut
+ * short at the edges of its windows, so outside them the run loops take the
+ * paths they take without tracing.
+ * 
  * @author Dragon Slayer
  */
 public class VirtualMachine {
+
+	/**
+	 * Instruction limit of a run that is never stopped for the number of
+	 * instructions it executes.
+	 */
+	public static final long UNLIMITED = Long.MAX_VALUE;
+
+	// largest number of instructions executed between checks of the limit
+	private static final int BATCH = 1 << 12;
+
 	private Memory mem;
 	private Registers registers;
-	private int totalInstructionsExecuted;
+	private long totalInstructionsExecuted;
+	private long instructionLimit = MachineInfo.MAX_EXECUTABLE_INSTRUCTIONS;
+	private File checkpointFile;
+	private long checkpointInterval;
+	private long nextCheckpoint = UNLIMITED;
+	private boolean checkpointFailing;
+	// true from the first quantum of a run until the run ends
+	private boolean running;
+	// where the instructions are traced if not as text (see TraceHandler)
+	private TraceHandler traceHandler;
+	private TraceFilter traceFilter;
 	private IOGroup IO;
 	private Logger LOG;
+	private final Engine engine;
+	private final InstructionExecutor executor;
+	private final BlockCompiler compiler;
+	private final TranslatedProgram program;
+	private final FaultRecord fault = new FaultRecord();
 
 	/**
 	 * Description: Creates the virtual machine. Sets the memory of the string
 	 * to the values from seg. The input and output for the machine is set to
 	 * IO. The logger is set to log. The total number of instructions is set to
-	 * 0. The initial value of the Program counter is set.
+	 * 0. The initial value of the Program counter is set. Instructions are
+	 * executed by the SWITCH engine. The memory and registers have the
+	 * geometry seg was read for (seg.config).
 	 * 
 	 * @requires seg, IO, and log exist.
 	 * @alters initializes the memory, registers, IOGroup, Logger, and the total
@@ -40,22 +87,252 @@ public class VirtualMachine {
 	 */
 	public VirtualMachine(HexWordSegment seg, IOGroup IO, Logger log)
 			throws IOException {
-		this.mem = new Memory(seg);
+		this(seg, IO, log, Engine.SWITCH);
+	}
+
+	/**
+	 * Description: Creates the virtual machine the same as
+	 * VirtualMachine(seg, IO, log), with instructions executed by engine. The
+	 * executor of the engine is made once here and used for every instruction
+	 * of the run. With the TIERED engine a BlockCompiler is made for the
+	 * memory as well; with the other engines the instructions in memory are
+	 * fused into superinstructions.
+	 * 
+	 * @requires seg, IO, log and engine exist.
+	 * @alters initializes the memory, registers, IOGroup, Logger, executor and
+	 *         the total number of Instructions.
+	 * @ensures true
+	 * @param seg
+	 *            - segment being placed into memory
+	 * @param IO
+	 *            - input and output for the virtual machine
+	 * @param log
+	 *            - logger for error messages.
+	 * @param engine
+	 *            - engine that executes the instructions
+	 * @throws IOException
+	 */
+	public VirtualMachine(HexWordSegment seg, IOGroup IO, Logger log,
+			Engine engine) throws IOException {
+		this(seg, IO, log, engine, null);
+	}
+
+	/**
+	 * Description: Creates the virtual machine the same as
+	 * VirtualMachine(seg, IO, log) to run program, the translation of seg.
+	 * While no trace is being logged, the instructions are executed by the
+	 * translated code of program; every instruction it leaves to the
+	 * interpreter is executed by the SWITCH engine.
+	 * 
+	 * @requires seg, IO, log and program exist, and seg is
+	 *           program.getSegment(), which is for MachineConfig.DEFAULT.
+	 * @alters initializes the memory, registers, IOGroup, Logger, executor and
+	 *         the total number of Instructions.
+	 * @ensures true
+	 * @param seg
+	 *            - segment being placed into memory
+	 * @param IO
+	 *            - input and output for the virtual machine
+	 * @param log
+	 *            - logger for error messages.
+	 * @param program
+	 *            - translation of seg
+	 * @throws IOException
+	 */
+	public VirtualMachine(HexWordSegment seg, IOGroup IO, Logger log,
+			TranslatedProgram program) throws IOException {
+		this(seg, IO, log, Engine.SWITCH, program);
+	}
+
+	private VirtualMachine(HexWordSegment seg, IOGroup IO, Logger log,
+			Engine engine, TranslatedProgram program) throws IOException {
+		this(seg.config, IO, log, engine, program);
+		this.mem.addMemSegment(seg);
+		this.registers.reset(seg.execStart);
+		if (this.compiler == null && this.program == null) {
+			this.mem.fuseInstructions();
+		}
+	}
+
+	/**
+	 * Description: creates a virtual machine in the state of snap, with input
+	 * and output IO, that logs to log and executes with engine and program
+	 * (see VMSnapshot.fork).
+	 */
+	VirtualMachine(VMSnapshot snap, IOGroup IO, Logger log, Engine engine,
+			TranslatedProgram program) throws IOException {
+		this(snap.config, IO, log, engine, program);
+		this.restoreState(snap);
+		if (this.compiler == null && this.program == null) {
+			this.mem.fuseInstructions();
+		}
+	}
+
+	/**
+	 * Description: creates a virtual machine with empty memory and registers
+	 * of the geometry config.
+	 */
+	private VirtualMachine(MachineConfig config, IOGroup IO, Logger log,
+			Engine engine, TranslatedProgram program) {
+		this.mem = new Memory(config);
 		this.IO = IO;
 		this.LOG = log;
 		this.totalInstructionsExecuted = 0;
-		this.registers = new Registers(seg.execStart);
+		this.registers = new Registers(config, 0);
+		this.engine = engine;
+		this.executor = engine.createExecutor(this.mem, this.registers, IO);
+		this.compiler = engine == Engine.TIERED ? new BlockCompiler(this.mem)
+				: null;
+		this.program = program;
+	}
+
+	/**
+	 * Description: makes the virtual machine ready to run seg with input from
+	 * in and output to out, as if it had just been created for them, without
+	 * allocating a new memory, registers, IOGroup or executor. Memory is
+	 * cleared and seg is loaded into it, the registers are cleared, the
+	 * program counter is the execution start of seg, the total number of
+	 * instructions is 0 and the instruction limit is
+	 * MAX_EXECUTABLE_INSTRUCTIONS again. Compiled blocks and superinstructions
+	 * of the last program are thrown away.
+	 * 
+	 * @requires the last run has ended, and seg is program.getSegment() if
+	 *           the virtual machine runs a translated program.
+	 * @alters memory, registers, IO, the total number of instructions and the
+	 *         instruction limit
+	 * @ensures seg is unchanged
+	 * @param seg
+	 *            - segment being placed into memory
+	 * @param in
+	 *            - process input of the next run
+	 * @param out
+	 *            - process output of the next run
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             if seg is for another MachineConfig
+	 */
+	public void reset(HexWordSegment seg, Reader in, BufferedOutputStream out)
+			throws IOException {
+		if (seg.config != this.mem.getConfig()) {
+			throw new IllegalArgumentException();
+		}
+		this.mem.reset(seg);
+		this.registers.reset(seg.execStart);
+		this.IO.reset(in, out);
+		this.fault.clear();
+		this.totalInstructionsExecuted = 0;
+		this.instructionLimit = MachineInfo.MAX_EXECUTABLE_INSTRUCTIONS;
+		this.alignCheckpoint();
+		if (this.compiler == null && this.program == null) {
+			this.mem.fuseInstructions();
+		}
+	}
+
+	/**
+	 * Description: returns a snapshot of the state of the virtual machine
+	 * that continuations can be forked from (see VMSnapshot). Only the memory
+	 * pages written since the last snapshot or restore are copied.
+	 * 
+	 * @requires the virtual machine is not running; it is between two
+	 *           instructions, for instance after runUntilInput
+	 * @alters the pages memory compares with
+	 * @ensures the state of the virtual machine is unchanged
+	 * @return a snapshot of the virtual machine
+	 */
+	public VMSnapshot snapshot() {
+		return new VMSnapshot(this.mem.getConfig(), this.engine, this.program,
+				this.LOG, this.mem.snapshot(), this.registers.regArr.clone(),
+				this.registers.nextInstruction(),
+				this.totalInstructionsExecuted, this.instructionLimit);
+	}
+
+	/**
+	 * Description: makes the virtual machine continue from snap with input
+	 * from in and output to out, the same as snap.fork(in, out) but reusing
+	 * this virtual machine (see reset). Only the memory pages that differ
+	 * from snap are copied. The engine, translated program and Logger of the
+	 * virtual machine are kept.
+	 * 
+	 * @requires the last run has ended
+	 * @alters memory, registers, IO, the total number of instructions and the
+	 *         instruction limit
+	 * @ensures snap is unchanged
+	 * @param snap
+	 *            - the snapshot to continue from
+	 * @param in
+	 *            - process input of the next run
+	 * @param out
+	 *            - process output of the next run
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             if snap is for another MachineConfig
+	 */
+	public void restore(VMSnapshot snap, Reader in, BufferedOutputStream out)
+			throws IOException {
+		if (snap.config != this.mem.getConfig()) {
+			throw new IllegalArgumentException();
+		}
+		this.restoreState(snap);
+		this.IO.reset(in, out);
+		this.fault.clear();
+	}
+
+	/**
+	 * Description: sets memory, registers, the total number of instructions
+	 * and the instruction limit to those of snap.
+	 */
+	private void restoreState(VMSnapshot snap) {
+		this.mem.restore(snap.pages);
+		this.registers.restore(snap.registers, snap.programCounter);
+		this.totalInstructionsExecuted = snap.instructionsExecuted;
+		this.instructionLimit = snap.instructionLimit;
+		this.alignCheckpoint();
+	}
+
+	/**
+	 * Description: executes instructions one at a time, as executeInstruction
+	 * does, until the instruction at the program counter reads the process
+	 * input (IO with R = 0 or 1), and returns OK; the reading instruction is
+	 * not executed. If an instruction ends the run first (see Status), its
+	 * status is returned and the virtual machine must not be run any further.
+	 * A program that does the same work before reading its input can be run
+	 * this far once and forked from a snapshot for every input.
+	 * 
+	 * @requires the virtual machine is not running
+	 * @alters IO, memory, registers and the total number of instructions
+	 *         executed as executeInstruction does.
+	 * @ensures no more than the instruction limit are executed.
+	 * @return OK, or the status that ended the run
+	 * @throws IOException
+	 */
+	public Status runUntilInput() throws IOException {
+		while (true) {
+			InstructionInfo next = this.mem.fetchLegal(this.registers
+					.nextInstruction());
+			if (next.op == Operation.IO && next.rIndex <= 1) {
+				return Status.OK;
+			}
+			Status status = this.executeInstruction();
+			if (status.endsRun()) {
+				return status;
+			}
+		}
 	}
 
 	/**
 	 * Description: runs the virtual machine. The initial contents of memory,
-	 * and the registers are logged as info. It executes instructions until an
-	 * exception is caught. The exceptions that could be caught are
-	 * maxInstructionsExceededException, HaltException, EOFException and
-	 * IOException. If HaltException is caught, nothing is done. If any of the
-	 * other 3 exceptions are caught an error is sent to the Logger as severe.
-	 * Once execution stops, the final contents of memory and the registers are
-	 * logged as info.
+	 * and the registers are logged as info. It executes instructions until one
+	 * ends with a status that ends the run (see Status) or an IOException is
+	 * caught. For HALT the trace of the halting instruction is logged. For
+	 * INSTRUCTION_LIMIT, END_OF_INPUT and an IOException an error is sent to
+	 * the Logger; a replay that diverges from its InputLog is logged as
+	 * severe. Once execution stops, the final contents of memory and the
+	 * registers are logged as info. The contents and traces are only made
+	 * into strings while the Logger is loggable at FINE, so a run without
+	 * tracing allocates nothing per instruction. If the only handler of the
+	 * Logger that takes fine messages is a TraceHandler, the traces are given
+	 * to it and not made into strings by the virtual machine; it is flushed
+	 * when the run ends, so it has handled every trace of the run.
 	 * 
 	 * @requires true
 	 * @alters: The process output, process trace file, memory, registers, Log,
@@ -65,74 +342,543 @@ public class VirtualMachine {
 	 * @ensures If an error occurs it is sent to the logger.
 	 */
 	public void run() {
-		//execute instruction
-		this.LOG.fine(this.toString());
+		while (this.runQuantum(UNLIMITED)) {
+			// an unlimited quantum only ends with the run
+		}
+	}
+
+	/**
+	 * Description: runs the virtual machine for at most quantum instructions
+	 * and returns true iff its run can go on, so that many machines can take
+	 * turns on a few threads (see VMScheduler). The first call of a run begins
+	 * it the way run does, and the call in which an instruction ends the run,
+	 * or an IOException is caught, ends it the way run does: the errors are
+	 * sent to the Logger, the final contents are logged and the IO is closed.
+	 * The calls together execute the same instructions, and log the same
+	 * trace, as one call of run.
+	 * 
+	 * @requires the virtual machine is not running on another thread, and
+	 *           0 <= quantum
+	 * @alters as run does for the instructions executed
+	 * @ensures at most quantum instructions are executed
+	 * @param quantum
+	 *            - largest number of instructions to execute
+	 * @return true iff the run has not ended
+	 */
+	public boolean runQuantum(long quantum) {
+		boolean tracing = this.LOG.isLoggable(Level.FINE);
+		boolean ended = true;
 		//produce errors
 		try {
-			while (true) {
-				this.executeInstruction();
+			if (!this.running) {
+				this.running = true;
+				//execute instruction
+				if (tracing) {
+					this.LOG.fine(this.toString());
+					this.traceHandler = TraceHandler.attach(this.LOG,
+							this.mem.getConfig());
+				}
+			}
+			Status status = this.runSlice(quantum);
+			if (status == Status.OK) {
+				ended = false;
+			} else if (status == Status.HALT) {
+				Trace trace = this.fault.haltTrace();
+				if (this.tracing(this.totalInstructionsExecuted)
+						&& this.traces(trace.pcBefore, trace.op, trace.rIndex,
+								trace.xIndex)) {
+					this.logTrace(trace, this.totalInstructionsExecuted);
+				}
+			} else if (status == Status.END_OF_INPUT) {
+				this.LOG.fine("Fatal IO error: end of IO file reached");
+				this.writeQuietly("Maximum number of instructions exceeded.");
+			} else {
+				this.LOG.fine("Maximum number of instructions exceeded.");
+				this.writeQuietly("Maximum number of instructions exceeded.");
+			}
+		} catch (ReplayDivergedException e) {
+			this.LOG.severe("028: Replay diverged; " + e.getMessage() + ".");
+			this.writeQuietly("Maximum number of instructions exceeded.");
+		} catch (IOException e) {
+			this.LOG.fine("Fatal IO error.");
+			this.writeQuietly("Maximum number of instructions exceeded.");
+		} finally {
+			if (ended) {
+				this.running = false;
+				if (tracing) {
+					this.LOG.fine(this.toString());
+					if (this.traceHandler != null) {
+						this.traceHandler.flush();
+					}
+				}
+				IO.cleanUp();
+			}
+		}
+		return !ended;
+	}
+
+	/**
+	 * Description: executes at most count more instructions the same way run
+	 * does, but without logging the contents of memory and the registers or
+	 * closing the IO, so the virtual machine can be run further by another
+	 * call. Returns OK if count instructions were executed without ending the
+	 * run, and otherwise the status that ended it (see Status), after which
+	 * the virtual machine must not be run any further. As for
+	 * executeInstruction, the instruction limit only ends the run when an
+	 * instruction past it would be executed.
+	 * 
+	 * @requires 0 <= count, the virtual machine is not running
+	 * @alters IO, memory, registers and the total number of instructions
+	 *         executed as executeInstruction does.
+	 * @ensures no more than count instructions, and no more than the
+	 *          instruction limit, are executed.
+	 * @param count
+	 *            - largest number of instructions to execute
+	 * @return OK, or the status that ended the run
+	 * @throws IOException
+	 */
+	public Status runSlice(long count) throws IOException {
+		long limit = this.instructionLimit;
+		long start = this.totalInstructionsExecuted;
+		if (count < limit - start) {
+			// the run loops stop at the limit
+			this.instructionLimit = start + count;
+		}
+		Status status;
+		try {
+			status = this.runEngine();
+		} finally {
+			this.instructionLimit = limit;
+		}
+		// the limit only ends the run at the instruction after the slice
+		if (status == Status.INSTRUCTION_LIMIT
+				&& this.totalInstructionsExecuted - start == count) {
+			this.fault.clear();
+			return Status.OK;
+		}
+		return status;
+	}
+
+	/**
+	 * Description: executes instructions with the run loop of the engine of
+	 * the virtual machine until one ends the run, and returns its status.
+	 */
+	private Status runEngine() throws IOException {
+		if (this.program != null) {
+			return this.runTranslated();
+		} else if (this.compiler != null) {
+			return this.runTiered();
+		}
+		return this.runFused();
+	}
+
+	/**
+	 * Description: writes message to the process output, ignoring any error
+	 * in doing so.
+	 * 
+	 * @requires true
+	 * @alters the process output
+	 * @ensures true
+	 * @param message
+	 *            - message to be written
+	 */
+	private void writeQuietly(String message) {
+		try {
+			IO.write(message);
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Description: sets the largest number of instructions a run may execute.
+	 * The limit of a new virtual machine is MAX_EXECUTABLE_INSTRUCTIONS.
+	 * 
+	 * @requires 0 <= limit
+	 * @alters the instruction limit
+	 * @ensures the next run stops with INSTRUCTION_LIMIT after limit
+	 *          instructions, or never for UNLIMITED.
+	 * @param limit
+	 *            - number of instructions, or UNLIMITED
+	 */
+	public void setInstructionLimit(long limit) {
+		this.instructionLimit = limit;
+	}
+
+	/**
+	 * Description: makes every run write a Checkpoint to file whenever the
+	 * total number of instructions executed reaches a multiple of interval.
+	 * Output written before a checkpoint is flushed first. If a checkpoint
+	 * cannot be written, an error is logged as severe and the run goes on.
+	 * 
+	 * @requires 0 < interval
+	 * @alters the checkpoints of the virtual machine
+	 * @ensures a checkpoint is written to file every interval instructions
+	 * @param file
+	 *            - the checkpoint file
+	 * @param interval
+	 *            - number of instructions between checkpoints
+	 */
+	public void setCheckpoint(File file, long interval) {
+		this.checkpointFile = file;
+		this.checkpointInterval = interval;
+		this.alignCheckpoint();
+	}
+
+	/**
+	 * Description: sets the next checkpoint to the first multiple of the
+	 * checkpoint interval after the total number of instructions executed.
+	 */
+	private void alignCheckpoint() {
+		if (this.checkpointFile != null) {
+			this.nextCheckpoint = (this.totalInstructionsExecuted
+					/ this.checkpointInterval + 1)
+					* this.checkpointInterval;
+		}
+	}
+
+	/**
+	 * Description: returns the number of instructions executed, counting one
+	 * that ended the run by halting or by reaching the end of the process
+	 * input.
+	 * 
+	 * @requires true
+	 * @alters N/A
+	 * @ensures the virtual machine is unchanged
+	 * @return the total number of instructions executed
+	 */
+	public long getInstructionsExecuted() {
+		return this.totalInstructionsExecuted;
+	}
+
+	/**
+	 * Description: returns the number of bytes of process output written.
+	 */
+	long outputLength() {
+		return this.IO.outputLength();
+	}
+
+	/**
+	 * Description: sends every byte of process output written so far to the
+	 * output stream.
+	 */
+	void flushOutput() throws IOException {
+		this.IO.flush();
+	}
+
+	/**
+	 * Description: returns the number of instructions the next batch may
+	 * execute, which is 0 once the instruction limit has been reached. A
+	 * checkpoint that is due is written first, and a batch ends at the next
+	 * checkpoint.
+	 */
+	private int nextBatch() {
+		// executeInstruction may have gone past a checkpoint
+		if (this.totalInstructionsExecuted >= this.nextCheckpoint) {
+			this.writeCheckpoint();
+		}
+		long batch = Math.min(Math.min(this.instructionLimit,
+				this.nextCheckpoint) - this.totalInstructionsExecuted, BATCH);
+		if (this.traceFilter != null && this.LOG.isLoggable(Level.FINE)) {
+			// a batch is all in a window or all outside them
+			batch = Math.min(batch, this.traceFilter
+					.runLength(this.totalInstructionsExecuted + 1));
+		}
+		return (int) batch;
+	}
+
+	/**
+	 * Description: makes every run trace only the instructions filter traces,
+	 * or every instruction if filter is null.
+	 * 
+	 * @requires true
+	 * @alters the trace filter
+	 * @ensures the trace of a run holds the instructions filter traces
+	 * @param filter
+	 *            - the instructions to trace, or null
+	 */
+	public void setTraceFilter(TraceFilter filter) {
+		this.traceFilter = filter;
+	}
+
+	/**
+	 * Description: returns true iff instruction number may be traced: LOG is
+	 * loggable at FINE and the number is in a window of the trace filter.
+	 */
+	private boolean tracing(long number) {
+		return this.LOG.isLoggable(Level.FINE)
+				&& (this.traceFilter == null || this.traceFilter
+						.inWindow(number));
+	}
+
+	/**
+	 * Description: returns true iff the trace filter traces an instruction of
+	 * op with the given R and X at address pc.
+	 */
+	private boolean traces(int pc, Operation op, int rIndex, int xIndex) {
+		return this.traceFilter == null
+				|| this.traceFilter.traces(pc, op, rIndex, xIndex);
+	}
+
+	/**
+	 * Description: writes the state of the virtual machine to the checkpoint
+	 * file and moves on to the next checkpoint.
+	 */
+	private void writeCheckpoint() {
+		this.alignCheckpoint();
+		try {
+			this.IO.flush();
+			Checkpoint.write(this.checkpointFile, this.snapshot(),
+					this.IO.inputOffset(), this.IO.outputLength());
+			this.checkpointFailing = false;
+		} catch (IOException e) {
+			// only the first of a run of failures is logged
+			if (!this.checkpointFailing) {
+				this.LOG.severe("026: Checkpoint " + this.checkpointFile
+						+ " could not be written; " + e.getMessage() + ".");
 			}
-		} catch (MaxInstructionsExceededException e) {
-			this.LOG.fine("Maximum number of instructions exceeded.");
+			this.checkpointFailing = true;
+		}
+	}
+
+	/**
+	 * Description: records that the next instruction would go past the
+	 * instruction limit and returns INSTRUCTION_LIMIT.
+	 */
+	private Status instructionLimitReached() {
+		this.fault.set(Status.INSTRUCTION_LIMIT);
+		return Status.INSTRUCTION_LIMIT;
+	}
+
+	/**
+	 * Description: executes instructions for the TIERED engine. Whenever the
+	 * program counter arrives at an address by a branch (or leaves a compiled
+	 * block) and no trace is being logged, the BlockCompiler is given the
+	 * chance to run a compiled block from there within the instructions left
+	 * in the batch; otherwise one instruction is executed by step. Returns the
+	 * status that ended the run.
+	 * 
+	 * @requires compiler exists
+	 * @alters IO, memory, registers and the total number of instructions
+	 *         executed as executeInstruction does.
+	 * @ensures no more than the instruction limit are executed.
+	 * @return the status that ended the run
+	 * @throws IOException
+	 */
+	private Status runTiered() throws IOException {
+		boolean blockStart = true;
+		while (true) {
+			int batch = this.nextBatch();
+			if (batch == 0) {
+				return this.instructionLimitReached();
+			}
+			boolean tracing = this.tracing(this.totalInstructionsExecuted + 1);
+			int done = 0;
 			try {
-				IO.write("Maximum number of instructions exceeded.");
-			} catch (IOException e1) {
+				while (done < batch) {
+					if (blockStart && !tracing) {
+						int executed = this.compiler.execute(this.registers,
+								batch - done);
+						if (executed > 0) {
+							done += executed;
+							continue;
+						}
+					}
+					int pc = this.registers.nextInstruction();
+					done++;
+					Status status = this.step(tracing,
+							this.totalInstructionsExecuted + done);
+					if (status.endsRun()) {
+						return status;
+					}
+					blockStart = this.registers.nextInstruction() != this.mem
+							.getConfig().address.increment(pc);
+				}
+			} finally {
+				this.totalInstructionsExecuted += done;
 			}
-		} catch (HaltException e) {
-			LOG.fine(e.getTrace());
-		} catch (EOFException e) {
-			this.LOG.fine("Fatal IO error: end of IO file reached");
+		}
+	}
+
+	/**
+	 * Description: executes instructions for a translated program. While no
+	 * trace is being logged, the translated code runs from the program counter
+	 * within the instructions left in the batch and the program counter is set
+	 * to the instruction it stopped at; that instruction (or every
+	 * instruction, while a trace is being logged) is executed by step. Returns
+	 * the status that ended the run.
+	 * 
+	 * @requires program exists
+	 * @alters IO, memory, registers and the total number of instructions
+	 *         executed as executeInstruction does.
+	 * @ensures no more than the instruction limit are executed.
+	 * @return the status that ended the run
+	 * @throws IOException
+	 */
+	private Status runTranslated() throws IOException {
+		while (true) {
+			int batch = this.nextBatch();
+			if (batch == 0) {
+				return this.instructionLimitReached();
+			}
+			boolean tracing = this.tracing(this.totalInstructionsExecuted + 1);
+			int done = 0;
 			try {
-				IO.write("Maximum number of instructions exceeded.");
-			} catch (IOException e1) {
+				while (done < batch) {
+					if (!tracing) {
+						int pc;
+						try {
+							pc = this.program.run(this.mem, this.registers,
+									this.executor, this.fault, batch - done,
+									this.IO, this.totalInstructionsExecuted
+											+ done);
+						} finally {
+							done += this.program.executed();
+						}
+						if (this.fault.status().endsRun()) {
+							return this.fault.status();
+						}
+						// the translated code only returns addresses of memory
+						this.registers.trySetPC(pc);
+						if (done == batch) {
+							break;
+						}
+					}
+					done++;
+					Status status = this.step(tracing,
+							this.totalInstructionsExecuted + done);
+					if (status.endsRun()) {
+						return status;
+					}
+				}
+			} finally {
+				this.totalInstructionsExecuted += done;
 			}
-		} catch (IOException e) {
-			this.LOG.fine("Fatal IO error.");
+		}
+	}
+
+	/**
+	 * Description: executes instructions for the SWITCH and DISPATCH engines.
+	 * While no trace is being logged, a superinstruction starting at the
+	 * program counter is executed whole as long as all of its instructions fit
+	 * in the instructions left in the batch; otherwise one instruction is
+	 * executed by step, which traces it. Returns the status that ended the
+	 * run.
+	 * 
+	 * @requires true
+	 * @alters IO, memory, registers and the total number of instructions
+	 *         executed as executeInstruction does.
+	 * @ensures no more than the instruction limit are executed.
+	 * @return the status that ended the run
+	 * @throws IOException
+	 */
+	private Status runFused() throws IOException {
+		while (true) {
+			int batch = this.nextBatch();
+			if (batch == 0) {
+				return this.instructionLimitReached();
+			}
+			boolean tracing = this.tracing(this.totalInstructionsExecuted + 1);
+			int done = 0;
 			try {
-				IO.write("Maximum number of instructions exceeded.");
-			} catch (IOException e1) {
+				while (done < batch) {
+					if (!tracing && batch - done >= Superinstruction.LENGTH) {
+						Superinstruction fused = this.mem
+								.fusedAt(this.registers.nextInstruction());
+						if (fused != null) {
+							fused.execute(this.registers, this.mem);
+							done += Superinstruction.LENGTH;
+							continue;
+						}
+					}
+					done++;
+					Status status = this.step(tracing,
+							this.totalInstructionsExecuted + done);
+					if (status.endsRun()) {
+						return status;
+					}
+				}
+			} finally {
+				this.totalInstructionsExecuted += done;
 			}
-		} finally {
-			this.LOG.fine(this.toString());
-			IO.cleanUp();
 		}
 	}
 
 	/**
-	 * Description: If the total number of instructions executed equals the
-	 * MAX_EXECUTABLE_INSTRUCTIONS then a MaxInstructtionsExceededException is
-	 * thrown. Else, the program counter is incremented and the Word at the next
-	 * address is executed. For each instruction a new Trace of the effected
-	 * memory and registers is created and the trace is logged as fine.
+	 * Description: If the instruction limit has been reached then
+	 * INSTRUCTION_LIMIT is returned. Else, the instruction at the program
+	 * counter is counted and executed by step.
 	 * 
 	 * @requires true
 	 * @alters IO, memory, registers based on the instruction being executed.
 	 *         (See Machine Instructions) Log is updated with a new trace for
 	 *         the instruction.
 	 * @ensures The rest of the memory and registers are unchanged.
-	 * @throws HaltException
+	 * @return the status of the instruction
 	 * @throws IOException
-	 * @throws MaxInstructionsExceededException
-	 * @throws EOFException
 	 */
-	public void executeInstruction() throws HaltException, IOException,
-			MaxInstructionsExceededException, EOFException {
+	public Status executeInstruction() throws IOException {
+		if (this.totalInstructionsExecuted >= this.instructionLimit) {
+			return this.instructionLimitReached();
+		}
 		this.totalInstructionsExecuted++;
-		if (this.totalInstructionsExecuted > MachineInfo.MAX_EXECUTABLE_INSTRUCTIONS) {
-			throw new MaxInstructionsExceededException();
+		return this.step(this.tracing(this.totalInstructionsExecuted),
+				this.totalInstructionsExecuted);
+	}
+
+	/**
+	 * Description: executes the instruction at the program counter without
+	 * counting it. The decoded instruction comes from the decode cache in
+	 * Memory, so a word is only decoded the first time it is fetched. It is
+	 * executed by the executor of the virtual machine's engine, which reports
+	 * the status of the instruction in the virtual machine's FaultRecord. The
+	 * executor records the effected memory and registers in its Trace and,
+	 * while tracing, if the trace filter traces the instruction and unless it
+	 * halted or ran out of input, the trace is logged as fine. The filter is
+	 * checked before the instruction is executed. Without tracing nothing is
+	 * allocated. An IO instruction reads its input as instruction number (see
+	 * InputLog).
+	 * 
+	 * @requires tracing iff tracing(number)
+	 * @alters IO, memory, registers based on the instruction being executed.
+	 *         (See Machine Instructions) Log is updated with a new trace for
+	 *         the instruction.
+	 * @ensures The rest of the memory and registers are unchanged.
+	 * @param tracing
+	 *            - true iff the trace may be logged
+	 * @param number
+	 *            - number of the instruction in the run, counting from 1
+	 * @return the status of the instruction
+	 * @throws IOException
+	 */
+	private Status step(boolean tracing, long number) throws IOException {
+		// the program counter is always an address of memory
+		int pc = this.registers.nextInstruction();
+		InstructionInfo opInfo = this.mem.fetchLegal(pc);
+		if (opInfo.op == Operation.IO) {
+			this.IO.setInstruction(number);
 		}
-		int nextInst = this.registers.nextInstruction();
-		BitField instWord = null;
-		try {
-			instWord = this.mem.getWordAtAddr(nextInst);
-		} catch (IllegalMemoryAddressException e) {
-			// No exception should occur here
+		// decided before the instruction changes the registers
+		boolean traced = tracing
+				&& this.traces(pc, opInfo.op, opInfo.rIndex, opInfo.xIndex);
+		Trace trace = this.executor.execute(opInfo, this.fault);
+		Status status = this.fault.status();
+		if (traced && status != Status.HALT && status != Status.END_OF_INPUT) {
+			this.logTrace(trace, number);
+		}
+		return status;
+	}
+
+	/**
+	 * Description: logs trace as fine, or gives it to the TraceHandler of the
+	 * Logger without making it a string if the run traces to one. number is
+	 * the number of the instruction in the run.
+	 */
+	private void logTrace(Trace trace, long number) throws IOException {
+		if (this.traceHandler != null) {
+			this.traceHandler.write(trace, number);
+		} else {
+			this.LOG.fine(trace.toString());
 		}
-		InstructionInfo opInfo = InstructionInfo.decodeInstruction(instWord);
-		Executioner headsman = new Executioner(this.mem, this.registers,
-				this.IO);
-		Trace trace = headsman.execute(opInfo);
-		this.LOG.fine(trace.toString());
 	}
 
 	/*
@@ -147,16 +893,4 @@ public class VirtualMachine {
 				+ "\n";
 	}
 
-	/**
-	 * Extends Exception and is thrown if the maximum number of instructions
-	 * (200) is exceeded.
-	 * 
-	 * @author Dragon Slayer
-	 */
-	private class MaxInstructionsExceededException extends Exception {
-
-		private static final long serialVersionUID = -1879760799869265571L;
-
-	}
-
 }